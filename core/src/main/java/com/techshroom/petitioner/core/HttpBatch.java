@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * A batch of requests being executed with bounded concurrency, started by
+ * {@link HttpClient#executeBatch(Iterable, int, Listener)}.
+ *
+ * <p>
+ * Requests are pulled from their source only as slots free up, so a batch holds at most its maximum
+ * concurrency worth of requests and responses at once, no matter how many requests the source has.
+ * </p>
+ */
+public interface HttpBatch {
+    /**
+     * Receives the results of a batch.
+     */
+    @FunctionalInterface
+    interface Listener {
+        /**
+         * Called as each request completes. Calls are not concurrent with each other, but may happen on
+         * any thread. The slot for the request is freed once this returns.
+         *
+         * <p>
+         * The listener owns the response, and must close its body. If this throws, the batch is cancelled
+         * and completes with the exception.
+         * </p>
+         *
+         * @param result the result of the request
+         */
+        void onResult(Result result);
+    }
+
+    /**
+     * The outcome of one request in a batch. Exactly one of {@link #response()} and {@link #error()} is
+     * present.
+     *
+     * @param request the request
+     * @param response the response, if it was received
+     * @param error the error, if the request failed
+     * @param latency the time from starting the request until its response head was received, or it failed
+     */
+    record Result(
+        HttpRequest request,
+        @Nullable HttpResponse response,
+        @Nullable Throwable error,
+        Duration latency
+    ) {
+        public Result {
+            Objects.requireNonNull(request, "request");
+            Objects.requireNonNull(latency, "latency");
+            if ((response == null) == (error == null)) {
+                throw new IllegalArgumentException("Exactly one of response and error must be present");
+            }
+        }
+    }
+
+    /**
+     * Stop starting new requests, and cancel the requests that are already in flight. Their results are not
+     * delivered, and any response that arrives anyway has its body closed.
+     */
+    void cancel();
+
+    /**
+     * {@return if {@link #cancel()} was called, or the batch was cancelled by a failure}
+     */
+    boolean isCancelled();
+
+    /**
+     * {@return the statistics of the batch so far}
+     */
+    HttpBatchStats stats();
+
+    /**
+     * {@return the stage that completes with the final statistics once every started request has
+     * finished} It fails if the request source or the listener threw.
+     */
+    CompletionStage<HttpBatchStats> completion();
+}
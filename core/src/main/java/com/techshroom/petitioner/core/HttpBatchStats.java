@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core;
+
+import java.time.Duration;
+
+/**
+ * Aggregate statistics for an {@link HttpBatch}.
+ *
+ * @param started the number of requests started
+ * @param succeeded the number of requests that received a response
+ * @param failed the number of requests that failed
+ * @param discarded the number of requests that finished after the batch was cancelled
+ * @param elapsed the time since the batch started, or until it completed
+ * @param minLatency the smallest latency of a finished request, zero if none have finished
+ * @param maxLatency the largest latency of a finished request, zero if none have finished
+ * @param totalLatency the sum of the latencies of all finished requests
+ */
+public record HttpBatchStats(
+    long started,
+    long succeeded,
+    long failed,
+    long discarded,
+    Duration elapsed,
+    Duration minLatency,
+    Duration maxLatency,
+    Duration totalLatency
+) {
+    /**
+     * {@return the number of requests that have finished, in any way}
+     */
+    public long finished() {
+        return succeeded + failed + discarded;
+    }
+
+    /**
+     * {@return the number of requests that have started but not finished}
+     */
+    public long inFlight() {
+        return started - finished();
+    }
+
+    /**
+     * {@return the mean latency of the finished requests, zero if none have finished}
+     */
+    public Duration meanLatency() {
+        long finished = finished();
+        return finished == 0 ? Duration.ZERO : totalLatency.dividedBy(finished);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core;
+
+/**
+ * Bounds for the size of packets read from and written to connections.
+ *
+ * <p>
+ * Each connection starts reading with {@link #initial()} bytes at a time. Reads that fill the
+ * buffer double the size, up to {@link #maximum()}, and repeated reads that use half of it or less
+ * halve the size, down to {@link #minimum()}. Once the {@code Content-Length} of a response is known,
+ * the next read is sized to fit the rest of the body, within the same bounds.
+ * </p>
+ *
+ * <p>
+ * In-memory request bodies are written in packets of at most {@link #maximum()} bytes.
+ * </p>
+ *
+ * @param minimum the smallest read size
+ * @param initial the read size for the response head
+ * @param maximum the largest read size, and the largest request body packet
+ */
+public record HttpBufferSizing(
+    int minimum,
+    int initial,
+    int maximum
+) {
+    private static final HttpBufferSizing DEFAULTS = new HttpBufferSizing(
+        1024, 4096, 65536
+    );
+
+    /**
+     * {@return the default sizing}
+     */
+    public static HttpBufferSizing defaults() {
+        return DEFAULTS;
+    }
+
+    public HttpBufferSizing {
+        if (minimum <= 0) {
+            throw new IllegalArgumentException("minimum must be positive");
+        }
+        if (initial < minimum || initial > maximum) {
+            throw new IllegalArgumentException("initial must be between minimum and maximum");
+        }
+    }
+
+    /**
+     * {@return the given size, clamped to the bounds}
+     *
+     * @param size the size to clamp
+     */
+    public int clamp(long size) {
+        return (int) Math.max(minimum, Math.min(maximum, size));
+    }
+}
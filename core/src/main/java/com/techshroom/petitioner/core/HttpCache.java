@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core;
+
+import com.techshroom.petitioner.core.internal.cache.DiskCacheStore;
+import com.techshroom.petitioner.core.internal.cache.MemoryCacheStore;
+import com.techshroom.petitioner.core.internal.cache.ResponseCache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Stores responses to {@link HttpMethod#GET GET} requests, and serves them again while they're fresh,
+ * following RFC 9111 for a private cache.
+ *
+ * <p>
+ * Responses are stored as the caller reads their bodies, once the whole body is read. {@code Cache-Control}
+ * ({@code no-store}, {@code no-cache} and {@code max-age}), {@code Expires} and {@code Vary} are respected,
+ * and responses with a {@code Last-Modified} date get a heuristic lifetime of a tenth of their age, up to
+ * a day. A stale response with an {@code ETag} or {@code Last-Modified} date is revalidated with a
+ * conditional request, and served again if the server answers {@code 304 Not Modified}. A successful
+ * unsafe request, such as a {@code POST}, drops the stored response for its URI.
+ * </p>
+ *
+ * <p>
+ * Responses served from the cache complete on the calling thread, and carry an {@code Age} header. Give the
+ * same cache to several clients to share it between them, with
+ * {@link HttpClient.Builder#cache(HttpCache)}. Clients don't close the cache, close it once they're done.
+ * </p>
+ */
+public final class HttpCache implements Closeable {
+    /**
+     * {@return a new cache that keeps responses on the heap, evicting the least recently used}
+     *
+     * @param maxBytes the most bytes to keep, roughly, counting bodies and headers
+     */
+    public static HttpCache inMemory(long maxBytes) {
+        return new HttpCache(new ResponseCache(new MemoryCacheStore(maxBytes)));
+    }
+
+    /**
+     * Open a cache that keeps responses in files in a directory, so they survive restarts and stay off the
+     * heap. Responses already in the directory are recovered, dropping any that were only partly written. A
+     * recovered response misses the first time it's asked for, while its body is checked in the background.
+     *
+     * <p>
+     * Files are appended to, and the oldest file is deleted when they hold more than the size bound, even if
+     * some of its responses were used recently. Bodies of responses served from this cache are mapped from
+     * their file, rather than read into the heap. Only one cache may use a directory at a time.
+     * </p>
+     *
+     * @param directory the directory to keep responses in, created if needed
+     * @param maxBytes the most bytes to keep in the directory, roughly
+     * @return the cache
+     * @throws IOException if the directory can't be read or written, or another cache is using it
+     */
+    public static HttpCache onDisk(Path directory, long maxBytes) throws IOException {
+        return new HttpCache(new ResponseCache(DiskCacheStore.open(directory, maxBytes)));
+    }
+
+    private final ResponseCache engine;
+
+    private HttpCache(ResponseCache engine) {
+        this.engine = engine;
+    }
+
+    ResponseCache engine() {
+        return engine;
+    }
+
+    /**
+     * {@return the statistics of the cache so far}
+     */
+    public HttpCacheStats stats() {
+        return engine.stats();
+    }
+
+    /**
+     * Close the cache, releasing its files. Responses already served stay readable.
+     *
+     * @throws IOException if the files can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        engine.close();
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core;
+
+/**
+ * Statistics of an {@link HttpCache}.
+ *
+ * @param hits the number of requests served from the cache without contacting the server
+ * @param misses the number of requests the cache couldn't serve, including failed revalidations
+ * @param revalidations the number of requests served from the cache after the server confirmed the stored
+ *     response with {@code 304 Not Modified}
+ * @param evictions the number of responses evicted to make room for others
+ * @param entryCount the number of responses stored
+ * @param sizeBytes the approximate number of bytes the stored responses take up
+ */
+public record HttpCacheStats(
+    long hits,
+    long misses,
+    long revalidations,
+    long evictions,
+    long entryCount,
+    long sizeBytes
+) {
+    /**
+     * {@return the fraction of lookups served from the cache, with or without revalidating} Zero if there
+     * were none.
+     */
+    public double hitRate() {
+        long served = hits + revalidations;
+        long lookups = served + misses;
+        return lookups == 0 ? 0 : (double) served / lookups;
+    }
+}
@@ -18,10 +18,21 @@
 
 package com.techshroom.petitioner.core;
 
+import com.techshroom.petitioner.core.internal.BatchExecution;
+import com.techshroom.petitioner.core.internal.BatchPublisher;
 import com.techshroom.petitioner.core.internal.Constants;
+import com.techshroom.petitioner.core.internal.buffer.BufferPool;
+import com.techshroom.petitioner.core.internal.client.CachingHttpClient;
+import com.techshroom.petitioner.core.internal.client.CoalescingHttpClient;
+import com.techshroom.petitioner.core.internal.client.HedgingHttpClient;
+import com.techshroom.petitioner.core.internal.client.LimitingHttpClient;
+import com.techshroom.petitioner.core.internal.client.RetryingHttpClient;
+import com.techshroom.petitioner.core.internal.client.SchedulingHttpClient;
 import com.techshroom.petitioner.core.internal.codec.HttpCodec;
+import com.techshroom.petitioner.core.internal.select.Completables;
 import com.techshroom.petitioner.core.socket.AsyncIoHttpClient;
 import com.techshroom.petitioner.core.socket.DefaultUriConnector;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.io.Closeable;
 import java.io.IOException;
@@ -29,6 +40,8 @@ import java.io.UncheckedIOException;
 import java.nio.channels.AsynchronousChannelGroup;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.stream.Stream;
 
 /**
  * Represents an HTTP client.
@@ -38,6 +51,17 @@ public interface HttpClient extends Closeable {
     final class Builder {
         private ExecutorService executor = Constants.DEFAULT_WORK_EXECUTOR;
         private HttpVersion version = HttpVersion.VERSION_1_1;
+        private HttpHeadLimits headLimits = HttpHeadLimits.defaults();
+        private HttpBufferSizing bufferSizing = HttpBufferSizing.defaults();
+        private boolean zeroCopyReads;
+        private @Nullable HttpHedgePolicy hedgePolicy;
+        private @Nullable HttpRetryPolicy retryPolicy;
+        private @Nullable HttpConcurrencyLimiter concurrencyLimiter;
+        private @Nullable HttpRequestScheduler scheduler;
+        private @Nullable HttpCoalescingPolicy coalescingPolicy;
+        private @Nullable HttpCache cache;
+        private @Nullable HttpEventListener eventListener;
+        private @Nullable HttpClientMetrics metrics;
 
         private Builder() {
         }
@@ -52,6 +76,164 @@ public interface HttpClient extends Closeable {
             return this;
         }
 
+        /**
+         * Set the limits applied when reading response heads. Responses that exceed them will fail with
+         * {@link HttpHeadLimitExceededException}.
+         *
+         * @param headLimits the limits to apply
+         * @return this builder
+         */
+        public Builder headLimits(HttpHeadLimits headLimits) {
+            this.headLimits = headLimits;
+            return this;
+        }
+
+        /**
+         * Set the bounds for the size of packets read from and written to connections.
+         *
+         * @param bufferSizing the bounds to use
+         * @return this builder
+         */
+        public Builder bufferSizing(HttpBufferSizing bufferSizing) {
+            this.bufferSizing = bufferSizing;
+            return this;
+        }
+
+        /**
+         * Set whether response packets are slices of pooled buffers, rather than copies of them.
+         *
+         * <p>
+         * Zero-copy reads avoid copying every packet, but the pooled memory is only reused once every
+         * packet sliced from it is given back with {@link com.techshroom.petitioner.core.io.ReadSession#release(
+         * java.nio.ByteBuffer) ReadSession.release}. Packets that are never released are left to the garbage
+         * collector, along with the rest of their buffer. Off by default.
+         * </p>
+         *
+         * @param zeroCopyReads {@code true} to slice response packets from pooled buffers
+         * @return this builder
+         */
+        public Builder zeroCopyReads(boolean zeroCopyReads) {
+            this.zeroCopyReads = zeroCopyReads;
+            return this;
+        }
+
+        /**
+         * Set the policy for hedging requests with safe methods, or {@code null} to never hedge. Off by
+         * default.
+         *
+         * @param hedgePolicy the policy to use
+         * @return this builder
+         */
+        public Builder hedging(@Nullable HttpHedgePolicy hedgePolicy) {
+            this.hedgePolicy = hedgePolicy;
+            return this;
+        }
+
+        /**
+         * Set the policy for retrying failed requests, or {@code null} to never retry. Off by default.
+         *
+         * @param retryPolicy the policy to use
+         * @return this builder
+         */
+        public Builder retries(@Nullable HttpRetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Set the limiter for requests in flight to each host, or {@code null} to not limit them. Off by
+         * default.
+         *
+         * <p>
+         * Hedges and retries are each limited as requests of their own.
+         * </p>
+         *
+         * @param concurrencyLimiter the limiter to use, which may be shared with other clients
+         * @return this builder
+         */
+        public Builder concurrencyLimiter(@Nullable HttpConcurrencyLimiter concurrencyLimiter) {
+            this.concurrencyLimiter = concurrencyLimiter;
+            return this;
+        }
+
+        /**
+         * Set the scheduler that admits requests by priority, or {@code null} to admit them immediately.
+         * Off by default.
+         *
+         * @param scheduler the scheduler to use, which may be shared with other clients
+         * @return this builder
+         */
+        public Builder scheduler(@Nullable HttpRequestScheduler scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        /**
+         * Set the policy for sharing one exchange between identical concurrent requests, or {@code null} to
+         * never share them. Off by default.
+         *
+         * <p>
+         * Requests that join an exchange don't wait for the scheduler or take part in retries and hedges of
+         * their own, they get the outcome of the request that was sent.
+         * </p>
+         *
+         * @param coalescingPolicy the policy to use
+         * @return this builder
+         */
+        public Builder coalescing(@Nullable HttpCoalescingPolicy coalescingPolicy) {
+            this.coalescingPolicy = coalescingPolicy;
+            return this;
+        }
+
+        /**
+         * Set the cache to serve and store responses with, or {@code null} to not cache them. Off by default.
+         *
+         * <p>
+         * The cache sits in front of everything else, so a request it serves isn't scheduled, limited,
+         * retried or hedged. Requests it can't serve are coalesced with identical ones, if
+         * {@linkplain #coalescing(HttpCoalescingPolicy) enabled}, so a popular stale response is only
+         * fetched once.
+         * </p>
+         *
+         * @param cache the cache to use, which may be shared with other clients
+         * @return this builder
+         */
+        public Builder cache(@Nullable HttpCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        /**
+         * Set the listener for the phases of each exchange, or {@code null} to not listen. Off by default.
+         *
+         * <p>
+         * Without a listener, the phases aren't timed at all.
+         * </p>
+         *
+         * @param eventListener the listener to use
+         * @return this builder
+         */
+        public Builder eventListener(@Nullable HttpEventListener eventListener) {
+            this.eventListener = eventListener;
+            return this;
+        }
+
+        /**
+         * Set the metrics to record exchanges to, or {@code null} to not record them. Off by default.
+         *
+         * <p>
+         * Requests waiting for the {@linkplain #scheduler(HttpRequestScheduler) scheduler} or
+         * {@linkplain #concurrencyLimiter(HttpConcurrencyLimiter) concurrency limiter} are counted as queued.
+         * </p>
+         *
+         * @param metrics the metrics to use, which may be shared with other clients
+         * @return this builder
+         */
+        public Builder metrics(@Nullable HttpClientMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
         public HttpClient build() {
             AsynchronousChannelGroup group;
             try {
@@ -59,11 +241,48 @@ public interface HttpClient extends Closeable {
             } catch (IOException e) {
                 throw new UncheckedIOException(e);
             }
-            return new AsyncIoHttpClient(
+            var bufferPool = BufferPool.create();
+            HttpClient client = new AsyncIoHttpClient(
                 executor,
                 new DefaultUriConnector(executor, group),
-                HttpCodec.forVersion(version)
+                HttpCodec.forVersion(version, headLimits, bufferPool, bufferSizing),
+                bufferPool,
+                bufferSizing,
+                zeroCopyReads,
+                eventListener,
+                metrics == null ? null : metrics.engine()
             );
+            if (concurrencyLimiter != null) {
+                client = new LimitingHttpClient(client, concurrencyLimiter.engine());
+                if (metrics != null) {
+                    var limiter = concurrencyLimiter;
+                    metrics.engine().watchQueue(limiter.engine(), () -> limiter.snapshot().stream()
+                        .mapToLong(HttpConcurrencyLimiter.HostSnapshot::queued)
+                        .sum());
+                }
+            }
+            if (hedgePolicy != null) {
+                client = new HedgingHttpClient(client, hedgePolicy);
+            }
+            if (retryPolicy != null) {
+                client = new RetryingHttpClient(client, retryPolicy);
+            }
+            if (scheduler != null) {
+                client = new SchedulingHttpClient(client, scheduler.engine());
+                if (metrics != null) {
+                    var admitting = scheduler;
+                    metrics.engine().watchQueue(admitting.engine(), () -> admitting.queueStats().stream()
+                        .mapToLong(HttpRequestScheduler.QueueStats::queued)
+                        .sum());
+                }
+            }
+            if (coalescingPolicy != null) {
+                client = new CoalescingHttpClient(client, coalescingPolicy);
+            }
+            if (cache != null) {
+                client = new CachingHttpClient(client, cache.engine());
+            }
+            return client;
         }
     }
 
@@ -83,8 +302,86 @@ public interface HttpClient extends Closeable {
      * the returned completion stage will fail with that error.
      * </p>
      *
+     * <p>
+     * Cancelling the {@linkplain CompletionStage#toCompletableFuture() future} of the returned stage
+     * abandons the request. Whatever it was waiting on is aborted, and its connection is closed. A response
+     * that arrives anyway is closed without being delivered.
+     * </p>
+     *
      * @param request the request to execute
      * @return the completion stage that will result in a response or error
      */
     CompletionStage<HttpResponse> executeAsync(HttpRequest request);
+
+    /**
+     * Execute a request, blocking until the response head has been received.
+     *
+     * <p>
+     * The body is not read before returning, and can be streamed the same way as a body returned from
+     * {@link #executeAsync(HttpRequest)}. It must still be closed.
+     * </p>
+     *
+     * @param request the request to execute
+     * @return the response
+     * @throws IOException if an I/O error occurs while sending the request or receiving the response
+     * @implSpec The default implementation waits for {@link #executeAsync(HttpRequest)}.
+     */
+    default HttpResponse execute(HttpRequest request) throws IOException {
+        return Completables.await(executeAsync(request));
+    }
+
+    /**
+     * Execute a batch of requests, with at most {@code maxConcurrency} in flight at once.
+     *
+     * <p>
+     * Requests are pulled from the iterable only as earlier ones complete and their results are handled, so
+     * it may be lazy and arbitrarily long.
+     * </p>
+     *
+     * @param requests the requests to execute, iterated once
+     * @param maxConcurrency the most requests to have in flight at once
+     * @param listener the listener for results
+     * @return the running batch
+     */
+    default HttpBatch executeBatch(Iterable<? extends HttpRequest> requests, int maxConcurrency,
+                                   HttpBatch.Listener listener) {
+        return BatchExecution.withListener(this, requests.iterator(), maxConcurrency, listener).start();
+    }
+
+    /**
+     * Execute a stream of requests, with at most {@code maxConcurrency} in flight at once. The stream is
+     * closed once the batch completes.
+     *
+     * @param requests the requests to execute
+     * @param maxConcurrency the most requests to have in flight at once
+     * @param listener the listener for results
+     * @return the running batch
+     * @see #executeBatch(Iterable, int, HttpBatch.Listener)
+     */
+    default HttpBatch executeBatch(Stream<? extends HttpRequest> requests, int maxConcurrency,
+                                   HttpBatch.Listener listener) {
+        var batch = BatchExecution.withListener(this, requests.iterator(), maxConcurrency, listener);
+        batch.completion().whenComplete((__, ___) -> requests.close());
+        return batch.start();
+    }
+
+    /**
+     * Create a publisher that executes a batch of requests for each subscriber, with at most
+     * {@code maxConcurrency} in flight at once.
+     *
+     * <p>
+     * A result holds its slot until it's delivered, so requests are only started while the subscriber keeps
+     * up. Each subscriber iterates the requests again. Cancelling the subscription cancels the batch, and
+     * closes the bodies of responses that weren't delivered. The subscriber must close the bodies of the
+     * responses it receives.
+     * </p>
+     *
+     * @param requests the requests to execute
+     * @param maxConcurrency the most requests to have in flight at once
+     * @return the publisher of results
+     */
+    default Flow.Publisher<HttpBatch.Result> executeBatch(Iterable<? extends HttpRequest> requests,
+                                                         int maxConcurrency) {
+        return new BatchPublisher(this, requests, maxConcurrency);
+    }
 }
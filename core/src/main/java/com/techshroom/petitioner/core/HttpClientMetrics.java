@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core;
+
+import com.techshroom.petitioner.core.internal.metrics.ClientMetrics;
+
+/**
+ * Aggregates the exchanges of clients into latency histograms, counters and gauges, without a metrics
+ * library.
+ *
+ * <p>
+ * Latencies are kept for each host and {@linkplain HttpMetricsSnapshot.Phase phase}, in log-linear buckets
+ * that are recorded to without locks. Take a {@linkplain #snapshot() snapshot} to read them, or
+ * {@linkplain #snapshotAndReset() take and reset} them to scrape each period on its own. Counters are reset
+ * along with the latencies, gauges are not. Resetting also forgets hosts that had no latencies in the period.
+ * </p>
+ *
+ * <p>
+ * Give the same metrics to several clients to add them up, with
+ * {@link HttpClient.Builder#metrics(HttpClientMetrics)}. Responses served from a cache, or shared with a
+ * coalesced request, have no exchange of their own, so they aren't counted.
+ * </p>
+ */
+public final class HttpClientMetrics {
+    /**
+     * {@return new metrics, with nothing recorded}
+     */
+    public static HttpClientMetrics create() {
+        return new HttpClientMetrics(new ClientMetrics());
+    }
+
+    private final ClientMetrics engine;
+
+    private HttpClientMetrics(ClientMetrics engine) {
+        this.engine = engine;
+    }
+
+    ClientMetrics engine() {
+        return engine;
+    }
+
+    /**
+     * {@return the metrics recorded so far}
+     */
+    public HttpMetricsSnapshot snapshot() {
+        return engine.snapshot(false);
+    }
+
+    /**
+     * {@return the metrics recorded so far, resetting the latencies and counters to start again}
+     */
+    public HttpMetricsSnapshot snapshotAndReset() {
+        return engine.snapshot(true);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core;
+
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Which concurrent requests share one exchange.
+ *
+ * <p>
+ * A {@link HttpMethod#GET GET} or {@link HttpMethod#HEAD HEAD} request joins an identical request that is
+ * still waiting for its response head, instead of sending its own. Requests are identical if they have the
+ * same method, the same URI, and the same values for every header in {@link #keyHeaders()}. Headers that
+ * aren't key headers are taken from whichever request was sent, so anything that changes the response,
+ * such as credentials, must be a key header.
+ * </p>
+ *
+ * <p>
+ * Every request that shared the exchange gets its own view of the response body. The body is read from the
+ * connection once, and each packet is kept until every view has read it, so a view that is never read
+ * holds the rest of the body in memory until it's closed.
+ * </p>
+ *
+ * @param keyHeaders the names of the headers that must match, compared case-insensitively
+ */
+public record HttpCoalescingPolicy(
+    Set<String> keyHeaders
+) {
+    private static final HttpCoalescingPolicy DEFAULTS = new HttpCoalescingPolicy(Set.of(
+        "Accept", "Accept-Encoding", "Accept-Language", "Authorization", "Cookie", "Range"
+    ));
+
+    /**
+     * {@return the default policy} Requests must match on content negotiation, credentials and range
+     * headers.
+     */
+    public static HttpCoalescingPolicy defaults() {
+        return DEFAULTS;
+    }
+
+    public HttpCoalescingPolicy {
+        if (keyHeaders == null || keyHeaders.stream().anyMatch(Objects::isNull)) {
+            throw new IllegalArgumentException("keyHeaders must not contain null");
+        }
+        keyHeaders = keyHeaders.stream()
+            .map(name -> name.toLowerCase(Locale.ROOT))
+            .collect(Collectors.toUnmodifiableSet());
+    }
+
+    public HttpCoalescingPolicy withKeyHeaders(Set<String> keyHeaders) {
+        return new HttpCoalescingPolicy(keyHeaders);
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core;
+
+/**
+ * Thrown when a request is rejected by an {@link HttpConcurrencyLimiter}, because its host is at its
+ * concurrency limit and the queue for it is full.
+ */
+public class HttpConcurrencyLimitExceededException extends HttpRequestNotSentException {
+    private final String host;
+    private final int limit;
+
+    public HttpConcurrencyLimitExceededException(String host, int limit) {
+        super("Concurrency limit of " + limit + " reached for " + host);
+        this.host = host;
+        this.limit = limit;
+    }
+
+    /**
+     * {@return the host the request was for, with its port}
+     */
+    public String host() {
+        return host;
+    }
+
+    /**
+     * {@return the limit for the host when the request was rejected}
+     */
+    public int limit() {
+        return limit;
+    }
+}
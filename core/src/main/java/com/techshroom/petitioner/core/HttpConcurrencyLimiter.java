@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core;
+
+import com.techshroom.petitioner.core.internal.client.AdaptiveLimiter;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Limits the number of requests in flight to each host, adapting the limit to how the host responds.
+ * See {@link HttpConcurrencyLimits} for how the limit moves.
+ *
+ * <p>
+ * A request is in flight from when it's started until its response body ends or is closed, or it fails.
+ * The limit adapts to the latency of response heads. Requests over the limit wait in a queue for their
+ * host, and are rejected with {@link HttpConcurrencyLimitExceededException} if it's full. Waiting
+ * requests are let through by {@linkplain HttpRequest#priority() priority}, and rise one level for every
+ * second they wait.
+ * </p>
+ *
+ * <p>
+ * Give the same limiter to several clients to share limits between them, with
+ * {@link HttpClient.Builder#concurrencyLimiter(HttpConcurrencyLimiter)}.
+ * </p>
+ */
+public final class HttpConcurrencyLimiter {
+    /**
+     * A change to the limit for a host.
+     *
+     * @param time when the limit changed
+     * @param limit the new limit
+     */
+    public record LimitChange(Instant time, int limit) {
+    }
+
+    /**
+     * The state of a host's limit.
+     *
+     * @param host the host, with its port
+     * @param limit the current limit
+     * @param inFlight the number of requests in flight
+     * @param queued the number of requests waiting
+     * @param history the most recent changes to the limit, oldest first
+     */
+    public record HostSnapshot(String host, int limit, int inFlight, int queued, List<LimitChange> history) {
+    }
+
+    /**
+     * {@return a new limiter}
+     *
+     * @param limits the settings to use
+     */
+    public static HttpConcurrencyLimiter create(HttpConcurrencyLimits limits) {
+        return new HttpConcurrencyLimiter(new AdaptiveLimiter(limits));
+    }
+
+    private final AdaptiveLimiter engine;
+
+    private HttpConcurrencyLimiter(AdaptiveLimiter engine) {
+        this.engine = engine;
+    }
+
+    AdaptiveLimiter engine() {
+        return engine;
+    }
+
+    /**
+     * {@return the state of every host that has been limited recently} A host with nothing in flight or
+     * waiting for a few minutes is forgotten, and starts again from the initial limit.
+     */
+    public List<HostSnapshot> snapshot() {
+        return engine.snapshot();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core;
+
+/**
+ * Settings for an {@link HttpConcurrencyLimiter}.
+ *
+ * <p>
+ * Each host starts at {@link #initialLimit()}. A response that arrives within {@link #latencyTolerance()}
+ * times the host's baseline latency raises the limit by {@code 1 / limit}, so a full window of them
+ * raises it by one. A slower response, a {@code 503} or {@code 429}, or an I/O failure multiplies it by
+ * {@link #backoffRatio()}, at most once per round trip.
+ * </p>
+ *
+ * @param initialLimit the starting limit for each host
+ * @param minLimit the lowest the limit can go
+ * @param maxLimit the highest the limit can go
+ * @param maxQueued the most requests that can wait for a host, more are rejected
+ * @param backoffRatio what the limit is multiplied by when the host is overloaded, between 0 and 1
+ * @param latencyTolerance how many times the baseline latency a response can take before it's a sign of
+ *     overload, at least 1
+ */
+public record HttpConcurrencyLimits(
+    int initialLimit,
+    int minLimit,
+    int maxLimit,
+    int maxQueued,
+    double backoffRatio,
+    double latencyTolerance
+) {
+    private static final HttpConcurrencyLimits DEFAULTS = new HttpConcurrencyLimits(
+        20, 1, 1000, 1000, 0.9, 2.0
+    );
+
+    /**
+     * {@return the default settings}
+     */
+    public static HttpConcurrencyLimits defaults() {
+        return DEFAULTS;
+    }
+
+    public HttpConcurrencyLimits {
+        if (minLimit <= 0) {
+            throw new IllegalArgumentException("minLimit must be positive");
+        }
+        if (initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("initialLimit must be between minLimit and maxLimit");
+        }
+        if (maxQueued < 0) {
+            throw new IllegalArgumentException("maxQueued must not be negative");
+        }
+        if (!(backoffRatio > 0 && backoffRatio < 1)) {
+            throw new IllegalArgumentException("backoffRatio must be between 0 and 1, exclusive");
+        }
+        if (!(latencyTolerance >= 1)) {
+            throw new IllegalArgumentException("latencyTolerance must be at least 1");
+        }
+    }
+
+    public HttpConcurrencyLimits withInitialLimit(int initialLimit) {
+        return new HttpConcurrencyLimits(initialLimit, minLimit, maxLimit, maxQueued, backoffRatio, latencyTolerance);
+    }
+
+    public HttpConcurrencyLimits withMinLimit(int minLimit) {
+        return new HttpConcurrencyLimits(initialLimit, minLimit, maxLimit, maxQueued, backoffRatio, latencyTolerance);
+    }
+
+    public HttpConcurrencyLimits withMaxLimit(int maxLimit) {
+        return new HttpConcurrencyLimits(initialLimit, minLimit, maxLimit, maxQueued, backoffRatio, latencyTolerance);
+    }
+
+    public HttpConcurrencyLimits withMaxQueued(int maxQueued) {
+        return new HttpConcurrencyLimits(initialLimit, minLimit, maxLimit, maxQueued, backoffRatio, latencyTolerance);
+    }
+
+    public HttpConcurrencyLimits withBackoffRatio(double backoffRatio) {
+        return new HttpConcurrencyLimits(initialLimit, minLimit, maxLimit, maxQueued, backoffRatio, latencyTolerance);
+    }
+
+    public HttpConcurrencyLimits withLatencyTolerance(double latencyTolerance) {
+        return new HttpConcurrencyLimits(initialLimit, minLimit, maxLimit, maxQueued, backoffRatio, latencyTolerance);
+    }
+}
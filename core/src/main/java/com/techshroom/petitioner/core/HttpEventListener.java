@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Listens to the phases of each exchange a client sends, to see where its time goes. Register one with
+ * {@link HttpClient.Builder#eventListener(HttpEventListener)}.
+ *
+ * <p>
+ * Every callback gets the request of the exchange and a {@link System#nanoTime()} timestamp, taken when the
+ * phase started or ended. An exchange that gets a response calls {@link #end} once its body is read to the
+ * end or closed, any exchange that fails before then calls {@link #failure} instead. Callbacks are called
+ * from I/O threads, so they must be thread-safe and MUST NOT block. Exceptions they throw are ignored.
+ * </p>
+ *
+ * <p>
+ * Each retry and hedge is an exchange of its own. Responses served from a cache, or shared with a coalesced
+ * request, have no exchange of their own.
+ * </p>
+ *
+ * @implSpec Every callback does nothing by default, so listeners only override what they need.
+ */
+public interface HttpEventListener {
+    /**
+     * Called before the host of the request is resolved.
+     *
+     * @param request the request
+     * @param host the host being resolved
+     * @param nanoTime when resolving started
+     */
+    default void dnsStart(HttpRequest request, String host, long nanoTime) {
+    }
+
+    /**
+     * Called once the host of the request is resolved.
+     *
+     * @param request the request
+     * @param address the resolved address, which is {@linkplain InetSocketAddress#isUnresolved() unresolved}
+     *     if resolving failed
+     * @param nanoTime when resolving ended
+     */
+    default void dnsEnd(HttpRequest request, InetSocketAddress address, long nanoTime) {
+    }
+
+    /**
+     * Called before connecting to the server.
+     *
+     * @param request the request
+     * @param address the address being connected to
+     * @param nanoTime when connecting started
+     */
+    default void connectStart(HttpRequest request, InetSocketAddress address, long nanoTime) {
+    }
+
+    /**
+     * Called once connected to the server.
+     *
+     * @param request the request
+     * @param address the address connected to
+     * @param nanoTime when connecting ended
+     */
+    default void connectEnd(HttpRequest request, InetSocketAddress address, long nanoTime) {
+    }
+
+    /**
+     * Called once the request line and headers are written.
+     *
+     * @param request the request
+     * @param nanoTime when the headers were written
+     */
+    default void requestHeadersWritten(HttpRequest request, long nanoTime) {
+    }
+
+    /**
+     * Called once the request body is written. Not called for requests without a body.
+     *
+     * @param request the request
+     * @param nanoTime when the body was written
+     */
+    default void requestBodyWritten(HttpRequest request, long nanoTime) {
+    }
+
+    /**
+     * Called when the first bytes of the response arrive.
+     *
+     * @param request the request
+     * @param nanoTime when the first bytes arrived
+     */
+    default void responseHeadStart(HttpRequest request, long nanoTime) {
+    }
+
+    /**
+     * Called once the response status line and headers are decoded.
+     *
+     * @param request the request
+     * @param response the response, whose body has not been read yet
+     * @param nanoTime when the head was decoded
+     */
+    default void responseHeadEnd(HttpRequest request, HttpResponse response, long nanoTime) {
+    }
+
+    /**
+     * Called for each packet of the response body that is read.
+     *
+     * @param request the request
+     * @param byteCount the number of bytes in the packet
+     * @param nanoTime when the packet was read
+     */
+    default void bodyBytesRead(HttpRequest request, long byteCount, long nanoTime) {
+    }
+
+    /**
+     * Called once the response body is read to the end, or closed. This is the last callback of the exchange.
+     *
+     * @param request the request
+     * @param nanoTime when the exchange ended
+     */
+    default void end(HttpRequest request, long nanoTime) {
+    }
+
+    /**
+     * Called when the exchange fails, including when it's cancelled. This is the last callback of the
+     * exchange.
+     *
+     * @param request the request
+     * @param failure what went wrong
+     * @param nanoTime when the exchange failed
+     */
+    default void failure(HttpRequest request, Throwable failure, long nanoTime) {
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core;
+
+/**
+ * Thrown when the head of a response exceeds one of the configured {@link HttpHeadLimits}.
+ */
+public class HttpHeadLimitExceededException extends IllegalStateException {
+
+    /**
+     * The limit that was exceeded.
+     */
+    public enum Limit {
+        /**
+         * {@link HttpHeadLimits#maxStatusLineLength()}.
+         */
+        STATUS_LINE_LENGTH,
+        /**
+         * {@link HttpHeadLimits#maxHeaderLineLength()}.
+         */
+        HEADER_LINE_LENGTH,
+        /**
+         * {@link HttpHeadLimits#maxHeaderCount()}.
+         */
+        HEADER_COUNT,
+        /**
+         * {@link HttpHeadLimits#maxHeadSize()}.
+         */
+        HEAD_SIZE,
+        ;
+    }
+
+    private final Limit limit;
+    private final int maximum;
+
+    public HttpHeadLimitExceededException(Limit limit, int maximum) {
+        super("Response head exceeded " + limit + " limit of " + maximum);
+        this.limit = limit;
+        this.maximum = maximum;
+    }
+
+    /**
+     * {@return the limit that was exceeded}
+     */
+    public Limit limit() {
+        return limit;
+    }
+
+    /**
+     * {@return the configured value of the limit that was exceeded}
+     */
+    public int maximum() {
+        return maximum;
+    }
+}
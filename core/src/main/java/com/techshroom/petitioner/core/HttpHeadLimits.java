@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core;
+
+/**
+ * Limits applied while reading the head (status line and headers) of a response.
+ *
+ * <p>
+ * All lengths are in bytes, and do not include the terminating CRLF of a line,
+ * except for {@link #maxHeadSize()}, which counts every byte up to and including
+ * the empty line that ends the head.
+ * </p>
+ *
+ * @param maxStatusLineLength the maximum length of the status line
+ * @param maxHeaderLineLength the maximum length of a single header line
+ * @param maxHeaderCount the maximum number of header lines
+ * @param maxHeadSize the maximum size of the entire head
+ */
+public record HttpHeadLimits(
+    int maxStatusLineLength,
+    int maxHeaderLineLength,
+    int maxHeaderCount,
+    int maxHeadSize
+) {
+    private static final HttpHeadLimits DEFAULTS = new HttpHeadLimits(
+        4096, 16384, 128, 65536
+    );
+
+    /**
+     * {@return the default limits}
+     */
+    public static HttpHeadLimits defaults() {
+        return DEFAULTS;
+    }
+
+    public HttpHeadLimits {
+        if (maxStatusLineLength <= 0) {
+            throw new IllegalArgumentException("maxStatusLineLength must be positive");
+        }
+        if (maxHeaderLineLength <= 0) {
+            throw new IllegalArgumentException("maxHeaderLineLength must be positive");
+        }
+        if (maxHeaderCount < 0) {
+            throw new IllegalArgumentException("maxHeaderCount must not be negative");
+        }
+        if (maxHeadSize <= 0) {
+            throw new IllegalArgumentException("maxHeadSize must be positive");
+        }
+    }
+
+    public HttpHeadLimits withMaxStatusLineLength(int maxStatusLineLength) {
+        return new HttpHeadLimits(maxStatusLineLength, maxHeaderLineLength, maxHeaderCount, maxHeadSize);
+    }
+
+    public HttpHeadLimits withMaxHeaderLineLength(int maxHeaderLineLength) {
+        return new HttpHeadLimits(maxStatusLineLength, maxHeaderLineLength, maxHeaderCount, maxHeadSize);
+    }
+
+    public HttpHeadLimits withMaxHeaderCount(int maxHeaderCount) {
+        return new HttpHeadLimits(maxStatusLineLength, maxHeaderLineLength, maxHeaderCount, maxHeadSize);
+    }
+
+    public HttpHeadLimits withMaxHeadSize(int maxHeadSize) {
+        return new HttpHeadLimits(maxStatusLineLength, maxHeaderLineLength, maxHeaderCount, maxHeadSize);
+    }
+}
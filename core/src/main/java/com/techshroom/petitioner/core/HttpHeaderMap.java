@@ -19,22 +19,38 @@
 package com.techshroom.petitioner.core;
 
 import com.techshroom.petitioner.core.internal.HttpEncoding;
+import com.techshroom.petitioner.core.internal.HttpHeaderMaps;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
 /**
- * A wrapper for a {@link SortedMap} with case-insensitive {@link String} names.
+ * An immutable multi-map of header names to values. Names are case-insensitive.
+ *
+ * <p>
+ * Header maps iterate in the order the headers were added, or received for header maps decoded from a
+ * response. Each header keeps the spelling of its name as it was given.
+ * </p>
+ *
+ * @implNote Every header map is validated on creation, so the names and values it contains are
+ * always valid for HTTP. Header maps can't be implemented outside this library, so headers copied
+ * from one are not validated again. Headers are stored in flat parallel arrays of
+ * names, values, and case-folded name hashes, which is cheaper than a tree for the handful of
+ * headers a message usually has.
  */
-public class HttpHeaderMap implements Iterable<Map.Entry<String, String>> {
+public abstract class HttpHeaderMap implements Iterable<Map.Entry<String, String>> {
+    static {
+        HttpHeaderMaps.install(StorageHttpHeaderMap::new);
+    }
 
     /**
      * {@return a new builder for creating a header map}
@@ -49,7 +65,7 @@ public class HttpHeaderMap implements Iterable<Map.Entry<String, String>> {
      * @apiNote This MAY be a singleton value, but that is not guaranteed
      */
     public static HttpHeaderMap empty() {
-        return new HttpHeaderMap(Collections.emptySortedMap());
+        return ArrayHttpHeaderMap.EMPTY;
     }
 
     /**
@@ -63,63 +79,145 @@ public class HttpHeaderMap implements Iterable<Map.Entry<String, String>> {
     }
 
     public static final class Builder {
-        private final SortedMap<String, List<String>> headerMap = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        private static final int INITIAL_CAPACITY = 8;
+
+        private String[] names;
+        private String[] values;
+        private int[] hashes;
+        /**
+         * Whether each header is known to be valid, because it came from a header map or passed a previous build.
+         */
+        private boolean[] validated;
+        private int size;
 
         private Builder() {
+            this(
+                new String[INITIAL_CAPACITY], new String[INITIAL_CAPACITY], new int[INITIAL_CAPACITY],
+                new boolean[INITIAL_CAPACITY], 0
+            );
+        }
+
+        private Builder(String[] names, String[] values, int[] hashes, boolean[] validated, int size) {
+            this.names = names;
+            this.values = values;
+            this.hashes = hashes;
+            this.validated = validated;
+            this.size = size;
         }
 
         public Builder put(String name, String value) {
-            return put(name, List.of(value));
+            Objects.requireNonNull(value, "value");
+            int hash = HttpEncoding.nameHash(name);
+            removeAll(name, hash, size);
+            append(name, hash, value, false);
+            return this;
         }
 
         public Builder put(String name, List<String> value) {
-            headerMap.put(name, List.copyOf(value));
+            int hash = HttpEncoding.nameHash(name);
+            removeAll(name, hash, size);
+            for (String v : value) {
+                append(name, hash, Objects.requireNonNull(v, "value"), false);
+            }
             return this;
         }
 
         public Builder add(String name, String value) {
-            headerMap.compute(name, (k, oldValues) -> {
-                var values = oldValues == null
-                    ? new String[1]
-                    : oldValues.toArray(new String[oldValues.size() + 1]);
-                values[values.length - 1] = value;
-                return List.of(values);
-            });
+            append(name, HttpEncoding.nameHash(name), Objects.requireNonNull(value, "value"), false);
             return this;
         }
 
         public Builder putAll(Map<String, List<String>> entries) {
-            // To copy each value map, iterate and call put for each one
             entries.forEach(this::put);
             return this;
         }
 
         public Builder putAll(HttpHeaderMap entries) {
-            return putAll(entries.headerMap);
+            // Names in the given map replace ours, but their values are spread across entries
+            // Only our original headers are removed, so the values added along the way are kept
+            // Header maps are always valid, so their headers don't need to be checked again
+            var originalSize = new int[] {size};
+            entries.forEach((name, value) -> {
+                int hash = HttpEncoding.nameHash(name);
+                originalSize[0] -= removeAll(name, hash, originalSize[0]);
+                append(name, hash, value, true);
+            });
+            return this;
+        }
+
+        private void append(String name, int hash, String value, boolean valid) {
+            Objects.requireNonNull(name, "name");
+            if (size == names.length) {
+                int newCapacity = size * 2;
+                names = Arrays.copyOf(names, newCapacity);
+                values = Arrays.copyOf(values, newCapacity);
+                hashes = Arrays.copyOf(hashes, newCapacity);
+                validated = Arrays.copyOf(validated, newCapacity);
+            }
+            names[size] = name;
+            values[size] = value;
+            hashes[size] = hash;
+            validated[size] = valid;
+            size++;
+        }
+
+        /**
+         * Remove every header with the name before {@code end}, keeping the order of the rest.
+         *
+         * @return the number of headers removed
+         */
+        private int removeAll(String name, int hash, int end) {
+            int kept = 0;
+            for (int i = 0; i < end; i++) {
+                if (hashes[i] == hash && HttpEncoding.namesEqual(names[i], name)) {
+                    continue;
+                }
+                names[kept] = names[i];
+                values[kept] = values[i];
+                hashes[kept] = hashes[i];
+                validated[kept] = validated[i];
+                kept++;
+            }
+            int removed = end - kept;
+            if (removed > 0) {
+                System.arraycopy(names, end, names, kept, size - end);
+                System.arraycopy(values, end, values, kept, size - end);
+                System.arraycopy(hashes, end, hashes, kept, size - end);
+                System.arraycopy(validated, end, validated, kept, size - end);
+                Arrays.fill(names, size - removed, size, null);
+                Arrays.fill(values, size - removed, size, null);
+                size -= removed;
+            }
+            return removed;
         }
 
         public HttpHeaderMap build() {
-            if (headerMap.isEmpty()) {
+            if (size == 0) {
                 return empty();
             }
-            headerMap.forEach((k, value) -> {
-                if (!HttpEncoding.isValidName(k)) {
-                    throw new IllegalStateException("Invalid name provided: " + k);
+            for (int i = 0; i < size; i++) {
+                if (validated[i]) {
+                    continue;
                 }
-                for (String v : value) {
-                    if (!HttpEncoding.isValidValue(v)) {
-                        throw new IllegalStateException("Invalid value provided: " + v);
-                    }
+                if (!HttpEncoding.isValidName(names[i])) {
+                    throw new IllegalStateException("Invalid name provided: " + names[i]);
                 }
-            });
-            return new HttpHeaderMap(headerMap);
+                if (!HttpEncoding.isValidValue(values[i])) {
+                    throw new IllegalStateException("Invalid value provided: " + values[i]);
+                }
+                validated[i] = true;
+            }
+            return new ArrayHttpHeaderMap(
+                Arrays.copyOf(names, size), Arrays.copyOf(values, size), Arrays.copyOf(hashes, size)
+            );
         }
     }
 
-    private final SortedMap<String, List<String>> headerMap;
-
-    private HttpHeaderMap(SortedMap<String, List<String>> headerMap) {
-        this.headerMap = headerMap;
+    /**
+     * Constructor for implementations, which are all in this package. Other packages of this library provide
+     * an {@link HttpHeaderMaps.Storage} instead.
+     */
+    HttpHeaderMap() {
     }
 
     /**
@@ -130,8 +228,8 @@ public class HttpHeaderMap implements Iterable<Map.Entry<String, String>> {
      * @throws IllegalStateException if there is more than one value
      */
     public @Nullable String value(String name) {
-        var values = headerMap.get(name);
-        if (values == null) {
+        var values = values(name);
+        if (values.isEmpty()) {
             return null;
         }
         if (values.size() > 1) {
@@ -161,12 +259,7 @@ public class HttpHeaderMap implements Iterable<Map.Entry<String, String>> {
      * @param name the name to retrieve the value for
      * @return the values, or an empty list if there is none
      */
-    public List<String> values(String name) {
-        return Objects.requireNonNullElse(
-            headerMap.get(name),
-            List.of()
-        );
-    }
+    public abstract List<String> values(String name);
 
     /**
      * Extracts all known values for the given name, throwing if there are none.
@@ -176,61 +269,32 @@ public class HttpHeaderMap implements Iterable<Map.Entry<String, String>> {
      * @throws IllegalStateException if there are no values
      */
     public List<String> requireValues(String name) {
-        var value = headerMap.get(name);
-        if (value == null) {
+        var value = values(name);
+        if (value.isEmpty()) {
             throw new IllegalStateException("No value for '" + name + "'");
         }
         return value;
     }
 
+    /**
+     * {@return an iterator over every name-value pair} A name with multiple values will be returned
+     * once per value.
+     */
     @Override
-    public Iterator<Map.Entry<String, String>> iterator() {
-        return new Iterator<>() {
-            private final Iterator<Map.Entry<String, List<String>>> parent = headerMap.entrySet().iterator();
-            private Map.Entry<String, Iterator<String>> currentParentEntry;
-            private Map.Entry<String, String> nextEntry;
-
-            @Override
-            public boolean hasNext() {
-                if (nextEntry != null) {
-                    return true;
-                }
-                // Load next parent entry iterator if needed
-                while (currentParentEntry == null) {
-                    if (!parent.hasNext()) {
-                        return false;
-                    }
-                    var next = parent.next();
-                    var nextEntry = Map.entry(next.getKey(), next.getValue().iterator());
-                    // Ensure invariant of having next value holds, otherwise keep looping for one
-                    if (nextEntry.getValue().hasNext()) {
-                        currentParentEntry = nextEntry;
-                    }
-                }
-                initializeNextEntry();
-                return true;
-            }
-
-            private void initializeNextEntry() {
-                var nextKey = currentParentEntry.getKey();
-                var nextIter = currentParentEntry.getValue();
-                var nextValue = nextIter.next();
-                if (!nextIter.hasNext()) {
-                    currentParentEntry = null;
-                }
-                nextEntry = Map.entry(nextKey, nextValue);
-            }
+    public abstract Iterator<Map.Entry<String, String>> iterator();
 
-            @Override
-            public Map.Entry<String, String> next() {
-                if (!hasNext()) {
-                    throw new NoSuchElementException();
-                }
-                var next = this.nextEntry;
-                this.nextEntry = null;
-                return next;
-            }
-        };
+    /**
+     * Call the action with every name-value pair, in iteration order. A name with multiple values will
+     * be passed once per value.
+     *
+     * @param action the action to call
+     * @implSpec The default implementation uses {@link #iterator()}. Implementations should override it
+     * to avoid allocating an entry for each pair.
+     */
+    public void forEach(BiConsumer<? super String, ? super String> action) {
+        for (Map.Entry<String, String> entry : this) {
+            action.accept(entry.getKey(), entry.getValue());
+        }
     }
 
     public Builder toBuilder() {
@@ -239,9 +303,135 @@ public class HttpHeaderMap implements Iterable<Map.Entry<String, String>> {
 
     @Override
     public String toString() {
-        String headersJoined = headerMap.entrySet().stream()
+        var grouped = new LinkedHashMap<String, List<String>>();
+        forEach((name, value) -> grouped.computeIfAbsent(name, k -> new ArrayList<>()).add(value));
+        String headersJoined = grouped.entrySet().stream()
             .map(e -> e.getKey() + "=" + e.getValue())
             .collect(Collectors.joining(", "));
         return "Headers[" + headersJoined + "]";
     }
+
+    private static final class ArrayHttpHeaderMap extends HttpHeaderMap {
+        private static final HttpHeaderMap EMPTY = new ArrayHttpHeaderMap(new String[0], new String[0], new int[0]);
+
+        private final String[] names;
+        private final String[] values;
+        private final int[] hashes;
+
+        private ArrayHttpHeaderMap(String[] names, String[] values, int[] hashes) {
+            this.names = names;
+            this.values = values;
+            this.hashes = hashes;
+        }
+
+        private boolean nameMatches(int header, String name, int hash) {
+            return hashes[header] == hash && HttpEncoding.namesEqual(names[header], name);
+        }
+
+        @Override
+        public @Nullable String value(String name) {
+            int hash = HttpEncoding.nameHash(name);
+            int found = -1;
+            for (int i = 0; i < names.length; i++) {
+                if (nameMatches(i, name, hash)) {
+                    if (found != -1) {
+                        throw new IllegalStateException("More than one value for '" + name + "'");
+                    }
+                    found = i;
+                }
+            }
+            return found == -1 ? null : values[found];
+        }
+
+        @Override
+        public List<String> values(String name) {
+            int hash = HttpEncoding.nameHash(name);
+            int matches = 0;
+            for (int i = 0; i < names.length; i++) {
+                if (nameMatches(i, name, hash)) {
+                    matches++;
+                }
+            }
+            if (matches == 0) {
+                return List.of();
+            }
+            var found = new String[matches];
+            int next = 0;
+            for (int i = 0; next < matches; i++) {
+                if (nameMatches(i, name, hash)) {
+                    found[next] = values[i];
+                    next++;
+                }
+            }
+            return List.of(found);
+        }
+
+        @Override
+        public void forEach(BiConsumer<? super String, ? super String> action) {
+            for (int i = 0; i < names.length; i++) {
+                action.accept(names[i], values[i]);
+            }
+        }
+
+        @Override
+        public Iterator<Map.Entry<String, String>> iterator() {
+            return new Iterator<>() {
+                private int next;
+
+                @Override
+                public boolean hasNext() {
+                    return next < names.length;
+                }
+
+                @Override
+                public Map.Entry<String, String> next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    var entry = Map.entry(names[next], values[next]);
+                    next++;
+                    return entry;
+                }
+            };
+        }
+
+        @Override
+        public Builder toBuilder() {
+            int capacity = Math.max(Builder.INITIAL_CAPACITY, names.length * 2);
+            var validated = new boolean[capacity];
+            Arrays.fill(validated, 0, names.length, true);
+            return new Builder(
+                Arrays.copyOf(names, capacity), Arrays.copyOf(values, capacity), Arrays.copyOf(hashes, capacity),
+                validated, names.length
+            );
+        }
+    }
+
+    private static final class StorageHttpHeaderMap extends HttpHeaderMap {
+        private final HttpHeaderMaps.Storage storage;
+
+        private StorageHttpHeaderMap(HttpHeaderMaps.Storage storage) {
+            this.storage = storage;
+        }
+
+        @Override
+        public @Nullable String value(String name) {
+            return storage.value(name);
+        }
+
+        @Override
+        public List<String> values(String name) {
+            return storage.values(name);
+        }
+
+        @Override
+        public void forEach(BiConsumer<? super String, ? super String> action) {
+            storage.forEach(action);
+        }
+
+        @Override
+        public Iterator<Map.Entry<String, String>> iterator() {
+            return storage.iterator();
+        }
+    }
 }
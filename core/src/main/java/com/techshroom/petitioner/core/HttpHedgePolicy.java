@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core;
+
+import java.time.Duration;
+import java.util.OptionalDouble;
+
+/**
+ * When to hedge a request, by sending a second attempt if the first is slow to respond.
+ *
+ * <p>
+ * Only requests with {@linkplain HttpMethod#isSafe() safe} methods are hedged. If the first attempt has
+ * not received a response head after the hedge delay, a second attempt is sent, and the first head to
+ * arrive wins. The losing attempt is cancelled, which closes its connection.
+ * </p>
+ *
+ * <p>
+ * The delay is either fixed, or tracks a percentile of recent response head latencies, starting at
+ * {@link #delay()} until enough have been seen. The budget caps hedges to that fraction of hedgeable
+ * requests, so a slow upstream doesn't get double the traffic.
+ * </p>
+ *
+ * @param delay the hedge delay, or the initial delay if a percentile is given
+ * @param percentile the percentile of head latencies to use as the delay, between 0 and 1
+ * @param budget the largest fraction of requests that may be hedged, between 0 and 1
+ */
+public record HttpHedgePolicy(
+    Duration delay,
+    OptionalDouble percentile,
+    double budget
+) {
+    private static final double DEFAULT_BUDGET = 0.05;
+
+    /**
+     * {@return a policy that hedges after a fixed delay, for at most 5% of requests}
+     *
+     * @param delay the hedge delay
+     */
+    public static HttpHedgePolicy fixedDelay(Duration delay) {
+        return new HttpHedgePolicy(delay, OptionalDouble.empty(), DEFAULT_BUDGET);
+    }
+
+    /**
+     * {@return a policy that hedges after a percentile of recent head latencies, for at most 5% of
+     * requests}
+     *
+     * @param percentile the percentile, between 0 and 1, such as {@code 0.95}
+     * @param initialDelay the delay to use until enough latencies have been seen
+     */
+    public static HttpHedgePolicy percentile(double percentile, Duration initialDelay) {
+        return new HttpHedgePolicy(initialDelay, OptionalDouble.of(percentile), DEFAULT_BUDGET);
+    }
+
+    public HttpHedgePolicy {
+        if (delay == null || delay.isNegative()) {
+            throw new IllegalArgumentException("delay must not be negative");
+        }
+        if (percentile == null) {
+            throw new IllegalArgumentException("percentile must be provided");
+        }
+        if (percentile.isPresent() && !(percentile.getAsDouble() > 0 && percentile.getAsDouble() <= 1)) {
+            throw new IllegalArgumentException("percentile must be greater than 0, and at most 1");
+        }
+        if (!(budget >= 0 && budget <= 1)) {
+            throw new IllegalArgumentException("budget must be between 0 and 1");
+        }
+    }
+
+    public HttpHedgePolicy withDelay(Duration delay) {
+        return new HttpHedgePolicy(delay, percentile, budget);
+    }
+
+    public HttpHedgePolicy withPercentile(OptionalDouble percentile) {
+        return new HttpHedgePolicy(delay, percentile, budget);
+    }
+
+    public HttpHedgePolicy withBudget(double budget) {
+        return new HttpHedgePolicy(delay, percentile, budget);
+    }
+}
@@ -24,24 +24,44 @@ package com.techshroom.petitioner.core;
 public enum HttpMethod {
     // Technically, GET, DELETE, CONNECT supports a body -- but in general it shouldn't be done
     // Open an issue if you need this for some reason.
-    GET(false),
-    HEAD(false),
-    POST(true),
-    PUT(true),
-    DELETE(false),
-    CONNECT(false),
-    OPTIONS(false),
-    TRACE(false),
-    PATCH(true),
+    GET(false, true, true),
+    HEAD(false, true, true),
+    POST(true, false, false),
+    PUT(true, false, true),
+    DELETE(false, false, true),
+    CONNECT(false, false, false),
+    OPTIONS(false, true, true),
+    TRACE(false, true, true),
+    PATCH(true, false, false),
     ;
 
     private final boolean supportsBody;
+    private final boolean safe;
+    private final boolean idempotent;
 
-    HttpMethod(boolean supportsBody) {
+    HttpMethod(boolean supportsBody, boolean safe, boolean idempotent) {
         this.supportsBody = supportsBody;
+        this.safe = safe;
+        this.idempotent = idempotent;
     }
 
     public boolean supportsBody() {
         return supportsBody;
     }
+
+    /**
+     * {@return if the method is safe, meaning it's essentially read-only} Safe requests can be sent more
+     * than once at the same time. See RFC 9110, section 9.2.1.
+     */
+    public boolean isSafe() {
+        return safe;
+    }
+
+    /**
+     * {@return if sending a request with this method more than once has the same effect as sending it
+     * once} Idempotent requests can be retried after a failure. See RFC 9110, section 9.2.2.
+     */
+    public boolean isIdempotent() {
+        return idempotent;
+    }
 }
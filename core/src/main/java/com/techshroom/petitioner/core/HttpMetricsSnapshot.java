@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core;
+
+import com.techshroom.petitioner.core.internal.metrics.PrometheusWriter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The metrics of a client at one moment, or over one period if they were reset.
+ *
+ * @param latencies the latency distributions, for each host and phase that has been timed. Past 256 hosts, the
+ *     rest are counted together under the host {@code other}.
+ * @param bytesRead the bytes read from servers, heads and bodies
+ * @param bytesWritten the bytes written to servers, heads and bodies
+ * @param responsesByStatusClass the number of responses for each status class, such as {@code 2xx}
+ * @param errorsByType the number of failed exchanges for each simple name of the exception, such as
+ *     {@code HttpRequestNotSentException}
+ * @param inFlightRequests the number of exchanges in flight
+ * @param openSockets the number of connections open for exchanges in flight
+ * @param queuedRequests the number of requests waiting for the scheduler or concurrency limiter
+ */
+public record HttpMetricsSnapshot(
+    List<Latency> latencies,
+    long bytesRead,
+    long bytesWritten,
+    Map<String, Long> responsesByStatusClass,
+    Map<String, Long> errorsByType,
+    long inFlightRequests,
+    long openSockets,
+    long queuedRequests
+) {
+    /**
+     * A timed part of an exchange.
+     */
+    public enum Phase {
+        /**
+         * From starting to connect until connected.
+         */
+        CONNECT("connect"),
+        /**
+         * From starting the exchange until the first bytes of the response arrive.
+         */
+        TIME_TO_FIRST_BYTE("ttfb"),
+        /**
+         * From starting the exchange until the response body is read to the end, or closed.
+         */
+        TOTAL("total"),
+        ;
+
+        private final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+
+        /**
+         * {@return the short name of the phase, used as a label value}
+         */
+        public String label() {
+            return label;
+        }
+    }
+
+    /**
+     * Values counted by a bucket of a latency distribution.
+     *
+     * @param upperBound the largest latency counted by the bucket
+     * @param count the number of latencies in the bucket, not including smaller buckets
+     */
+    public record Bucket(Duration upperBound, long count) {
+    }
+
+    /**
+     * The distribution of latencies of one phase, for one host.
+     *
+     * @param host the host, with its port
+     * @param phase the phase
+     * @param count the number of latencies
+     * @param sum the sum of the latencies
+     * @param buckets the buckets with any latencies in them, smallest first. Each bound is within 12.5% of the
+     *     latencies it counts.
+     */
+    public record Latency(String host, Phase phase, long count, Duration sum, List<Bucket> buckets) {
+        public Latency {
+            buckets = List.copyOf(buckets);
+        }
+
+        /**
+         * {@return an upper bound for the latency at the quantile, or zero if there are none}
+         *
+         * @param quantile the quantile, between 0 and 1
+         */
+        public Duration valueAtQuantile(double quantile) {
+            if (count == 0) {
+                return Duration.ZERO;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (var bucket : buckets) {
+                seen += bucket.count();
+                if (seen >= rank) {
+                    return bucket.upperBound();
+                }
+            }
+            return buckets.get(buckets.size() - 1).upperBound();
+        }
+    }
+
+    public HttpMetricsSnapshot {
+        latencies = List.copyOf(latencies);
+        responsesByStatusClass = Map.copyOf(responsesByStatusClass);
+        errorsByType = Map.copyOf(errorsByType);
+    }
+
+    /**
+     * Write the metrics in the Prometheus text exposition format, version 0.0.4. Every metric is prefixed with
+     * {@code petitioner_}, and latencies are histograms in seconds, with the same boundaries from 1ms to 60s in
+     * every scrape.
+     *
+     * @param out where to write the metrics
+     * @throws IOException if writing fails
+     */
+    public void writePrometheus(Appendable out) throws IOException {
+        PrometheusWriter.write(this, out);
+    }
+}
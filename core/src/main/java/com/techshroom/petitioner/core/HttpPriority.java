@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core;
+
+/**
+ * How urgently a request should be sent when it has to wait for a concurrency slot.
+ *
+ * <p>
+ * Waiting requests are admitted in priority order. To keep low priority work from starving, a request's
+ * priority rises by one level for every aging interval it has waited, see
+ * {@link HttpSchedulingPolicy#agingInterval()}.
+ * </p>
+ */
+public enum HttpPriority {
+    /**
+     * Latency-critical work, such as a user waiting on the response.
+     */
+    HIGH,
+    /**
+     * The default priority.
+     */
+    NORMAL,
+    /**
+     * Background work, such as bulk syncs and cache warming.
+     */
+    LOW,
+    ;
+}
@@ -28,7 +28,8 @@ public record HttpRequest(
     HttpMethod method,
     URI uri,
     HttpHeaderMap headers,
-    @Nullable HttpRequestBody body
+    @Nullable HttpRequestBody body,
+    HttpPriority priority
 ) {
     public HttpRequest {
         if (method == null) {
@@ -40,6 +41,9 @@ public record HttpRequest(
         if (headers == null) {
             throw new IllegalArgumentException("headers must be provided");
         }
+        if (priority == null) {
+            throw new IllegalArgumentException("priority must be provided");
+        }
         if (!method.supportsBody() && body != null) {
             throw new IllegalArgumentException(
                 "Cannot provide a request body for a " + method.name() + " request"
@@ -52,6 +56,18 @@ public record HttpRequest(
         }
     }
 
+    /**
+     * Create a request with {@link HttpPriority#NORMAL} priority.
+     *
+     * @param method the method
+     * @param uri the URI
+     * @param headers the headers
+     * @param body the body
+     */
+    public HttpRequest(HttpMethod method, URI uri, HttpHeaderMap headers, @Nullable HttpRequestBody body) {
+        this(method, uri, headers, body, HttpPriority.NORMAL);
+    }
+
     public static Builder builder() {
         return new Builder();
     }
@@ -97,6 +113,7 @@ public record HttpRequest(
         private URI uri;
         private final HttpHeaderMap.Builder headersBuilder;
         private HttpRequestBody body;
+        private HttpPriority priority = HttpPriority.NORMAL;
 
         private Builder() {
             this.headersBuilder = HttpHeaderMap.builder();
@@ -107,6 +124,7 @@ public record HttpRequest(
             this.uri = base.uri;
             this.headersBuilder = base.headers.toBuilder();
             this.body = base.body;
+            this.priority = base.priority;
         }
 
         public Builder get(String uri) {
@@ -189,12 +207,24 @@ public record HttpRequest(
             return this;
         }
 
+        /**
+         * Set the priority of the request, {@link HttpPriority#NORMAL} by default.
+         *
+         * @param priority the priority
+         * @return this builder
+         */
+        public Builder priority(HttpPriority priority) {
+            this.priority = priority;
+            return this;
+        }
+
         public HttpRequest build() {
             return new HttpRequest(
                 method,
                 uri,
                 headersBuilder.build(),
-                body
+                body,
+                priority
             );
         }
     }
@@ -19,11 +19,13 @@
 package com.techshroom.petitioner.core;
 
 import com.techshroom.petitioner.core.internal.ByteBufferHttpRequestBody;
+import com.techshroom.petitioner.core.internal.PublisherHttpRequestBody;
 import com.techshroom.petitioner.core.io.ReadSession;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.OptionalLong;
+import java.util.concurrent.Flow;
 
 /**
  * Represents an HTTP request body.
@@ -47,6 +49,39 @@ public interface HttpRequestBody {
         return new ByteBufferHttpRequestBody(content.asReadOnlyBuffer(), contentType);
     }
 
+    /**
+     * {@return a request body of unknown length, streamed from the publisher} It is sent with
+     * {@code Transfer-Encoding: chunked}.
+     *
+     * @param publisher the publisher of the content
+     * @param contentType the type of the content
+     * @see #from(Flow.Publisher, HttpContentType, long)
+     */
+    static HttpRequestBody from(Flow.Publisher<ByteBuffer> publisher, HttpContentType contentType) {
+        return new PublisherHttpRequestBody(publisher, contentType, OptionalLong.empty());
+    }
+
+    /**
+     * {@return a request body of known length, streamed from the publisher}
+     *
+     * <p>
+     * Each read session subscribes to the publisher again, so a cold publisher replays its content.
+     * Packets are requested one at a time, and the next one is only requested once the previous one
+     * has been written to the connection. The publisher MUST publish exactly {@code contentLength} bytes.
+     * </p>
+     *
+     * @param publisher the publisher of the content
+     * @param contentType the type of the content
+     * @param contentLength the number of bytes the publisher will publish
+     */
+    static HttpRequestBody from(Flow.Publisher<ByteBuffer> publisher, HttpContentType contentType,
+                                long contentLength) {
+        if (contentLength < 0) {
+            throw new IllegalArgumentException("contentLength must not be negative");
+        }
+        return new PublisherHttpRequestBody(publisher, contentType, OptionalLong.of(contentLength));
+    }
+
     /**
      * {@return the length of content in the body} May be
      * {@link OptionalLong#empty()} if there is no known length.
@@ -64,6 +99,11 @@ public interface HttpRequestBody {
      * Creates a new read session for this body. A request body may allow
      * multiple read sessions to be opened.
      *
+     * <p>
+     * Every attempt at sending a request opens a new session, including retries and hedges. A body that
+     * can only be read once fails any attempt after the first.
+     * </p>
+     *
      * @return the new read session
      */
     ReadSession openReadSession();
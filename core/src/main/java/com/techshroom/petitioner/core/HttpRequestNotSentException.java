@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a request failed before any of it was sent, such as when the connection could not be
+ * opened. The server never saw the request, so it's safe to send again whatever its method.
+ */
+public class HttpRequestNotSentException extends IOException {
+    public HttpRequestNotSentException(String message) {
+        super(message);
+    }
+
+    public HttpRequestNotSentException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core;
+
+import com.techshroom.petitioner.core.internal.client.PriorityScheduler;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Limits the number of requests a client has in flight, admitting waiting requests by their
+ * {@linkplain HttpRequest#priority() priority}.
+ *
+ * <p>
+ * A request is in flight from when it's admitted until its response body ends or is closed, or it fails,
+ * including any hedges and retries. Give the same scheduler to several clients to share slots between them,
+ * with {@link HttpClient.Builder#scheduler(HttpRequestScheduler)}.
+ * </p>
+ */
+public final class HttpRequestScheduler {
+    /**
+     * Statistics for the requests of one priority.
+     *
+     * @param priority the priority
+     * @param queued the number of requests waiting now
+     * @param admitted the number of requests admitted so far
+     * @param totalWait the total time admitted requests spent waiting
+     * @param maxWait the longest time an admitted request spent waiting
+     */
+    public record QueueStats(
+        HttpPriority priority,
+        int queued,
+        long admitted,
+        Duration totalWait,
+        Duration maxWait
+    ) {
+        /**
+         * {@return the mean time admitted requests spent waiting, zero if none were admitted}
+         */
+        public Duration meanWait() {
+            return admitted == 0 ? Duration.ZERO : totalWait.dividedBy(admitted);
+        }
+    }
+
+    /**
+     * {@return a new scheduler}
+     *
+     * @param policy the settings to use
+     */
+    public static HttpRequestScheduler create(HttpSchedulingPolicy policy) {
+        return new HttpRequestScheduler(new PriorityScheduler(policy));
+    }
+
+    private final PriorityScheduler engine;
+
+    private HttpRequestScheduler(PriorityScheduler engine) {
+        this.engine = engine;
+    }
+
+    PriorityScheduler engine() {
+        return engine;
+    }
+
+    /**
+     * {@return the number of requests in flight}
+     */
+    public int inFlight() {
+        return engine.inFlight();
+    }
+
+    /**
+     * {@return the statistics for each priority, highest first}
+     */
+    public List<QueueStats> queueStats() {
+        return engine.queueStats();
+    }
+}
@@ -19,6 +19,9 @@
 package com.techshroom.petitioner.core;
 
 import com.techshroom.petitioner.core.internal.ReadSessionInputStream;
+import com.techshroom.petitioner.core.internal.ReadSessionPublisher;
+import com.techshroom.petitioner.core.internal.ReadSessionTransfers;
+import com.techshroom.petitioner.core.internal.select.Completables;
 import com.techshroom.petitioner.core.io.ReadSession;
 
 import java.io.Closeable;
@@ -27,10 +30,15 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.Objects;
 import java.util.OptionalLong;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
 
 /**
  * Represents the body of an HTTP response.
@@ -58,10 +66,30 @@ public interface HttpResponseBody extends Closeable {
      * Note that unlike a request body, a response body will only ever produce one read session.
      * </p>
      *
+     * <p>
+     * Each packet should be {@linkplain ReadSession#release(java.nio.ByteBuffer) released} once it's consumed,
+     * so clients with {@linkplain HttpClient.Builder#zeroCopyReads(boolean) zero-copy reads} can reuse its memory.
+     * </p>
+     *
      * @return the read session to read from
      */
     ReadSession readSession();
 
+    /**
+     * Read this body as a {@link Flow.Publisher} of packets. Completing, failing or cancelling the
+     * subscription also closes the body.
+     *
+     * <p>
+     * Packets are only read from the connection while the subscriber has outstanding demand. Only
+     * one subscriber is allowed, later ones fail immediately.
+     * </p>
+     *
+     * @return the publisher to subscribe to
+     */
+    default Flow.Publisher<ByteBuffer> publisher() {
+        return new ReadSessionPublisher(readSession());
+    }
+
     /**
      * Read this body as an {@link InputStream}. Closing this input stream also closes the body.
      *
@@ -86,13 +114,44 @@ public interface HttpResponseBody extends Closeable {
     /**
      * Read this body as a byte array. Automatically closes the body as well.
      *
-     * @return the bytes read from the {@link #inputStream()}
+     * @return the bytes read from the {@link #readSession()}
      * @throws IOException re-thrown from reading
+     * @implNote If the {@link #contentLength()} is known, the array is allocated once with exactly that size.
      */
     default byte[] bytes() throws IOException {
-        try (var stream = inputStream()) {
-            return stream.readAllBytes();
+        var buffer = Completables.await(bytesAsync());
+        if (buffer.arrayOffset() == 0 && buffer.remaining() == buffer.array().length) {
+            return buffer.array();
         }
+        var bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Read this body into a heap buffer asynchronously. Automatically closes the body as well.
+     *
+     * @return the completion stage that will result in the body, or an error
+     * @see #bytesAsync(boolean)
+     */
+    default CompletionStage<ByteBuffer> bytesAsync() {
+        return bytesAsync(false);
+    }
+
+    /**
+     * Read this body into a buffer asynchronously. Automatically closes the body as well.
+     *
+     * <p>
+     * Packets are copied straight into the buffer as they arrive. If the {@link #contentLength()} is known,
+     * the buffer is allocated once with exactly that size.
+     * </p>
+     *
+     * @param direct {@code true} to read into a {@linkplain ByteBuffer#allocateDirect(int) direct buffer},
+     * for passing on to native code or channels
+     * @return the completion stage that will result in the body, from position zero to the limit, or an error
+     */
+    default CompletionStage<ByteBuffer> bytesAsync(boolean direct) {
+        return ReadSessionTransfers.aggregate(readSession(), contentLength(), direct);
     }
 
     /**
@@ -108,4 +167,34 @@ public interface HttpResponseBody extends Closeable {
             return capture.toString();
         }
     }
+
+    /**
+     * Write this body to a channel, blocking until it's all written. Automatically closes the body as well.
+     *
+     * <p>
+     * Packets are written to the channel as they arrive, without copying them.
+     * </p>
+     *
+     * @param channel the channel to write to, which is not closed
+     * @return the number of bytes written
+     * @throws IOException re-thrown from reading or writing
+     */
+    default long transferTo(WritableByteChannel channel) throws IOException {
+        return ReadSessionTransfers.transferTo(readSession(), channel);
+    }
+
+    /**
+     * Save this body to a file, creating it or replacing its content. Automatically closes the body as well.
+     *
+     * <p>
+     * Packets are written to the file asynchronously as they arrive, without copying them.
+     * </p>
+     *
+     * @param path the file to write to
+     * @return the completion stage that will result in the number of bytes written, once they have all been
+     * written and the file is closed, or an error
+     */
+    default CompletionStage<Long> saveTo(Path path) {
+        return ReadSessionTransfers.saveTo(readSession(), path);
+    }
 }
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core;
+
+import java.time.Duration;
+
+/**
+ * When and how often to retry failed requests.
+ *
+ * <p>
+ * A request is retried if it failed with an {@link HttpRequestNotSentException}, or if its method is
+ * {@linkplain HttpMethod#isIdempotent() idempotent} and it failed with another {@link java.io.IOException},
+ * or received a {@code 503 Service Unavailable} or {@code 429 Too Many Requests} response.
+ * </p>
+ *
+ * <p>
+ * The delay before retry {@code n} is chosen uniformly at random between zero and
+ * {@code initialBackoff * 2^(n - 1)}, capped at {@link #maxBackoff()}. A {@code Retry-After} header on a
+ * 503 or 429 response raises the delay to match. If it asks for longer than {@link #maxRetryAfter()},
+ * the response is returned instead.
+ * </p>
+ *
+ * <p>
+ * Retries are limited by a budget shared by the whole client. Each request earns {@link #budget()} of a
+ * retry, and the client can save up ten, so when everything is failing the retries add at most that
+ * fraction of extra load.
+ * </p>
+ *
+ * @param maxAttempts the most attempts for one request, including the first
+ * @param initialBackoff the most to wait before the first retry
+ * @param maxBackoff the most to wait before any retry, except to honour {@code Retry-After}
+ * @param maxRetryAfter the longest {@code Retry-After} to wait for
+ * @param budget the number of retries each request earns for the client, between 0 and 1
+ */
+public record HttpRetryPolicy(
+    int maxAttempts,
+    Duration initialBackoff,
+    Duration maxBackoff,
+    Duration maxRetryAfter,
+    double budget
+) {
+    private static final HttpRetryPolicy DEFAULTS = new HttpRetryPolicy(
+        3, Duration.ofMillis(100), Duration.ofSeconds(5), Duration.ofSeconds(30), 0.1
+    );
+
+    /**
+     * {@return the default policy}
+     */
+    public static HttpRetryPolicy defaults() {
+        return DEFAULTS;
+    }
+
+    public HttpRetryPolicy {
+        if (maxAttempts <= 0) {
+            throw new IllegalArgumentException("maxAttempts must be positive");
+        }
+        if (initialBackoff == null || initialBackoff.isNegative()) {
+            throw new IllegalArgumentException("initialBackoff must not be negative");
+        }
+        if (maxBackoff == null || maxBackoff.compareTo(initialBackoff) < 0) {
+            throw new IllegalArgumentException("maxBackoff must be at least initialBackoff");
+        }
+        if (maxRetryAfter == null || maxRetryAfter.isNegative()) {
+            throw new IllegalArgumentException("maxRetryAfter must not be negative");
+        }
+        if (!(budget >= 0 && budget <= 1)) {
+            throw new IllegalArgumentException("budget must be between 0 and 1");
+        }
+    }
+
+    public HttpRetryPolicy withMaxAttempts(int maxAttempts) {
+        return new HttpRetryPolicy(maxAttempts, initialBackoff, maxBackoff, maxRetryAfter, budget);
+    }
+
+    public HttpRetryPolicy withInitialBackoff(Duration initialBackoff) {
+        return new HttpRetryPolicy(maxAttempts, initialBackoff, maxBackoff, maxRetryAfter, budget);
+    }
+
+    public HttpRetryPolicy withMaxBackoff(Duration maxBackoff) {
+        return new HttpRetryPolicy(maxAttempts, initialBackoff, maxBackoff, maxRetryAfter, budget);
+    }
+
+    public HttpRetryPolicy withMaxRetryAfter(Duration maxRetryAfter) {
+        return new HttpRetryPolicy(maxAttempts, initialBackoff, maxBackoff, maxRetryAfter, budget);
+    }
+
+    public HttpRetryPolicy withBudget(double budget) {
+        return new HttpRetryPolicy(maxAttempts, initialBackoff, maxBackoff, maxRetryAfter, budget);
+    }
+}
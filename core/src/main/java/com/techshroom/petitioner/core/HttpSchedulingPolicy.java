@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core;
+
+import java.time.Duration;
+
+/**
+ * Settings for an {@link HttpRequestScheduler}.
+ *
+ * @param maxConcurrent the most requests the scheduler lets be in flight at once
+ * @param agingInterval how long a request waits before its priority rises by one level, zero to never
+ *     raise it
+ */
+public record HttpSchedulingPolicy(
+    int maxConcurrent,
+    Duration agingInterval
+) {
+    public HttpSchedulingPolicy {
+        if (maxConcurrent <= 0) {
+            throw new IllegalArgumentException("maxConcurrent must be positive");
+        }
+        if (agingInterval == null || agingInterval.isNegative()) {
+            throw new IllegalArgumentException("agingInterval must not be negative");
+        }
+    }
+
+    public HttpSchedulingPolicy withMaxConcurrent(int maxConcurrent) {
+        return new HttpSchedulingPolicy(maxConcurrent, agingInterval);
+    }
+
+    public HttpSchedulingPolicy withAgingInterval(Duration agingInterval) {
+        return new HttpSchedulingPolicy(maxConcurrent, agingInterval);
+    }
+}
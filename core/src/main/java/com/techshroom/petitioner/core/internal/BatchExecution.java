@@ -0,0 +1,316 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal;
+
+import com.techshroom.petitioner.core.HttpBatch;
+import com.techshroom.petitioner.core.HttpBatchStats;
+import com.techshroom.petitioner.core.HttpClient;
+import com.techshroom.petitioner.core.HttpRequest;
+import com.techshroom.petitioner.core.HttpResponse;
+import com.techshroom.petitioner.core.internal.select.SerialQueue;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Executes requests pulled from an iterator, with at most a fixed number outstanding at once.
+ *
+ * <p>
+ * A request is outstanding from when it's pulled until its {@link Sink} calls {@link #release()}, so a
+ * sink that buffers results also bounds how many it buffers. The iterator is only touched from the
+ * drain loop, which runs on one thread at a time, so it doesn't need to be thread-safe.
+ * </p>
+ */
+public final class BatchExecution implements HttpBatch {
+    /**
+     * Receives the results of a batch execution.
+     */
+    @FunctionalInterface
+    public interface Sink {
+        /**
+         * Accept a result. {@link BatchExecution#release()} must be called once it's been handled, to free
+         * its slot.
+         *
+         * @param execution the execution the result is from
+         * @param result the result
+         */
+        void accept(BatchExecution execution, Result result);
+    }
+
+    /**
+     * Create an execution that delivers results to a listener, one at a time.
+     *
+     * @param client the client to execute requests with
+     * @param requests the requests
+     * @param maxConcurrency the most requests to have outstanding at once
+     * @param listener the listener for results
+     * @return the execution, not yet started
+     */
+    public static BatchExecution withListener(HttpClient client, Iterator<? extends HttpRequest> requests,
+                                              int maxConcurrency, Listener listener) {
+        var deliveries = new SerialQueue();
+        return new BatchExecution(client, requests, maxConcurrency, (execution, result) -> deliveries.run(() -> {
+            try {
+                if (execution.isCancelled()) {
+                    discard(result);
+                } else {
+                    listener.onResult(result);
+                }
+            } catch (Throwable t) {
+                execution.fail(t);
+            } finally {
+                execution.release();
+            }
+        }));
+    }
+
+    /**
+     * Close the body of a result that won't be delivered.
+     *
+     * @param result the result
+     */
+    public static void discard(Result result) {
+        var response = result.response();
+        if (response == null || response.body() == null) {
+            return;
+        }
+        try {
+            response.body().close();
+        } catch (IOException ignored) {
+            // Nobody is left to tell
+        }
+    }
+
+    private static Throwable unwrap(Throwable ex) {
+        return ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+    }
+
+    private final HttpClient client;
+    private final Iterator<? extends HttpRequest> requests;
+    private final Sink sink;
+    private final AtomicInteger freeSlots;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private final Set<CompletableFuture<HttpResponse>> inFlight = ConcurrentHashMap.newKeySet();
+    private final AtomicReference<@Nullable Throwable> failure = new AtomicReference<>();
+    private final CompletableFuture<HttpBatchStats> completion = new CompletableFuture<>();
+    /*
+     * Only touched by the drain loop.
+     */
+    private boolean exhausted;
+
+    private final long startNanos = System.nanoTime();
+    private volatile long finishNanos;
+    private volatile boolean finished;
+    private final LongAdder started = new LongAdder();
+    private final LongAdder succeeded = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder discarded = new LongAdder();
+    private final LongAdder totalLatencyNanos = new LongAdder();
+    private final AtomicLong minLatencyNanos = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    public BatchExecution(HttpClient client, Iterator<? extends HttpRequest> requests, int maxConcurrency,
+                          Sink sink) {
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("maxConcurrency must be positive");
+        }
+        this.client = client;
+        this.requests = requests;
+        this.sink = sink;
+        this.freeSlots = new AtomicInteger(maxConcurrency);
+    }
+
+    /**
+     * Start pulling requests.
+     *
+     * @return this execution
+     */
+    public BatchExecution start() {
+        drain();
+        return this;
+    }
+
+    /**
+     * Free the slot of a result given to the sink, letting another request start.
+     */
+    public void release() {
+        freeSlots.incrementAndGet();
+        outstanding.decrementAndGet();
+        drain();
+    }
+
+    /**
+     * Cancel the batch, completing it with the given failure once every outstanding request is released.
+     *
+     * @param ex the failure
+     */
+    public void fail(Throwable ex) {
+        failure.compareAndSet(null, ex);
+        cancel();
+    }
+
+    @Override
+    public void cancel() {
+        if (cancelled.compareAndSet(false, true)) {
+            for (var future : inFlight) {
+                future.cancel(false);
+            }
+            drain();
+        }
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            while (!exhausted) {
+                if (cancelled.get()) {
+                    exhausted = true;
+                    break;
+                }
+                // Only this loop takes slots, so a free slot can't disappear before it's taken
+                if (freeSlots.get() == 0) {
+                    break;
+                }
+                HttpRequest request;
+                try {
+                    if (!requests.hasNext()) {
+                        exhausted = true;
+                        break;
+                    }
+                    request = requests.next();
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                    cancelled.set(true);
+                    exhausted = true;
+                    break;
+                }
+                freeSlots.decrementAndGet();
+                outstanding.incrementAndGet();
+                launch(request);
+            }
+            if (exhausted && outstanding.get() == 0) {
+                finish();
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void launch(HttpRequest request) {
+        started.increment();
+        long requestStart = System.nanoTime();
+        CompletableFuture<HttpResponse> future;
+        try {
+            future = client.executeAsync(request).toCompletableFuture();
+        } catch (Throwable t) {
+            future = CompletableFuture.failedFuture(t);
+        }
+        inFlight.add(future);
+        if (cancelled.get()) {
+            // Cancelled after the drain loop checked, the cancel may have missed it
+            future.cancel(false);
+        }
+        var launched = future;
+        future.whenComplete((response, ex) -> {
+            inFlight.remove(launched);
+            settle(request, requestStart, response, ex);
+        });
+    }
+
+    private void settle(HttpRequest request, long requestStart, @Nullable HttpResponse response,
+                        @Nullable Throwable ex) {
+        long latency = System.nanoTime() - requestStart;
+        totalLatencyNanos.add(latency);
+        minLatencyNanos.accumulateAndGet(latency, Math::min);
+        maxLatencyNanos.accumulateAndGet(latency, Math::max);
+        var result = ex != null
+            ? new Result(request, null, unwrap(ex), Duration.ofNanos(latency))
+            : new Result(request, response, null, Duration.ofNanos(latency));
+        if (cancelled.get()) {
+            discarded.increment();
+            discard(result);
+            release();
+            return;
+        }
+        (ex != null ? failed : succeeded).increment();
+        try {
+            sink.accept(this, result);
+        } catch (Throwable t) {
+            discard(result);
+            fail(t);
+            release();
+        }
+    }
+
+    private void finish() {
+        if (completion.isDone()) {
+            return;
+        }
+        finishNanos = System.nanoTime();
+        finished = true;
+        var ex = failure.get();
+        if (ex != null) {
+            completion.completeExceptionally(ex);
+        } else {
+            completion.complete(stats());
+        }
+    }
+
+    @Override
+    public HttpBatchStats stats() {
+        long elapsed = (finished ? finishNanos : System.nanoTime()) - startNanos;
+        long min = minLatencyNanos.get();
+        return new HttpBatchStats(
+            started.sum(),
+            succeeded.sum(),
+            failed.sum(),
+            discarded.sum(),
+            Duration.ofNanos(elapsed),
+            Duration.ofNanos(min == Long.MAX_VALUE ? 0 : min),
+            Duration.ofNanos(maxLatencyNanos.get()),
+            Duration.ofNanos(totalLatencyNanos.sum())
+        );
+    }
+
+    @Override
+    public CompletionStage<HttpBatchStats> completion() {
+        return completion.minimalCompletionStage();
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal;
+
+import com.techshroom.petitioner.core.HttpBatch;
+import com.techshroom.petitioner.core.HttpClient;
+import com.techshroom.petitioner.core.HttpRequest;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the results of a batch, executing requests only while results are being consumed.
+ *
+ * <p>
+ * Each subscriber gets its own {@link BatchExecution} over a fresh iterator. A result holds its slot until
+ * it's delivered, so at most the maximum concurrency worth of results are ever waiting for demand.
+ * Cancelling the subscription cancels the execution, and closes any results that weren't delivered.
+ * </p>
+ */
+public final class BatchPublisher implements Flow.Publisher<HttpBatch.Result> {
+    private final HttpClient client;
+    private final Iterable<? extends HttpRequest> requests;
+    private final int maxConcurrency;
+
+    public BatchPublisher(HttpClient client, Iterable<? extends HttpRequest> requests, int maxConcurrency) {
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("maxConcurrency must be positive");
+        }
+        this.client = client;
+        this.requests = requests;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super HttpBatch.Result> subscriber) {
+        var subscription = new BatchSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        subscription.start();
+    }
+
+    private final class BatchSubscription implements Flow.Subscription, BatchExecution.Sink {
+        private final Flow.Subscriber<? super HttpBatch.Result> subscriber;
+        private final Queue<HttpBatch.Result> ready = new ConcurrentLinkedQueue<>();
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private final AtomicBoolean done = new AtomicBoolean();
+        private volatile @Nullable BatchExecution execution;
+        private volatile boolean executionDone;
+        private volatile @Nullable Throwable executionFailure;
+
+        private BatchSubscription(Flow.Subscriber<? super HttpBatch.Result> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        private void start() {
+            if (done.get()) {
+                // Cancelled from onSubscribe
+                return;
+            }
+            BatchExecution execution;
+            try {
+                execution = new BatchExecution(client, requests.iterator(), maxConcurrency, this);
+            } catch (Throwable t) {
+                executionFailure = t;
+                executionDone = true;
+                drain();
+                return;
+            }
+            this.execution = execution;
+            execution.completion().whenComplete((stats, ex) -> {
+                executionFailure = ex;
+                executionDone = true;
+                drain();
+            });
+            execution.start();
+            // A cancel before the execution existed had nothing to cancel
+            if (done.get()) {
+                execution.cancel();
+            }
+        }
+
+        @Override
+        public void accept(BatchExecution execution, HttpBatch.Result result) {
+            ready.offer(result);
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                signalError(new IllegalArgumentException("Requested a non-positive number of results: " + n));
+                return;
+            }
+            // Saturate at Long.MAX_VALUE, which means unbounded demand
+            demand.getAndAccumulate(n, (current, added) -> {
+                long sum = current + added;
+                return sum < 0 ? Long.MAX_VALUE : sum;
+            });
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            if (done.compareAndSet(false, true)) {
+                cancelExecution();
+                drain();
+            }
+        }
+
+        private void signalError(Throwable ex) {
+            if (done.compareAndSet(false, true)) {
+                cancelExecution();
+                subscriber.onError(ex);
+                drain();
+            }
+        }
+
+        private void cancelExecution() {
+            var execution = this.execution;
+            if (execution != null) {
+                execution.cancel();
+            }
+        }
+
+        /**
+         * Deliver ready results while there's demand. Signals to the subscriber only happen here, or after
+         * {@link #done} is set, so they're never concurrent.
+         */
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                HttpBatch.Result result;
+                while ((done.get() || demand.get() > 0) && (result = ready.poll()) != null) {
+                    if (done.get()) {
+                        BatchExecution.discard(result);
+                    } else {
+                        demand.getAndUpdate(current -> current == Long.MAX_VALUE ? current : current - 1);
+                        subscriber.onNext(result);
+                    }
+                    // A result only arrives once the execution exists
+                    Objects.requireNonNull(execution).release();
+                }
+                if (executionDone && ready.isEmpty() && done.compareAndSet(false, true)) {
+                    var ex = executionFailure;
+                    if (ex != null) {
+                        subscriber.onError(ex);
+                    } else {
+                        subscriber.onComplete();
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+}
@@ -18,6 +18,7 @@
 
 package com.techshroom.petitioner.core.internal;
 
+import com.techshroom.petitioner.core.HttpBufferSizing;
 import com.techshroom.petitioner.core.HttpContentType;
 import com.techshroom.petitioner.core.HttpRequestBody;
 import com.techshroom.petitioner.core.io.ReadSession;
@@ -27,8 +28,7 @@ import java.nio.ByteBuffer;
 import java.util.OptionalLong;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public final record ByteBufferHttpRequestBody(
     ByteBuffer content,
@@ -47,7 +47,17 @@ public final record ByteBufferHttpRequestBody(
 
     @Override
     public ReadSession openReadSession() {
-        if (content.remaining() < Constants.PACKET_SIZE) {
+        return openReadSession(HttpBufferSizing.defaults().maximum());
+    }
+
+    /**
+     * Open a read session that returns packets of at most the given size.
+     *
+     * @param maxPacketSize the maximum packet size
+     * @return the new read session
+     */
+    public ReadSession openReadSession(int maxPacketSize) {
+        if (content.remaining() <= maxPacketSize) {
             // We can just use the content itself
             return new ReadSession() {
                 private final AtomicBoolean closed = new AtomicBoolean();
@@ -68,34 +78,27 @@ public final record ByteBufferHttpRequestBody(
             };
         }
         return new ReadSession() {
-            private final Lock lock = new ReentrantLock();
-            private int index;
+            private final AtomicInteger index = new AtomicInteger();
 
             @Override
             public CompletableFuture<@Nullable ByteBuffer> readNextPacket() {
-                lock.lock();
-                try {
-                    int size = Math.min(Constants.PACKET_SIZE, content.remaining() - index);
+                while (true) {
+                    int start = index.get();
+                    int size = Math.min(maxPacketSize, content.remaining() - start);
                     if (size <= 0) {
                         return CompletableFuture.completedFuture(Constants.EMPTY_BYTE_BUFFER);
                     }
-                    var buffer = content.slice(index, size);
-                    index += size;
-                    return CompletableFuture.completedFuture(buffer);
-                } finally {
-                    lock.unlock();
+                    // Claim the packet, if we lose the race another caller got it and we try the next one
+                    if (index.compareAndSet(start, start + size)) {
+                        return CompletableFuture.completedFuture(content.slice(content.position() + start, size));
+                    }
                 }
             }
 
             @Override
             public void close() {
-                lock.lock();
-                try {
-                    // "close" by moving to the end of the buffer :)
-                    index = content.remaining();
-                } finally {
-                    lock.unlock();
-                }
+                // "close" by moving to the end of the buffer :)
+                index.set(content.remaining());
             }
         };
     }
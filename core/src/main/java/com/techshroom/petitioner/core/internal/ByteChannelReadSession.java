@@ -18,37 +18,155 @@
 
 package com.techshroom.petitioner.core.internal;
 
+import com.techshroom.petitioner.core.HttpBufferSizing;
+import com.techshroom.petitioner.core.internal.buffer.BufferPool;
+import com.techshroom.petitioner.core.internal.jfr.JfrEvents;
+import com.techshroom.petitioner.core.internal.jfr.SlowReadEvent;
 import com.techshroom.petitioner.core.internal.select.Completables;
+import com.techshroom.petitioner.core.internal.select.SerialQueue;
 import com.techshroom.petitioner.core.io.ReadSession;
 import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousByteChannel;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Reads packets from a channel into pooled buffers.
+ *
+ * <p>
+ * By default, each packet is copied out of the pooled buffer. In zero-copy mode, each packet is
+ * instead a read-only slice of a pooled chunk, and the chunk goes back to the pool once the session
+ * is closed and every slice of it has been {@linkplain #release(ByteBuffer) released}.
+ * </p>
+ *
+ * <p>
+ * Reads, hints and the final release of the chunk run through a {@link SerialQueue}, so they never
+ * block and always see each other's state changes.
+ * </p>
+ *
+ * <p>
+ * Reads slower than the threshold of {@link SlowReadEvent}, and closing the channel, are recorded as Flight
+ * Recorder events, if enabled.
+ * </p>
+ */
 public class ByteChannelReadSession implements ReadSession {
-    private final Semaphore semaphore = new Semaphore(1);
-    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(Constants.PACKET_SIZE);
+    /**
+     * In zero-copy mode, chunks hold this many reads of the current size, so small packets can share one.
+     */
+    private static final int READS_PER_CHUNK = 4;
+
+    private final SerialQueue queue = new SerialQueue();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final BufferPool bufferPool;
+    private final HttpBufferSizing sizing;
+    private final boolean zeroCopy;
+    private final @Nullable Map<PacketKey, Chunk> outstandingPackets;
     private final AsynchronousByteChannel channel;
+    // Only touched by operations on the queue
+    private Chunk chunk;
+    private boolean chunkReleased;
+    private int readSize;
+    private int consecutiveSmallReads;
 
     public ByteChannelReadSession(AsynchronousByteChannel channel) {
+        this(channel, BufferPool.shared(), HttpBufferSizing.defaults(), false);
+    }
+
+    public ByteChannelReadSession(AsynchronousByteChannel channel, BufferPool bufferPool, HttpBufferSizing sizing,
+                                  boolean zeroCopy) {
         this.channel = channel;
+        this.bufferPool = bufferPool;
+        this.sizing = sizing;
+        this.zeroCopy = zeroCopy;
+        this.outstandingPackets = zeroCopy ? new ConcurrentHashMap<>() : null;
+        this.readSize = sizing.initial();
+        this.chunk = new Chunk(bufferPool.acquireDirect(chunkCapacity()));
+    }
+
+    private int chunkCapacity() {
+        return zeroCopy
+            ? Math.max(readSize, Math.min(READS_PER_CHUNK * readSize, BufferPool.MAX_POOLED_SIZE))
+            : readSize;
+    }
+
+    /**
+     * Size the next read to fit the given number of bytes, if they're expected to arrive soon.
+     *
+     * @param expectedBytes the number of bytes expected, such as the remaining content length
+     */
+    public void hintExpectedBytes(long expectedBytes) {
+        queue.run(() -> {
+            readSize = sizing.clamp(expectedBytes);
+            consecutiveSmallReads = 0;
+        });
+    }
+
+    /**
+     * Grow the read size if the read filled the buffer, or shrink it if reads keep using half or less.
+     */
+    private void adaptReadSize(int readCount) {
+        if (readCount >= readSize) {
+            consecutiveSmallReads = 0;
+            readSize = sizing.clamp(2L * readSize);
+        } else if (readCount <= readSize / 2) {
+            consecutiveSmallReads++;
+            if (consecutiveSmallReads >= 2) {
+                consecutiveSmallReads = 0;
+                readSize = sizing.clamp(readSize / 2);
+            }
+        } else {
+            consecutiveSmallReads = 0;
+        }
     }
 
     @Override
     public CompletionStage<@NonNull ByteBuffer> readNextPacket() {
-        semaphore.acquireUninterruptibly();
-        var future = new CompletableFuture<ByteBuffer>();
-        tryReadAndComplete(future);
-        // Don't unlock for the next packet until we finish reading
-        return future.whenComplete((__, ___) -> semaphore.release());
+        // The next packet isn't read until this one is done
+        return queue.submit(() -> {
+            if (closed.get()) {
+                return CompletableFuture.completedFuture(Constants.EMPTY_BYTE_BUFFER);
+            }
+            var future = new CompletableFuture<ByteBuffer>();
+            if (JfrEvents.slowReadEnabled()) {
+                var event = new SlowReadEvent();
+                event.begin();
+                future.thenAccept(packet -> {
+                    event.end();
+                    if (event.shouldCommit()) {
+                        event.bytesRead = packet.remaining();
+                        event.commit();
+                    }
+                });
+            }
+            tryReadAndComplete(future);
+            return future;
+        });
+    }
+
+    /**
+     * {@return the chunk's buffer, positioned for the next read} Swaps the chunk first if the read
+     * doesn't fit, or if it's much larger than needed while copying.
+     */
+    private ByteBuffer prepareReadTarget() {
+        int capacity = chunk.buffer.capacity();
+        if (capacity - chunk.writeOffset < readSize || (!zeroCopy && capacity / 2 >= readSize)) {
+            chunk.release();
+            chunk = new Chunk(bufferPool.acquireDirect(chunkCapacity()));
+        }
+        return chunk.buffer.limit(chunk.writeOffset + readSize).position(chunk.writeOffset);
     }
 
     private void tryReadAndComplete(CompletableFuture<ByteBuffer> future) {
-        var readFtr = Completables.<Integer>wrap((a, h) -> channel.read(readBuffer, a, h));
+        var target = prepareReadTarget();
+        var readFtr = Completables.<Integer>wrap((a, h) -> channel.read(target, a, h));
         Completables.attachParent(readFtr, future);
         readFtr.thenAccept(readCount -> {
             if (readCount == -1) {
@@ -57,22 +175,92 @@ public class ByteChannelReadSession implements ReadSession {
             }
             if (readCount == 0) {
                 // Doubt this will happen often
-                readBuffer.clear();
                 tryReadAndComplete(future);
                 return;
             }
-            readBuffer.flip();
-            var nextPacket = ByteBuffer.allocate(readCount);
-            nextPacket.put(readBuffer);
-            nextPacket.flip();
-            readBuffer.clear();
-            future.complete(nextPacket.asReadOnlyBuffer());
+            var region = chunk.buffer.slice(chunk.writeOffset, readCount);
+            ByteBuffer nextPacket;
+            if (zeroCopy) {
+                nextPacket = region.asReadOnlyBuffer();
+                chunk.writeOffset += readCount;
+                chunk.refs.incrementAndGet();
+                outstandingPackets.put(new PacketKey(nextPacket), chunk);
+            } else {
+                nextPacket = ByteBuffer.allocate(readCount).put(region).flip().asReadOnlyBuffer();
+            }
+            // Must happen before completion, which may start the next read
+            adaptReadSize(readCount);
+            future.complete(nextPacket);
         });
     }
 
+    @Override
+    public void release(ByteBuffer packet) {
+        if (outstandingPackets == null) {
+            return;
+        }
+        var packetChunk = outstandingPackets.remove(new PacketKey(packet));
+        if (packetChunk != null) {
+            packetChunk.release();
+        }
+    }
+
     @Override
     public void close() throws IOException {
-        // We only own the channel
-        this.channel.close();
+        closed.set(true);
+        try {
+            // We own the channel, which also fails any read in progress
+            Connections.close(this.channel);
+        } finally {
+            // Give up our reference to the current chunk once no read is using it
+            queue.run(() -> {
+                if (!chunkReleased) {
+                    chunkReleased = true;
+                    chunk.release();
+                }
+            });
+        }
+    }
+
+    /**
+     * Compares packets by identity, since {@link ByteBuffer#equals(Object)} compares their content.
+     */
+    private static final class PacketKey {
+        private final ByteBuffer packet;
+
+        private PacketKey(ByteBuffer packet) {
+            this.packet = packet;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof PacketKey other && other.packet == packet;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(packet);
+        }
+    }
+
+    /**
+     * A pooled buffer, with one reference held by the session while reading into it, and one per
+     * outstanding packet.
+     */
+    private final class Chunk {
+        private final ByteBuffer buffer;
+        private final AtomicInteger refs = new AtomicInteger(1);
+        // Only touched by operations on the queue
+        private int writeOffset;
+
+        private Chunk(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        private void release() {
+            if (refs.decrementAndGet() == 0) {
+                bufferPool.release(buffer);
+            }
+        }
     }
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal;
+
+import com.techshroom.petitioner.core.internal.jfr.ConnectionCloseEvent;
+import com.techshroom.petitioner.core.internal.jfr.JfrEvents;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.Channel;
+
+/**
+ * Helpers for connections. Closing goes through here, so every path that closes one is recorded the same
+ * way.
+ */
+public final class Connections {
+    /**
+     * {@return the key for the host of a URI, with its port}
+     *
+     * @param uri the URI
+     */
+    public static String hostKey(URI uri) {
+        int port = uri.getPort();
+        if (port == -1) {
+            port = "https".equals(uri.getScheme()) ? 443 : 80;
+        }
+        return uri.getHost() + ":" + port;
+    }
+
+    /**
+     * Close a connection, recording it as a Flight Recorder event if enabled. Only the first close of a
+     * connection is recorded, so it pairs with the event for opening it.
+     *
+     * @param channel the connection
+     * @throws IOException if closing fails
+     */
+    public static void close(Channel channel) throws IOException {
+        if (!JfrEvents.connectionCloseEnabled()) {
+            channel.close();
+            return;
+        }
+        // The address can't be read once it's closed
+        var remoteAddress = remoteAddress(channel);
+        boolean wasOpen;
+        synchronized (channel) {
+            wasOpen = channel.isOpen();
+            try {
+                channel.close();
+            } finally {
+                if (wasOpen) {
+                    var event = new ConnectionCloseEvent();
+                    event.remoteAddress = remoteAddress;
+                    event.commit();
+                }
+            }
+        }
+    }
+
+    /**
+     * Close a connection that is being abandoned, ignoring any failure.
+     *
+     * @param channel the connection
+     */
+    public static void closeQuietly(Channel channel) {
+        try {
+            close(channel);
+        } catch (IOException ignored) {
+            // It's being abandoned anyway
+        }
+    }
+
+    private static @Nullable String remoteAddress(Channel channel) {
+        if (!(channel instanceof AsynchronousSocketChannel socketChannel)) {
+            return null;
+        }
+        try {
+            var address = socketChannel.getRemoteAddress();
+            return address == null ? null : address.toString();
+        } catch (IOException e) {
+            // Already closed
+            return null;
+        }
+    }
+
+    private Connections() {
+    }
+}
@@ -26,7 +26,6 @@ import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class Constants {
-    public static final int PACKET_SIZE = 4096;
     public static final ByteBuffer EMPTY_BYTE_BUFFER = ByteBuffer.allocate(0).asReadOnlyBuffer();
     public static final ExecutorService DEFAULT_WORK_EXECUTOR = Executors.newFixedThreadPool(
         Runtime.getRuntime().availableProcessors(),
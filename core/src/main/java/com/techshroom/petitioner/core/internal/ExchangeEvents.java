@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal;
+
+import com.techshroom.petitioner.core.HttpEventListener;
+import com.techshroom.petitioner.core.HttpMetricsSnapshot;
+import com.techshroom.petitioner.core.HttpRequest;
+import com.techshroom.petitioner.core.HttpResponse;
+import com.techshroom.petitioner.core.internal.jfr.ExchangeEvent;
+import com.techshroom.petitioner.core.internal.jfr.JfrEvents;
+import com.techshroom.petitioner.core.internal.metrics.ClientMetrics;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reports the phases of one exchange to an {@link HttpEventListener}, to {@link ClientMetrics}, and to
+ * Flight Recorder as an {@link ExchangeEvent}, taking the timestamps.
+ *
+ * <p>
+ * Without any of them, the shared {@link #none()} instance is used, and every method returns after a single
+ * check, without reading the clock.
+ * </p>
+ */
+public final class ExchangeEvents {
+    private static final ExchangeEvents NONE = new ExchangeEvents(null, null, null, null);
+
+    /**
+     * {@return events that are reported nowhere}
+     */
+    public static ExchangeEvents none() {
+        return NONE;
+    }
+
+    /**
+     * {@return the events of an exchange, which starts now}
+     *
+     * @param listener the listener to report to, or {@code null} for none
+     * @param metrics the metrics to record to, or {@code null} for none
+     * @param request the request of the exchange
+     */
+    public static ExchangeEvents start(@Nullable HttpEventListener listener, @Nullable ClientMetrics metrics,
+                                       HttpRequest request) {
+        var jfrEvent = JfrEvents.exchangeEnabled() ? new ExchangeEvent() : null;
+        if (listener == null && metrics == null && jfrEvent == null) {
+            return NONE;
+        }
+        if (jfrEvent != null) {
+            jfrEvent.begin();
+            jfrEvent.method = request.method().name();
+            jfrEvent.host = Connections.hostKey(request.uri());
+        }
+        var events = new ExchangeEvents(listener, metrics, jfrEvent, request);
+        if (metrics != null) {
+            metrics.exchangeStarted();
+        }
+        return events;
+    }
+
+    @FunctionalInterface
+    private interface Callback {
+        void call(HttpEventListener listener, HttpRequest request, long nanoTime);
+    }
+
+    private final boolean enabled;
+    private final @Nullable HttpEventListener listener;
+    private final @Nullable ClientMetrics metrics;
+    /**
+     * Only written by one phase at a time, each of which happens after the one before.
+     */
+    private final @Nullable ExchangeEvent jfrEvent;
+    private final @Nullable HttpRequest request;
+    private final long startNanos;
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private volatile long connectStartNanos;
+    // Guarded by this
+    private boolean socketOpen;
+
+    private ExchangeEvents(@Nullable HttpEventListener listener, @Nullable ClientMetrics metrics,
+                           @Nullable ExchangeEvent jfrEvent, @Nullable HttpRequest request) {
+        this.enabled = listener != null || metrics != null || jfrEvent != null;
+        this.listener = listener;
+        this.metrics = metrics;
+        this.jfrEvent = jfrEvent;
+        this.request = request;
+        this.startNanos = enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * {@return if anything is listening}
+     */
+    public boolean enabled() {
+        return enabled;
+    }
+
+    private void report(Callback callback, long nanoTime) {
+        if (listener != null) {
+            try {
+                callback.call(listener, request, nanoTime);
+            } catch (RuntimeException ignored) {
+                // Listeners can't break the exchange
+            }
+        }
+    }
+
+    private String host() {
+        return Connections.hostKey(request.uri());
+    }
+
+    public void dnsStart(String host) {
+        if (enabled) {
+            report((l, r, t) -> l.dnsStart(r, host, t), System.nanoTime());
+        }
+    }
+
+    public void dnsEnd(InetSocketAddress address) {
+        if (enabled) {
+            report((l, r, t) -> l.dnsEnd(r, address, t), System.nanoTime());
+        }
+    }
+
+    public void connectStart(InetSocketAddress address) {
+        if (enabled) {
+            long now = System.nanoTime();
+            connectStartNanos = now;
+            report((l, r, t) -> l.connectStart(r, address, t), now);
+        }
+    }
+
+    public void connectEnd(InetSocketAddress address) {
+        if (enabled) {
+            long now = System.nanoTime();
+            if (metrics != null) {
+                metrics.recordLatency(host(), HttpMetricsSnapshot.Phase.CONNECT, now - connectStartNanos);
+            }
+            if (jfrEvent != null) {
+                jfrEvent.connectDuration = now - connectStartNanos;
+            }
+            report((l, r, t) -> l.connectEnd(r, address, t), now);
+        }
+    }
+
+    /**
+     * Note that the exchange has a connection, which it keeps until it finishes. This isn't reported to the
+     * listener.
+     */
+    public void connected() {
+        if (metrics != null) {
+            synchronized (this) {
+                if (!socketOpen && !finished.get()) {
+                    socketOpen = true;
+                    metrics.socketOpened();
+                }
+            }
+        }
+    }
+
+    /**
+     * Note bytes written to the connection. This isn't reported to the listener.
+     *
+     * @param byteCount the number of bytes
+     */
+    public void bytesWritten(long byteCount) {
+        if (metrics != null) {
+            metrics.bytesWritten(byteCount);
+        }
+        if (jfrEvent != null) {
+            jfrEvent.bytesWritten += byteCount;
+        }
+    }
+
+    /**
+     * Note bytes of the response head read from the connection. This isn't reported to the listener.
+     *
+     * @param byteCount the number of bytes, negative to take back bytes that turned out to be the body
+     */
+    public void headBytesRead(long byteCount) {
+        if (metrics != null) {
+            metrics.bytesRead(byteCount);
+        }
+        if (jfrEvent != null) {
+            jfrEvent.bytesRead += byteCount;
+        }
+    }
+
+    public void requestHeadersWritten() {
+        if (enabled) {
+            report(HttpEventListener::requestHeadersWritten, System.nanoTime());
+        }
+    }
+
+    public void requestBodyWritten() {
+        if (enabled) {
+            report(HttpEventListener::requestBodyWritten, System.nanoTime());
+        }
+    }
+
+    public void responseHeadStart() {
+        if (enabled) {
+            long now = System.nanoTime();
+            if (metrics != null) {
+                metrics.recordLatency(host(), HttpMetricsSnapshot.Phase.TIME_TO_FIRST_BYTE, now - startNanos);
+            }
+            if (jfrEvent != null) {
+                jfrEvent.timeToFirstByte = now - startNanos;
+            }
+            report(HttpEventListener::responseHeadStart, now);
+        }
+    }
+
+    public void responseHeadEnd(HttpResponse response) {
+        if (enabled) {
+            if (metrics != null) {
+                metrics.response(response.statusCode());
+            }
+            if (jfrEvent != null) {
+                jfrEvent.statusCode = response.statusCode();
+            }
+            report((l, r, t) -> l.responseHeadEnd(r, response, t), System.nanoTime());
+        }
+    }
+
+    public void bodyBytesRead(long byteCount) {
+        if (enabled) {
+            if (metrics != null) {
+                metrics.bytesRead(byteCount);
+            }
+            if (jfrEvent != null) {
+                jfrEvent.bytesRead += byteCount;
+            }
+            report((l, r, t) -> l.bodyBytesRead(r, byteCount, t), System.nanoTime());
+        }
+    }
+
+    /**
+     * Report the end of the exchange, unless it already ended or failed.
+     */
+    public void end() {
+        if (enabled && finished.compareAndSet(false, true)) {
+            long now = System.nanoTime();
+            if (metrics != null) {
+                metrics.recordLatency(host(), HttpMetricsSnapshot.Phase.TOTAL, now - startNanos);
+                finish(metrics);
+            }
+            if (jfrEvent != null) {
+                jfrEvent.commit();
+            }
+            report(HttpEventListener::end, now);
+        }
+    }
+
+    /**
+     * Report the failure of the exchange, unless it already ended or failed.
+     *
+     * @param failure what went wrong
+     */
+    public void failure(Throwable failure) {
+        if (enabled && finished.compareAndSet(false, true)) {
+            long now = System.nanoTime();
+            if (metrics != null) {
+                metrics.error(failure);
+                finish(metrics);
+            }
+            if (jfrEvent != null) {
+                jfrEvent.failure = ClientMetrics.errorType(failure);
+                jfrEvent.commit();
+            }
+            report((l, r, t) -> l.failure(r, failure, t), now);
+        }
+    }
+
+    private synchronized void finish(ClientMetrics metrics) {
+        metrics.exchangeFinished();
+        if (socketOpen) {
+            metrics.socketClosed();
+        }
+    }
+}
@@ -61,7 +61,59 @@ public class HttpEncoding {
     public static boolean isValidValue(String token) {
         for (int i = 0; i < token.length(); i++) {
             char c = token.charAt(i);
-            if (c > 255 || !VALID_VALUE_CHARS.get(c)) {
+            if (!isValidValueChar(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static boolean isValidValueChar(char c) {
+        return c <= 255 && VALID_VALUE_CHARS.get(c);
+    }
+
+    /**
+     * {@return the character in lower case, if it's an ASCII letter}
+     */
+    public static char toLowerAscii(char c) {
+        return 'A' <= c && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    /**
+     * {@return a hash of the name that ignores ASCII case} Names are always ASCII, so ASCII case-folding
+     * is enough to compare them.
+     */
+    public static int nameHash(String name) {
+        int hash = 0;
+        for (int i = 0; i < name.length(); i++) {
+            hash = 31 * hash + toLowerAscii(name.charAt(i));
+        }
+        return hash;
+    }
+
+    /**
+     * {@return a hash of the name in the given bytes, equal to {@link #nameHash(String)} of its
+     * ISO-8859-1 decoding}
+     */
+    public static int nameHash(byte[] bytes, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + toLowerAscii((char) (bytes[i] & 0xFF));
+        }
+        return hash;
+    }
+
+    /**
+     * {@return {@code true} if the names are equal, ignoring ASCII case}
+     */
+    public static boolean namesEqual(String a, String b) {
+        if (a.length() != b.length()) {
+            return false;
+        }
+        for (int i = 0; i < a.length(); i++) {
+            char ca = a.charAt(i);
+            char cb = b.charAt(i);
+            if (ca != cb && toLowerAscii(ca) != toLowerAscii(cb)) {
                 return false;
             }
         }
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.techshroom.petitioner.core.internal;
+
+import com.techshroom.petitioner.core.HttpHeaderMap;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Lets the header maps of other internal packages be created, since {@link HttpHeaderMap} can only be
+ * extended in its own package. Implementations provide a {@link Storage}, which is wrapped in a map.
+ */
+public final class HttpHeaderMaps {
+    /**
+     * The contents of a header map. The names and values MUST already be valid, they are never checked again.
+     */
+    public interface Storage extends Iterable<Map.Entry<String, String>> {
+        /**
+         * {@return the single value for the name, or {@code null} if there is none}
+         *
+         * @param name the name
+         * @throws IllegalStateException if there is more than one value
+         */
+        @Nullable String value(String name);
+
+        /**
+         * {@return every value for the name, in order}
+         *
+         * @param name the name
+         */
+        List<String> values(String name);
+
+        /**
+         * Call the action with every name-value pair, in iteration order.
+         *
+         * @param action the action to call
+         */
+        void forEach(BiConsumer<? super String, ? super String> action);
+    }
+
+    private static volatile @Nullable Function<Storage, HttpHeaderMap> factory;
+
+    /**
+     * Install the factory for maps backed by a storage. Only {@link HttpHeaderMap} calls this, as it's
+     * initialized.
+     *
+     * @param factory the factory
+     * @throws IllegalStateException if a factory was already installed
+     */
+    public static synchronized void install(Function<Storage, HttpHeaderMap> factory) {
+        if (HttpHeaderMaps.factory != null) {
+            throw new IllegalStateException("Factory is already installed");
+        }
+        HttpHeaderMaps.factory = factory;
+    }
+
+    /**
+     * {@return a header map backed by the storage}
+     *
+     * @param storage the storage
+     */
+    public static HttpHeaderMap wrap(Storage storage) {
+        var factory = HttpHeaderMaps.factory;
+        if (factory == null) {
+            // Initializing the class installs the factory
+            HttpHeaderMap.empty();
+            factory = Objects.requireNonNull(HttpHeaderMaps.factory, "factory");
+        }
+        return factory.apply(storage);
+    }
+
+    private HttpHeaderMaps() {
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal;
+
+import com.techshroom.petitioner.core.HttpHeaderMap;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+/**
+ * A header map that replaces some names of a parent map with single values, without copying the
+ * parent. Headers of the parent come first, minus the replaced names, followed by the replacements.
+ * Use {@link #toHeaderMap()} to get the map itself.
+ *
+ * <p>
+ * Only the replacements are validated, the parent already is.
+ * </p>
+ */
+public final class OverlayHttpHeaderMap implements HttpHeaderMaps.Storage {
+    private final HttpHeaderMap parent;
+    private final String[] names;
+    private final String[] values;
+    private final int[] hashes;
+    private final int count;
+    /**
+     * Set once a derived map claims the free slots of the shared arrays. Later derived maps copy them.
+     */
+    private final AtomicBoolean extended = new AtomicBoolean();
+
+    /**
+     * Create an overlay with room for a number of replacements.
+     *
+     * @param parent the map to overlay
+     * @param capacity the maximum number of replacements
+     */
+    public OverlayHttpHeaderMap(HttpHeaderMap parent, int capacity) {
+        this(parent, new String[capacity], new String[capacity], new int[capacity], 0);
+    }
+
+    private OverlayHttpHeaderMap(HttpHeaderMap parent, String[] names, String[] values, int[] hashes, int count) {
+        this.parent = parent;
+        this.names = names;
+        this.values = values;
+        this.hashes = hashes;
+        this.count = count;
+    }
+
+    /**
+     * {@return a map with the name replaced by the value} The first map derived from this one shares
+     * its storage, later ones copy it.
+     *
+     * @param name the name to replace
+     * @param value the value to replace it with
+     * @throws IllegalStateException if the name or value is invalid, or the name is already replaced
+     */
+    public OverlayHttpHeaderMap with(String name, String value) {
+        if (!HttpEncoding.isValidName(name)) {
+            throw new IllegalStateException("Invalid name provided: " + name);
+        }
+        if (!HttpEncoding.isValidValue(value)) {
+            throw new IllegalStateException("Invalid value provided: " + value);
+        }
+        int hash = HttpEncoding.nameHash(name);
+        if (replacement(name, hash) != -1) {
+            throw new IllegalStateException("Name is already replaced: " + name);
+        }
+        var names = this.names;
+        var values = this.values;
+        var hashes = this.hashes;
+        if (count == names.length || !extended.compareAndSet(false, true)) {
+            names = Arrays.copyOf(names, count + 1);
+            values = Arrays.copyOf(values, count + 1);
+            hashes = Arrays.copyOf(hashes, count + 1);
+        }
+        names[count] = name;
+        values[count] = value;
+        hashes[count] = hash;
+        return new OverlayHttpHeaderMap(parent, names, values, hashes, count + 1);
+    }
+
+    /**
+     * {@return the header map with these replacements}
+     */
+    public HttpHeaderMap toHeaderMap() {
+        return HttpHeaderMaps.wrap(this);
+    }
+
+    private int replacement(String name, int hash) {
+        for (int i = 0; i < count; i++) {
+            if (hashes[i] == hash && HttpEncoding.namesEqual(names[i], name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isReplaced(String name) {
+        return count > 0 && replacement(name, HttpEncoding.nameHash(name)) != -1;
+    }
+
+    @Override
+    public @Nullable String value(String name) {
+        int replaced = replacement(name, HttpEncoding.nameHash(name));
+        return replaced == -1 ? parent.value(name) : values[replaced];
+    }
+
+    @Override
+    public List<String> values(String name) {
+        int replaced = replacement(name, HttpEncoding.nameHash(name));
+        return replaced == -1 ? parent.values(name) : List.of(values[replaced]);
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super String> action) {
+        parent.forEach((name, value) -> {
+            if (!isReplaced(name)) {
+                action.accept(name, value);
+            }
+        });
+        for (int i = 0; i < count; i++) {
+            action.accept(names[i], values[i]);
+        }
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, String>> iterator() {
+        return new Iterator<>() {
+            private final Iterator<Map.Entry<String, String>> parentIterator = parent.iterator();
+            private Map.@Nullable Entry<String, String> nextParentEntry;
+            private int nextReplacement;
+
+            @Override
+            public boolean hasNext() {
+                while (nextParentEntry == null && parentIterator.hasNext()) {
+                    var entry = parentIterator.next();
+                    if (!isReplaced(entry.getKey())) {
+                        nextParentEntry = entry;
+                    }
+                }
+                return nextParentEntry != null || nextReplacement < count;
+            }
+
+            @Override
+            public Map.Entry<String, String> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                if (nextParentEntry != null) {
+                    var entry = nextParentEntry;
+                    nextParentEntry = null;
+                    return entry;
+                }
+                var entry = Map.entry(names[nextReplacement], values[nextReplacement]);
+                nextReplacement++;
+                return entry;
+            }
+        };
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal;
+
+import com.techshroom.petitioner.core.HttpContentType;
+import com.techshroom.petitioner.core.HttpRequestBody;
+import com.techshroom.petitioner.core.io.ReadSession;
+
+import java.nio.ByteBuffer;
+import java.util.OptionalLong;
+import java.util.concurrent.Flow;
+
+/**
+ * A request body that subscribes to a publisher for each read session.
+ */
+public record PublisherHttpRequestBody(
+    Flow.Publisher<ByteBuffer> publisher,
+    HttpContentType contentType,
+    OptionalLong contentLength
+) implements HttpRequestBody {
+    @Override
+    public ReadSession openReadSession() {
+        var session = new PublisherReadSession();
+        publisher.subscribe(session);
+        return session;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal;
+
+import com.techshroom.petitioner.core.internal.select.SerialQueue;
+import com.techshroom.petitioner.core.io.ReadSession;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A read session fed by a publisher. Each call to {@link #readNextPacket()} requests one more packet, and the
+ * client only reads the next packet once the previous one is written, so the publisher is only given
+ * credit as socket writes complete.
+ */
+public final class PublisherReadSession implements ReadSession, Flow.Subscriber<ByteBuffer> {
+    private final SerialQueue queue = new SerialQueue();
+    /**
+     * Packets that arrived without a read waiting for them. Only a publisher that ignores demand
+     * sends more than one.
+     */
+    private final Queue<ByteBuffer> received = new ConcurrentLinkedQueue<>();
+    private final AtomicReference<@Nullable CompletableFuture<ByteBuffer>> pendingRead = new AtomicReference<>();
+    private final AtomicInteger drainWip = new AtomicInteger();
+    /**
+     * Requests made before the subscription arrived.
+     */
+    private final AtomicLong missedRequests = new AtomicLong();
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private volatile Flow.@Nullable Subscription subscription;
+    private volatile boolean terminated;
+    private volatile @Nullable Throwable failure;
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this.subscription != null || cancelled.get()) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        if (cancelled.get()) {
+            // Closed while we were being subscribed
+            subscription.cancel();
+            return;
+        }
+        requestMissed();
+    }
+
+    @Override
+    public void onNext(ByteBuffer item) {
+        received.add(item);
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        failure = throwable;
+        terminated = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        terminated = true;
+        drain();
+    }
+
+    @Override
+    public CompletionStage<@NonNull ByteBuffer> readNextPacket() {
+        return queue.submit(() -> {
+            var read = new CompletableFuture<ByteBuffer>();
+            pendingRead.set(read);
+            if (received.isEmpty() && !terminated && !cancelled.get()) {
+                request();
+            }
+            drain();
+            return read;
+        });
+    }
+
+    private void request() {
+        var current = subscription;
+        if (current != null) {
+            current.request(1);
+            return;
+        }
+        missedRequests.incrementAndGet();
+        // The subscription may have arrived after we checked
+        if (subscription != null) {
+            requestMissed();
+        }
+    }
+
+    private void requestMissed() {
+        long missed = missedRequests.getAndSet(0);
+        if (missed > 0) {
+            subscription.request(missed);
+        }
+    }
+
+    /**
+     * Hand a received packet or the end of the stream to the waiting read. Runs on one thread at a time.
+     */
+    private void drain() {
+        if (drainWip.getAndIncrement() != 0) {
+            return;
+        }
+        do {
+            var read = pendingRead.get();
+            if (read == null) {
+                continue;
+            }
+            var packet = received.poll();
+            if (packet != null) {
+                pendingRead.set(null);
+                read.complete(packet);
+            } else if (terminated || cancelled.get()) {
+                pendingRead.set(null);
+                var ex = failure;
+                if (ex != null && !cancelled.get()) {
+                    read.completeExceptionally(ex);
+                } else {
+                    read.complete(Constants.EMPTY_BYTE_BUFFER);
+                }
+            }
+        } while (drainWip.decrementAndGet() != 0);
+    }
+
+    @Override
+    public void close() {
+        if (cancelled.compareAndSet(false, true)) {
+            var current = subscription;
+            if (current != null) {
+                current.cancel();
+            }
+            received.clear();
+            drain();
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal;
+
+import com.techshroom.petitioner.core.internal.select.SerialQueue;
+import com.techshroom.petitioner.core.io.ReadSession;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Shares one read session between several readers, each with an independent view of the same packets.
+ *
+ * <p>
+ * Packets are read from the source once, when the view furthest ahead first asks for them, and each view
+ * is given its own read-only duplicate. A packet is dropped once every open view has read past it, and
+ * {@linkplain ReadSession#release(ByteBuffer) released} to the source once every view has released it or
+ * been closed. The source is closed with the last view.
+ * </p>
+ */
+public final class ReadSessionFanOut {
+    private final ReadSession source;
+    private final List<ReadSession> views;
+    // Everything below is guarded by this
+    private final List<Entry> entries = new ArrayList<>();
+    /**
+     * The index of the first entry in {@link #entries}, counting from the first packet of the source.
+     */
+    private long firstEntryIndex;
+    private @Nullable CompletableFuture<Void> fill;
+    private boolean ended;
+    private @Nullable Throwable failure;
+    private int openViews;
+
+    public ReadSessionFanOut(ReadSession source, int viewCount) {
+        if (viewCount <= 0) {
+            throw new IllegalArgumentException("viewCount must be positive");
+        }
+        this.source = source;
+        var views = new ArrayList<ReadSession>(viewCount);
+        for (int i = 0; i < viewCount; i++) {
+            views.add(new View());
+        }
+        this.views = List.copyOf(views);
+        this.openViews = viewCount;
+    }
+
+    /**
+     * {@return the views} Each must be closed, even if it isn't read.
+     */
+    public List<ReadSession> views() {
+        return views;
+    }
+
+    private void fill() {
+        CompletionStage<@NonNull ByteBuffer> read;
+        try {
+            read = source.readNextPacket();
+        } catch (Throwable t) {
+            read = CompletableFuture.failedFuture(t);
+        }
+        read.whenComplete((packet, ex) -> {
+            CompletableFuture<Void> filled;
+            boolean unwanted = false;
+            synchronized (this) {
+                filled = fill;
+                fill = null;
+                if (ex != null) {
+                    failure = ex;
+                } else if (!packet.hasRemaining()) {
+                    ended = true;
+                } else if (openViews == 0) {
+                    unwanted = true;
+                } else {
+                    entries.add(new Entry(packet, openViews));
+                }
+            }
+            if (unwanted) {
+                source.release(packet);
+            }
+            if (filled != null) {
+                filled.complete(null);
+            }
+        });
+    }
+
+    /**
+     * Drop the entries that every open view has read past. Must hold the lock.
+     */
+    private void trim() {
+        long minPosition = Long.MAX_VALUE;
+        for (var view : views) {
+            var v = (View) view;
+            if (!v.closed) {
+                minPosition = Math.min(minPosition, v.position);
+            }
+        }
+        int dropped = (int) Math.min(entries.size(), minPosition - firstEntryIndex);
+        if (dropped > 0) {
+            entries.subList(0, dropped).clear();
+            firstEntryIndex += dropped;
+        }
+    }
+
+    /**
+     * Give up one view's reference to an entry. Must hold the lock.
+     */
+    private void unref(Entry entry) {
+        entry.refs--;
+        if (entry.refs == 0) {
+            source.release(entry.packet);
+        }
+    }
+
+    private static final class Entry {
+        private final ByteBuffer packet;
+        /**
+         * The number of views that haven't yet released or closed past this packet.
+         */
+        private int refs;
+
+        private Entry(ByteBuffer packet, int refs) {
+            this.packet = packet;
+            this.refs = refs;
+        }
+    }
+
+    private final class View implements ReadSession {
+        private final SerialQueue queue = new SerialQueue();
+        // Everything below is guarded by the fan-out
+        private final Map<ByteBuffer, Entry> unreleased = new IdentityHashMap<>();
+        private long position;
+        private boolean closed;
+
+        @Override
+        public CompletionStage<@NonNull ByteBuffer> readNextPacket() {
+            // Waiting for a fill must not let a later read overtake this one
+            return queue.submit(this::readNext);
+        }
+
+        private CompletionStage<@NonNull ByteBuffer> readNext() {
+            CompletableFuture<Void> waitFor;
+            boolean startFill = false;
+            synchronized (ReadSessionFanOut.this) {
+                if (closed) {
+                    return CompletableFuture.completedFuture(Constants.EMPTY_BYTE_BUFFER);
+                }
+                int offset = (int) (position - firstEntryIndex);
+                if (offset < entries.size()) {
+                    var entry = entries.get(offset);
+                    position++;
+                    var packet = entry.packet.asReadOnlyBuffer();
+                    unreleased.put(packet, entry);
+                    trim();
+                    return CompletableFuture.completedFuture(packet);
+                }
+                if (failure != null) {
+                    return CompletableFuture.failedFuture(failure);
+                }
+                if (ended) {
+                    return CompletableFuture.completedFuture(Constants.EMPTY_BYTE_BUFFER);
+                }
+                if (fill == null) {
+                    fill = new CompletableFuture<>();
+                    startFill = true;
+                }
+                waitFor = fill;
+            }
+            if (startFill) {
+                fill();
+            }
+            return waitFor.thenCompose(__ -> readNext());
+        }
+
+        @Override
+        public void release(ByteBuffer packet) {
+            synchronized (ReadSessionFanOut.this) {
+                var entry = unreleased.remove(packet);
+                if (entry != null) {
+                    unref(entry);
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            boolean last;
+            synchronized (ReadSessionFanOut.this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                openViews--;
+                for (var entry : unreleased.values()) {
+                    unref(entry);
+                }
+                unreleased.clear();
+                for (int i = (int) (position - firstEntryIndex); i < entries.size(); i++) {
+                    unref(entries.get(i));
+                }
+                trim();
+                last = openViews == 0;
+            }
+            if (last) {
+                source.close();
+            }
+        }
+    }
+}
@@ -26,6 +26,14 @@ import java.nio.ByteBuffer;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Adapts a {@link ReadSession} to the blocking {@link InputStream} API.
+ *
+ * <p>
+ * Unlike the session, this stream blocks while waiting for packets, as every input stream does. The lock
+ * only keeps concurrent readers from sharing the current packet. It MUST NOT be read from I/O threads.
+ * </p>
+ */
 public class ReadSessionInputStream extends InputStream {
     private final ReadSession readSession;
     private final Lock lock = new ReentrantLock();
@@ -46,6 +54,7 @@ public class ReadSessionInputStream extends InputStream {
             return;
         }
         if (currentPacket == null || !currentPacket.hasRemaining()) {
+            releaseCurrentPacket();
             currentPacket = readSession.readNextPacket().toCompletableFuture().join();
             if (!currentPacket.hasRemaining()) {
                 closed = true;
@@ -53,6 +62,13 @@ public class ReadSessionInputStream extends InputStream {
         }
     }
 
+    private void releaseCurrentPacket() {
+        if (currentPacket != null) {
+            readSession.release(currentPacket);
+            currentPacket = null;
+        }
+    }
+
     @Override
     public int read() throws IOException {
         lock.lock();
@@ -88,7 +104,7 @@ public class ReadSessionInputStream extends InputStream {
         lock.lock();
         try {
             closed = true;
-            currentPacket = null;
+            releaseCurrentPacket();
             readSession.close();
         } finally {
             lock.unlock();
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal;
+
+import com.techshroom.petitioner.core.internal.select.InlineExecutor;
+import com.techshroom.petitioner.core.io.ReadSession;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the packets of a {@link ReadSession}, reading the next packet only while there is
+ * outstanding demand. The session is closed when the stream completes, fails, or is cancelled.
+ *
+ * <p>
+ * A read session can only be read once, so only the first subscriber gets the packets. Later
+ * subscribers fail immediately.
+ * </p>
+ */
+public final class ReadSessionPublisher implements Flow.Publisher<ByteBuffer> {
+    private final ReadSession readSession;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    public ReadSessionPublisher(ReadSession readSession) {
+        this.readSession = readSession;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("A response body can only be subscribed to once"));
+            return;
+        }
+        subscriber.onSubscribe(new ReadSessionSubscription(subscriber));
+    }
+
+    private final class ReadSessionSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicBoolean reading = new AtomicBoolean();
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        private ReadSessionSubscription(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("Requested a non-positive number of packets: " + n));
+                return;
+            }
+            // Saturate at Long.MAX_VALUE, which means unbounded demand
+            demand.getAndAccumulate(n, (current, added) -> {
+                long sum = current + added;
+                return sum < 0 ? Long.MAX_VALUE : sum;
+            });
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            if (done.compareAndSet(false, true)) {
+                // Nobody is left to tell if closing fails
+                closeSession();
+            }
+        }
+
+        /**
+         * Read the next packet if there's demand and no read in progress. Only one read is ever in
+         * progress, so signals to the subscriber are serialized.
+         */
+        private void drain() {
+            if (done.get() || demand.get() == 0 || !reading.compareAndSet(false, true)) {
+                return;
+            }
+            readSession.readNextPacket().whenComplete((packet, ex) -> {
+                if (ex != null) {
+                    fail(ex);
+                    return;
+                }
+                if (!packet.hasRemaining()) {
+                    complete();
+                    return;
+                }
+                if (!done.get()) {
+                    demand.getAndUpdate(current -> current == Long.MAX_VALUE ? current : current - 1);
+                    subscriber.onNext(packet);
+                }
+                // Clear the flag before checking demand again, so a concurrent request isn't missed
+                reading.set(false);
+                InlineExecutor.instance().execute(this::drain);
+            });
+        }
+
+        private void complete() {
+            if (!done.compareAndSet(false, true)) {
+                return;
+            }
+            var closeEx = closeSession();
+            if (closeEx != null) {
+                subscriber.onError(closeEx);
+            } else {
+                subscriber.onComplete();
+            }
+        }
+
+        private void fail(Throwable ex) {
+            if (!done.compareAndSet(false, true)) {
+                return;
+            }
+            var closeEx = closeSession();
+            if (closeEx != null) {
+                ex.addSuppressed(closeEx);
+            }
+            subscriber.onError(ex);
+        }
+
+        private @Nullable IOException closeSession() {
+            try {
+                readSession.close();
+                return null;
+            } catch (IOException e) {
+                return e;
+            }
+        }
+    }
+}
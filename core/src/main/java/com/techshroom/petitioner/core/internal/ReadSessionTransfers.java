@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal;
+
+import com.techshroom.petitioner.core.internal.select.Completables;
+import com.techshroom.petitioner.core.internal.select.InlineExecutor;
+import com.techshroom.petitioner.core.io.ReadSession;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Moves the packets of a {@link ReadSession} straight into channels, without copying them into
+ * intermediate arrays. Each packet is released once it has been written.
+ */
+public final class ReadSessionTransfers {
+    /**
+     * Bodies without a known length start with a buffer this big, doubling as needed.
+     */
+    private static final int UNKNOWN_LENGTH_INITIAL_SIZE = 8192;
+    /**
+     * Bodies with a known length start with a buffer no bigger than this, so a server can't make us
+     * allocate a huge buffer with a single header. Past it the buffer grows as data actually arrives.
+     */
+    private static final int MAX_INITIAL_SIZE = 4 * 1024 * 1024;
+    /**
+     * Some VMs can't allocate arrays quite as large as {@link Integer#MAX_VALUE}.
+     */
+    private static final int MAX_BUFFER_SIZE = Integer.MAX_VALUE - 8;
+    private static final OpenOption[] SAVE_OPTIONS = {
+        StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+    };
+
+    /**
+     * Write every packet of the session to the channel, blocking until done. Closes the session.
+     *
+     * @param readSession the session to read from
+     * @param channel the channel to write to
+     * @return the number of bytes written
+     * @throws IOException if reading or writing fails
+     */
+    public static long transferTo(ReadSession readSession, WritableByteChannel channel) throws IOException {
+        try (readSession) {
+            long written = 0;
+            ByteBuffer packet;
+            while ((packet = Completables.await(readSession.readNextPacket())).hasRemaining()) {
+                while (packet.hasRemaining()) {
+                    written += channel.write(packet);
+                }
+                readSession.release(packet);
+            }
+            return written;
+        }
+    }
+
+    /**
+     * Write every packet of the session to a file, replacing its content. Closes the session.
+     *
+     * @param readSession the session to read from
+     * @param path the file to write to
+     * @return a stage that completes with the number of bytes written, once they are all written
+     */
+    public static CompletionStage<Long> saveTo(ReadSession readSession, Path path) {
+        AsynchronousFileChannel file;
+        try {
+            file = AsynchronousFileChannel.open(path, SAVE_OPTIONS);
+        } catch (IOException | RuntimeException e) {
+            closeOnFailure(readSession, e);
+            return CompletableFuture.failedFuture(e);
+        }
+        var future = new CompletableFuture<Long>();
+        saveNextPacket(readSession, file, 0, future);
+        return future.whenComplete((written, ex) -> {
+            try (readSession; file) {
+                // Just closing them
+            } catch (IOException closeEx) {
+                if (ex != null) {
+                    ex.addSuppressed(closeEx);
+                } else {
+                    throw new CompletionException(closeEx);
+                }
+            }
+        });
+    }
+
+    private static void saveNextPacket(ReadSession readSession, AsynchronousFileChannel file, long position,
+                                       CompletableFuture<Long> future) {
+        readSession.readNextPacket()
+            .thenCompose(packet -> {
+                if (!packet.hasRemaining()) {
+                    return CompletableFuture.completedFuture(-1L);
+                }
+                return writeFully(file, packet, position).thenApply(written -> {
+                    readSession.release(packet);
+                    return written;
+                });
+            })
+            .whenComplete((written, ex) -> {
+                if (ex != null) {
+                    future.completeExceptionally(ex);
+                } else if (written < 0) {
+                    future.complete(position);
+                } else {
+                    InlineExecutor.instance().execute(() ->
+                        saveNextPacket(readSession, file, position + written, future)
+                    );
+                }
+            });
+    }
+
+    private static CompletableFuture<Long> writeFully(AsynchronousFileChannel file, ByteBuffer packet, long position) {
+        var future = new CompletableFuture<Long>();
+        writeRemaining(file, packet, position, 0, future);
+        return future;
+    }
+
+    private static void writeRemaining(AsynchronousFileChannel file, ByteBuffer packet, long position, long written,
+                                       CompletableFuture<Long> future) {
+        var writeFuture = Completables.<Integer>wrap((a, h) -> file.write(packet, position + written, a, h));
+        Completables.attachParent(writeFuture, future);
+        writeFuture.thenAccept(count -> {
+            if (packet.hasRemaining()) {
+                InlineExecutor.instance().execute(() ->
+                    writeRemaining(file, packet, position, written + count, future)
+                );
+            } else {
+                future.complete(written + count);
+            }
+        });
+    }
+
+    /**
+     * Read every packet of the session into one buffer. Closes the session.
+     *
+     * <p>
+     * If the content length is known, the buffer is allocated once with exactly that size, up to 4 MiB.
+     * Longer bodies grow the buffer towards their content length as data arrives. It only grows past
+     * the content length if the body turns out to be longer.
+     * </p>
+     *
+     * @param readSession the session to read from
+     * @param contentLength the expected length of the body, if known
+     * @param direct {@code true} to aggregate into a direct buffer
+     * @return a stage that completes with the body, from position zero to the limit
+     */
+    public static CompletionStage<ByteBuffer> aggregate(ReadSession readSession, OptionalLong contentLength,
+                                                        boolean direct) {
+        long expectedLength = contentLength.orElse(-1);
+        if (expectedLength > MAX_BUFFER_SIZE) {
+            var ex = new IOException("Body is too large for a single buffer: " + expectedLength + " bytes");
+            closeOnFailure(readSession, ex);
+            return CompletableFuture.failedFuture(ex);
+        }
+        int initialSize = expectedLength >= 0
+            ? (int) Math.min(expectedLength, MAX_INITIAL_SIZE)
+            : UNKNOWN_LENGTH_INITIAL_SIZE;
+        var future = new CompletableFuture<ByteBuffer>();
+        aggregateNextPacket(readSession, allocate(initialSize, direct), expectedLength, future);
+        return future.whenComplete((__, ex) -> {
+            try {
+                readSession.close();
+            } catch (IOException closeEx) {
+                if (ex != null) {
+                    ex.addSuppressed(closeEx);
+                } else {
+                    throw new CompletionException(closeEx);
+                }
+            }
+        });
+    }
+
+    private static ByteBuffer allocate(int size, boolean direct) {
+        return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+
+    private static void aggregateNextPacket(ReadSession readSession, ByteBuffer target, long expectedLength,
+                                            CompletableFuture<ByteBuffer> future) {
+        readSession.readNextPacket()
+            .thenAccept(packet -> {
+                if (!packet.hasRemaining()) {
+                    future.complete(target.flip());
+                    return;
+                }
+                var nextTarget = target;
+                if (packet.remaining() > target.remaining()) {
+                    long required = (long) target.position() + packet.remaining();
+                    if (required > MAX_BUFFER_SIZE) {
+                        throw new UncheckedIOException(new IOException(
+                            "Body is too large for a single buffer: over " + MAX_BUFFER_SIZE + " bytes"
+                        ));
+                    }
+                    long newSize = Math.max(required, 2L * target.capacity());
+                    if (expectedLength >= required) {
+                        newSize = Math.min(newSize, expectedLength);
+                    }
+                    nextTarget = allocate((int) Math.min(MAX_BUFFER_SIZE, newSize), target.isDirect())
+                        .put(target.flip());
+                }
+                nextTarget.put(packet);
+                readSession.release(packet);
+                var filled = nextTarget;
+                InlineExecutor.instance().execute(() ->
+                    aggregateNextPacket(readSession, filled, expectedLength, future)
+                );
+            })
+            .whenComplete((__, ex) -> {
+                if (ex != null) {
+                    future.completeExceptionally(ex);
+                }
+            });
+    }
+
+    private static void closeOnFailure(ReadSession readSession, Throwable ex) {
+        try {
+            readSession.close();
+        } catch (IOException closeEx) {
+            ex.addSuppressed(closeEx);
+        }
+    }
+
+    private ReadSessionTransfers() {
+    }
+}
@@ -18,6 +18,7 @@
 
 package com.techshroom.petitioner.core.internal;
 
+import com.techshroom.petitioner.core.internal.select.SerialQueue;
 import com.techshroom.petitioner.core.io.ReadSession;
 import org.checkerframework.checker.nullness.qual.NonNull;
 
@@ -25,44 +26,61 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ResponseReadSession implements ReadSession {
-    private final Semaphore semaphore = new Semaphore(1);
+    private final SerialQueue queue = new SerialQueue();
+    private final AtomicBoolean closed = new AtomicBoolean();
     private final ReadSession delegate;
     private final long contentLength;
+    private final ExchangeEvents events;
+    // Only touched by operations on the queue
     private long contentRead;
     private ByteBuffer leftoverFromHeader;
-    private boolean closed;
 
     public ResponseReadSession(ReadSession delegate, long contentLength, ByteBuffer leftoverFromHeader) {
+        this(delegate, contentLength, leftoverFromHeader, ExchangeEvents.none());
+    }
+
+    /**
+     * Create a session that reports the packets it reads, and when it ends, to the events of the exchange.
+     *
+     * @param delegate the session of the connection
+     * @param contentLength the length of the body, or {@code -1} if it's unknown
+     * @param leftoverFromHeader the start of the body, read along with the head
+     * @param events the events of the exchange
+     */
+    public ResponseReadSession(ReadSession delegate, long contentLength, ByteBuffer leftoverFromHeader,
+                               ExchangeEvents events) {
         this.delegate = delegate;
         this.contentLength = contentLength;
         this.leftoverFromHeader = leftoverFromHeader;
+        this.events = events;
     }
 
     @Override
     public CompletionStage<@NonNull ByteBuffer> readNextPacket() {
-        semaphore.acquireUninterruptibly();
-        if (contentLength >= 0 && contentRead >= contentLength) {
-            // Don't do a read, we've already got all the data we need for now
-            // This allows persistent connections to function properly
-            closed = true;
-        }
-        var future = closed
-            ? CompletableFuture.completedFuture(Constants.EMPTY_BYTE_BUFFER)
-            : commonCase();
-        return future
-            .whenComplete((buffer, ___) -> {
-                try {
-                    if (buffer != null) {
-                        // Record content length
-                        contentRead += buffer.remaining();
-                    }
-                } finally {
-                    semaphore.release();
+        return queue.submit(() -> {
+            if (contentLength >= 0 && contentRead >= contentLength) {
+                // Don't do a read, we've already got all the data we need for now
+                // This allows persistent connections to function properly
+                closed.set(true);
+            }
+            var future = closed.get()
+                ? CompletableFuture.completedFuture(Constants.EMPTY_BYTE_BUFFER)
+                : commonCase();
+            return future.whenComplete((buffer, ex) -> {
+                if (ex != null) {
+                    events.failure(ex);
+                } else if (buffer.hasRemaining()) {
+                    // Record content length
+                    contentRead += buffer.remaining();
+                    events.bodyBytesRead(buffer.remaining());
+                } else {
+                    events.end();
                 }
             });
+        });
     }
 
     private CompletionStage<@NonNull ByteBuffer> commonCase() {
@@ -74,14 +92,17 @@ public class ResponseReadSession implements ReadSession {
         return delegate.readNextPacket();
     }
 
+    @Override
+    public void release(ByteBuffer packet) {
+        // The leftover is either a copy or one of the delegate's packets, so it can handle both
+        delegate.release(packet);
+    }
+
     @Override
     public void close() throws IOException {
-        semaphore.acquireUninterruptibly();
-        try {
-            closed = true;
-            delegate.close();
-        } finally {
-            semaphore.release();
-        }
+        // Don't wait for a read in progress, closing the delegate ends it
+        closed.set(true);
+        events.end();
+        delegate.close();
     }
 }
@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.buffer;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of {@link ByteBuffer}s, with separate arenas for direct and heap buffers.
+ *
+ * <p>
+ * Buffers are grouped into power-of-two size classes from {@value #MIN_POOLED_SIZE} to
+ * {@value #MAX_POOLED_SIZE} bytes. Each thread keeps a small cache per size class in front of the
+ * shared queues, so a thread that releases what it acquires never touches shared state. The caches hold
+ * at most 64 KiB per class, so the largest classes skip them, and threads that stop using the pool don't
+ * strand much. Requests larger than the biggest size class are allocated unpooled, and dropped on release.
+ * </p>
+ *
+ * <p>
+ * When leak detection is enabled, every acquired buffer is tracked until it is released, and
+ * {@link #unreleased()} reports where the outstanding buffers were acquired. It can be enabled for
+ * every pool with the {@value #LEAK_DETECTION_PROPERTY} system property.
+ * </p>
+ */
+public final class BufferPool {
+    public static final String LEAK_DETECTION_PROPERTY = "petitioner.bufferPool.leakDetection";
+    public static final int MIN_POOLED_SIZE = 256;
+    public static final int MAX_POOLED_SIZE = 1 << 20;
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_POOLED_SIZE);
+    private static final int SIZE_CLASSES = Integer.numberOfTrailingZeros(MAX_POOLED_SIZE) - MIN_SHIFT + 1;
+    private static final int THREAD_CACHE_SIZE = 8;
+    private static final int MAX_THREAD_CACHE_BYTES = 64 * 1024;
+    /**
+     * The shared queue for a size class keeps at most this many bytes, or {@link #MAX_SHARED_COUNT} buffers.
+     */
+    private static final int MAX_SHARED_BYTES = 4 * MAX_POOLED_SIZE;
+    private static final int MAX_SHARED_COUNT = 256;
+
+    private static final BufferPool SHARED = create();
+
+    /**
+     * {@return the process-wide pool, for clients that were not given their own}
+     */
+    public static BufferPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * {@return a new pool, with leak detection configured by the system property}
+     */
+    public static BufferPool create() {
+        return new BufferPool(Boolean.getBoolean(LEAK_DETECTION_PROPERTY));
+    }
+
+    private static int sizeClass(int capacity) {
+        if (capacity <= MIN_POOLED_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(capacity - 1) - MIN_SHIFT;
+    }
+
+    private static int classSize(int sizeClass) {
+        return 1 << (sizeClass + MIN_SHIFT);
+    }
+
+    private final Arena directArena = new Arena(true);
+    private final Arena heapArena = new Arena(false);
+    private final @Nullable Map<ByteBuffer, Throwable> outstanding;
+
+    public BufferPool(boolean leakDetection) {
+        this.outstanding = leakDetection
+            ? Collections.synchronizedMap(new IdentityHashMap<>())
+            : null;
+    }
+
+    /**
+     * Acquire a direct buffer. It MUST be given back with {@link #release(ByteBuffer)} when it's no longer in use.
+     *
+     * @param size the number of bytes needed
+     * @return a cleared buffer with a limit of {@code size}, the capacity may be larger
+     */
+    public ByteBuffer acquireDirect(int size) {
+        return track(directArena.acquire(size), size);
+    }
+
+    /**
+     * Acquire a heap buffer. It MUST be given back with {@link #release(ByteBuffer)} when it's no longer in use.
+     *
+     * @param size the number of bytes needed
+     * @return a cleared buffer with a limit of {@code size}, the capacity may be larger
+     */
+    public ByteBuffer acquireHeap(int size) {
+        return track(heapArena.acquire(size), size);
+    }
+
+    private ByteBuffer track(ByteBuffer buffer, int size) {
+        if (outstanding != null) {
+            outstanding.put(buffer, new Throwable("Buffer of size " + size + " acquired here"));
+        }
+        return buffer.clear().limit(size);
+    }
+
+    /**
+     * Give a buffer back to the pool. The buffer MUST NOT be used after this.
+     *
+     * @param buffer the buffer, as returned from an acquire method
+     */
+    public void release(ByteBuffer buffer) {
+        if (outstanding != null && outstanding.remove(buffer) == null) {
+            throw new IllegalStateException("Buffer was released twice, or was not from this pool");
+        }
+        (buffer.isDirect() ? directArena : heapArena).release(buffer);
+    }
+
+    /**
+     * {@return where each buffer that hasn't been released yet was acquired} Always empty if leak
+     * detection is disabled.
+     */
+    public List<Throwable> unreleased() {
+        if (outstanding == null) {
+            return List.of();
+        }
+        synchronized (outstanding) {
+            return List.copyOf(outstanding.values());
+        }
+    }
+
+    private static final class Arena {
+        private final boolean direct;
+        private final SharedQueue[] shared = new SharedQueue[SIZE_CLASSES];
+        private final ThreadLocal<ThreadCache> threadCache = ThreadLocal.withInitial(ThreadCache::new);
+
+        private Arena(boolean direct) {
+            this.direct = direct;
+            for (int i = 0; i < SIZE_CLASSES; i++) {
+                shared[i] = new SharedQueue();
+            }
+        }
+
+        private ByteBuffer allocate(int capacity) {
+            return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        }
+
+        ByteBuffer acquire(int size) {
+            if (size > MAX_POOLED_SIZE) {
+                return allocate(size);
+            }
+            int sizeClass = sizeClass(size);
+            var cached = threadCache.get().poll(sizeClass);
+            if (cached != null) {
+                return cached;
+            }
+            var buffer = shared[sizeClass].queue.poll();
+            if (buffer != null) {
+                shared[sizeClass].count.decrementAndGet();
+                return buffer;
+            }
+            return allocate(classSize(sizeClass));
+        }
+
+        void release(ByteBuffer buffer) {
+            int capacity = buffer.capacity();
+            if (capacity > MAX_POOLED_SIZE || capacity < MIN_POOLED_SIZE || Integer.bitCount(capacity) != 1) {
+                // Not one of ours, let the GC have it
+                return;
+            }
+            buffer.clear();
+            int sizeClass = sizeClass(capacity);
+            if (threadCache.get().offer(sizeClass, buffer)) {
+                return;
+            }
+            int maxShared = Math.min(MAX_SHARED_COUNT, MAX_SHARED_BYTES / capacity);
+            if (shared[sizeClass].count.incrementAndGet() > maxShared) {
+                shared[sizeClass].count.decrementAndGet();
+                return;
+            }
+            shared[sizeClass].queue.offer(buffer);
+        }
+    }
+
+    private static final class SharedQueue {
+        private final Queue<ByteBuffer> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger count = new AtomicInteger();
+    }
+
+    private static final class ThreadCache {
+        private final ByteBuffer[][] buffers = new ByteBuffer[SIZE_CLASSES][];
+        private final int[] counts = new int[SIZE_CLASSES];
+
+        private ThreadCache() {
+            for (int i = 0; i < SIZE_CLASSES; i++) {
+                buffers[i] = new ByteBuffer[Math.min(THREAD_CACHE_SIZE, MAX_THREAD_CACHE_BYTES / classSize(i))];
+            }
+        }
+
+        @Nullable ByteBuffer poll(int sizeClass) {
+            if (counts[sizeClass] == 0) {
+                return null;
+            }
+            counts[sizeClass]--;
+            var buffer = buffers[sizeClass][counts[sizeClass]];
+            buffers[sizeClass][counts[sizeClass]] = null;
+            return buffer;
+        }
+
+        boolean offer(int sizeClass, ByteBuffer buffer) {
+            if (counts[sizeClass] == buffers[sizeClass].length) {
+                return false;
+            }
+            buffers[sizeClass][counts[sizeClass]] = buffer;
+            counts[sizeClass]++;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.cache;
+
+import com.techshroom.petitioner.core.HttpHeaderMap;
+
+import java.util.Locale;
+import java.util.OptionalLong;
+
+/**
+ * The {@code Cache-Control} directives this cache understands, from a request or a response.
+ *
+ * @param noStore if {@code no-store} was given
+ * @param noCache if {@code no-cache} was given
+ * @param maxAge the {@code max-age} in seconds, if given
+ */
+public record CacheControl(
+    boolean noStore,
+    boolean noCache,
+    OptionalLong maxAge
+) {
+    private static final CacheControl NONE = new CacheControl(false, false, OptionalLong.empty());
+
+    /**
+     * {@return the directives of every {@code Cache-Control} header in the map} Unknown directives are
+     * ignored, and an invalid {@code max-age} is taken to be zero.
+     *
+     * @param headers the headers
+     */
+    public static CacheControl parse(HttpHeaderMap headers) {
+        var values = headers.values("Cache-Control");
+        if (values.isEmpty()) {
+            return NONE;
+        }
+        boolean noStore = false;
+        boolean noCache = false;
+        OptionalLong maxAge = OptionalLong.empty();
+        for (var value : values) {
+            for (var directive : value.split(",")) {
+                int equals = directive.indexOf('=');
+                var name = (equals == -1 ? directive : directive.substring(0, equals)).trim().toLowerCase(Locale.ROOT);
+                var argument = equals == -1 ? "" : unquote(directive.substring(equals + 1).trim());
+                switch (name) {
+                    case "no-store" -> noStore = true;
+                    case "no-cache" -> noCache = true;
+                    case "max-age" -> maxAge = OptionalLong.of(parseSeconds(argument));
+                    default -> {
+                        // Not something we act on
+                    }
+                }
+            }
+        }
+        return new CacheControl(noStore, noCache, maxAge);
+    }
+
+    private static String unquote(String argument) {
+        if (argument.length() >= 2 && argument.startsWith("\"") && argument.endsWith("\"")) {
+            return argument.substring(1, argument.length() - 1);
+        }
+        return argument;
+    }
+
+    private static long parseSeconds(String argument) {
+        if (argument.isEmpty() || !argument.chars().allMatch(c -> '0' <= c && c <= '9')) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(argument);
+        } catch (NumberFormatException e) {
+            // Too large, RFC 9111 says to use the largest value we can
+            return Integer.MAX_VALUE;
+        }
+    }
+}
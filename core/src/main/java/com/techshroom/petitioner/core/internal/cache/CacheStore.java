@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.cache;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Where a {@link ResponseCache} keeps its entries. Implementations must be thread-safe, and MUST NOT block
+ * for long, since they are called from I/O threads.
+ */
+public interface CacheStore extends Closeable {
+    /**
+     * {@return the entry for a key, or {@code null} if there is none} Stores may count this as a use of the
+     * entry when choosing what to evict.
+     *
+     * @param key the key
+     */
+    @Nullable CachedResponse get(String key);
+
+    /**
+     * Store an entry, replacing any entry for the key, and evicting others to make room.
+     *
+     * @param key the key
+     * @param response the entry
+     */
+    void put(String key, CachedResponse response);
+
+    /**
+     * Remove the entry for a key, if there is one.
+     *
+     * @param key the key
+     */
+    void remove(String key);
+
+    /**
+     * {@return the largest body this store will keep, in bytes}
+     */
+    long maxEntryBytes();
+
+    /**
+     * {@return the number of entries}
+     */
+    long entryCount();
+
+    /**
+     * {@return the approximate number of bytes held by entries}
+     */
+    long sizeBytes();
+
+    /**
+     * {@return the number of entries evicted to make room}
+     */
+    long evictions();
+
+    /**
+     * Release the resources of the store. Entries already returned stay usable.
+     *
+     * @implSpec The default implementation does nothing.
+     */
+    @Override
+    default void close() throws IOException {
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.cache;
+
+import com.techshroom.petitioner.core.HttpContentType;
+import com.techshroom.petitioner.core.HttpHeaderMap;
+import com.techshroom.petitioner.core.HttpRequest;
+import com.techshroom.petitioner.core.HttpResponse;
+import com.techshroom.petitioner.core.internal.ByteBufferHttpRequestBody;
+import com.techshroom.petitioner.core.internal.OverlayHttpHeaderMap;
+import com.techshroom.petitioner.core.internal.ReadSessionHttpResponseBody;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+
+/**
+ * A stored response, with everything needed to decide if it's fresh and to serve it again.
+ *
+ * <p>
+ * Freshness and age follow RFC 9111, sections 4.2.1 to 4.2.3.
+ * </p>
+ *
+ * @param statusCode the status code
+ * @param statusMessage the status message
+ * @param headers the response headers
+ * @param contentType the content type of the body
+ * @param body the whole body, read-only
+ * @param varyValues the values the request had for each header named by {@code Vary}, by lower-case name
+ * @param requestTimeMillis when the request that got this response was sent
+ * @param responseTimeMillis when this response was received
+ */
+public record CachedResponse(
+    int statusCode,
+    String statusMessage,
+    HttpHeaderMap headers,
+    HttpContentType contentType,
+    ByteBuffer body,
+    Map<String, List<String>> varyValues,
+    long requestTimeMillis,
+    long responseTimeMillis
+) {
+    /**
+     * Status codes that may be given a heuristic freshness lifetime.
+     */
+    public static final Set<Integer> HEURISTICALLY_CACHEABLE = Set.of(
+        200, 203, 204, 206, 300, 301, 308, 404, 405, 410, 414, 501
+    );
+    /**
+     * The fraction of the time since {@code Last-Modified} used as a heuristic freshness lifetime.
+     */
+    private static final long HEURISTIC_DIVISOR = 10;
+    private static final long MAX_HEURISTIC_MILLIS = Duration.ofDays(1).toMillis();
+    /**
+     * A rough allowance for the memory of an entry beyond its body and headers.
+     */
+    private static final long OVERHEAD_BYTES = 128;
+
+    /**
+     * {@return the names of the request headers that select this response, in lower case} A name of
+     * {@code *} means no request can be matched.
+     *
+     * @param headers the response headers
+     */
+    public static List<String> varyNames(HttpHeaderMap headers) {
+        var names = new ArrayList<String>();
+        for (var value : headers.values("Vary")) {
+            for (var name : value.split(",")) {
+                var trimmed = name.trim();
+                if (!trimmed.isEmpty()) {
+                    names.add(trimmed.toLowerCase(Locale.ROOT));
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * {@return an entry for a response to a request}
+     *
+     * @param request the request
+     * @param response the response
+     * @param body the whole body
+     * @param requestTimeMillis when the request was sent
+     * @param responseTimeMillis when the response was received
+     */
+    public static CachedResponse of(HttpRequest request, HttpResponse response, ByteBuffer body,
+                                    long requestTimeMillis, long responseTimeMillis) {
+        var varyValues = new LinkedHashMap<String, List<String>>();
+        for (var name : varyNames(response.headers())) {
+            varyValues.put(name, request.headers().values(name));
+        }
+        var contentType = response.body() == null
+            ? new HttpContentType("application/octet-stream", null)
+            : response.body().contentType();
+        return new CachedResponse(
+            response.statusCode(), response.statusMessage(), response.headers(), contentType,
+            body.asReadOnlyBuffer(), Map.copyOf(varyValues), requestTimeMillis, responseTimeMillis
+        );
+    }
+
+    /**
+     * {@return this entry with another body}
+     *
+     * @param body the body, read-only
+     */
+    public CachedResponse withBody(ByteBuffer body) {
+        return new CachedResponse(
+            statusCode, statusMessage, headers, contentType, body, varyValues, requestTimeMillis, responseTimeMillis
+        );
+    }
+
+    /**
+     * {@return the approximate number of bytes this entry holds}
+     */
+    public long size() {
+        long size = OVERHEAD_BYTES + body.remaining() + statusMessage.length();
+        for (var header : headers) {
+            size += header.getKey().length() + header.getValue().length();
+        }
+        return size;
+    }
+
+    /**
+     * {@return if the request selects this response, by matching the headers it varies on}
+     *
+     * @param request the request
+     */
+    public boolean matches(HttpRequest request) {
+        for (var entry : varyValues.entrySet()) {
+            if (!request.headers().values(entry.getKey()).equals(entry.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long dateMillis() {
+        return HttpDates.parse(headers, "Date").orElse(responseTimeMillis);
+    }
+
+    /**
+     * {@return how long this response is fresh for after it was generated, in milliseconds}
+     */
+    public long freshnessLifetimeMillis() {
+        var cacheControl = CacheControl.parse(headers);
+        if (cacheControl.noCache()) {
+            return 0;
+        }
+        if (cacheControl.maxAge().isPresent()) {
+            return cacheControl.maxAge().getAsLong() * 1000;
+        }
+        var expires = HttpDates.first(headers, "Expires");
+        if (expires != null) {
+            // An invalid date is in the past
+            var expiresMillis = HttpDates.parse(expires);
+            return expiresMillis.isPresent() ? Math.max(0, expiresMillis.getAsLong() - dateMillis()) : 0;
+        }
+        var lastModified = HttpDates.parse(headers, "Last-Modified");
+        if (lastModified.isPresent() && HEURISTICALLY_CACHEABLE.contains(statusCode)) {
+            long sinceModified = Math.max(0, dateMillis() - lastModified.getAsLong());
+            return Math.min(sinceModified / HEURISTIC_DIVISOR, MAX_HEURISTIC_MILLIS);
+        }
+        return 0;
+    }
+
+    /**
+     * {@return the age of this response at a time, in milliseconds}
+     *
+     * @param nowMillis the time
+     */
+    public long currentAgeMillis(long nowMillis) {
+        long apparentAge = Math.max(0, responseTimeMillis - dateMillis());
+        long ageValue = 0;
+        var age = HttpDates.first(headers, "Age");
+        if (age != null) {
+            try {
+                ageValue = Math.max(0, Long.parseLong(age.trim())) * 1000;
+            } catch (NumberFormatException ignored) {
+                // Ignore it, like an absent header
+            }
+        }
+        long correctedAgeValue = ageValue + (responseTimeMillis - requestTimeMillis);
+        long correctedInitialAge = Math.max(apparentAge, correctedAgeValue);
+        return correctedInitialAge + Math.max(0, nowMillis - responseTimeMillis);
+    }
+
+    /**
+     * {@return if this response can be served to a request without revalidating it}
+     *
+     * @param requestControl the request's cache directives
+     * @param nowMillis the current time
+     */
+    public boolean isFresh(CacheControl requestControl, long nowMillis) {
+        if (requestControl.noCache()) {
+            return false;
+        }
+        long lifetime = freshnessLifetimeMillis();
+        if (requestControl.maxAge().isPresent()) {
+            lifetime = Math.min(lifetime, requestControl.maxAge().getAsLong() * 1000);
+        }
+        return currentAgeMillis(nowMillis) < lifetime;
+    }
+
+    /**
+     * {@return the request made conditional on this response's validators, or {@code null} if it has none}
+     *
+     * @param request the request
+     */
+    public @Nullable HttpRequest conditionalRequest(HttpRequest request) {
+        var etag = HttpDates.first(headers, "ETag");
+        var lastModified = HttpDates.first(headers, "Last-Modified");
+        if (etag == null && lastModified == null) {
+            return null;
+        }
+        var builder = request.toBuilder();
+        if (etag != null) {
+            builder.putHeader("If-None-Match", etag);
+        }
+        if (lastModified != null) {
+            builder.putHeader("If-Modified-Since", lastModified);
+        }
+        return builder.build();
+    }
+
+    /**
+     * {@return this response, updated by a {@code 304 Not Modified} that revalidated it}
+     *
+     * @param notModifiedHeaders the headers of the {@code 304} response
+     * @param requestTimeMillis when the conditional request was sent
+     * @param responseTimeMillis when the {@code 304} response was received
+     */
+    public CachedResponse revalidated(HttpHeaderMap notModifiedHeaders, long requestTimeMillis,
+                                      long responseTimeMillis) {
+        var updated = headers.toBuilder();
+        for (var header : notModifiedHeaders) {
+            // The stored body is still the one that was described
+            if (!header.getKey().equalsIgnoreCase("Content-Length")) {
+                updated.put(header.getKey(), notModifiedHeaders.values(header.getKey()));
+            }
+        }
+        return new CachedResponse(
+            statusCode, statusMessage, updated.build(), contentType, body, varyValues,
+            requestTimeMillis, responseTimeMillis
+        );
+    }
+
+    /**
+     * {@return a response serving this entry, with an {@code Age} header for a time}
+     *
+     * @param nowMillis the time
+     */
+    public HttpResponse toResponse(long nowMillis) {
+        var servedHeaders = new OverlayHttpHeaderMap(headers, 1)
+            .with("Age", Long.toString(currentAgeMillis(nowMillis) / 1000))
+            .toHeaderMap();
+        return new HttpResponse(statusCode, statusMessage, servedHeaders, new ReadSessionHttpResponseBody(
+            OptionalLong.of(body.remaining()),
+            contentType,
+            new ByteBufferHttpRequestBody(body, contentType).openReadSession()
+        ));
+    }
+}
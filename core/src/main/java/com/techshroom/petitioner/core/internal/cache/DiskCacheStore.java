@@ -0,0 +1,667 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.cache;
+
+import com.techshroom.petitioner.core.HttpContentType;
+import com.techshroom.petitioner.core.HttpHeaderMap;
+import com.techshroom.petitioner.core.internal.select.Completables;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps entries in append-only segment files in a directory, with an index of where they are kept on the
+ * heap. Bodies are served by mapping their region of the file, so they never pass through the heap.
+ *
+ * <p>
+ * Each record is a fixed header, then the key and metadata, then the body. The header holds a CRC-32 of the
+ * metadata and one of the body. Removing an entry appends a tombstone record, and a newer record for a key
+ * replaces the older one. Records are written asynchronously, and only become visible once written.
+ * </p>
+ *
+ * <p>
+ * On opening, the segments are scanned in order to rebuild the index. A segment is truncated at the first
+ * record that is incomplete or fails its metadata check, which is what a crash in the middle of a write
+ * leaves behind. The body check is done in the background when the body is first asked for, so opening only
+ * reads metadata, and the entry misses until it passes.
+ * </p>
+ *
+ * <p>
+ * Callers are I/O threads, so no whole body is read on them. Checksums of new bodies are computed in the
+ * background before they're written, and bodies are mapped once written.
+ * </p>
+ *
+ * <p>
+ * When the segments hold more than the size bound, the oldest segment is deleted with every entry still in
+ * it. Replaced and removed records keep their space until then.
+ * </p>
+ *
+ * <p>
+ * The directory is locked while the store is open, since a second writer would interleave its records with
+ * ours. Opening a directory that is already in use fails.
+ * </p>
+ */
+public final class DiskCacheStore implements CacheStore {
+    private static final int MAGIC = 0x50544331;
+    /**
+     * Magic, metadata length, body length, metadata CRC, body CRC.
+     */
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 4 + 4;
+    private static final int MAX_METADATA_BYTES = 1 << 20;
+    private static final long TOMBSTONE = -1;
+    private static final long MAX_SEGMENT_BYTES = 64L << 20;
+    private static final String LOCK_NAME = "lock";
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d{8})\\.dat");
+
+    private static final class Segment {
+        private final long id;
+        private final Path path;
+        private final FileChannel reader;
+        private @Nullable AsynchronousFileChannel writer;
+        private long size;
+        private int writesInFlight;
+        private boolean sealed;
+        private boolean deleted;
+
+        private Segment(long id, Path path, FileChannel reader, long size) {
+            this.id = id;
+            this.path = path;
+            this.reader = reader;
+            this.size = size;
+        }
+    }
+
+    private static final class Entry {
+        private final Segment segment;
+        private final long bodyOffset;
+        private final long bodyLength;
+        private final int bodyCrc;
+        private final CachedResponse metadata;
+        // Guarded by the store
+        private @Nullable ByteBuffer body;
+        private boolean verifying;
+
+        private Entry(Segment segment, long bodyOffset, long bodyLength, int bodyCrc, CachedResponse metadata) {
+            this.segment = segment;
+            this.bodyOffset = bodyOffset;
+            this.bodyLength = bodyLength;
+            this.bodyCrc = bodyCrc;
+            this.metadata = metadata;
+        }
+    }
+
+    /**
+     * Open a store in a directory, creating it if needed, and recover the entries already there.
+     *
+     * @param directory the directory to keep segments in
+     * @param maxBytes the most bytes the segments may hold
+     * @return the store
+     * @throws IOException if the directory can't be read or written, or another store is using it
+     */
+    public static DiskCacheStore open(Path directory, long maxBytes) throws IOException {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        Files.createDirectories(directory);
+        var lockChannel = FileChannel.open(
+            directory.resolve(LOCK_NAME), StandardOpenOption.CREATE, StandardOpenOption.WRITE
+        );
+        FileLock lock;
+        try {
+            lock = lockChannel.tryLock();
+        } catch (IOException | OverlappingFileLockException e) {
+            // Overlapping means this process already holds it
+            lock = null;
+        }
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("Cache directory is in use by another store: " + directory);
+        }
+        var store = new DiskCacheStore(directory, maxBytes, lockChannel);
+        try {
+            store.recover();
+        } catch (IOException | RuntimeException e) {
+            store.close();
+            throw e;
+        }
+        return store;
+    }
+
+    private final Path directory;
+    private final long maxBytes;
+    /**
+     * Holds the lock on the directory, which is released when it's closed.
+     */
+    private final FileChannel lockChannel;
+    private final long segmentBytes;
+    private final Executor executor = ForkJoinPool.commonPool();
+    // Everything below is guarded by this
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private final HashMap<String, Entry> index = new HashMap<>();
+    /**
+     * Entries that are still being written, which replace the indexed entry once they are.
+     */
+    private final HashMap<String, Entry> pending = new HashMap<>();
+    private long sizeBytes;
+    private long evictions;
+    private boolean closed;
+
+    private DiskCacheStore(Path directory, long maxBytes, FileChannel lockChannel) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.lockChannel = lockChannel;
+        this.segmentBytes = Math.max(1, Math.min(MAX_SEGMENT_BYTES, maxBytes / 8));
+    }
+
+    private synchronized void recover() throws IOException {
+        var ids = new ArrayList<Long>();
+        try (var files = Files.newDirectoryStream(directory)) {
+            for (var file : files) {
+                var matcher = SEGMENT_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    ids.add(Long.parseLong(matcher.group(1)));
+                }
+            }
+        }
+        ids.sort(null);
+        for (long id : ids) {
+            var path = segmentPath(id);
+            var reader = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            var segment = new Segment(id, path, reader, 0);
+            segments.addLast(segment);
+            segment.size = scan(segment);
+            segment.sealed = true;
+            sizeBytes += segment.size;
+        }
+        evictIfNeeded();
+    }
+
+    /**
+     * Index the records of a segment, truncating it after the last intact one.
+     *
+     * @return the size of the intact records
+     */
+    private long scan(Segment segment) throws IOException {
+        var channel = segment.reader;
+        long fileSize = channel.size();
+        long position = 0;
+        var header = ByteBuffer.allocate(HEADER_BYTES);
+        while (position + HEADER_BYTES <= fileSize) {
+            header.clear();
+            readFully(channel, header, position);
+            header.flip();
+            int magic = header.getInt();
+            int metadataLength = header.getInt();
+            long bodyLength = header.getLong();
+            int metadataCrc = header.getInt();
+            int bodyCrc = header.getInt();
+            if (magic != MAGIC || metadataLength < 0 || metadataLength > MAX_METADATA_BYTES
+                || bodyLength < TOMBSTONE) {
+                break;
+            }
+            long bodyOffset = position + HEADER_BYTES + metadataLength;
+            long end = bodyOffset + Math.max(0, bodyLength);
+            if (end > fileSize) {
+                break;
+            }
+            var metadata = ByteBuffer.allocate(metadataLength);
+            readFully(channel, metadata, position + HEADER_BYTES);
+            if (crc(metadata.flip()) != metadataCrc) {
+                break;
+            }
+            try (var in = new DataInputStream(new ByteArrayInputStream(metadata.array()))) {
+                var key = in.readUTF();
+                if (bodyLength == TOMBSTONE) {
+                    index.remove(key);
+                } else {
+                    index.put(key, new Entry(segment, bodyOffset, bodyLength, bodyCrc, readMetadata(in)));
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                // The check passed, so this is a record from an incompatible version
+                break;
+            }
+            position = end;
+        }
+        if (position < fileSize) {
+            channel.truncate(position);
+        }
+        return position;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of segment");
+            }
+            position += read;
+        }
+    }
+
+    private Path segmentPath(long id) {
+        return directory.resolve(String.format("segment-%08d.dat", id));
+    }
+
+    private static int crc(ByteBuffer buffer) {
+        var crc = new CRC32();
+        crc.update(buffer.duplicate());
+        return (int) crc.getValue();
+    }
+
+    private static byte[] writeMetadata(String key, @Nullable CachedResponse response) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new DataOutputStream(bytes)) {
+            out.writeUTF(key);
+            if (response == null) {
+                return bytes.toByteArray();
+            }
+            out.writeInt(response.statusCode());
+            out.writeUTF(response.statusMessage());
+            out.writeUTF(response.contentType().mimeType());
+            var charset = response.contentType().charset();
+            out.writeBoolean(charset != null);
+            if (charset != null) {
+                out.writeUTF(charset);
+            }
+            var headers = new ArrayList<Map.Entry<String, String>>();
+            for (var header : response.headers()) {
+                headers.add(header);
+            }
+            out.writeInt(headers.size());
+            for (var header : headers) {
+                out.writeUTF(header.getKey());
+                out.writeUTF(header.getValue());
+            }
+            out.writeInt(response.varyValues().size());
+            for (var vary : response.varyValues().entrySet()) {
+                out.writeUTF(vary.getKey());
+                out.writeInt(vary.getValue().size());
+                for (var value : vary.getValue()) {
+                    out.writeUTF(value);
+                }
+            }
+            out.writeLong(response.requestTimeMillis());
+            out.writeLong(response.responseTimeMillis());
+        }
+        return bytes.toByteArray();
+    }
+
+    private static CachedResponse readMetadata(DataInputStream in) throws IOException {
+        int statusCode = in.readInt();
+        var statusMessage = in.readUTF();
+        var mimeType = in.readUTF();
+        var charset = in.readBoolean() ? in.readUTF() : null;
+        var headers = HttpHeaderMap.builder();
+        int headerCount = in.readInt();
+        for (int i = 0; i < headerCount; i++) {
+            headers.add(in.readUTF(), in.readUTF());
+        }
+        var varyValues = new LinkedHashMap<String, List<String>>();
+        int varyCount = in.readInt();
+        for (int i = 0; i < varyCount; i++) {
+            var name = in.readUTF();
+            var values = new ArrayList<String>();
+            int valueCount = in.readInt();
+            for (int j = 0; j < valueCount; j++) {
+                values.add(in.readUTF());
+            }
+            varyValues.put(name, List.copyOf(values));
+        }
+        long requestTimeMillis = in.readLong();
+        long responseTimeMillis = in.readLong();
+        return new CachedResponse(
+            statusCode, statusMessage, headers.build(), new HttpContentType(mimeType, charset),
+            ByteBuffer.allocate(0), Map.copyOf(varyValues), requestTimeMillis, responseTimeMillis
+        );
+    }
+
+    @Override
+    public @Nullable CachedResponse get(String key) {
+        Entry entry;
+        ByteBuffer body;
+        boolean verify = false;
+        synchronized (this) {
+            entry = index.get(key);
+            if (entry == null) {
+                return null;
+            }
+            body = entry.body;
+            if (body == null && !entry.verifying) {
+                entry.verifying = true;
+                verify = true;
+            }
+        }
+        if (body == null) {
+            if (verify) {
+                var unverified = entry;
+                executor.execute(() -> verify(key, unverified));
+            }
+            return null;
+        }
+        return entry.metadata.withBody(body.duplicate());
+    }
+
+    /**
+     * Check the body of a recovered entry, and serve it from now on if it's intact.
+     */
+    private void verify(String key, Entry entry) {
+        var body = map(entry);
+        boolean intact = body != null && crc(body) == entry.bodyCrc;
+        synchronized (this) {
+            if (intact) {
+                entry.body = body;
+            } else {
+                index.remove(key, entry);
+            }
+        }
+    }
+
+    /**
+     * {@return the body of an entry mapped from its segment, or {@code null} if the segment was evicted}
+     */
+    private static @Nullable ByteBuffer map(Entry entry) {
+        try {
+            return entry.segment.reader.map(FileChannel.MapMode.READ_ONLY, entry.bodyOffset, entry.bodyLength);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void put(String key, CachedResponse response) {
+        var body = response.body().duplicate();
+        if (body.remaining() > maxEntryBytes()) {
+            remove(key);
+            return;
+        }
+        byte[] metadata;
+        try {
+            metadata = writeMetadata(key, response);
+        } catch (IOException e) {
+            // A header is too long to write, so it can't be kept
+            remove(key);
+            return;
+        }
+        append(key, metadata, body, response.withBody(ByteBuffer.allocate(0)));
+    }
+
+    @Override
+    public void remove(String key) {
+        synchronized (this) {
+            var removed = index.remove(key);
+            var removedPending = pending.remove(key);
+            if (removed == null && removedPending == null) {
+                return;
+            }
+        }
+        byte[] metadata;
+        try {
+            metadata = writeMetadata(key, null);
+        } catch (IOException e) {
+            // The key could never have been written either
+            return;
+        }
+        append(key, metadata, null, null);
+    }
+
+    /**
+     * Append a record, and index it once it's written.
+     *
+     * @param key the key
+     * @param metadataBytes the key and metadata, written
+     * @param body the body, or {@code null} for a tombstone
+     * @param metadata the entry without its body, or {@code null} for a tombstone
+     */
+    private void append(String key, byte[] metadataBytes, @Nullable ByteBuffer body,
+                        @Nullable CachedResponse metadata) {
+        int headerLength = HEADER_BYTES + metadataBytes.length;
+        long recordLength = headerLength + (body == null ? 0 : body.remaining());
+        Segment segment;
+        AsynchronousFileChannel writer;
+        long position;
+        Entry entry = null;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            try {
+                segment = segmentFor(recordLength);
+            } catch (IOException e) {
+                return;
+            }
+            writer = segment.writer;
+            position = segment.size;
+            segment.size += recordLength;
+            segment.writesInFlight++;
+            sizeBytes += recordLength;
+            if (body != null && metadata != null) {
+                // The body is mapped once written, and never checked against its CRC in this run
+                entry = new Entry(segment, position + headerLength, body.remaining(), 0, metadata);
+                pending.put(key, entry);
+            }
+            evictIfNeeded();
+        }
+        // The space is taken, so the body can be checksummed off the caller's thread
+        var written = CompletableFuture.supplyAsync(() -> header(metadataBytes, body), executor)
+            .thenCompose(header -> write(writer, header, position));
+        if (body != null) {
+            long bodyPosition = position + headerLength;
+            written = written.thenCompose(__ -> write(writer, body, bodyPosition));
+        }
+        var finalEntry = entry;
+        written.whenComplete((__, ex) -> {
+            var mapped = ex == null && finalEntry != null ? map(finalEntry) : null;
+            written(key, segment, finalEntry, mapped);
+        });
+    }
+
+    private static ByteBuffer header(byte[] metadataBytes, @Nullable ByteBuffer body) {
+        return ByteBuffer.allocate(HEADER_BYTES + metadataBytes.length)
+            .putInt(MAGIC)
+            .putInt(metadataBytes.length)
+            .putLong(body == null ? TOMBSTONE : body.remaining())
+            .putInt(crc(ByteBuffer.wrap(metadataBytes)))
+            .putInt(body == null ? 0 : crc(body))
+            .put(metadataBytes)
+            .flip();
+    }
+
+    /**
+     * Index an entry once written. Its body is the region mapped from the segment, or {@code null} if it couldn't
+     * be written or mapped.
+     */
+    private synchronized void written(String key, Segment segment, @Nullable Entry entry, @Nullable ByteBuffer body) {
+        segment.writesInFlight--;
+        if (entry != null && pending.remove(key, entry) && body != null && !segment.deleted) {
+            entry.body = body;
+            index.put(key, entry);
+        }
+        if ((segment.sealed || closed) && segment.writesInFlight == 0) {
+            closeWriter(segment);
+        }
+    }
+
+    /**
+     * {@return the number of records still being written}
+     */
+    synchronized int writesInFlight() {
+        int writes = 0;
+        for (var segment : segments) {
+            writes += segment.writesInFlight;
+        }
+        return writes;
+    }
+
+    private static CompletableFuture<Void> write(AsynchronousFileChannel channel, ByteBuffer buffer,
+                                                 long position) {
+        if (!buffer.hasRemaining()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return Completables.<Integer>wrap((a, h) -> channel.write(buffer, position, a, h))
+            .thenCompose(count -> write(channel, buffer, position + count));
+    }
+
+    /**
+     * {@return the segment to append a record to, starting a new one if the active one is full}
+     */
+    private Segment segmentFor(long recordLength) throws IOException {
+        var active = segments.peekLast();
+        if (active != null && !active.sealed
+            && (active.size == 0 || active.size + recordLength <= segmentBytes)) {
+            return active;
+        }
+        if (active != null && !active.sealed) {
+            active.sealed = true;
+            if (active.writesInFlight == 0) {
+                closeWriter(active);
+            }
+        }
+        long id = active == null ? 0 : active.id + 1;
+        var path = segmentPath(id);
+        var writer = AsynchronousFileChannel.open(
+            path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE
+        );
+        FileChannel reader;
+        try {
+            reader = FileChannel.open(path, StandardOpenOption.READ);
+        } catch (IOException e) {
+            writer.close();
+            throw e;
+        }
+        var segment = new Segment(id, path, reader, 0);
+        segment.writer = writer;
+        segments.addLast(segment);
+        return segment;
+    }
+
+    private void evictIfNeeded() {
+        while (sizeBytes > maxBytes && segments.size() > 1) {
+            var eldest = segments.removeFirst();
+            eldest.deleted = true;
+            sizeBytes -= eldest.size;
+            var iterator = index.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().segment == eldest) {
+                    iterator.remove();
+                    evictions++;
+                }
+            }
+            closeSegment(eldest);
+            try {
+                Files.deleteIfExists(eldest.path);
+            } catch (IOException ignored) {
+                // It's no longer indexed, so it's only wasted space
+            }
+        }
+    }
+
+    private static void closeWriter(Segment segment) {
+        var writer = segment.writer;
+        if (writer == null) {
+            return;
+        }
+        segment.writer = null;
+        try {
+            writer.close();
+        } catch (IOException ignored) {
+            // Nothing more will be written
+        }
+    }
+
+    private static void closeSegment(Segment segment) {
+        closeWriter(segment);
+        try {
+            segment.reader.close();
+        } catch (IOException ignored) {
+            // Bodies already mapped stay valid
+        }
+    }
+
+    @Override
+    public long maxEntryBytes() {
+        return Math.min(maxBytes / 4, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public synchronized long entryCount() {
+        return index.size();
+    }
+
+    @Override
+    public synchronized long sizeBytes() {
+        return sizeBytes;
+    }
+
+    @Override
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    /**
+     * Close every segment and unlock the directory. Writes still in flight are finished first, without waiting
+     * for them.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (var segment : segments) {
+            if (segment.writesInFlight == 0) {
+                closeWriter(segment);
+            }
+            try {
+                segment.reader.close();
+            } catch (IOException ignored) {
+                // Bodies already mapped stay valid
+            }
+        }
+        index.clear();
+        pending.clear();
+        try {
+            lockChannel.close();
+        } catch (IOException ignored) {
+            // The lock goes with the channel, there's nothing left to release
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.cache;
+
+import com.techshroom.petitioner.core.HttpHeaderMap;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.OptionalLong;
+
+/**
+ * Reads HTTP dates, in the IMF-fixdate format.
+ */
+public final class HttpDates {
+    /**
+     * {@return the first value of a header, or {@code null} if it's absent} Unlike
+     * {@link HttpHeaderMap#value(String)}, repeated headers aren't an error.
+     *
+     * @param headers the headers
+     * @param name the header name
+     */
+    public static @Nullable String first(HttpHeaderMap headers, String name) {
+        var values = headers.values(name);
+        return values.isEmpty() ? null : values.get(0);
+    }
+
+    /**
+     * {@return the date in milliseconds since the epoch, or empty if it's invalid}
+     *
+     * @param value the date
+     */
+    public static OptionalLong parse(String value) {
+        try {
+            var date = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+            return OptionalLong.of(date.toInstant().toEpochMilli());
+        } catch (DateTimeParseException e) {
+            return OptionalLong.empty();
+        }
+    }
+
+    /**
+     * {@return the date of a header in milliseconds since the epoch, or empty if it's absent or invalid}
+     *
+     * @param headers the headers
+     * @param name the header name
+     */
+    public static OptionalLong parse(HttpHeaderMap headers, String name) {
+        var value = first(headers, name);
+        return value == null ? OptionalLong.empty() : parse(value);
+    }
+
+    private HttpDates() {
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.cache;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.LinkedHashMap;
+
+/**
+ * Keeps entries on the heap, evicting the least recently used when the size bound is reached.
+ */
+public final class MemoryCacheStore implements CacheStore {
+    private final long maxBytes;
+    // Everything below is guarded by this
+    private final LinkedHashMap<String, CachedResponse> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long sizeBytes;
+    private long evictions;
+
+    public MemoryCacheStore(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public synchronized @Nullable CachedResponse get(String key) {
+        return entries.get(key);
+    }
+
+    @Override
+    public synchronized void put(String key, CachedResponse response) {
+        long size = response.size();
+        if (size > maxBytes) {
+            // Storing it would only empty the cache
+            remove(key);
+            return;
+        }
+        var previous = entries.put(key, response);
+        if (previous != null) {
+            sizeBytes -= previous.size();
+        }
+        sizeBytes += size;
+        var iterator = entries.values().iterator();
+        while (sizeBytes > maxBytes) {
+            var eldest = iterator.next();
+            iterator.remove();
+            sizeBytes -= eldest.size();
+            evictions++;
+        }
+    }
+
+    @Override
+    public synchronized void remove(String key) {
+        var removed = entries.remove(key);
+        if (removed != null) {
+            sizeBytes -= removed.size();
+        }
+    }
+
+    @Override
+    public long maxEntryBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public synchronized long entryCount() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized long sizeBytes() {
+        return sizeBytes;
+    }
+
+    @Override
+    public synchronized long evictions() {
+        return evictions;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.cache;
+
+import com.techshroom.petitioner.core.HttpCacheStats;
+import com.techshroom.petitioner.core.HttpMethod;
+import com.techshroom.petitioner.core.HttpRequest;
+import com.techshroom.petitioner.core.HttpResponse;
+import com.techshroom.petitioner.core.internal.ReadSessionHttpResponseBody;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides what to store and serve, following RFC 9111 for a private cache, and keeps entries in a
+ * {@link CacheStore}.
+ *
+ * <p>
+ * Only responses to {@link HttpMethod#GET GET} are stored, keyed by URI. Each URI holds one response, the
+ * most recent, which only serves requests matching it on the headers it {@code Vary}s by.
+ * </p>
+ */
+public final class ResponseCache implements Closeable {
+    /**
+     * {@return the key for a URI} Fragments are never sent, so they don't select a different response.
+     *
+     * @param uri the URI
+     */
+    public static String key(URI uri) {
+        if (uri.getRawFragment() == null) {
+            return uri.toString();
+        }
+        try {
+            return new URI(uri.getScheme(), uri.getSchemeSpecificPart(), null).toString();
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException("URI without its fragment is invalid: " + uri, e);
+        }
+    }
+
+    /**
+     * {@return if the cache should stay out of the way of a request} Requests with their own validators or
+     * ranges are the caller's to manage.
+     *
+     * @param request the request
+     */
+    public static boolean bypasses(HttpRequest request) {
+        return request.method() != HttpMethod.GET
+            || !request.headers().values("If-None-Match").isEmpty()
+            || !request.headers().values("If-Modified-Since").isEmpty()
+            || !request.headers().values("Range").isEmpty()
+            || CacheControl.parse(request.headers()).noStore();
+    }
+
+    private final CacheStore store;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder revalidations = new LongAdder();
+
+    public ResponseCache(CacheStore store) {
+        this.store = store;
+    }
+
+    /**
+     * {@return the stored response for a request, or {@code null} if there is none that it selects}
+     *
+     * @param request the request
+     */
+    public @Nullable CachedResponse lookup(HttpRequest request) {
+        var entry = store.get(key(request.uri()));
+        return entry != null && entry.matches(request) ? entry : null;
+    }
+
+    public void store(HttpRequest request, CachedResponse response) {
+        store.put(key(request.uri()), response);
+    }
+
+    /**
+     * Drop the stored response for a URI, such as after a successful unsafe request changed it.
+     *
+     * @param uri the URI
+     */
+    public void invalidate(URI uri) {
+        store.remove(key(uri));
+    }
+
+    public void recordHit() {
+        hits.increment();
+    }
+
+    public void recordMiss() {
+        misses.increment();
+    }
+
+    public void recordRevalidation() {
+        revalidations.increment();
+    }
+
+    private boolean isStorable(HttpResponse response) {
+        var cacheControl = CacheControl.parse(response.headers());
+        if (cacheControl.noStore() || CachedResponse.varyNames(response.headers()).contains("*")) {
+            return false;
+        }
+        boolean explicitFreshness = cacheControl.maxAge().isPresent()
+            || !response.headers().values("Expires").isEmpty();
+        if (!explicitFreshness && !CachedResponse.HEURISTICALLY_CACHEABLE.contains(response.statusCode())) {
+            return false;
+        }
+        // Without freshness or a validator, it could never be served
+        return explicitFreshness
+            || !response.headers().values("Last-Modified").isEmpty()
+            || !response.headers().values("ETag").isEmpty();
+    }
+
+    /**
+     * Store a response once its body has been read, if it's storable. The body is copied as the caller
+     * reads it, so nothing is stored if they stop early.
+     *
+     * @param request the request
+     * @param response the response
+     * @param requestTimeMillis when the request was sent
+     * @param responseTimeMillis when the response was received
+     * @return the response to give the caller
+     */
+    public HttpResponse storeWhenRead(HttpRequest request, HttpResponse response, long requestTimeMillis,
+                                      long responseTimeMillis) {
+        if (!isStorable(response)) {
+            return response;
+        }
+        var body = response.body();
+        if (body == null) {
+            store(request, CachedResponse.of(
+                request, response, ByteBuffer.allocate(0), requestTimeMillis, responseTimeMillis
+            ));
+            return response;
+        }
+        long limit = Math.min(store.maxEntryBytes(), Integer.MAX_VALUE - 8);
+        if (body.contentLength().orElse(0) > limit) {
+            return response;
+        }
+        var tee = new TeeReadSession(
+            body.readSession(), (int) limit, body.contentLength().orElse(-1),
+            whole -> store(request, CachedResponse.of(request, response, whole, requestTimeMillis, responseTimeMillis))
+        );
+        return new HttpResponse(
+            response.statusCode(), response.statusMessage(), response.headers(),
+            new ReadSessionHttpResponseBody(body.contentLength(), body.contentType(), tee)
+        );
+    }
+
+    @Override
+    public void close() throws IOException {
+        store.close();
+    }
+
+    public HttpCacheStats stats() {
+        return new HttpCacheStats(
+            hits.sum(), misses.sum(), revalidations.sum(), store.evictions(), store.entryCount(), store.sizeBytes()
+        );
+    }
+}
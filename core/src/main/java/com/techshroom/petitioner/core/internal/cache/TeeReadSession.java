@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.cache;
+
+import com.techshroom.petitioner.core.io.ReadSession;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
+
+/**
+ * Copies the packets of a read session as they're read, and hands over the whole stream once it ends.
+ *
+ * <p>
+ * Nothing is handed over if the stream is longer than the limit, shorter than its expected length,
+ * fails, or is closed before it ends. The copy starts small and grows as packets arrive, so a stream
+ * that is abandoned early doesn't cost its declared length.
+ * </p>
+ */
+public final class TeeReadSession implements ReadSession {
+    private static final int DEFAULT_INITIAL_CAPACITY = 8192;
+
+    private final ReadSession source;
+    private final int limit;
+    private final long expectedLength;
+    private final Consumer<ByteBuffer> onEnd;
+    // Everything below is guarded by this
+    private byte @Nullable [] copy;
+    private int length;
+    private boolean abandoned;
+
+    /**
+     * Create a tee.
+     *
+     * @param source the session to copy
+     * @param limit the most bytes to copy
+     * @param expectedLength the length of the stream if known, otherwise {@code -1}
+     * @param onEnd receives the whole stream when it ends
+     */
+    public TeeReadSession(ReadSession source, int limit, long expectedLength, Consumer<ByteBuffer> onEnd) {
+        this.source = source;
+        this.limit = limit;
+        this.expectedLength = expectedLength;
+        this.onEnd = onEnd;
+        long initialCapacity = expectedLength >= 0
+            ? Math.min(expectedLength, DEFAULT_INITIAL_CAPACITY)
+            : DEFAULT_INITIAL_CAPACITY;
+        this.copy = new byte[(int) Math.min(limit, initialCapacity)];
+    }
+
+    @Override
+    public CompletionStage<@NonNull ByteBuffer> readNextPacket() {
+        return source.readNextPacket().thenApply(packet -> {
+            ByteBuffer whole = null;
+            synchronized (this) {
+                if (abandoned) {
+                    return packet;
+                }
+                if (!packet.hasRemaining()) {
+                    abandoned = true;
+                    // The peer closing before the declared length also ends the stream, don't keep it
+                    if (expectedLength < 0 || length == expectedLength) {
+                        whole = ByteBuffer.wrap(length == copy.length ? copy : Arrays.copyOf(copy, length));
+                    }
+                    copy = null;
+                } else if (packet.remaining() > limit - length) {
+                    abandoned = true;
+                    copy = null;
+                } else {
+                    if (packet.remaining() > copy.length - length) {
+                        int needed = length + packet.remaining();
+                        long capacity = Math.max(needed, 2L * copy.length);
+                        if (expectedLength >= needed) {
+                            capacity = Math.min(capacity, expectedLength);
+                        }
+                        copy = Arrays.copyOf(copy, (int) Math.min(limit, capacity));
+                    }
+                    packet.duplicate().get(copy, length, packet.remaining());
+                    length += packet.remaining();
+                }
+            }
+            if (whole != null) {
+                onEnd.accept(whole);
+            }
+            return packet;
+        });
+    }
+
+    @Override
+    public void release(ByteBuffer packet) {
+        source.release(packet);
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            abandoned = true;
+            copy = null;
+        }
+        source.close();
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.client;
+
+import com.techshroom.petitioner.core.HttpConcurrencyLimitExceededException;
+import com.techshroom.petitioner.core.HttpConcurrencyLimiter;
+import com.techshroom.petitioner.core.HttpConcurrencyLimits;
+import com.techshroom.petitioner.core.HttpPriority;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An additive-increase, multiplicative-decrease concurrency limit for each host.
+ *
+ * <p>
+ * Each host's state is guarded by its own lock, which is only held to update counters, never while
+ * running callbacks.
+ * </p>
+ *
+ * <p>
+ * A host that has held no permits and had no waiters for a while is forgotten, so talking to many hosts
+ * over time doesn't grow the limiter without bound. It starts again from the initial limit if it's used
+ * after that.
+ * </p>
+ */
+public final class AdaptiveLimiter {
+    private static final int HISTORY_SIZE = 128;
+    /**
+     * Requests waiting for a host rise one priority level per interval, so low priorities can't starve.
+     */
+    private static final Duration AGING_INTERVAL = Duration.ofSeconds(1);
+    /**
+     * The baseline moves 1/2^n of the way to a slower sample, so it follows a lasting change in latency.
+     */
+    private static final int BASELINE_DRIFT_SHIFT = 8;
+    private static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofMinutes(5);
+
+    /**
+     * How an exchange went, for adjusting the limit.
+     */
+    public enum Outcome {
+        /**
+         * A response arrived, its latency decides the adjustment.
+         */
+        RESPONDED,
+        /**
+         * The host is overloaded, such as a {@code 503} or a failed connection.
+         */
+        DROPPED,
+        /**
+         * The outcome says nothing about the host's load.
+         */
+        IGNORED,
+    }
+
+    private final HttpConcurrencyLimits limits;
+    private final long idleTimeoutNanos;
+    private final Map<String, HostLimit> hosts = new ConcurrentHashMap<>();
+    private final AtomicLong lastSweepNanos = new AtomicLong(System.nanoTime());
+
+    public AdaptiveLimiter(HttpConcurrencyLimits limits) {
+        this(limits, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    AdaptiveLimiter(HttpConcurrencyLimits limits, Duration idleTimeout) {
+        this.limits = limits;
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+    }
+
+    /**
+     * Acquire a permit to send a request to a host. Waiting requests are granted permits by priority.
+     *
+     * @param host the key of the host
+     * @param priority the priority of the request
+     * @return a future that completes with the permit once there's room, or fails with
+     *     {@link HttpConcurrencyLimitExceededException} if the queue is full
+     */
+    public CompletableFuture<Permit> acquire(String host, HttpPriority priority) {
+        sweepIfDue();
+        while (true) {
+            var acquired = hosts.computeIfAbsent(host, HostLimit::new).acquire(priority);
+            if (acquired != null) {
+                return acquired;
+            }
+            // Forgotten just before we got to it, its replacement is a fresh start either way
+        }
+    }
+
+    /**
+     * Forget idle hosts, at most once per idle timeout so acquiring stays cheap.
+     */
+    private void sweepIfDue() {
+        long now = System.nanoTime();
+        long last = lastSweepNanos.get();
+        if (now - last < idleTimeoutNanos || !lastSweepNanos.compareAndSet(last, now)) {
+            return;
+        }
+        hosts.values().removeIf(host -> host.retireIfIdle(now));
+    }
+
+    /**
+     * {@return the state of every host}
+     */
+    public List<HttpConcurrencyLimiter.HostSnapshot> snapshot() {
+        var snapshots = new ArrayList<HttpConcurrencyLimiter.HostSnapshot>(hosts.size());
+        for (var host : hosts.values()) {
+            snapshots.add(host.snapshot());
+        }
+        return List.copyOf(snapshots);
+    }
+
+    /**
+     * Permission for one request to be in flight. It must be released exactly once.
+     */
+    public final class Permit {
+        private final HostLimit host;
+
+        private Permit(HostLimit host) {
+            this.host = host;
+        }
+
+        /**
+         * Release the permit, adjusting the limit by how the exchange went.
+         *
+         * @param outcome how the exchange went
+         * @param latencyNanos how long the exchange took, from when the permit was granted
+         */
+        public void release(Outcome outcome, long latencyNanos) {
+            host.release(outcome, latencyNanos);
+        }
+    }
+
+    private final class HostLimit {
+        private final String host;
+        private final PriorityWaitQueue<CompletableFuture<Permit>> queue = new PriorityWaitQueue<>(AGING_INTERVAL);
+        private final ArrayDeque<HttpConcurrencyLimiter.LimitChange> history = new ArrayDeque<>();
+        private double limit = limits.initialLimit();
+        private int inFlight;
+        private long baselineNanos = Long.MAX_VALUE;
+        // Far enough in the past that the first decrease always counts
+        private long lastDecreaseNanos = System.nanoTime() - Long.MAX_VALUE / 2;
+        private long lastUsedNanos = System.nanoTime();
+        /**
+         * Set once this has been dropped from the map, after which it grants nothing.
+         */
+        private boolean retired;
+
+        private HostLimit(String host) {
+            this.host = host;
+            history.add(new HttpConcurrencyLimiter.LimitChange(Instant.now(), limits.initialLimit()));
+        }
+
+        /**
+         * {@return the permit, or {@code null} if this host was retired}
+         */
+        @Nullable CompletableFuture<Permit> acquire(HttpPriority priority) {
+            synchronized (this) {
+                if (retired) {
+                    return null;
+                }
+                lastUsedNanos = System.nanoTime();
+                if (inFlight < (int) limit) {
+                    inFlight++;
+                    return CompletableFuture.completedFuture(new Permit(this));
+                }
+                if (queue.size() < limits.maxQueued()) {
+                    var waiting = new CompletableFuture<Permit>();
+                    queue.add(priority, waiting);
+                    // A cancelled waiter gives up its place, so it doesn't count towards the queue limit
+                    waiting.whenComplete((__, ex) -> {
+                        if (ex != null) {
+                            synchronized (this) {
+                                queue.remove(priority, waiting);
+                            }
+                        }
+                    });
+                    return waiting;
+                }
+                return CompletableFuture.failedFuture(new HttpConcurrencyLimitExceededException(host, (int) limit));
+            }
+        }
+
+        void release(Outcome outcome, long latencyNanos) {
+            var ready = new ArrayList<CompletableFuture<Permit>>();
+            synchronized (this) {
+                int before = (int) limit;
+                boolean usingLimit = inFlight * 2 >= before;
+                inFlight--;
+                lastUsedNanos = System.nanoTime();
+                switch (outcome) {
+                    case RESPONDED -> {
+                        if (latencyNanos < baselineNanos) {
+                            baselineNanos = latencyNanos;
+                        } else {
+                            baselineNanos += (latencyNanos - baselineNanos) >> BASELINE_DRIFT_SHIFT;
+                        }
+                        if (latencyNanos > baselineNanos * limits.latencyTolerance()) {
+                            decrease(latencyNanos);
+                        } else if (usingLimit) {
+                            // An idle limit isn't evidence the host can take more
+                            limit = Math.min(limits.maxLimit(), limit + 1 / limit);
+                        }
+                    }
+                    case DROPPED -> decrease(latencyNanos);
+                    case IGNORED -> {
+                    }
+                }
+                int after = (int) limit;
+                if (after != before) {
+                    if (history.size() == HISTORY_SIZE) {
+                        history.removeFirst();
+                    }
+                    history.add(new HttpConcurrencyLimiter.LimitChange(Instant.now(), after));
+                }
+                pollReady(ready);
+            }
+            while (!ready.isEmpty()) {
+                int abandoned = 0;
+                for (var waiting : ready) {
+                    if (!waiting.complete(new Permit(this))) {
+                        // Nobody is waiting any more, it was cancelled after being polled
+                        abandoned++;
+                    }
+                }
+                ready.clear();
+                if (abandoned == 0) {
+                    return;
+                }
+                synchronized (this) {
+                    inFlight -= abandoned;
+                    pollReady(ready);
+                }
+            }
+        }
+
+        /**
+         * Take as many waiters as the limit allows, counting them as in flight. Must hold the lock.
+         */
+        private void pollReady(List<CompletableFuture<Permit>> ready) {
+            CompletableFuture<Permit> next;
+            while (inFlight < (int) limit && (next = queue.poll()) != null) {
+                inFlight++;
+                ready.add(next);
+            }
+        }
+
+        /**
+         * Back off, unless that already happened within the last round trip. All the requests that were in
+         * flight during an overload see it, so they shouldn't all count.
+         */
+        private void decrease(long latencyNanos) {
+            long now = System.nanoTime();
+            if (now - lastDecreaseNanos < latencyNanos) {
+                return;
+            }
+            lastDecreaseNanos = now;
+            limit = Math.max(limits.minLimit(), limit * limits.backoffRatio());
+        }
+
+        /**
+         * Retire this host if nothing has used it for the idle timeout.
+         *
+         * @return if it was retired, and should be dropped from the map
+         */
+        synchronized boolean retireIfIdle(long nowNanos) {
+            if (inFlight == 0 && queue.size() == 0 && nowNanos - lastUsedNanos >= idleTimeoutNanos) {
+                retired = true;
+            }
+            return retired;
+        }
+
+        synchronized HttpConcurrencyLimiter.HostSnapshot snapshot() {
+            return new HttpConcurrencyLimiter.HostSnapshot(
+                host, (int) limit, inFlight, queue.size(), List.copyOf(history)
+            );
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.client;
+
+import com.techshroom.petitioner.core.io.ReadSession;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs an action once its session ends, fails, or is closed, whichever happens first.
+ */
+final class BodyEndReadSession implements ReadSession {
+    private final ReadSession source;
+    private final Runnable onEnd;
+    private final AtomicBoolean ended = new AtomicBoolean();
+
+    BodyEndReadSession(ReadSession source, Runnable onEnd) {
+        this.source = source;
+        this.onEnd = onEnd;
+    }
+
+    private void end() {
+        if (ended.compareAndSet(false, true)) {
+            onEnd.run();
+        }
+    }
+
+    @Override
+    public CompletionStage<@NonNull ByteBuffer> readNextPacket() {
+        return source.readNextPacket().whenComplete((packet, ex) -> {
+            if (ex != null || !packet.hasRemaining()) {
+                end();
+            }
+        });
+    }
+
+    @Override
+    public void release(ByteBuffer packet) {
+        source.release(packet);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            source.close();
+        } finally {
+            end();
+        }
+    }
+}
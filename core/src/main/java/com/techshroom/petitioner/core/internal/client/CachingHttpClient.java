@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.client;
+
+import com.techshroom.petitioner.core.HttpClient;
+import com.techshroom.petitioner.core.HttpRequest;
+import com.techshroom.petitioner.core.HttpResponse;
+import com.techshroom.petitioner.core.internal.cache.CacheControl;
+import com.techshroom.petitioner.core.internal.cache.CachedResponse;
+import com.techshroom.petitioner.core.internal.cache.ResponseCache;
+import com.techshroom.petitioner.core.internal.select.Completables;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Serves requests from a {@link ResponseCache} when it can, and stores the responses of those it can't.
+ */
+public final class CachingHttpClient implements HttpClient {
+    private final HttpClient delegate;
+    private final ResponseCache cache;
+
+    public CachingHttpClient(HttpClient delegate, ResponseCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    private void invalidateIfChanged(HttpRequest request, HttpResponse response) {
+        if (response.statusCode() < 400) {
+            cache.invalidate(request.uri());
+        }
+    }
+
+    /**
+     * {@return the response to give the caller for the response to a request sent after a lookup}
+     *
+     * @param request the caller's request
+     * @param entry the stale entry, if the request was made conditional on it
+     * @param response the response
+     * @param requestTime when the request was sent
+     */
+    private HttpResponse settle(HttpRequest request, @Nullable CachedResponse entry, HttpResponse response,
+                                long requestTime) {
+        long responseTime = System.currentTimeMillis();
+        if (entry != null && response.statusCode() == 304) {
+            cache.recordRevalidation();
+            Responses.discard(response);
+            var revalidated = entry.revalidated(response.headers(), requestTime, responseTime);
+            cache.store(request, revalidated);
+            return revalidated.toResponse(responseTime);
+        }
+        cache.recordMiss();
+        return cache.storeWhenRead(request, response, requestTime, responseTime);
+    }
+
+    @Override
+    public CompletionStage<HttpResponse> executeAsync(HttpRequest request) {
+        if (!request.method().isSafe()) {
+            var attempt = Responses.start(() -> delegate.executeAsync(request));
+            attempt.whenComplete((response, ex) -> {
+                if (response != null) {
+                    invalidateIfChanged(request, response);
+                }
+            });
+            return attempt;
+        }
+        if (ResponseCache.bypasses(request)) {
+            return delegate.executeAsync(request);
+        }
+        long requestTime = System.currentTimeMillis();
+        var entry = cache.lookup(request);
+        if (entry != null && entry.isFresh(CacheControl.parse(request.headers()), requestTime)) {
+            cache.recordHit();
+            return CompletableFuture.completedFuture(entry.toResponse(requestTime));
+        }
+        var conditional = entry == null ? null : entry.conditionalRequest(request);
+        var validated = conditional == null ? null : entry;
+        var result = new CompletableFuture<HttpResponse>();
+        var attempt = Responses.start(() -> delegate.executeAsync(conditional != null ? conditional : request));
+        Completables.propagateCancellation(result, attempt);
+        attempt.whenComplete((response, ex) -> {
+            if (ex != null) {
+                cache.recordMiss();
+                result.completeExceptionally(Responses.unwrap(ex));
+                return;
+            }
+            Responses.complete(result, settle(request, validated, response, requestTime), null);
+        });
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @implNote Fresh responses are served without contacting the delegate, others use the delegate's
+     *     blocking {@code execute}.
+     */
+    @Override
+    public HttpResponse execute(HttpRequest request) throws IOException {
+        if (!request.method().isSafe()) {
+            var response = delegate.execute(request);
+            invalidateIfChanged(request, response);
+            return response;
+        }
+        if (ResponseCache.bypasses(request)) {
+            return delegate.execute(request);
+        }
+        long requestTime = System.currentTimeMillis();
+        var entry = cache.lookup(request);
+        if (entry != null && entry.isFresh(CacheControl.parse(request.headers()), requestTime)) {
+            cache.recordHit();
+            return entry.toResponse(requestTime);
+        }
+        var conditional = entry == null ? null : entry.conditionalRequest(request);
+        HttpResponse response;
+        try {
+            response = delegate.execute(conditional != null ? conditional : request);
+        } catch (IOException | RuntimeException | Error e) {
+            cache.recordMiss();
+            throw e;
+        }
+        return settle(request, conditional == null ? null : entry, response, requestTime);
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+}
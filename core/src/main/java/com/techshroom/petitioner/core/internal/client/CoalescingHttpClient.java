@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.client;
+
+import com.techshroom.petitioner.core.HttpClient;
+import com.techshroom.petitioner.core.HttpCoalescingPolicy;
+import com.techshroom.petitioner.core.HttpMethod;
+import com.techshroom.petitioner.core.HttpRequest;
+import com.techshroom.petitioner.core.HttpResponse;
+import com.techshroom.petitioner.core.internal.ReadSessionFanOut;
+import com.techshroom.petitioner.core.internal.ReadSessionHttpResponseBody;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shares one exchange between identical concurrent requests, according to an {@link HttpCoalescingPolicy}.
+ *
+ * <p>
+ * A request can join an exchange until its response head arrives. Each request that joined gets its own
+ * response, with a view of the body from a {@link ReadSessionFanOut}. If every request that joined is
+ * cancelled, so is the exchange.
+ * </p>
+ */
+public final class CoalescingHttpClient implements HttpClient {
+    private record Key(HttpMethod method, URI uri, List<List<String>> keyHeaderValues) {
+    }
+
+    private final HttpClient delegate;
+    private final HttpCoalescingPolicy policy;
+    private final ConcurrentHashMap<Key, Flight> flights = new ConcurrentHashMap<>();
+
+    public CoalescingHttpClient(HttpClient delegate, HttpCoalescingPolicy policy) {
+        this.delegate = delegate;
+        this.policy = policy;
+    }
+
+    /**
+     * {@return the key to coalesce the request on, or {@code null} if it can't be coalesced}
+     */
+    private @Nullable Key keyFor(HttpRequest request) {
+        if ((request.method() != HttpMethod.GET && request.method() != HttpMethod.HEAD) || request.body() != null) {
+            return null;
+        }
+        // The policy's set always iterates in the same order
+        var values = new ArrayList<List<String>>(policy.keyHeaders().size());
+        for (var name : policy.keyHeaders()) {
+            values.add(request.headers().values(name));
+        }
+        return new Key(request.method(), request.uri(), List.copyOf(values));
+    }
+
+    @Override
+    public CompletionStage<HttpResponse> executeAsync(HttpRequest request) {
+        var key = keyFor(request);
+        if (key == null) {
+            return delegate.executeAsync(request);
+        }
+        while (true) {
+            var flight = flights.get(key);
+            if (flight == null) {
+                var created = new Flight(key);
+                // Nobody else can see it yet, so joining can't fail
+                var waiter = created.join();
+                if (flights.putIfAbsent(key, created) == null) {
+                    created.start(request);
+                    return waiter;
+                }
+                continue;
+            }
+            var waiter = flight.join();
+            if (waiter != null) {
+                return waiter;
+            }
+            // It's landed or been abandoned, and is on its way out
+            flights.remove(key, flight);
+        }
+    }
+
+    @Override
+    public HttpResponse execute(HttpRequest request) throws IOException {
+        if (keyFor(request) == null) {
+            return delegate.execute(request);
+        }
+        return HttpClient.super.execute(request);
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    /**
+     * One exchange, and the requests waiting for it.
+     */
+    private final class Flight {
+        private final Key key;
+        // Everything below is guarded by this
+        private final List<CompletableFuture<HttpResponse>> waiters = new ArrayList<>();
+        /**
+         * Set once no more requests may join.
+         */
+        private boolean sealed;
+        /**
+         * Set if every waiter was cancelled before the head arrived.
+         */
+        private boolean abandoned;
+        private @Nullable CompletableFuture<HttpResponse> upstream;
+
+        private Flight(Key key) {
+            this.key = key;
+        }
+
+        /**
+         * {@return a future for the shared response, or {@code null} if it's too late to join}
+         */
+        synchronized @Nullable CompletableFuture<HttpResponse> join() {
+            if (sealed) {
+                return null;
+            }
+            var waiter = new CompletableFuture<HttpResponse>();
+            waiters.add(waiter);
+            waiter.whenComplete((response, ex) -> {
+                if (waiter.isCancelled()) {
+                    leave(waiter);
+                }
+            });
+            return waiter;
+        }
+
+        private void leave(CompletableFuture<HttpResponse> waiter) {
+            CompletableFuture<HttpResponse> toCancel;
+            synchronized (this) {
+                if (sealed) {
+                    return;
+                }
+                waiters.remove(waiter);
+                if (!waiters.isEmpty()) {
+                    return;
+                }
+                sealed = true;
+                abandoned = true;
+                toCancel = upstream;
+            }
+            flights.remove(key, this);
+            if (toCancel != null) {
+                toCancel.cancel(false);
+            }
+        }
+
+        void start(HttpRequest request) {
+            var attempt = Responses.start(() -> delegate.executeAsync(request));
+            boolean alreadyAbandoned;
+            synchronized (this) {
+                upstream = attempt;
+                alreadyAbandoned = abandoned;
+            }
+            if (alreadyAbandoned) {
+                attempt.cancel(false);
+            }
+            attempt.whenComplete(this::land);
+        }
+
+        private void land(@Nullable HttpResponse response, @Nullable Throwable ex) {
+            List<CompletableFuture<HttpResponse>> landing;
+            boolean wasAbandoned;
+            synchronized (this) {
+                sealed = true;
+                wasAbandoned = abandoned;
+                landing = List.copyOf(waiters);
+            }
+            flights.remove(key, this);
+            if (ex != null) {
+                for (var waiter : landing) {
+                    waiter.completeExceptionally(Responses.unwrap(ex));
+                }
+                return;
+            }
+            if (wasAbandoned) {
+                Responses.discard(response);
+                return;
+            }
+            var body = response.body();
+            if (landing.size() == 1 || body == null) {
+                // Nothing to share, or nothing that needs a view of its own
+                for (var waiter : landing) {
+                    Responses.complete(waiter, response, null);
+                }
+                return;
+            }
+            var fanOut = new ReadSessionFanOut(body.readSession(), landing.size());
+            for (int i = 0; i < landing.size(); i++) {
+                var view = new HttpResponse(
+                    response.statusCode(),
+                    response.statusMessage(),
+                    response.headers(),
+                    new ReadSessionHttpResponseBody(body.contentLength(), body.contentType(), fanOut.views().get(i))
+                );
+                // A waiter cancelled just now closes its view, the others are unaffected
+                Responses.complete(landing.get(i), view, null);
+            }
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.client;
+
+import com.techshroom.petitioner.core.HttpClient;
+import com.techshroom.petitioner.core.HttpHedgePolicy;
+import com.techshroom.petitioner.core.HttpRequest;
+import com.techshroom.petitioner.core.HttpResponse;
+import com.techshroom.petitioner.core.internal.metrics.LatencyHistogram;
+import com.techshroom.petitioner.core.internal.select.InlineExecutor;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hedges requests with safe methods according to an {@link HttpHedgePolicy}.
+ *
+ * <p>
+ * Only the latency of first attempts is tracked for percentile delays, since a hedge that wins is
+ * biased towards being fast. A first attempt that is cancelled after losing records its elapsed time
+ * as a lower bound, otherwise the slow tail would never be sampled and the delay would keep falling.
+ * </p>
+ */
+public final class HedgingHttpClient implements HttpClient {
+    /**
+     * The number of latencies to see before trusting the percentile over the initial delay.
+     */
+    private static final int MIN_SAMPLES = 32;
+    /**
+     * The percentile delay is recomputed after this many latencies.
+     */
+    private static final int RECOMPUTE_INTERVAL = 64;
+    /**
+     * The histogram is decayed after this many latencies, so the delay follows recent behaviour.
+     */
+    private static final int DECAY_INTERVAL = 1024;
+    /**
+     * The budget can save up this many hedges for a burst of slow responses.
+     */
+    private static final int MAX_SAVED_HEDGES = 10;
+
+    private final HttpClient delegate;
+    private final HttpHedgePolicy policy;
+    private final TokenBucket budget;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final AtomicLong samples = new AtomicLong();
+    private volatile long delayNanos;
+
+    public HedgingHttpClient(HttpClient delegate, HttpHedgePolicy policy) {
+        this.delegate = delegate;
+        this.policy = policy;
+        this.budget = new TokenBucket(policy.budget(), MAX_SAVED_HEDGES, false);
+        this.delayNanos = policy.delay().toNanos();
+    }
+
+    /**
+     * {@return the current hedge delay, in nanoseconds}
+     */
+    public long delayNanos() {
+        return delayNanos;
+    }
+
+    private void recordLatency(long latencyNanos) {
+        if (policy.percentile().isEmpty()) {
+            return;
+        }
+        latencies.record(latencyNanos);
+        long seen = samples.incrementAndGet();
+        if (seen >= MIN_SAMPLES && seen % RECOMPUTE_INTERVAL == 0) {
+            delayNanos = latencies.valueAtQuantile(policy.percentile().getAsDouble());
+        }
+        if (seen % DECAY_INTERVAL == 0) {
+            latencies.decay();
+        }
+    }
+
+    @Override
+    public CompletionStage<HttpResponse> executeAsync(HttpRequest request) {
+        if (!request.method().isSafe()) {
+            return delegate.executeAsync(request);
+        }
+        budget.deposit();
+        return new HedgedExchange(request).start();
+    }
+
+    @Override
+    public HttpResponse execute(HttpRequest request) throws IOException {
+        if (!request.method().isSafe()) {
+            return delegate.execute(request);
+        }
+        return HttpClient.super.execute(request);
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    /**
+     * One request, and possibly its hedge.
+     */
+    private final class HedgedExchange {
+        private final HttpRequest request;
+        private final CompletableFuture<HttpResponse> result = new CompletableFuture<>();
+        /**
+         * Attempts in flight, plus one until the hedge has been sent or abandoned.
+         */
+        private final AtomicInteger outstanding = new AtomicInteger(2);
+        private final AtomicBoolean hedgeDecided = new AtomicBoolean();
+        private final AtomicReference<@Nullable Throwable> failure = new AtomicReference<>();
+
+        private HedgedExchange(HttpRequest request) {
+            this.request = request;
+        }
+
+        private CompletableFuture<HttpResponse> start() {
+            attempt(true);
+            CompletableFuture.delayedExecutor(delayNanos, TimeUnit.NANOSECONDS, InlineExecutor.instance())
+                .execute(this::hedge);
+            return result;
+        }
+
+        private void hedge() {
+            if (!hedgeDecided.compareAndSet(false, true)) {
+                return;
+            }
+            if (result.isDone() || !budget.tryWithdraw()) {
+                settle();
+                return;
+            }
+            attempt(false);
+        }
+
+        private void attempt(boolean first) {
+            long start = System.nanoTime();
+            var future = Responses.start(() -> delegate.executeAsync(request));
+            // Once there's a winner, or the caller gives up, the other attempt is only holding a connection
+            result.whenComplete((__, ___) -> future.cancel(false));
+            future.whenComplete((response, ex) -> {
+                if (ex == null) {
+                    if (first) {
+                        recordLatency(System.nanoTime() - start);
+                    }
+                    if (!result.complete(response)) {
+                        // Lost the race
+                        Responses.discard(response);
+                    }
+                } else if (future.isCancelled()) {
+                    // Only the hedge winning says the first attempt was slow, the caller giving up says nothing
+                    if (first && result.isDone() && !result.isCompletedExceptionally()) {
+                        recordLatency(System.nanoTime() - start);
+                    }
+                } else if (!result.isDone()) {
+                    var previous = failure.compareAndExchange(null, ex);
+                    if (previous != null && previous != ex) {
+                        previous.addSuppressed(ex);
+                    }
+                    // A failure isn't slowness, don't hedge it
+                    if (first && hedgeDecided.compareAndSet(false, true)) {
+                        settle();
+                    }
+                }
+                settle();
+            });
+        }
+
+        private void settle() {
+            if (outstanding.decrementAndGet() == 0) {
+                var ex = failure.get();
+                if (ex != null) {
+                    result.completeExceptionally(ex);
+                }
+            }
+        }
+    }
+}
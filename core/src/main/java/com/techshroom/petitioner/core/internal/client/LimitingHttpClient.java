@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.client;
+
+import com.techshroom.petitioner.core.HttpClient;
+import com.techshroom.petitioner.core.HttpRequest;
+import com.techshroom.petitioner.core.HttpResponse;
+import com.techshroom.petitioner.core.internal.Connections;
+import com.techshroom.petitioner.core.internal.select.Completables;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Holds each request until its host's {@link AdaptiveLimiter} has room for it.
+ *
+ * <p>
+ * A request stays in flight until its response body ends or is closed, so long downloads count towards
+ * their host's limit. The limiter still learns from the latency of the response head, which the time
+ * taken to read the body would only blur.
+ * </p>
+ */
+public final class LimitingHttpClient implements HttpClient {
+    private static AdaptiveLimiter.Outcome outcome(@Nullable HttpResponse response, @Nullable Throwable ex) {
+        if (ex != null) {
+            return Responses.unwrap(ex) instanceof IOException
+                ? AdaptiveLimiter.Outcome.DROPPED
+                : AdaptiveLimiter.Outcome.IGNORED;
+        }
+        if (response != null && (response.statusCode() == 503 || response.statusCode() == 429)) {
+            return AdaptiveLimiter.Outcome.DROPPED;
+        }
+        return AdaptiveLimiter.Outcome.RESPONDED;
+    }
+
+    private final HttpClient delegate;
+    private final AdaptiveLimiter limiter;
+
+    public LimitingHttpClient(HttpClient delegate, AdaptiveLimiter limiter) {
+        this.delegate = delegate;
+        this.limiter = limiter;
+    }
+
+    @Override
+    public CompletionStage<HttpResponse> executeAsync(HttpRequest request) {
+        var acquired = limiter.acquire(Connections.hostKey(request.uri()), request.priority());
+        var result = new CompletableFuture<HttpResponse>();
+        // A cancelled waiter leaves the queue
+        Completables.propagateCancellation(result, acquired);
+        acquired.whenComplete((permit, acquireEx) -> {
+            if (acquireEx != null) {
+                result.completeExceptionally(Responses.unwrap(acquireEx));
+                return;
+            }
+            if (result.isDone()) {
+                permit.release(AdaptiveLimiter.Outcome.IGNORED, 0);
+                return;
+            }
+            long start = System.nanoTime();
+            var attempt = Responses.start(() -> delegate.executeAsync(request));
+            Completables.propagateCancellation(result, attempt);
+            attempt.whenComplete((response, ex) -> {
+                var outcome = outcome(response, ex);
+                long latencyNanos = System.nanoTime() - start;
+                if (response == null) {
+                    permit.release(outcome, latencyNanos);
+                    Responses.complete(result, null, ex);
+                    return;
+                }
+                // A response that isn't delivered is discarded, which closes its body and releases the permit
+                var held = Responses.onBodyEnd(response, () -> permit.release(outcome, latencyNanos));
+                Responses.complete(result, held, null);
+            });
+        });
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @implNote The calling thread waits for a permit, then executes the request with the delegate's
+     *     blocking {@code execute}. The permit is held until the response body ends or is closed.
+     */
+    @Override
+    public HttpResponse execute(HttpRequest request) throws IOException {
+        var acquired = limiter.acquire(Connections.hostKey(request.uri()), request.priority());
+        AdaptiveLimiter.Permit permit;
+        try {
+            permit = Completables.await(acquired);
+        } catch (IOException | RuntimeException | Error e) {
+            if (!acquired.cancel(false) && !acquired.isCompletedExceptionally()) {
+                // Granted just as we gave up
+                acquired.join().release(AdaptiveLimiter.Outcome.IGNORED, 0);
+            }
+            throw e;
+        }
+        long start = System.nanoTime();
+        HttpResponse response;
+        try {
+            response = delegate.execute(request);
+        } catch (IOException | RuntimeException | Error e) {
+            permit.release(outcome(null, e), System.nanoTime() - start);
+            throw e;
+        }
+        var outcome = outcome(response, null);
+        long latencyNanos = System.nanoTime() - start;
+        return Responses.onBodyEnd(response, () -> permit.release(outcome, latencyNanos));
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.client;
+
+import com.techshroom.petitioner.core.HttpPriority;
+import com.techshroom.petitioner.core.HttpRequestScheduler;
+import com.techshroom.petitioner.core.HttpSchedulingPolicy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A fixed number of slots, handed out to waiters by priority.
+ */
+public final class PriorityScheduler {
+    private final int maxConcurrent;
+    private final PriorityWaitQueue<CompletableFuture<Void>> queue;
+    private int inFlight;
+
+    public PriorityScheduler(HttpSchedulingPolicy policy) {
+        this.maxConcurrent = policy.maxConcurrent();
+        this.queue = new PriorityWaitQueue<>(policy.agingInterval());
+    }
+
+    /**
+     * Acquire a slot. It must be given back with {@link #release()}. Cancelling the future while it
+     * waits gives up its place in the queue.
+     *
+     * @param priority the priority of the request
+     * @return a future that completes once the slot is acquired
+     */
+    public CompletableFuture<Void> acquire(HttpPriority priority) {
+        synchronized (this) {
+            if (inFlight < maxConcurrent) {
+                inFlight++;
+                queue.admittedImmediately(priority);
+                return CompletableFuture.completedFuture(null);
+            }
+            var waiting = new CompletableFuture<Void>();
+            queue.add(priority, waiting);
+            waiting.whenComplete((__, ex) -> {
+                if (ex != null) {
+                    synchronized (this) {
+                        queue.remove(priority, waiting);
+                    }
+                }
+            });
+            return waiting;
+        }
+    }
+
+    /**
+     * Give back a slot, admitting the next waiter if there is one.
+     */
+    public void release() {
+        while (true) {
+            CompletableFuture<Void> next;
+            synchronized (this) {
+                next = queue.poll();
+                if (next == null) {
+                    inFlight--;
+                    return;
+                }
+                // The slot passes straight to the waiter
+            }
+            if (next.complete(null)) {
+                return;
+            }
+            // Nobody is waiting any more, it was cancelled after being polled
+        }
+    }
+
+    /**
+     * {@return the number of slots in use}
+     */
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    /**
+     * {@return the statistics for each priority, highest first}
+     */
+    public synchronized List<HttpRequestScheduler.QueueStats> queueStats() {
+        var stats = new ArrayList<HttpRequestScheduler.QueueStats>(HttpPriority.values().length);
+        for (var priority : HttpPriority.values()) {
+            stats.add(queue.stats(priority));
+        }
+        return List.copyOf(stats);
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.client;
+
+import com.techshroom.petitioner.core.HttpPriority;
+import com.techshroom.petitioner.core.HttpRequestScheduler;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A queue with a FIFO for each {@link HttpPriority}, which ages waiting items so low priorities can't
+ * starve.
+ *
+ * <p>
+ * An item's effective priority rises one level for each aging interval it has waited. {@link #poll()}
+ * takes the oldest item of the highest effective priority, preferring the higher base priority on a tie.
+ * Only the head of each FIFO needs checking, since it's the oldest.
+ * </p>
+ *
+ * <p>
+ * Not thread-safe, the owner must guard it.
+ * </p>
+ *
+ * @param <T> the type of item
+ */
+public final class PriorityWaitQueue<T> {
+    private static final HttpPriority[] PRIORITIES = HttpPriority.values();
+
+    private static final class Waiter<T> {
+        private final T item;
+        private final long enqueuedNanos;
+
+        private Waiter(T item, long enqueuedNanos) {
+            this.item = item;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+
+    private final long agingNanos;
+    private final List<ArrayDeque<Waiter<T>>> queues;
+    private final long[] admitted = new long[PRIORITIES.length];
+    private final long[] totalWaitNanos = new long[PRIORITIES.length];
+    private final long[] maxWaitNanos = new long[PRIORITIES.length];
+    private int size;
+
+    public PriorityWaitQueue(Duration agingInterval) {
+        this.agingNanos = agingInterval.toNanos();
+        var queues = new ArrayList<ArrayDeque<Waiter<T>>>(PRIORITIES.length);
+        for (int i = 0; i < PRIORITIES.length; i++) {
+            queues.add(new ArrayDeque<>());
+        }
+        this.queues = List.copyOf(queues);
+    }
+
+    /**
+     * Add an item to wait.
+     *
+     * @param priority the priority of the item
+     * @param item the item
+     */
+    public void add(HttpPriority priority, T item) {
+        queues.get(priority.ordinal()).add(new Waiter<>(item, System.nanoTime()));
+        size++;
+    }
+
+    /**
+     * Remove an item that stopped waiting, such as a cancelled one.
+     *
+     * @param priority the priority the item was added with
+     * @param item the item
+     * @return {@code true} if the item was still waiting
+     */
+    public boolean remove(HttpPriority priority, T item) {
+        var iterator = queues.get(priority.ordinal()).iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().item == item) {
+                iterator.remove();
+                size--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Count an item that was admitted without waiting.
+     *
+     * @param priority the priority of the item
+     */
+    public void admittedImmediately(HttpPriority priority) {
+        admitted[priority.ordinal()]++;
+    }
+
+    /**
+     * {@return the next item to admit, or {@code null} if none are waiting}
+     */
+    public @Nullable T poll() {
+        if (size == 0) {
+            return null;
+        }
+        long now = System.nanoTime();
+        int best = -1;
+        long bestEffective = Long.MAX_VALUE;
+        for (int i = 0; i < PRIORITIES.length; i++) {
+            var head = queues.get(i).peekFirst();
+            if (head == null) {
+                continue;
+            }
+            long aged = agingNanos > 0 ? (now - head.enqueuedNanos) / agingNanos : 0;
+            long effective = i - aged;
+            if (effective < bestEffective) {
+                best = i;
+                bestEffective = effective;
+            }
+        }
+        var waiter = queues.get(best).removeFirst();
+        size--;
+        long waited = now - waiter.enqueuedNanos;
+        admitted[best]++;
+        totalWaitNanos[best] += waited;
+        maxWaitNanos[best] = Math.max(maxWaitNanos[best], waited);
+        return waiter.item;
+    }
+
+    /**
+     * {@return the number of items waiting}
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * {@return the statistics for a priority}
+     *
+     * @param priority the priority
+     */
+    public HttpRequestScheduler.QueueStats stats(HttpPriority priority) {
+        int i = priority.ordinal();
+        return new HttpRequestScheduler.QueueStats(
+            priority,
+            queues.get(i).size(),
+            admitted[i],
+            Duration.ofNanos(totalWaitNanos[i]),
+            Duration.ofNanos(maxWaitNanos[i])
+        );
+    }
+}
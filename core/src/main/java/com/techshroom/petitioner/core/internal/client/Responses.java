@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.client;
+
+import com.techshroom.petitioner.core.HttpResponse;
+import com.techshroom.petitioner.core.internal.ReadSessionHttpResponseBody;
+import com.techshroom.petitioner.core.internal.select.Completables;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+
+/**
+ * Helpers for the responses of a client decorator's attempts, including ones it won't hand to the caller.
+ */
+final class Responses {
+    /**
+     * Close a response that won't be delivered, so its connection is released.
+     *
+     * @param response the response
+     */
+    static void discard(HttpResponse response) {
+        if (response.body() == null) {
+            return;
+        }
+        try {
+            response.body().close();
+        } catch (IOException ignored) {
+            // Nobody is left to tell
+        }
+    }
+
+    /**
+     * {@return the response, with a body that runs an action once it ends, fails, or is closed} A response
+     * without a body runs the action straight away.
+     *
+     * @param response the response
+     * @param onEnd the action
+     */
+    static HttpResponse onBodyEnd(HttpResponse response, Runnable onEnd) {
+        var body = response.body();
+        if (body == null) {
+            onEnd.run();
+            return response;
+        }
+        return new HttpResponse(
+            response.statusCode(), response.statusMessage(), response.headers(),
+            new ReadSessionHttpResponseBody(
+                body.contentLength(), body.contentType(), new BodyEndReadSession(body.readSession(), onEnd)
+            )
+        );
+    }
+
+    static Throwable unwrap(Throwable ex) {
+        return ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+    }
+
+    /**
+     * Complete a result with the outcome of an attempt, discarding the response if the result is already
+     * complete.
+     *
+     * @param result the result
+     * @param response the response, if the attempt received one
+     * @param ex the failure, if the attempt failed
+     */
+    static void complete(CompletableFuture<HttpResponse> result, @Nullable HttpResponse response,
+                         @Nullable Throwable ex) {
+        if (ex != null) {
+            result.completeExceptionally(unwrap(ex));
+        } else if (!result.complete(response)) {
+            discard(response);
+        }
+    }
+
+    /**
+     * Complete a result with the outcome of an attempt, cancelling the attempt if the result is cancelled.
+     *
+     * @param attempt the attempt
+     * @param result the result
+     */
+    static void forward(CompletableFuture<HttpResponse> attempt, CompletableFuture<HttpResponse> result) {
+        Completables.propagateCancellation(result, attempt);
+        attempt.whenComplete((response, ex) -> complete(result, response, ex));
+    }
+
+    /**
+     * {@return the future of an attempt started by {@code execute}, failed if it threw}
+     *
+     * @param execute starts the attempt
+     */
+    static CompletableFuture<HttpResponse> start(Supplier<CompletionStage<HttpResponse>> execute) {
+        try {
+            return execute.get().toCompletableFuture();
+        } catch (Throwable t) {
+            return CompletableFuture.failedFuture(t);
+        }
+    }
+
+    private Responses() {
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.client;
+
+import com.techshroom.petitioner.core.HttpClient;
+import com.techshroom.petitioner.core.HttpRequest;
+import com.techshroom.petitioner.core.HttpRequestNotSentException;
+import com.techshroom.petitioner.core.HttpResponse;
+import com.techshroom.petitioner.core.HttpRetryPolicy;
+import com.techshroom.petitioner.core.internal.cache.HttpDates;
+import com.techshroom.petitioner.core.internal.select.Completables;
+import com.techshroom.petitioner.core.internal.select.InlineExecutor;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retries failed requests according to an {@link HttpRetryPolicy}.
+ *
+ * <p>
+ * Every attempt is a fresh request to the delegate, so the body is reopened with
+ * {@link com.techshroom.petitioner.core.HttpRequestBody#openReadSession()} each time. A response that is
+ * retried is closed first.
+ * </p>
+ */
+public final class RetryingHttpClient implements HttpClient {
+    private static final int MAX_SAVED_RETRIES = 10;
+
+    /**
+     * {@return the delay asked for by a {@code Retry-After} value, or {@code null} if it's invalid}
+     * Dates in the past ask for no delay.
+     *
+     * @param value the header value, either a number of seconds or an HTTP date
+     * @param nowMillis the current time, in milliseconds since the epoch
+     */
+    static @Nullable Duration parseRetryAfter(String value, long nowMillis) {
+        var trimmed = value.trim();
+        if (!trimmed.isEmpty() && trimmed.chars().allMatch(c -> '0' <= c && c <= '9')) {
+            try {
+                return Duration.ofSeconds(Long.parseLong(trimmed));
+            } catch (NumberFormatException e) {
+                // Too many digits to be sensible
+                return null;
+            }
+        }
+        var date = HttpDates.parse(trimmed);
+        if (date.isEmpty()) {
+            return null;
+        }
+        return Duration.ofMillis(Math.max(date.getAsLong() - nowMillis, 0));
+    }
+
+    private final HttpClient delegate;
+    private final HttpRetryPolicy policy;
+    private final TokenBucket budget;
+
+    public RetryingHttpClient(HttpClient delegate, HttpRetryPolicy policy) {
+        this.delegate = delegate;
+        this.policy = policy;
+        this.budget = new TokenBucket(policy.budget(), MAX_SAVED_RETRIES, true);
+    }
+
+    private long backoffNanos(int attempt) {
+        long ceiling = policy.initialBackoff().toNanos();
+        for (int i = 1; i < attempt && ceiling < policy.maxBackoff().toNanos(); i++) {
+            ceiling *= 2;
+        }
+        ceiling = Math.min(ceiling, policy.maxBackoff().toNanos());
+        return ceiling == 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * Decide whether to retry after an attempt. A response that is retried is closed.
+     *
+     * @param request the request
+     * @param attempt the number of the attempt that just finished, starting at 1
+     * @param response the response, if the attempt received one
+     * @param ex the failure, if the attempt failed
+     * @return the delay before the next attempt in nanoseconds, or {@code -1} to not retry
+     */
+    private long retryDelayNanos(HttpRequest request, int attempt, @Nullable HttpResponse response,
+                                 @Nullable Throwable ex) {
+        if (attempt >= policy.maxAttempts()) {
+            return -1;
+        }
+        long delay = backoffNanos(attempt);
+        if (ex != null) {
+            var cause = Responses.unwrap(ex);
+            boolean retryable = cause instanceof HttpRequestNotSentException
+                || (request.method().isIdempotent() && cause instanceof IOException);
+            if (!retryable) {
+                return -1;
+            }
+        } else if (response != null) {
+            if (!request.method().isIdempotent()
+                || (response.statusCode() != 503 && response.statusCode() != 429)) {
+                return -1;
+            }
+            // A repeated header isn't an error, the first one wins
+            var retryAfterValue = HttpDates.first(response.headers(), "Retry-After");
+            if (retryAfterValue != null) {
+                var retryAfter = parseRetryAfter(retryAfterValue, System.currentTimeMillis());
+                if (retryAfter != null) {
+                    if (retryAfter.compareTo(policy.maxRetryAfter()) > 0) {
+                        return -1;
+                    }
+                    delay = Math.max(delay, retryAfter.toNanos());
+                }
+            }
+        }
+        if (!budget.tryWithdraw()) {
+            return -1;
+        }
+        if (response != null) {
+            Responses.discard(response);
+        }
+        return delay;
+    }
+
+    @Override
+    public CompletionStage<HttpResponse> executeAsync(HttpRequest request) {
+        budget.deposit();
+        var result = new CompletableFuture<HttpResponse>();
+        attempt(request, 1, result);
+        return result;
+    }
+
+    private void attempt(HttpRequest request, int attempt, CompletableFuture<HttpResponse> result) {
+        if (result.isDone()) {
+            // Cancelled during backoff
+            return;
+        }
+        var future = Responses.start(() -> delegate.executeAsync(request));
+        Completables.propagateCancellation(result, future);
+        future.whenComplete((response, ex) -> {
+            if (result.isDone()) {
+                // Cancelled while in flight
+                if (response != null) {
+                    Responses.discard(response);
+                }
+                return;
+            }
+            long delay = retryDelayNanos(request, attempt, response, ex);
+            if (delay < 0) {
+                Responses.complete(result, response, ex);
+                return;
+            }
+            CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS, InlineExecutor.instance())
+                .execute(() -> attempt(request, attempt + 1, result));
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @implNote Attempts use the delegate's blocking {@code execute}, and backoff sleeps the calling thread.
+     */
+    @Override
+    public HttpResponse execute(HttpRequest request) throws IOException {
+        budget.deposit();
+        for (int attempt = 1; ; attempt++) {
+            HttpResponse response = null;
+            IOException failure = null;
+            try {
+                response = delegate.execute(request);
+            } catch (IOException e) {
+                failure = e;
+            }
+            long delay = retryDelayNanos(request, attempt, response, failure);
+            if (delay < 0) {
+                if (failure != null) {
+                    throw failure;
+                }
+                return response;
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                var interrupted = new InterruptedIOException("Interrupted while waiting to retry");
+                if (failure != null) {
+                    interrupted.addSuppressed(failure);
+                }
+                throw interrupted;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+}
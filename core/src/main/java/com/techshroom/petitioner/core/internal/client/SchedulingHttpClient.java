@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.client;
+
+import com.techshroom.petitioner.core.HttpClient;
+import com.techshroom.petitioner.core.HttpRequest;
+import com.techshroom.petitioner.core.HttpResponse;
+import com.techshroom.petitioner.core.internal.select.Completables;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Holds each request until a {@link PriorityScheduler} admits it.
+ *
+ * <p>
+ * A request keeps its slot until its response body ends or is closed, so long downloads count towards the
+ * limit.
+ * </p>
+ */
+public final class SchedulingHttpClient implements HttpClient {
+    private final HttpClient delegate;
+    private final PriorityScheduler scheduler;
+
+    public SchedulingHttpClient(HttpClient delegate, PriorityScheduler scheduler) {
+        this.delegate = delegate;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public CompletionStage<HttpResponse> executeAsync(HttpRequest request) {
+        var admitted = scheduler.acquire(request.priority());
+        var result = new CompletableFuture<HttpResponse>();
+        // A cancelled waiter leaves the queue
+        Completables.propagateCancellation(result, admitted);
+        admitted.whenComplete((__, admitEx) -> {
+            if (admitEx != null) {
+                result.completeExceptionally(Responses.unwrap(admitEx));
+                return;
+            }
+            if (result.isDone()) {
+                scheduler.release();
+                return;
+            }
+            var attempt = Responses.start(() -> delegate.executeAsync(request));
+            Completables.propagateCancellation(result, attempt);
+            attempt.whenComplete((response, ex) -> {
+                if (response == null) {
+                    scheduler.release();
+                    Responses.complete(result, null, ex);
+                    return;
+                }
+                // A response that isn't delivered is discarded, which closes its body and frees the slot
+                Responses.complete(result, Responses.onBodyEnd(response, scheduler::release), null);
+            });
+        });
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @implNote The calling thread waits to be admitted, then executes the request with the delegate's
+     *     blocking {@code execute}. The slot is held until the response body ends or is closed.
+     */
+    @Override
+    public HttpResponse execute(HttpRequest request) throws IOException {
+        var admitted = scheduler.acquire(request.priority());
+        try {
+            Completables.await(admitted);
+        } catch (IOException | RuntimeException | Error e) {
+            if (!admitted.cancel(false)) {
+                // Admitted just as we gave up
+                scheduler.release();
+            }
+            throw e;
+        }
+        HttpResponse response;
+        try {
+            response = delegate.execute(request);
+        } catch (IOException | RuntimeException | Error e) {
+            scheduler.release();
+            throw e;
+        }
+        return Responses.onBodyEnd(response, scheduler::release);
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+}
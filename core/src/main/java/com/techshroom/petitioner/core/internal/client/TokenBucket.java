@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free token bucket, used to keep extra attempts to a fraction of overall traffic.
+ *
+ * <p>
+ * Each {@link #deposit()} adds a fraction of a token, up to a maximum, and each successful
+ * {@link #tryWithdraw()} takes a whole one. Tokens are kept in thousandths.
+ * </p>
+ */
+public final class TokenBucket {
+    private static final long SCALE = 1000;
+
+    private final long depositAmount;
+    private final long maxTokens;
+    private final AtomicLong tokens;
+
+    /**
+     * Create a token bucket.
+     *
+     * @param depositRatio the fraction of a token added by each deposit
+     * @param maxTokens the most whole tokens the bucket holds
+     * @param full if the bucket starts full, rather than empty
+     */
+    public TokenBucket(double depositRatio, int maxTokens, boolean full) {
+        if (!(depositRatio >= 0)) {
+            throw new IllegalArgumentException("depositRatio must not be negative");
+        }
+        if (maxTokens <= 0) {
+            throw new IllegalArgumentException("maxTokens must be positive");
+        }
+        this.depositAmount = Math.round(depositRatio * SCALE);
+        this.maxTokens = maxTokens * SCALE;
+        this.tokens = new AtomicLong(full ? this.maxTokens : 0);
+    }
+
+    /**
+     * Add the deposit ratio worth of tokens.
+     */
+    public void deposit() {
+        if (depositAmount == 0) {
+            return;
+        }
+        tokens.getAndUpdate(current -> Math.min(maxTokens, current + depositAmount));
+    }
+
+    /**
+     * Take one token, if there is one.
+     *
+     * @return {@code true} if a token was taken
+     */
+    public boolean tryWithdraw() {
+        while (true) {
+            long current = tokens.get();
+            if (current < SCALE) {
+                return false;
+            }
+            if (tokens.compareAndSet(current, current - SCALE)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * {@return the number of whole tokens available}
+     */
+    public long available() {
+        return tokens.get() / SCALE;
+    }
+}
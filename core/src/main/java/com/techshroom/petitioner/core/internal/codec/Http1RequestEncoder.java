@@ -18,110 +18,230 @@
 
 package com.techshroom.petitioner.core.internal.codec;
 
+import com.techshroom.petitioner.core.HttpBufferSizing;
 import com.techshroom.petitioner.core.HttpHeaderMap;
 import com.techshroom.petitioner.core.HttpMethod;
 import com.techshroom.petitioner.core.HttpRequest;
 import com.techshroom.petitioner.core.HttpRequestBody;
+import com.techshroom.petitioner.core.internal.ByteBufferHttpRequestBody;
 import com.techshroom.petitioner.core.internal.Constants;
+import com.techshroom.petitioner.core.internal.OverlayHttpHeaderMap;
+import com.techshroom.petitioner.core.internal.buffer.BufferPool;
+import com.techshroom.petitioner.core.internal.select.SerialQueue;
 import com.techshroom.petitioner.core.io.ReadSession;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class Http1RequestEncoder implements Encoder<HttpRequest> {
+    private static final byte[] VERSION_AND_CRLF = " HTTP/1.1\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEADER_SEPARATOR = ": ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final ByteBuffer LAST_CHUNK = ByteBuffer.wrap(
+        "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII)
+    ).asReadOnlyBuffer();
+
     // TODO sealed classes in 17
     private enum State {
-        WRITE_REQUEST_LINE,
-        WRITE_HEADERS,
+        WRITE_HEAD,
         WRITE_BODY,
         CLOSED,
         ;
     }
 
-    private record HeaderState(Iterator<Map.Entry<String, String>> entries) {
+    private final BufferPool bufferPool;
+    private final HttpBufferSizing bufferSizing;
+
+    public Http1RequestEncoder() {
+        this(BufferPool.shared(), HttpBufferSizing.defaults());
+    }
+
+    public Http1RequestEncoder(BufferPool bufferPool, HttpBufferSizing bufferSizing) {
+        this.bufferPool = bufferPool;
+        this.bufferSizing = bufferSizing;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The request line and headers are encoded into a single pooled buffer. It goes back to the pool when it's
+     * {@linkplain ReadSession#release(ByteBuffer) released}, or when the session is closed. Body packets are
+     * released by the body's own session.
+     * </p>
+     *
+     * <p>
+     * Bodies without a known length are sent with {@code Transfer-Encoding: chunked}. Each body packet is
+     * copied into a pooled buffer along with its chunk framing, which is released like the head.
+     * </p>
+     */
     @Override
     public ReadSession encode(HttpRequest request) {
         return new ReadSession() {
-            private final Lock lock = new ReentrantLock();
-            private State state = State.WRITE_REQUEST_LINE;
-            private Object attachment;
+            private final SerialQueue queue = new SerialQueue();
+            private final AtomicReference<@Nullable ByteBuffer> head = new AtomicReference<>();
+            private final AtomicReference<@Nullable ByteBuffer> chunk = new AtomicReference<>();
+            private final boolean chunked = request.body() != null && request.body().contentLength().isEmpty();
+            private final AtomicReference<@Nullable ReadSession> bodySession = new AtomicReference<>();
+            private volatile State state = State.WRITE_HEAD;
+            private volatile boolean closed;
 
             @Override
             public CompletionStage<@NonNull ByteBuffer> readNextPacket() {
-                lock.lock();
-                try {
-                    return switch (state) {
-                        case WRITE_REQUEST_LINE -> {
-                            // Write request line
-                            var encoded = encodeRequestLine(request.method(), request.uri());
-                            state = State.WRITE_HEADERS;
-                            attachment = new HeaderState(buildHeaders(
-                                request.uri(), request.headers(), request.body()
-                            ));
-                            yield CompletableFuture.completedFuture(encoded);
+                return queue.submit(() -> switch (state) {
+                    case WRITE_HEAD -> {
+                        var encoded = encodeHead(request);
+                        head.set(encoded);
+                        var body = request.body();
+                        if (body != null) {
+                            state = State.WRITE_BODY;
+                            bodySession.set(body instanceof ByteBufferHttpRequestBody inMemory
+                                ? inMemory.openReadSession(bufferSizing.maximum())
+                                : body.openReadSession());
+                        } else {
+                            state = State.CLOSED;
                         }
-                        case WRITE_HEADERS -> {
-                            var localState = (HeaderState) attachment;
-                            if (!localState.entries.hasNext()) {
-                                var body = request.body();
-                                if (body != null) {
-                                    state = State.WRITE_BODY;
-                                    attachment = body.openReadSession();
-                                } else {
-                                    state = State.CLOSED;
-                                    attachment = null;
-                                }
-                                yield CompletableFuture.completedFuture(ByteBuffer.wrap(new byte[]{'\r', '\n'}));
-                            }
-                            var encoded = encodeHeaderLine(localState.entries.next());
-                            yield CompletableFuture.completedFuture(encoded);
+                        if (closed) {
+                            // Lost a race with close, which may have missed the head
+                            releaseBuffers();
+                            closeBodySession();
+                            yield CompletableFuture.completedFuture(Constants.EMPTY_BYTE_BUFFER);
                         }
-                        case WRITE_BODY -> {
-                            var localState = (ReadSession) attachment;
-                            var packet = localState.readNextPacket();
-                            // It doesn't matter if the packet is empty, we'd give CLOSED anyways
-                            // We just need to know when we can adjust our state
-                            yield packet.thenApply(bb -> {
-                                if (bb.remaining() == 0) {
-                                    state = State.CLOSED;
-                                    attachment = null;
-                                }
-                                return bb;
-                            });
+                        yield CompletableFuture.completedFuture(encoded);
+                    }
+                    case WRITE_BODY -> {
+                        var body = bodySession.get();
+                        if (body == null) {
+                            // Closed
+                            yield CompletableFuture.completedFuture(Constants.EMPTY_BYTE_BUFFER);
                         }
-                        case CLOSED -> CompletableFuture.completedFuture(
-                            Constants.EMPTY_BYTE_BUFFER
-                        );
-                    };
-                } finally {
-                    lock.unlock();
+                        var packet = body.readNextPacket();
+                        // It doesn't matter if the packet is empty, we'd give CLOSED anyways
+                        // We just need to know when we can adjust our state
+                        yield packet.thenApply(bb -> {
+                            if (bb.remaining() == 0) {
+                                state = State.CLOSED;
+                                return chunked ? LAST_CHUNK.duplicate() : bb;
+                            }
+                            if (!chunked) {
+                                return bb;
+                            }
+                            var framed = frameChunk(bb);
+                            body.release(bb);
+                            // The previous chunk was released by now, unless the caller doesn't release
+                            releaseBuffer(chunk.getAndSet(framed));
+                            return framed;
+                        });
+                    }
+                    case CLOSED -> CompletableFuture.completedFuture(
+                        Constants.EMPTY_BYTE_BUFFER
+                    );
+                });
+            }
+
+            @Override
+            public void release(ByteBuffer packet) {
+                if (packet == head.get()) {
+                    if (head.compareAndSet(packet, null)) {
+                        bufferPool.release(packet);
+                    }
+                } else if (packet == chunk.get()) {
+                    if (chunk.compareAndSet(packet, null)) {
+                        bufferPool.release(packet);
+                    }
+                } else {
+                    var body = bodySession.get();
+                    if (body != null) {
+                        body.release(packet);
+                    }
+                }
+            }
+
+            private void releaseBuffers() {
+                releaseBuffer(head.getAndSet(null));
+                releaseBuffer(chunk.getAndSet(null));
+            }
+
+            private void releaseBuffer(@Nullable ByteBuffer buffer) {
+                if (buffer != null) {
+                    bufferPool.release(buffer);
+                }
+            }
+
+            private void closeBodySession() {
+                var body = bodySession.getAndSet(null);
+                if (body != null) {
+                    try {
+                        body.close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
                 }
             }
 
             @Override
-            public void close() {
-                lock.lock();
+            public void close() throws IOException {
+                closed = true;
+                state = State.CLOSED;
+                releaseBuffers();
                 try {
-                    state = State.CLOSED;
-                } finally {
-                    lock.unlock();
+                    closeBodySession();
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
                 }
             }
         };
     }
 
-    private static ByteBuffer encodeRequestLine(HttpMethod method, URI uri) {
+    /**
+     * {@return the packet framed as a chunk, in a pooled buffer}
+     */
+    private ByteBuffer frameChunk(ByteBuffer packet) {
+        var size = Integer.toHexString(packet.remaining());
+        var buffer = bufferPool.acquireDirect(size.length() + CRLF.length + packet.remaining() + CRLF.length);
+        putUtf8(buffer, size);
+        buffer.put(CRLF);
+        buffer.put(packet);
+        buffer.put(CRLF);
+        return buffer.flip();
+    }
+
+    private ByteBuffer encodeHead(HttpRequest request) {
+        var target = requestTarget(request.uri());
+        var headers = buildHeaders(request.uri(), request.headers(), request.body());
+
+        var size = new int[] {
+            request.method().name().length() + 1 + utf8Length(target) + VERSION_AND_CRLF.length + CRLF.length
+        };
+        headers.forEach((name, value) ->
+            size[0] += utf8Length(name) + HEADER_SEPARATOR.length + utf8Length(value) + CRLF.length
+        );
+
+        var buffer = bufferPool.acquireDirect(size[0]);
+        putUtf8(buffer, request.method().name());
+        buffer.put((byte) ' ');
+        putUtf8(buffer, target);
+        buffer.put(VERSION_AND_CRLF);
+        headers.forEach((name, value) -> {
+            putUtf8(buffer, name);
+            buffer.put(HEADER_SEPARATOR);
+            putUtf8(buffer, value);
+            buffer.put(CRLF);
+        });
+        buffer.put(CRLF);
+        return buffer.flip();
+    }
+
+    private static String requestTarget(URI uri) {
         var path = uri.getRawPath();
         if (path.isEmpty()) {
             path = "/";
@@ -130,32 +250,95 @@ public class Http1RequestEncoder implements Encoder<HttpRequest> {
         if (query != null && !query.isEmpty()) {
             path += "?" + query;
         }
-        return StandardCharsets.UTF_8.encode(
-            method.name() + " " + path + " HTTP/1.1\r\n"
-        );
+        return path;
     }
 
-    private static ByteBuffer encodeHeaderLine(Map.Entry<String, String> next) {
-        return StandardCharsets.UTF_8.encode(
-            next.getKey() + ": " + next.getValue() + "\r\n"
-        );
+    // UTF-8 is written by hand to avoid the garbage of String.getBytes/Charset.encode for every line
+    // Unpaired surrogates are replaced with '?', like Charset.encode does
+
+    /**
+     * {@return if the char at the index is a high surrogate followed by a low one}
+     */
+    private static boolean startsSurrogatePair(String s, int index) {
+        return Character.isHighSurrogate(s.charAt(index))
+            && index + 1 < s.length()
+            && Character.isLowSurrogate(s.charAt(index + 1));
+    }
+
+    private static int utf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (startsSurrogatePair(s, i)) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
     }
 
-    private Iterator<Map.Entry<String, String>> buildHeaders(URI uri, HttpHeaderMap headers,
-                                                             @Nullable HttpRequestBody body) {
-        var builder = headers.toBuilder();
-        // It's mandatory that we include this
-        builder.put("Host", uri.getHost());
+    private static void putUtf8(ByteBuffer buffer, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (startsSurrogatePair(s, i)) {
+                int cp = Character.toCodePoint(c, s.charAt(i + 1));
+                buffer.put((byte) (0xF0 | (cp >> 18)));
+                buffer.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (cp & 0x3F)));
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    /**
+     * {@return the request headers, with the ones we manage added} The user's headers are already
+     * validated, so they're overlaid instead of copied into a new map.
+     */
+    private HttpHeaderMap buildHeaders(URI uri, HttpHeaderMap headers, @Nullable HttpRequestBody body) {
         if (body != null) {
-            body.contentLength().ifPresent(contentLength ->
-                builder.put("Content-Length", String.valueOf(contentLength))
-            );
-            var contentTypeBuilder = new StringBuilder(body.contentType().mimeType());
+            // Only one framing header may be sent, so the caller's conflicting one is dropped
+            // Sending both would let a server and a proxy disagree on where the body ends
+            var conflicting = body.contentLength().isPresent() ? "Transfer-Encoding" : "Content-Length";
+            if (!headers.values(conflicting).isEmpty()) {
+                headers = headers.toBuilder().put(conflicting, List.of()).build();
+            }
+        }
+        // Room for Host, Content-Length or Transfer-Encoding, and Content-Type
+        // It's mandatory that we include Host
+        var overlay = new OverlayHttpHeaderMap(headers, 3).with("Host", uri.getHost());
+        if (body != null) {
+            var contentLength = body.contentLength();
+            if (contentLength.isPresent()) {
+                overlay = overlay.with("Content-Length", String.valueOf(contentLength.getAsLong()));
+            } else {
+                overlay = overlay.with("Transfer-Encoding", "chunked");
+            }
+            var contentType = body.contentType().mimeType();
             if (body.contentType().charset() != null) {
-                contentTypeBuilder.append("; charset=").append(body.contentType().charset());
+                contentType += "; charset=" + body.contentType().charset();
             }
-            builder.put("Content-Type", contentTypeBuilder.toString());
+            overlay = overlay.with("Content-Type", contentType);
         }
-        return builder.build().iterator();
+        return overlay.toHeaderMap();
     }
 }
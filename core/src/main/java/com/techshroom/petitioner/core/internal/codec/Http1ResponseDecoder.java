@@ -18,13 +18,18 @@
 
 package com.techshroom.petitioner.core.internal.codec;
 
+import com.techshroom.petitioner.core.HttpHeadLimitExceededException;
+import com.techshroom.petitioner.core.HttpHeadLimits;
 import com.techshroom.petitioner.core.HttpHeaderMap;
 import com.techshroom.petitioner.core.internal.HttpEncoding;
+import com.techshroom.petitioner.core.internal.HttpHeaderMaps;
 import com.techshroom.petitioner.core.internal.PartialHttpResponse;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Pattern;
@@ -33,28 +38,63 @@ public class Http1ResponseDecoder implements Decoder<@NonNull PartialHttpRespons
     private static final Pattern STATUS_CODE = Pattern.compile("\\d\\d\\d");
 
     private final Lock lock = new ReentrantLock();
+    private final HttpHeadLimits limits;
     private int statusCode;
     private String statusMessage;
-    private final HttpHeaderMap.Builder headers = HttpHeaderMap.builder();
+    /**
+     * The raw bytes of the header lines, without their CRLFs.
+     */
+    private byte[] head = new byte[256];
+    private int headLength;
+    private int[] index = new int[16 * RawHttpHeaderMap.INDEX_SLOTS];
+    private int headerCount;
+    /**
+     * The number of bytes consumed by completed lines.
+     */
+    private int headSize;
+    /**
+     * The number of bytes at the start of the buffer that are known to not contain a line end.
+     */
+    private int scanned;
+
+    public Http1ResponseDecoder() {
+        this(HttpHeadLimits.defaults());
+    }
+
+    public Http1ResponseDecoder(HttpHeadLimits limits) {
+        this.limits = limits;
+    }
 
     @Override
     public @Nullable PartialHttpResponse tryDecode(ByteBuffer buffer) {
         lock.lock();
         try {
-            String nextLine;
-            while ((nextLine = readNextLine(buffer)) != null) {
+            int lineLength;
+            while ((lineLength = findNextLine(buffer)) != -1) {
                 if (statusMessage == null) {
-                    decodeStatusLine(nextLine);
+                    var bytes = new byte[lineLength];
+                    buffer.get(bytes);
+                    skipCrlf(buffer);
+                    decodeStatusLine(new String(bytes, StandardCharsets.ISO_8859_1));
                 } else {
-                    if (nextLine.isEmpty()) {
+                    if (lineLength == 0) {
                         // end of headers encountered
+                        skipCrlf(buffer);
                         return new PartialHttpResponse(
                             statusCode,
                             statusMessage,
-                            headers.build()
+                            headerCount == 0
+                                ? HttpHeaderMap.empty()
+                                : HttpHeaderMaps.wrap(new RawHttpHeaderMap(head, index, headerCount))
                         );
                     }
-                    decodeHeaderLine(nextLine);
+                    headerCount++;
+                    if (headerCount > limits.maxHeaderCount()) {
+                        throw new HttpHeadLimitExceededException(
+                            HttpHeadLimitExceededException.Limit.HEADER_COUNT, limits.maxHeaderCount()
+                        );
+                    }
+                    decodeHeaderLine(buffer, lineLength);
                 }
             }
             return null;
@@ -63,6 +103,10 @@ public class Http1ResponseDecoder implements Decoder<@NonNull PartialHttpRespons
         }
     }
 
+    private static void skipCrlf(ByteBuffer buffer) {
+        buffer.position(buffer.position() + 2);
+    }
+
     private void decodeStatusLine(String line) {
         String[] parts = line.split(" ", 3);
         if (parts.length < 3) {
@@ -78,38 +122,125 @@ public class Http1ResponseDecoder implements Decoder<@NonNull PartialHttpRespons
         statusMessage = parts[2];
     }
 
-    private void decodeHeaderLine(String line) {
-        String[] parts = line.split(":", 2);
-        if (parts.length < 2) {
-            throw new IllegalStateException("Invalid header line: " + line);
+    /**
+     * Copy the header line into {@link #head} and index it. Only validation is done, no strings are
+     * created unless the line is invalid.
+     */
+    private void decodeHeaderLine(ByteBuffer buffer, int length) {
+        int start = headLength;
+        int end = start + length;
+        if (end > head.length) {
+            head = Arrays.copyOf(head, Math.max(head.length * 2, end));
         }
-        var name = parts[0].trim();
-        if (!HttpEncoding.isValidName(name)) {
-            throw new IllegalStateException("Invalid name: " + line);
+        buffer.get(head, start, length);
+        skipCrlf(buffer);
+        headLength = end;
+
+        int colon = start;
+        while (colon < end && head[colon] != ':') {
+            colon++;
         }
-        var value = parts[1].trim();
-        if (!HttpEncoding.isValidValue(value)) {
-            throw new IllegalStateException("Invalid value: " + line);
+        if (colon == end) {
+            throw new IllegalStateException("Invalid header line: " + lineString(start, end));
         }
-        headers.add(name, value);
+        int nameStart = trimStart(start, colon);
+        int nameEnd = trimEnd(nameStart, colon);
+        if (nameStart == nameEnd) {
+            throw new IllegalStateException("Invalid name: " + lineString(start, end));
+        }
+        for (int i = nameStart; i < nameEnd; i++) {
+            if (!HttpEncoding.isValidNameChar((char) (head[i] & 0xFF))) {
+                throw new IllegalStateException("Invalid name: " + lineString(start, end));
+            }
+        }
+        int valueStart = trimStart(colon + 1, end);
+        int valueEnd = trimEnd(valueStart, end);
+        for (int i = valueStart; i < valueEnd; i++) {
+            if (!HttpEncoding.isValidValueChar((char) (head[i] & 0xFF))) {
+                throw new IllegalStateException("Invalid value: " + lineString(start, end));
+            }
+        }
+
+        int slot = (headerCount - 1) * RawHttpHeaderMap.INDEX_SLOTS;
+        if (slot + RawHttpHeaderMap.INDEX_SLOTS > index.length) {
+            index = Arrays.copyOf(index, index.length * 2);
+        }
+        index[slot] = nameStart;
+        index[slot + 1] = nameEnd;
+        index[slot + 2] = valueStart;
+        index[slot + 3] = valueEnd;
+        index[slot + 4] = HttpEncoding.nameHash(head, nameStart, nameEnd);
     }
 
-    private String readNextLine(ByteBuffer buffer) {
-        buffer.mark();
-        var builder = new StringBuilder();
-        while (buffer.hasRemaining()) {
-            var c = (char) buffer.get();
-            if (c == '\r' && buffer.hasRemaining()) {
-                if (buffer.get() == '\n') {
-                    // CRLF detected, line finished
-                    return builder.toString();
-                }
-                // no LF, reset back a char
-                buffer.position(buffer.position() - 1);
+    // Trimming matches String.trim()
+
+    private int trimStart(int start, int end) {
+        while (start < end && (head[start] & 0xFF) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private int trimEnd(int start, int end) {
+        while (start < end && (head[end - 1] & 0xFF) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    private String lineString(int start, int end) {
+        return new String(head, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Find the length of the next line, without consuming it.
+     *
+     * @return the length of the line, excluding the CRLF, or {@code -1} if the line isn't finished
+     */
+    private int findNextLine(ByteBuffer buffer) {
+        int start = buffer.position();
+        int limit = buffer.limit();
+        // Resume from where we stopped last time, a CRLF can't start before then
+        for (int i = start + scanned; i < limit - 1; i++) {
+            if (buffer.get(i) == '\r' && buffer.get(i + 1) == '\n') {
+                int length = i - start;
+                checkLineLength(length);
+                headSize += length + 2;
+                checkHeadSize(headSize);
+                scanned = 0;
+                return length;
+            }
+        }
+        int length = limit - start;
+        // The last byte may be the CR of a CRLF split across packets, so it must be scanned again
+        scanned = Math.max(0, length - 1);
+        // Fail without waiting for the line end if it's already too big
+        // A trailing CR may be the start of the CRLF, which doesn't count towards the line
+        boolean trailingCr = length > 0 && buffer.get(limit - 1) == '\r';
+        checkLineLength(trailingCr ? length - 1 : length);
+        checkHeadSize(headSize + length);
+        return -1;
+    }
+
+    private void checkLineLength(int length) {
+        if (statusMessage == null) {
+            if (length > limits.maxStatusLineLength()) {
+                throw new HttpHeadLimitExceededException(
+                    HttpHeadLimitExceededException.Limit.STATUS_LINE_LENGTH, limits.maxStatusLineLength()
+                );
             }
-            builder.append(c);
+        } else if (length > limits.maxHeaderLineLength()) {
+            throw new HttpHeadLimitExceededException(
+                HttpHeadLimitExceededException.Limit.HEADER_LINE_LENGTH, limits.maxHeaderLineLength()
+            );
+        }
+    }
+
+    private void checkHeadSize(int size) {
+        if (size > limits.maxHeadSize()) {
+            throw new HttpHeadLimitExceededException(
+                HttpHeadLimitExceededException.Limit.HEAD_SIZE, limits.maxHeadSize()
+            );
         }
-        buffer.reset();
-        return null;
     }
 }
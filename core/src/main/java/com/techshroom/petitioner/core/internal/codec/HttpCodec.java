@@ -18,9 +18,12 @@
 
 package com.techshroom.petitioner.core.internal.codec;
 
+import com.techshroom.petitioner.core.HttpBufferSizing;
+import com.techshroom.petitioner.core.HttpHeadLimits;
 import com.techshroom.petitioner.core.HttpRequest;
 import com.techshroom.petitioner.core.HttpVersion;
 import com.techshroom.petitioner.core.internal.PartialHttpResponse;
+import com.techshroom.petitioner.core.internal.buffer.BufferPool;
 
 import java.util.function.Supplier;
 
@@ -29,9 +32,18 @@ public record HttpCodec(
     Supplier<Decoder<PartialHttpResponse>> responseDecoder
 ) {
     public static HttpCodec forVersion(HttpVersion version) {
+        return forVersion(version, HttpHeadLimits.defaults());
+    }
+
+    public static HttpCodec forVersion(HttpVersion version, HttpHeadLimits headLimits) {
+        return forVersion(version, headLimits, BufferPool.shared(), HttpBufferSizing.defaults());
+    }
+
+    public static HttpCodec forVersion(HttpVersion version, HttpHeadLimits headLimits,
+                                       BufferPool bufferPool, HttpBufferSizing bufferSizing) {
         return switch (version) {
             case VERSION_1_1 -> new HttpCodec(
-                Http1RequestEncoder::new, Http1ResponseDecoder::new
+                () -> new Http1RequestEncoder(bufferPool, bufferSizing), () -> new Http1ResponseDecoder(headLimits)
             );
             case VERSION_2, VERSION_3 -> throw new UnsupportedOperationException(
                 version + " is not implemented yet!"
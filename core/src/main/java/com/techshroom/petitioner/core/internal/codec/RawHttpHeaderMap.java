@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.codec;
+
+import com.techshroom.petitioner.core.internal.HttpEncoding;
+import com.techshroom.petitioner.core.internal.HttpHeaderMaps;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.BiConsumer;
+
+/**
+ * A header map backed by the raw bytes of a response head. Names and values are only decoded
+ * into strings when they are asked for.
+ *
+ * <p>
+ * The bytes MUST already be validated, this class does not check them.
+ * </p>
+ */
+public final class RawHttpHeaderMap implements HttpHeaderMaps.Storage {
+    /**
+     * Each header uses this many slots in the index: name start, name end, value start, value end,
+     * and {@linkplain HttpEncoding#nameHash(byte[], int, int) name hash}.
+     */
+    static final int INDEX_SLOTS = 5;
+
+    private final byte[] head;
+    private final int[] index;
+    private final int count;
+    /*
+     * Racy caches of decoded names and values. Strings are immutable, so the worst outcome of a race is
+     * decoding one twice.
+     */
+    private final @Nullable String[] decodedNames;
+    private final @Nullable String[] decodedValues;
+
+    RawHttpHeaderMap(byte[] head, int[] index, int count) {
+        this.head = head;
+        this.index = index;
+        this.count = count;
+        this.decodedNames = new String[count];
+        this.decodedValues = new String[count];
+    }
+
+    private boolean nameMatches(int header, String name, int nameHash) {
+        if (index[header * INDEX_SLOTS + 4] != nameHash) {
+            return false;
+        }
+        int start = index[header * INDEX_SLOTS];
+        int end = index[header * INDEX_SLOTS + 1];
+        if (end - start != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char fromHead = (char) (head[start + i] & 0xFF);
+            char fromName = name.charAt(i);
+            if (fromHead != fromName && HttpEncoding.toLowerAscii(fromHead) != HttpEncoding.toLowerAscii(fromName)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String decodeName(int header) {
+        var name = decodedNames[header];
+        if (name == null) {
+            int start = index[header * INDEX_SLOTS];
+            int end = index[header * INDEX_SLOTS + 1];
+            name = new String(head, start, end - start, StandardCharsets.ISO_8859_1);
+            decodedNames[header] = name;
+        }
+        return name;
+    }
+
+    private String decodeValue(int header) {
+        var value = decodedValues[header];
+        if (value == null) {
+            int start = index[header * INDEX_SLOTS + 2];
+            int end = index[header * INDEX_SLOTS + 3];
+            value = new String(head, start, end - start, StandardCharsets.ISO_8859_1);
+            decodedValues[header] = value;
+        }
+        return value;
+    }
+
+    @Override
+    public @Nullable String value(String name) {
+        int nameHash = HttpEncoding.nameHash(name);
+        int found = -1;
+        for (int i = 0; i < count; i++) {
+            if (nameMatches(i, name, nameHash)) {
+                if (found != -1) {
+                    throw new IllegalStateException("More than one value for '" + name + "'");
+                }
+                found = i;
+            }
+        }
+        return found == -1 ? null : decodeValue(found);
+    }
+
+    @Override
+    public List<String> values(String name) {
+        int nameHash = HttpEncoding.nameHash(name);
+        int matches = 0;
+        for (int i = 0; i < count; i++) {
+            if (nameMatches(i, name, nameHash)) {
+                matches++;
+            }
+        }
+        if (matches == 0) {
+            return List.of();
+        }
+        var values = new String[matches];
+        int next = 0;
+        for (int i = 0; next < matches; i++) {
+            if (nameMatches(i, name, nameHash)) {
+                values[next] = decodeValue(i);
+                next++;
+            }
+        }
+        return List.of(values);
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super String> action) {
+        for (int i = 0; i < count; i++) {
+            action.accept(decodeName(i), decodeValue(i));
+        }
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, String>> iterator() {
+        return new Iterator<>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < count;
+            }
+
+            @Override
+            public Map.Entry<String, String> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                var entry = Map.entry(decodeName(next), decodeValue(next));
+                next++;
+                return entry;
+            }
+        };
+    }
+}
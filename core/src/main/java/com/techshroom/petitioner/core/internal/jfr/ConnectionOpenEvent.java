@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Connecting to a server, from resolving its name until connected or failed.
+ */
+@Name("com.techshroom.petitioner.ConnectionOpen")
+@Label("HTTP Connection Open")
+@Category({"Petitioner", "HTTP"})
+@Description("Resolving and connecting to a server")
+@StackTrace(false)
+public final class ConnectionOpenEvent extends Event {
+    @Label("Host")
+    @Description("The host, with its port")
+    public String host;
+
+    @Label("Remote Address")
+    public String remoteAddress;
+
+    @Label("Failure")
+    @Description("The type of exception connecting failed with, if it did")
+    public String failure;
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * One request and its response, from starting the exchange until the response body is read to the end or
+ * closed, or the exchange fails.
+ */
+@Name("com.techshroom.petitioner.Exchange")
+@Label("HTTP Exchange")
+@Category({"Petitioner", "HTTP"})
+@Description("A request and its response, until the body is read or the exchange fails")
+@StackTrace(false)
+public final class ExchangeEvent extends Event {
+    @Label("Method")
+    public String method;
+
+    @Label("Host")
+    @Description("The host, with its port")
+    public String host;
+
+    @Label("Status Code")
+    @Description("The status code of the response, or 0 if there was none")
+    public int statusCode;
+
+    @Label("Bytes Read")
+    @DataAmount
+    public long bytesRead;
+
+    @Label("Bytes Written")
+    @DataAmount
+    public long bytesWritten;
+
+    @Label("Connect Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    public long connectDuration;
+
+    @Label("Time to First Byte")
+    @Timespan(Timespan.NANOSECONDS)
+    public long timeToFirstByte;
+
+    @Label("Failure")
+    @Description("The type of exception the exchange failed with, if it did")
+    public String failure;
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.jfr;
+
+/**
+ * Checks if the Flight Recorder events are enabled, before creating any.
+ *
+ * <p>
+ * Events that span asynchronous operations escape the method that starts them, so the JIT can't remove
+ * them when recording is off. Checking first keeps that path free of allocation and clock reads. The checks
+ * use an instance of each event that is never committed, since {@link jdk.jfr.EventType#getEventType} sets
+ * up Flight Recorder even when nothing is recording.
+ * </p>
+ */
+public final class JfrEvents {
+    private static final ExchangeEvent EXCHANGE = new ExchangeEvent();
+    private static final ConnectionOpenEvent CONNECTION_OPEN = new ConnectionOpenEvent();
+    private static final ConnectionCloseEvent CONNECTION_CLOSE = new ConnectionCloseEvent();
+    private static final SlowReadEvent SLOW_READ = new SlowReadEvent();
+    private static final SlowWriteEvent SLOW_WRITE = new SlowWriteEvent();
+
+    public static boolean exchangeEnabled() {
+        return EXCHANGE.isEnabled();
+    }
+
+    public static boolean connectionOpenEnabled() {
+        return CONNECTION_OPEN.isEnabled();
+    }
+
+    public static boolean connectionCloseEnabled() {
+        return CONNECTION_CLOSE.isEnabled();
+    }
+
+    public static boolean slowReadEnabled() {
+        return SLOW_READ.isEnabled();
+    }
+
+    public static boolean slowWriteEnabled() {
+        return SLOW_WRITE.isEnabled();
+    }
+
+    private JfrEvents() {
+    }
+}
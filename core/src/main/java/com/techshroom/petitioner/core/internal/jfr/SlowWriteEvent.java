@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * A write of a packet to a connection that took longer than the threshold.
+ */
+@Name("com.techshroom.petitioner.SlowWrite")
+@Label("HTTP Slow Write")
+@Category({"Petitioner", "HTTP", "I/O"})
+@Description("Writing a packet to a connection took longer than the threshold")
+@Threshold("20 ms")
+@StackTrace(false)
+public final class SlowWriteEvent extends Event {
+    @Label("Bytes Written")
+    @DataAmount
+    public long bytesWritten;
+}
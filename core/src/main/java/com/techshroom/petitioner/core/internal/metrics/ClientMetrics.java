@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.metrics;
+
+import com.techshroom.petitioner.core.HttpMetricsSnapshot;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Aggregates the events of exchanges into latency histograms, counters and gauges. Recording never locks.
+ *
+ * <p>
+ * Latencies are kept for at most {@value #MAX_HOSTS} hosts, and the rest are counted together under
+ * {@value #OTHER_HOST}. A host with no latencies since the last reset is dropped when resetting, so a
+ * client that talks to many hosts over time doesn't keep all of them. A latency recorded just as its host
+ * is dropped may be lost.
+ * </p>
+ */
+public final class ClientMetrics {
+    static final int MAX_HOSTS = 256;
+    static final String OTHER_HOST = "other";
+
+    private static final HttpMetricsSnapshot.Phase[] PHASES = HttpMetricsSnapshot.Phase.values();
+
+    /**
+     * {@return the status class of a status code, such as {@code 2xx}}
+     *
+     * @param statusCode the status code
+     */
+    public static String statusClass(int statusCode) {
+        return statusCode >= 100 && statusCode < 600 ? (statusCode / 100) + "xx" : "other";
+    }
+
+    /**
+     * {@return the type an error is counted as, looking through exceptions that only wrap the real one}
+     *
+     * @param error the error
+     */
+    public static String errorType(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException)
+            && error.getCause() != null) {
+            error = error.getCause();
+        }
+        var name = error.getClass().getSimpleName();
+        return name.isEmpty() ? error.getClass().getName() : name;
+    }
+
+    private final Map<String, LatencyHistogram[]> latencies = new ConcurrentHashMap<>();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final Map<String, LongAdder> responses = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+    private final LongAdder inFlight = new LongAdder();
+    private final LongAdder openSockets = new LongAdder();
+    /**
+     * Queue lengths, by the scheduler or limiter they come from, so shared ones are only counted once.
+     */
+    private final Map<Object, LongSupplier> queues = new ConcurrentHashMap<>();
+
+    /**
+     * Record the latency of a phase.
+     *
+     * @param host the host, with its port
+     * @param phase the phase
+     * @param nanos the latency
+     */
+    public void recordLatency(String host, HttpMetricsSnapshot.Phase phase, long nanos) {
+        var histograms = latencies.get(host);
+        if (histograms == null) {
+            // Racing recorders may go a little over, which is fine for a bound on memory
+            var key = latencies.size() < MAX_HOSTS ? host : OTHER_HOST;
+            histograms = latencies.computeIfAbsent(key, __ -> newHistograms());
+        }
+        histograms[phase.ordinal()].record(nanos);
+    }
+
+    private static LatencyHistogram[] newHistograms() {
+        var created = new LatencyHistogram[PHASES.length];
+        for (int i = 0; i < created.length; i++) {
+            created[i] = new LatencyHistogram();
+        }
+        return created;
+    }
+
+    public void bytesRead(long count) {
+        bytesRead.add(count);
+    }
+
+    public void bytesWritten(long count) {
+        bytesWritten.add(count);
+    }
+
+    public void response(int statusCode) {
+        responses.computeIfAbsent(statusClass(statusCode), __ -> new LongAdder()).increment();
+    }
+
+    public void error(Throwable error) {
+        errors.computeIfAbsent(errorType(error), __ -> new LongAdder()).increment();
+    }
+
+    public void exchangeStarted() {
+        inFlight.increment();
+    }
+
+    public void exchangeFinished() {
+        inFlight.decrement();
+    }
+
+    public void socketOpened() {
+        openSockets.increment();
+    }
+
+    public void socketClosed() {
+        openSockets.decrement();
+    }
+
+    /**
+     * Add the length of a queue to the queued requests gauge. A source that is already watched is not added
+     * again.
+     *
+     * @param source what the queue belongs to
+     * @param queued the length of the queue
+     */
+    public void watchQueue(Object source, LongSupplier queued) {
+        queues.putIfAbsent(source, queued);
+    }
+
+    /**
+     * {@return the current metrics}
+     *
+     * @param reset {@code true} to reset the latencies and counters
+     */
+    public HttpMetricsSnapshot snapshot(boolean reset) {
+        var latencySnapshots = new ArrayList<HttpMetricsSnapshot.Latency>();
+        var bucketCounts = new long[LatencyHistogram.BUCKET_COUNT];
+        for (var entry : latencies.entrySet()) {
+            long hostCount = 0;
+            for (var phase : PHASES) {
+                var histogram = entry.getValue()[phase.ordinal()];
+                long sum;
+                if (reset) {
+                    sum = histogram.takeAndReset(bucketCounts);
+                } else {
+                    sum = histogram.sum();
+                    bucketCounts = histogram.bucketCounts();
+                }
+                var buckets = new ArrayList<HttpMetricsSnapshot.Bucket>();
+                long count = 0;
+                for (int i = 0; i < bucketCounts.length; i++) {
+                    if (bucketCounts[i] != 0) {
+                        count += bucketCounts[i];
+                        buckets.add(new HttpMetricsSnapshot.Bucket(
+                            Duration.ofNanos(LatencyHistogram.bucketUpperBound(i)), bucketCounts[i]
+                        ));
+                    }
+                }
+                hostCount += count;
+                if (count > 0) {
+                    latencySnapshots.add(new HttpMetricsSnapshot.Latency(
+                        entry.getKey(), phase, count, Duration.ofNanos(sum), buckets
+                    ));
+                }
+            }
+            if (reset && hostCount == 0) {
+                // Idle for a whole period
+                latencies.remove(entry.getKey(), entry.getValue());
+            }
+        }
+        latencySnapshots.sort(Comparator.comparing(HttpMetricsSnapshot.Latency::host)
+            .thenComparing(HttpMetricsSnapshot.Latency::phase));
+        long queued = 0;
+        for (var source : queues.values()) {
+            queued += source.getAsLong();
+        }
+        return new HttpMetricsSnapshot(
+            latencySnapshots,
+            reset ? bytesRead.sumThenReset() : bytesRead.sum(),
+            reset ? bytesWritten.sumThenReset() : bytesWritten.sum(),
+            sums(responses, reset),
+            sums(errors, reset),
+            inFlight.sum(),
+            openSockets.sum(),
+            queued
+        );
+    }
+
+    private static Map<String, Long> sums(Map<String, LongAdder> adders, boolean reset) {
+        var sums = new HashMap<String, Long>();
+        for (var entry : adders.entrySet()) {
+            long sum = reset ? entry.getValue().sumThenReset() : entry.getValue().sum();
+            if (sum != 0) {
+                sums.put(entry.getKey(), sum);
+            }
+        }
+        return sums;
+    }
+}
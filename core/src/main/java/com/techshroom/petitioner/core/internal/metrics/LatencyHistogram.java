@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative values, such as latencies in nanoseconds.
+ *
+ * <p>
+ * Values are counted in log-linear buckets: each power of two is split into {@value #SUB_BUCKETS}
+ * equal buckets, so a bucket's bounds are within 12.5% of any value in it. Recording is a single
+ * atomic increment, and reading a quantile scans the {@value #BUCKET_COUNT} buckets.
+ * </p>
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 3;
+    public static final int SUB_BUCKETS = 1 << SUB_BITS;
+    public static final int BUCKET_COUNT = (63 - SUB_BITS + 1) * SUB_BUCKETS;
+
+    /**
+     * {@return the bucket that counts the value}
+     *
+     * @param value the value, negative values are counted as zero
+     */
+    public static int bucketFor(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) Math.max(value, 0);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * {@return the largest value counted by the bucket}
+     *
+     * @param bucket the bucket
+     */
+    public static long bucketUpperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long width = 1L << (exponent - SUB_BITS);
+        long lower = (1L << exponent) + (bucket % SUB_BUCKETS) * width;
+        // The last bucket's bound overflows
+        return lower + width - 1 < 0 ? Long.MAX_VALUE : lower + width - 1;
+    }
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * Count a value.
+     *
+     * @param value the value
+     */
+    public void record(long value) {
+        counts.incrementAndGet(bucketFor(value));
+        count.increment();
+        sum.add(Math.max(value, 0));
+    }
+
+    /**
+     * {@return the number of values counted}
+     */
+    public long count() {
+        return count.sum();
+    }
+
+    /**
+     * {@return the sum of the values counted}
+     */
+    public long sum() {
+        return sum.sum();
+    }
+
+    /**
+     * {@return an upper bound for the value at the quantile, or zero if nothing has been counted}
+     *
+     * @param quantile the quantile, between 0 and 1
+     */
+    public long valueAtQuantile(double quantile) {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return bucketUpperBound(i);
+            }
+        }
+        // Counted concurrently with the scan
+        return bucketUpperBound(BUCKET_COUNT - 1);
+    }
+
+    /**
+     * {@return the counts of every bucket, without stopping recording}
+     */
+    public long[] bucketCounts() {
+        var snapshot = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Take the counts of every bucket, and the sum, leaving them at zero. Each bucket is taken atomically, so
+     * a value recorded concurrently is counted in either this snapshot or the next, but its sum may land in
+     * the other one.
+     *
+     * @param bucketCounts the array to put the counts of the buckets in, of length {@value #BUCKET_COUNT}
+     * @return the sum of the values taken
+     */
+    public long takeAndReset(long[] bucketCounts) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            bucketCounts[i] = counts.getAndSet(i, 0);
+        }
+        count.reset();
+        return sum.sumThenReset();
+    }
+
+    /**
+     * Halve every bucket, so older values carry less weight in quantiles. The count and sum are not changed.
+     */
+    public void decay() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.getAndUpdate(i, c -> c >>> 1);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.metrics;
+
+import com.techshroom.petitioner.core.HttpMetricsSnapshot;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes metrics in the Prometheus text exposition format, version 0.0.4.
+ *
+ * <p>
+ * Latency histograms always have the same coarse {@code le} boundaries, even where they count nothing, so
+ * every scrape has the same series. A latency is counted from the first boundary at or above the bound of
+ * the snapshot bucket it's in, so it may land one boundary higher than its exact value would.
+ * </p>
+ */
+public final class PrometheusWriter {
+    private static final String PREFIX = "petitioner_";
+    private static final List<Duration> BOUNDARIES = List.of(
+        Duration.ofMillis(1), Duration.ofNanos(2_500_000), Duration.ofMillis(5), Duration.ofMillis(10),
+        Duration.ofMillis(25), Duration.ofMillis(50), Duration.ofMillis(100), Duration.ofMillis(250),
+        Duration.ofMillis(500), Duration.ofSeconds(1), Duration.ofMillis(2500), Duration.ofSeconds(5),
+        Duration.ofSeconds(10), Duration.ofSeconds(30), Duration.ofSeconds(60)
+    );
+
+    /**
+     * Write a snapshot.
+     *
+     * @param snapshot the snapshot
+     * @param out where to write it
+     * @throws IOException if writing fails
+     */
+    public static void write(HttpMetricsSnapshot snapshot, Appendable out) throws IOException {
+        var duration = PREFIX + "request_duration_seconds";
+        header(out, duration, "histogram", "Latency of each phase of an exchange, by host.");
+        for (var latency : snapshot.latencies()) {
+            var labels = "host=\"" + escape(latency.host()) + "\",phase=\"" + latency.phase().label() + "\"";
+            var buckets = latency.buckets().iterator();
+            var next = buckets.hasNext() ? buckets.next() : null;
+            long cumulative = 0;
+            for (var boundary : BOUNDARIES) {
+                while (next != null && next.upperBound().compareTo(boundary) <= 0) {
+                    cumulative += next.count();
+                    next = buckets.hasNext() ? buckets.next() : null;
+                }
+                out.append(duration).append("_bucket{").append(labels)
+                    .append(",le=\"").append(seconds(boundary)).append("\"} ")
+                    .append(Long.toString(cumulative)).append('\n');
+            }
+            out.append(duration).append("_bucket{").append(labels).append(",le=\"+Inf\"} ")
+                .append(Long.toString(latency.count())).append('\n');
+            out.append(duration).append("_sum{").append(labels).append("} ")
+                .append(seconds(latency.sum())).append('\n');
+            out.append(duration).append("_count{").append(labels).append("} ")
+                .append(Long.toString(latency.count())).append('\n');
+        }
+
+        sample(out, PREFIX + "bytes_read_total", "counter", "Bytes read from servers.", snapshot.bytesRead());
+        sample(out, PREFIX + "bytes_written_total", "counter", "Bytes written to servers.",
+            snapshot.bytesWritten());
+        labelled(out, PREFIX + "responses_total", "Responses by status class.", "status_class",
+            snapshot.responsesByStatusClass());
+        labelled(out, PREFIX + "errors_total", "Failed exchanges by exception type.", "type",
+            snapshot.errorsByType());
+        sample(out, PREFIX + "in_flight_requests", "gauge", "Exchanges in flight.", snapshot.inFlightRequests());
+        sample(out, PREFIX + "open_sockets", "gauge", "Connections open for exchanges in flight.",
+            snapshot.openSockets());
+        sample(out, PREFIX + "queued_requests", "gauge", "Requests waiting to be admitted.",
+            snapshot.queuedRequests());
+    }
+
+    private static void header(Appendable out, String name, String type, String help) throws IOException {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(Appendable out, String name, String type, String help, long value)
+        throws IOException {
+        header(out, name, type, help);
+        out.append(name).append(' ').append(Long.toString(value)).append('\n');
+    }
+
+    private static void labelled(Appendable out, String name, String help, String label, Map<String, Long> values)
+        throws IOException {
+        header(out, name, "counter", help);
+        // Sorted, so scrapes are stable
+        for (var entry : new TreeMap<>(values).entrySet()) {
+            out.append(name).append('{').append(label).append("=\"").append(escape(entry.getKey())).append("\"} ")
+                .append(Long.toString(entry.getValue())).append('\n');
+        }
+    }
+
+    private static String seconds(Duration duration) {
+        return Double.toString(duration.toNanos() / 1e9);
+    }
+
+    /**
+     * {@return a label value with backslashes, quotes and line feeds escaped}
+     */
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private PrometheusWriter() {
+    }
+}
@@ -18,8 +18,13 @@
 
 package com.techshroom.petitioner.core.internal.select;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.channels.CompletionHandler;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 public class Completables {
     public static void attachParent(CompletableFuture<?> child, CompletableFuture<?> parent) {
@@ -30,6 +35,20 @@ public class Completables {
         });
     }
 
+    /**
+     * Cancel a child future when its parent is cancelled, so work that only the parent wanted stops.
+     *
+     * @param parent the parent future
+     * @param child the future to cancel with it
+     */
+    public static void propagateCancellation(CompletableFuture<?> parent, Future<?> child) {
+        parent.whenComplete((v, ex) -> {
+            if (parent.isCancelled()) {
+                child.cancel(false);
+            }
+        });
+    }
+
     public static <T> CompletableFuture<T> wrap(
         AsyncCall<T, CompletableFuture<T>> bindable
     ) {
@@ -47,4 +66,36 @@ public class Completables {
         });
         return future;
     }
+
+    /**
+     * Wait for a stage, re-throwing an {@link IOException} that caused it to fail as-is.
+     *
+     * @param stage the stage to wait for
+     * @param <T> the type of result
+     * @return the result of the stage
+     * @throws IOException if the stage failed with one
+     */
+    public static <T> T await(CompletionStage<T> stage) throws IOException {
+        try {
+            return stage.toCompletableFuture().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting", e);
+        } catch (ExecutionException e) {
+            var cause = e.getCause();
+            if (cause instanceof IOException ioEx) {
+                throw ioEx;
+            }
+            if (cause instanceof UncheckedIOException uncheckedIoEx) {
+                throw uncheckedIoEx.getCause();
+            }
+            if (cause instanceof RuntimeException runtimeEx) {
+                throw runtimeEx;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new IOException(cause);
+        }
+    }
 }
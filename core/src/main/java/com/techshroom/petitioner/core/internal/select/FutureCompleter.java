@@ -28,10 +28,17 @@ import java.util.concurrent.Executor;
 public interface FutureCompleter<T> {
     static <T> CompletableFuture<T> newPromise(Executor executor, FutureCompleter<T> completer) {
         var future = new CompletableFuture<T>();
-        executor.execute(() -> completeFuture(future, completer));
+        completeOn(executor, future, completer);
         return future;
     }
 
+    /**
+     * Run the completer again for the same future, such as for the next step of a loop.
+     */
+    static <T> void completeOn(Executor executor, CompletableFuture<T> future, FutureCompleter<T> completer) {
+        executor.execute(() -> completeFuture(future, completer));
+    }
+
     static <T> void completeFuture(CompletableFuture<T> future, FutureCompleter<T> completer) {
         try {
             completer.complete(future);
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.select;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs tasks inline on the calling thread, usually an I/O completion thread, instead of handing them off
+ * to another thread.
+ *
+ * <p>
+ * Continuations that complete synchronously would otherwise recurse without bound, so each thread tracks
+ * how deeply it is nested. Past {@value #MAX_DEPTH} nested tasks, new tasks are deferred until the
+ * outermost task returns, and then run on the same thread. Tasks MUST NOT block waiting on each other.
+ * </p>
+ */
+public final class InlineExecutor implements Executor {
+    public static final int MAX_DEPTH = 32;
+
+    private static final InlineExecutor INSTANCE = new InlineExecutor();
+    private static final ThreadLocal<Frames> FRAMES = ThreadLocal.withInitial(Frames::new);
+
+    /**
+     * {@return the inline executor}
+     */
+    public static InlineExecutor instance() {
+        return INSTANCE;
+    }
+
+    private InlineExecutor() {
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        var frames = FRAMES.get();
+        if (frames.depth >= MAX_DEPTH) {
+            frames.deferred.add(command);
+            return;
+        }
+        frames.depth++;
+        try {
+            command.run();
+        } finally {
+            frames.depth--;
+        }
+        if (frames.depth == 0 && !frames.draining) {
+            // We're the outermost task, so the stack is shallow again
+            frames.draining = true;
+            try {
+                Runnable next;
+                while ((next = frames.deferred.poll()) != null) {
+                    execute(next);
+                }
+            } finally {
+                frames.draining = false;
+            }
+        }
+    }
+
+    private static final class Frames {
+        private final ArrayDeque<Runnable> deferred = new ArrayDeque<>();
+        private int depth;
+        private boolean draining;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.select;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Runs asynchronous operations one at a time, in the order they were submitted, without blocking any
+ * thread.
+ *
+ * <p>
+ * Each operation is chained onto the completion of the one before it. If nothing is running, it
+ * starts immediately on the submitting thread, otherwise it starts on the thread that completes the
+ * previous operation. State touched only by operations needs no further synchronization.
+ * </p>
+ */
+public final class SerialQueue {
+    private final AtomicReference<CompletableFuture<Void>> tail = new AtomicReference<>(
+        CompletableFuture.completedFuture(null)
+    );
+
+    /**
+     * Submit an operation to run after every operation submitted before it has completed.
+     *
+     * @param operation the operation, which starts when called and completes when its stage does
+     * @param <T> the type of result
+     * @return a future that completes with the operation's result
+     */
+    public <T> CompletableFuture<T> submit(Supplier<? extends CompletionStage<T>> operation) {
+        var done = new CompletableFuture<Void>();
+        var previous = tail.getAndSet(done);
+        var result = new CompletableFuture<T>();
+        previous.whenComplete((__, ___) -> InlineExecutor.instance().execute(() -> {
+            CompletionStage<T> stage;
+            try {
+                stage = operation.get();
+            } catch (Throwable t) {
+                stage = CompletableFuture.failedFuture(t);
+            }
+            stage.whenComplete((value, ex) -> {
+                // Let the next operation start first, so callbacks can submit more without waiting
+                done.complete(null);
+                if (ex != null) {
+                    result.completeExceptionally(ex);
+                } else {
+                    result.complete(value);
+                }
+            });
+        }));
+        return result;
+    }
+
+    /**
+     * Submit a synchronous operation, such as a state change, to run after every operation submitted before it.
+     *
+     * @param operation the operation
+     * @return a future that completes once the operation has run
+     */
+    public CompletableFuture<Void> run(Runnable operation) {
+        return submit(() -> {
+            operation.run();
+            return CompletableFuture.<Void>completedFuture(null);
+        });
+    }
+}
@@ -23,16 +23,17 @@ import org.checkerframework.checker.nullness.qual.NonNull;
 import java.io.Closeable;
 import java.nio.ByteBuffer;
 import java.util.concurrent.CompletionStage;
-import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Reads a single stream. This allows the request body to be repeatedly read,
  * by tracking read progress separately.
  *
  * <p>
- * Read sessions must be thread-safe, but they do not need to be concerned with
- * throughput and may simply use a {@link ReentrantLock} to guard public
- * methods.
+ * Read sessions must be thread-safe, and MUST NOT block the calling thread,
+ * since they are called from I/O threads that other connections depend on.
+ * Concurrent calls to {@link #readNextPacket()} are served one at a time, in
+ * the order they were made, by chaining each read onto the completion of the
+ * one before it rather than by waiting on a lock.
  * </p>
  */
 public interface ReadSession extends Closeable {
@@ -40,4 +41,19 @@ public interface ReadSession extends Closeable {
      * {@return the next packet} If there's no next packet, return an empty packet.
      */
     CompletionStage<@NonNull ByteBuffer> readNextPacket();
+
+    /**
+     * Tell the session that a packet it returned is no longer in use, so its memory may be reused.
+     * The packet MUST NOT be used after this, including any views of it.
+     *
+     * <p>
+     * Calling this is optional, a packet that is never released is simply not reused. Releasing a packet
+     * that didn't come from this session, or releasing one twice, does nothing.
+     * </p>
+     *
+     * @param packet the packet returned from {@link #readNextPacket()}
+     * @implSpec The default implementation does nothing.
+     */
+    default void release(ByteBuffer packet) {
+    }
 }
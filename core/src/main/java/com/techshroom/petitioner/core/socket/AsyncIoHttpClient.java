@@ -18,80 +18,241 @@
 
 package com.techshroom.petitioner.core.socket;
 
+import com.techshroom.petitioner.core.HttpBufferSizing;
 import com.techshroom.petitioner.core.HttpClient;
 import com.techshroom.petitioner.core.HttpContentType;
+import com.techshroom.petitioner.core.HttpEventListener;
 import com.techshroom.petitioner.core.HttpHeaderMap;
 import com.techshroom.petitioner.core.HttpRequest;
+import com.techshroom.petitioner.core.HttpRequestNotSentException;
 import com.techshroom.petitioner.core.HttpResponse;
+import com.techshroom.petitioner.core.internal.Connections;
+import com.techshroom.petitioner.core.internal.ExchangeEvents;
 import com.techshroom.petitioner.core.internal.PartialHttpResponse;
 import com.techshroom.petitioner.core.internal.ReadSessionHttpResponseBody;
 import com.techshroom.petitioner.core.internal.ResponseReadSession;
 import com.techshroom.petitioner.core.internal.ByteChannelReadSession;
+import com.techshroom.petitioner.core.internal.buffer.BufferPool;
 import com.techshroom.petitioner.core.internal.codec.Decoder;
 import com.techshroom.petitioner.core.internal.codec.HttpCodec;
+import com.techshroom.petitioner.core.internal.jfr.JfrEvents;
+import com.techshroom.petitioner.core.internal.jfr.SlowWriteEvent;
+import com.techshroom.petitioner.core.internal.metrics.ClientMetrics;
 import com.techshroom.petitioner.core.internal.parse.ContentTypeParser;
 import com.techshroom.petitioner.core.internal.select.Completables;
 import com.techshroom.petitioner.core.internal.select.FutureCompleter;
+import com.techshroom.petitioner.core.internal.select.InlineExecutor;
 import com.techshroom.petitioner.core.io.ReadSession;
 import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousByteChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.OptionalLong;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 /**
  * An HTTP client using the new NIO2 APIs.
+ *
+ * <p>
+ * Requests are driven inline on whichever thread completes each I/O operation, using the
+ * {@link InlineExecutor}. The work executor is only used to complete the future returned to the user, so
+ * their callbacks don't hold up I/O.
+ * </p>
+ *
+ * <p>
+ * Each exchange, and each write slower than the threshold of {@link SlowWriteEvent}, is recorded as a Flight
+ * Recorder event, if enabled. Checking costs a flag read per exchange or write when recording is off.
+ * </p>
  */
 public final class AsyncIoHttpClient implements HttpClient {
     private final ExecutorService workExecutor;
     private final UriConnector uriConnector;
     private final HttpCodec codec;
+    private final BufferPool bufferPool;
+    private final HttpBufferSizing bufferSizing;
+    private final boolean zeroCopyReads;
+    private final @Nullable HttpEventListener eventListener;
+    private final @Nullable ClientMetrics metrics;
 
     public AsyncIoHttpClient(ExecutorService workExecutor, UriConnector uriConnector, HttpCodec codec) {
+        this(workExecutor, uriConnector, codec, BufferPool.shared(), HttpBufferSizing.defaults(), false);
+    }
+
+    public AsyncIoHttpClient(ExecutorService workExecutor, UriConnector uriConnector, HttpCodec codec,
+                             BufferPool bufferPool, HttpBufferSizing bufferSizing, boolean zeroCopyReads) {
+        this(workExecutor, uriConnector, codec, bufferPool, bufferSizing, zeroCopyReads, null);
+    }
+
+    public AsyncIoHttpClient(ExecutorService workExecutor, UriConnector uriConnector, HttpCodec codec,
+                             BufferPool bufferPool, HttpBufferSizing bufferSizing, boolean zeroCopyReads,
+                             @Nullable HttpEventListener eventListener) {
+        this(workExecutor, uriConnector, codec, bufferPool, bufferSizing, zeroCopyReads, eventListener, null);
+    }
+
+    public AsyncIoHttpClient(ExecutorService workExecutor, UriConnector uriConnector, HttpCodec codec,
+                             BufferPool bufferPool, HttpBufferSizing bufferSizing, boolean zeroCopyReads,
+                             @Nullable HttpEventListener eventListener, @Nullable ClientMetrics metrics) {
         this.workExecutor = workExecutor;
         this.uriConnector = uriConnector;
         this.codec = codec;
+        this.bufferPool = bufferPool;
+        this.bufferSizing = bufferSizing;
+        this.zeroCopyReads = zeroCopyReads;
+        this.eventListener = eventListener;
+        this.metrics = metrics;
+    }
+
+    private static void closeOnFailure(ReadSession readSession, Throwable ex) {
+        try {
+            readSession.close();
+        } catch (IOException closeEx) {
+            ex.addSuppressed(closeEx);
+        }
     }
 
+    private static void discard(HttpResponse response) {
+        if (response.body() == null) {
+            return;
+        }
+        try {
+            response.body().close();
+        } catch (IOException ignored) {
+            // Nobody is left to tell
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @implNote Cancelling the returned future cancels the connect, and closes the channel and read sessions.
+     *     That fails whichever read or write is pending, and the loops stop instead of issuing another.
+     */
     @Override
     public CompletionStage<HttpResponse> executeAsync(HttpRequest request) {
-        var connectedFuture = initiateConnection(request);
-        var sentFuture = connectedFuture.thenCompose(channel -> sendRequest(channel, request));
-        return sentFuture.thenCompose(this::readResponseHeader);
+        var exchange = new Exchange();
+        var events = ExchangeEvents.start(eventListener, metrics, request);
+        var result = new CompletableFuture<HttpResponse>();
+        result.whenComplete((__, ___) -> {
+            if (result.isCancelled()) {
+                exchange.abort();
+            }
+        });
+        var connectedFuture = initiateConnection(exchange, events, request);
+        var sentFuture = connectedFuture.thenCompose(channel -> sendRequest(exchange, events, channel, request));
+        var responseFuture = sentFuture.thenCompose(channel -> readResponseHeader(exchange, events, channel));
+        responseFuture.whenComplete((response, ex) -> {
+            if (ex != null) {
+                // Don't leave the channel open
+                exchange.abort();
+                events.failure(ex);
+            }
+            if (result.isDone()) {
+                // Cancelled, nobody wants it
+                if (response != null) {
+                    events.failure(new CancellationException("Request was abandoned"));
+                    discard(response);
+                }
+                return;
+            }
+            // Hop once, for the user's callbacks
+            try {
+                workExecutor.execute(() -> deliver(result, response, ex));
+            } catch (RejectedExecutionException rejected) {
+                deliver(result, response, ex);
+            }
+        });
+        return result;
     }
 
-    private CompletableFuture<AsynchronousByteChannel> initiateConnection(HttpRequest request) {
-        return uriConnector.connect(request.uri());
+    private static void deliver(CompletableFuture<HttpResponse> result, @Nullable HttpResponse response,
+                                @Nullable Throwable ex) {
+        if (ex != null) {
+            result.completeExceptionally(ex);
+        } else if (!result.complete(response)) {
+            // Cancelled during the hop
+            discard(response);
+        }
     }
 
-    private CompletableFuture<AsynchronousByteChannel> sendRequest(AsynchronousByteChannel channel, HttpRequest request) {
-        return FutureCompleter.newPromise(workExecutor, new FutureCompleter<>() {
-            private final ReadSession readSession = codec.requestEncoder().get().encode(request);
+    private CompletableFuture<AsynchronousByteChannel> initiateConnection(Exchange exchange, ExchangeEvents events,
+                                                                          HttpRequest request) {
+        var connecting = uriConnector.connect(request.uri(), events);
+        exchange.onAbort(() -> connecting.cancel(false));
+        return connecting
+            .exceptionallyCompose(ex -> CompletableFuture.failedFuture(notSent(request, ex)));
+    }
+
+    private static HttpRequestNotSentException notSent(HttpRequest request, Throwable ex) {
+        var cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+        return new HttpRequestNotSentException("Failed to connect to " + request.uri(), cause);
+    }
+
+    private CompletableFuture<AsynchronousByteChannel> sendRequest(Exchange exchange, ExchangeEvents events,
+                                                                   AsynchronousByteChannel channel,
+                                                                   HttpRequest request) {
+        exchange.onAbort(() -> Connections.closeQuietly(channel));
+        events.connected();
+        var readSession = codec.requestEncoder().get().encode(request);
+        exchange.closeOnAbort(readSession);
+        return FutureCompleter.newPromise(InlineExecutor.instance(), new FutureCompleter<>() {
+            // The first packet is always the head, and the loop only runs one iteration at a time
+            private boolean headWritten;
 
             @Override
             public void complete(CompletableFuture<AsynchronousByteChannel> future) {
+                if (exchange.isAborted()) {
+                    var ex = new CancellationException("Request was abandoned");
+                    closeOnFailure(readSession, ex);
+                    future.completeExceptionally(ex);
+                    return;
+                }
                 readSession.readNextPacket()
                     .thenCompose(buffer -> {
                         if (!buffer.hasRemaining()) {
                             return CompletableFuture.completedFuture(false);
                         }
-                        return writeFully(channel, buffer).thenApply(__ -> true);
+                        int length = buffer.remaining();
+                        return writeFully(channel, buffer).thenApply(__ -> {
+                            readSession.release(buffer);
+                            events.bytesWritten(length);
+                            if (!headWritten) {
+                                headWritten = true;
+                                events.requestHeadersWritten();
+                            }
+                            return true;
+                        });
                     })
                     .whenComplete((shouldContinue, ex) -> {
                         if (ex != null) {
+                            closeOnFailure(readSession, ex);
                             future.completeExceptionally(ex);
                             return;
                         }
                         if (shouldContinue) {
                             // Continue the write loop
-                            this.complete(future);
+                            FutureCompleter.completeOn(InlineExecutor.instance(), future, this);
                         } else {
                             // Complete the top future
+                            try {
+                                readSession.close();
+                            } catch (IOException closeEx) {
+                                future.completeExceptionally(closeEx);
+                                return;
+                            }
+                            if (request.body() != null) {
+                                events.requestBodyWritten();
+                            }
                             future.complete(channel);
                         }
                     });
@@ -100,7 +261,28 @@ public final class AsyncIoHttpClient implements HttpClient {
     }
 
     private CompletableFuture<AsynchronousByteChannel> writeFully(AsynchronousByteChannel channel, ByteBuffer buffer) {
-        return FutureCompleter.newPromise(workExecutor, new FutureCompleter<>() {
+        if (JfrEvents.slowWriteEnabled()) {
+            var event = new SlowWriteEvent();
+            long length = buffer.remaining();
+            event.begin();
+            var written = writeFullyUntimed(channel, buffer);
+            written.thenAccept(__ -> commitSlowWrite(event, length));
+            return written;
+        }
+        return writeFullyUntimed(channel, buffer);
+    }
+
+    private static void commitSlowWrite(SlowWriteEvent event, long length) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.bytesWritten = length;
+            event.commit();
+        }
+    }
+
+    private CompletableFuture<AsynchronousByteChannel> writeFullyUntimed(AsynchronousByteChannel channel,
+                                                                         ByteBuffer buffer) {
+        return FutureCompleter.newPromise(InlineExecutor.instance(), new FutureCompleter<>() {
             @Override
             public void complete(CompletableFuture<AsynchronousByteChannel> fut) {
                 var writeFuture = Completables.<Integer>wrap((a, h) -> channel.write(buffer, a, h));
@@ -108,7 +290,7 @@ public final class AsyncIoHttpClient implements HttpClient {
                 writeFuture.thenAccept(__ -> {
                     if (buffer.hasRemaining()) {
                         // It's not complete, call it again!
-                        this.complete(fut);
+                        FutureCompleter.completeOn(InlineExecutor.instance(), fut, this);
                     } else {
                         // We've written everything :)
                         fut.complete(channel);
@@ -118,71 +300,304 @@ public final class AsyncIoHttpClient implements HttpClient {
         });
     }
 
-    private CompletionStage<HttpResponse> readResponseHeader(AsynchronousByteChannel channel) {
-        return FutureCompleter.newPromise(workExecutor, new FutureCompleter<>() {
-            private final ReadSession readSession = new ByteChannelReadSession(channel);
-            private final Decoder<@NonNull PartialHttpResponse> responseDecoder = codec.responseDecoder().get();
-            private ByteBuffer previousUnread;
-
+    private CompletionStage<HttpResponse> readResponseHeader(Exchange exchange, ExchangeEvents events,
+                                                             AsynchronousByteChannel channel) {
+        var headReader = new HeadReader(channel, events);
+        exchange.closeOnAbort(headReader.readSession);
+        return FutureCompleter.newPromise(InlineExecutor.instance(), new FutureCompleter<>() {
             @Override
             public void complete(CompletableFuture<HttpResponse> future) {
-                readSession.readNextPacket()
+                if (exchange.isAborted()) {
+                    var ex = new CancellationException("Request was abandoned");
+                    headReader.fail(ex);
+                    future.completeExceptionally(ex);
+                    return;
+                }
+                headReader.readSession.readNextPacket()
                     .thenAccept(buffer -> {
-                        int previousRemaining;
-                        ByteBuffer decodeBuf;
-                        if (previousUnread == null) {
-                            // Nothing special
-                            previousRemaining = 0;
-                            decodeBuf = buffer;
-                        } else {
-                            previousRemaining = previousUnread.remaining();
-                            // Prepend the unread buffer into a new buffer
-                            decodeBuf = ByteBuffer.allocateDirect(previousUnread.remaining() + buffer.remaining());
-                            decodeBuf.put(previousUnread);
-                            decodeBuf.put(buffer);
-                            decodeBuf.flip();
-
-                            previousUnread = null;
-                        }
-                        var partial = responseDecoder.tryDecode(decodeBuf);
-                        if (partial == null) {
-                            if (decodeBuf.hasRemaining()) {
-                                previousUnread = decodeBuf;
-                            }
-                            if (!buffer.hasRemaining()) {
-                                // We've reached EOF, but no decoded response
-                                // If the decoder consumed all content, it's truly EOF
-                                // Otherwise, it could be that the decoder wants to be called again
-                                // But it has to consume some of the buffer each time.
-                                if (!decodeBuf.hasRemaining() || decodeBuf.remaining() == previousRemaining) {
-                                    throw new IllegalStateException("EOF reached prematurely");
-                                }
-                            }
+                        var response = headReader.accept(buffer);
+                        if (response == null) {
                             // we need to try again
-                            complete(future);
+                            FutureCompleter.completeOn(InlineExecutor.instance(), future, this);
                             return;
                         }
-                        var contentLength = decodeContentLength(partial.headers());
-                        future.complete(new HttpResponse(
-                            partial.statusCode(),
-                            partial.statusMessage(),
-                            partial.headers(),
-                            new ReadSessionHttpResponseBody(
-                                contentLength,
-                                decodeContentType(partial.headers()),
-                                new ResponseReadSession(
-                                    readSession,
-                                    contentLength.orElse(-1),
-                                    decodeBuf.hasRemaining() ? decodeBuf : null
-                                )
-                            )
-                        ));
+                        future.complete(response);
                     })
-                    .whenComplete((v, ex) -> future.completeExceptionally(ex));
+                    .whenComplete((v, ex) -> {
+                        if (ex == null) {
+                            return;
+                        }
+                        headReader.fail(ex);
+                        future.completeExceptionally(ex);
+                    });
             }
         });
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * @implNote Connecting, writing the request, and reading the response head all block the calling thread,
+     *     without handing off to the work executor. The response body is read from the same read session as
+     *     {@link #executeAsync(HttpRequest)} uses.
+     */
+    @Override
+    public HttpResponse execute(HttpRequest request) throws IOException {
+        var events = ExchangeEvents.start(eventListener, metrics, request);
+        AsynchronousByteChannel channel;
+        try {
+            channel = uriConnector.connectBlocking(request.uri(), events);
+        } catch (IOException | RuntimeException e) {
+            var notSent = notSent(request, e);
+            events.failure(notSent);
+            throw notSent;
+        }
+        events.connected();
+        try {
+            sendRequestBlocking(channel, request, events);
+        } catch (IOException | RuntimeException | Error e) {
+            try {
+                Connections.close(channel);
+            } catch (IOException closeEx) {
+                e.addSuppressed(closeEx);
+            }
+            events.failure(e);
+            throw e;
+        }
+        var headReader = new HeadReader(channel, events);
+        try {
+            while (true) {
+                var response = headReader.accept(Completables.await(headReader.readSession.readNextPacket()));
+                if (response != null) {
+                    return response;
+                }
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            headReader.fail(e);
+            events.failure(e);
+            throw e;
+        }
+    }
+
+    private void sendRequestBlocking(AsynchronousByteChannel channel, HttpRequest request,
+                                     ExchangeEvents events) throws IOException {
+        var readSession = codec.requestEncoder().get().encode(request);
+        boolean headWritten = false;
+        try {
+            while (true) {
+                var buffer = Completables.await(readSession.readNextPacket());
+                if (!buffer.hasRemaining()) {
+                    break;
+                }
+                int length = buffer.remaining();
+                var event = JfrEvents.slowWriteEnabled() ? new SlowWriteEvent() : null;
+                if (event != null) {
+                    event.begin();
+                }
+                while (buffer.hasRemaining()) {
+                    Completables.await(Completables.<Integer>wrap((a, h) -> channel.write(buffer, a, h)));
+                }
+                if (event != null) {
+                    commitSlowWrite(event, length);
+                }
+                readSession.release(buffer);
+                events.bytesWritten(length);
+                if (!headWritten) {
+                    headWritten = true;
+                    events.requestHeadersWritten();
+                }
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            closeOnFailure(readSession, e);
+            throw e;
+        }
+        readSession.close();
+        if (request.body() != null) {
+            events.requestBodyWritten();
+        }
+    }
+
+    /**
+     * The resources of one asynchronous exchange, so they can be released as soon as it's abandoned.
+     */
+    private static final class Exchange {
+        private final List<Runnable> abortActions = new ArrayList<>();
+        private volatile boolean aborted;
+
+        boolean isAborted() {
+            return aborted;
+        }
+
+        /**
+         * Run an action when the exchange is aborted, or now if it already has been.
+         *
+         * @param action the action
+         */
+        void onAbort(Runnable action) {
+            synchronized (this) {
+                if (!aborted) {
+                    abortActions.add(action);
+                    return;
+                }
+            }
+            action.run();
+        }
+
+        void closeOnAbort(Closeable closeable) {
+            onAbort(() -> {
+                try {
+                    closeable.close();
+                } catch (IOException ignored) {
+                    // It's being abandoned anyway
+                }
+            });
+        }
+
+        void abort() {
+            List<Runnable> actions;
+            synchronized (this) {
+                if (aborted) {
+                    return;
+                }
+                aborted = true;
+                actions = List.copyOf(abortActions);
+                abortActions.clear();
+            }
+            actions.forEach(Runnable::run);
+        }
+    }
+
+    /**
+     * Decodes a response head from the packets of a connection, whichever thread they're read on.
+     */
+    private final class HeadReader {
+        private final ByteChannelReadSession readSession;
+        private final ExchangeEvents events;
+        private final Decoder<@NonNull PartialHttpResponse> responseDecoder = codec.responseDecoder().get();
+        /*
+         * Either a packet from the read session, or a pooled buffer combining several packets.
+         */
+        private ByteBuffer previousUnread;
+        private boolean previousUnreadPooled;
+        private boolean started;
+
+        private HeadReader(AsynchronousByteChannel channel, ExchangeEvents events) {
+            this.readSession = new ByteChannelReadSession(channel, bufferPool, bufferSizing, zeroCopyReads);
+            this.events = events;
+        }
+
+        private void releasePreviousUnread() {
+            if (previousUnreadPooled) {
+                bufferPool.release(previousUnread);
+            } else if (previousUnread != null) {
+                readSession.release(previousUnread);
+            }
+            previousUnread = null;
+            previousUnreadPooled = false;
+        }
+
+        /**
+         * Decode the next packet of the connection.
+         *
+         * @param buffer the next packet, empty at EOF
+         * @return the response, or {@code null} if another packet is needed
+         */
+        @Nullable HttpResponse accept(ByteBuffer buffer) {
+            boolean eof = !buffer.hasRemaining();
+            if (!started && !eof) {
+                started = true;
+                events.responseHeadStart();
+            }
+            events.headBytesRead(buffer.remaining());
+            int previousRemaining;
+            ByteBuffer decodeBuf;
+            if (previousUnread == null) {
+                // Nothing special
+                previousRemaining = 0;
+                decodeBuf = buffer;
+                // Track it immediately, so it's released if decoding fails
+                previousUnread = buffer;
+            } else {
+                previousRemaining = previousUnread.remaining();
+                // Prepend the unread buffer into a new buffer
+                decodeBuf = bufferPool.acquireHeap(previousUnread.remaining() + buffer.remaining());
+                decodeBuf.put(previousUnread);
+                decodeBuf.put(buffer);
+                decodeBuf.flip();
+
+                releasePreviousUnread();
+                readSession.release(buffer);
+                // Track it immediately, so it's released if decoding fails
+                previousUnread = decodeBuf;
+                previousUnreadPooled = true;
+            }
+            var partial = responseDecoder.tryDecode(decodeBuf);
+            if (partial == null) {
+                if (!decodeBuf.hasRemaining()) {
+                    releasePreviousUnread();
+                }
+                if (eof) {
+                    // We've reached EOF, but no decoded response
+                    // If the decoder consumed all content, it's truly EOF
+                    // Otherwise, it could be that the decoder wants to be called again
+                    // But it has to consume some of the buffer each time.
+                    if (!decodeBuf.hasRemaining() || decodeBuf.remaining() == previousRemaining) {
+                        throw new IllegalStateException("EOF reached prematurely");
+                    }
+                }
+                return null;
+            }
+            ByteBuffer leftover = null;
+            if (decodeBuf.hasRemaining()) {
+                if (previousUnreadPooled) {
+                    // The body owns the leftover, so it can't be the pooled buffer
+                    leftover = ByteBuffer.allocate(decodeBuf.remaining()).put(decodeBuf).flip();
+                } else {
+                    // Hand the packet over to the body, which releases it through the read session
+                    leftover = decodeBuf;
+                    previousUnread = null;
+                }
+            }
+            releasePreviousUnread();
+            if (leftover != null) {
+                // The body reports these itself
+                events.headBytesRead(-leftover.remaining());
+            }
+            var contentLength = decodeContentLength(partial.headers());
+            if (contentLength.isPresent()) {
+                long leftoverBytes = leftover == null ? 0 : leftover.remaining();
+                readSession.hintExpectedBytes(contentLength.getAsLong() - leftoverBytes);
+            }
+            var response = new HttpResponse(
+                partial.statusCode(),
+                partial.statusMessage(),
+                partial.headers(),
+                new ReadSessionHttpResponseBody(
+                    contentLength,
+                    decodeContentType(partial.headers()),
+                    new ResponseReadSession(
+                        readSession,
+                        contentLength.orElse(-1),
+                        leftover,
+                        events
+                    )
+                )
+            );
+            events.responseHeadEnd(response);
+            return response;
+        }
+
+        /**
+         * Clean up after a failure. The connection is in an unknown state, so don't let it keep reading.
+         *
+         * @param ex the failure, to attach any further errors to
+         */
+        void fail(Throwable ex) {
+            releasePreviousUnread();
+            closeOnFailure(readSession, ex);
+        }
+    }
+
     private OptionalLong decodeContentLength(HttpHeaderMap headers) {
         String value = headers.value("Content-Length");
         if (value == null) {
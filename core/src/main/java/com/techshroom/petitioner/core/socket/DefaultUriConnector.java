@@ -18,8 +18,14 @@
 
 package com.techshroom.petitioner.core.socket;
 
+import com.techshroom.petitioner.core.internal.Connections;
+import com.techshroom.petitioner.core.internal.ExchangeEvents;
+import com.techshroom.petitioner.core.internal.jfr.ConnectionOpenEvent;
+import com.techshroom.petitioner.core.internal.jfr.JfrEvents;
+import com.techshroom.petitioner.core.internal.metrics.ClientMetrics;
 import com.techshroom.petitioner.core.internal.select.Completables;
 import com.techshroom.petitioner.core.internal.select.FutureCompleter;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
@@ -40,27 +46,155 @@ public class DefaultUriConnector implements UriConnector {
         this.group = group;
     }
 
+    private static InetSocketAddress resolve(URI uri, ExchangeEvents events) {
+        var port = uri.getPort();
+        if (port == -1) {
+            port = switch (uri.getScheme()) {
+                case "http" -> 80;
+                case "https" -> 443;
+                default -> throw new IllegalStateException("Invalid scheme: " + uri.getScheme());
+            };
+        }
+        events.dnsStart(uri.getHost());
+        var address = new InetSocketAddress(uri.getHost(), port);
+        events.dnsEnd(address);
+        return address;
+    }
+
+    /**
+     * {@return a Flight Recorder event for connecting to a URI, started now, or {@code null} if it's not
+     * recorded}
+     */
+    private static @Nullable ConnectionOpenEvent beginOpenEvent(URI uri) {
+        if (!JfrEvents.connectionOpenEnabled()) {
+            return null;
+        }
+        var event = new ConnectionOpenEvent();
+        event.begin();
+        event.host = Connections.hostKey(uri);
+        return event;
+    }
+
+    private static void commitOpenEvent(@Nullable ConnectionOpenEvent event, @Nullable InetSocketAddress address,
+                                        @Nullable Throwable failure) {
+        if (event == null) {
+            return;
+        }
+        if (address != null) {
+            event.remoteAddress = address.toString();
+        }
+        if (failure != null) {
+            event.failure = ClientMetrics.errorType(failure);
+        }
+        event.commit();
+    }
+
+    private static void closeQuietly(AsynchronousSocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // It's being abandoned anyway
+        }
+    }
+
     @Override
     public CompletableFuture<AsynchronousByteChannel> connect(URI uri) {
+        return connect(uri, ExchangeEvents.none());
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @implNote Cancelling the returned future closes the channel, which aborts the connect. A channel that
+     *     finishes connecting after the future is already complete is closed instead of leaking. Connecting
+     *     is recorded as a Flight Recorder event, if enabled.
+     */
+    @Override
+    public CompletableFuture<AsynchronousByteChannel> connect(URI uri, ExchangeEvents events) {
         return FutureCompleter.newPromise(workExecutor, future -> {
-            var port = uri.getPort();
-            if (port == -1) {
-                port = switch (uri.getScheme()) {
-                    case "http" -> 80;
-                    case "https" -> 443;
-                    default -> throw new IllegalStateException("Invalid scheme: " + uri.getScheme());
-                };
+            if (future.isDone()) {
+                // Cancelled before we got here
+                return;
+            }
+            var openEvent = beginOpenEvent(uri);
+            InetSocketAddress addr;
+            AsynchronousSocketChannel channel;
+            try {
+                addr = resolve(uri, events);
+                channel = AsynchronousSocketChannel.open(group);
+            } catch (IOException | RuntimeException e) {
+                commitOpenEvent(openEvent, null, e);
+                throw e;
             }
-            var addr = new InetSocketAddress(uri.getHost(), port);
-            var channel = AsynchronousSocketChannel.open(group);
+            future.whenComplete((c, ex) -> {
+                if (future.isCancelled()) {
+                    closeQuietly(channel);
+                }
+            });
+            events.connectStart(addr);
             var connectFtr = Completables.<Void>wrap((a, h) ->
                 channel.connect(addr, a, h)
             );
-            Completables.attachParent(connectFtr, future);
-            connectFtr.thenAccept(__ -> future.complete(channel));
+            connectFtr.whenComplete((__, ex) -> {
+                commitOpenEvent(openEvent, addr, ex);
+                if (ex != null) {
+                    closeQuietly(channel);
+                    future.completeExceptionally(ex);
+                    return;
+                }
+                events.connectEnd(addr);
+                if (!future.complete(channel)) {
+                    // It was opened, so closing it is recorded too
+                    Connections.closeQuietly(channel);
+                }
+            });
         });
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * @implNote Name resolution and connecting both happen on the calling thread.
+     */
+    @Override
+    public AsynchronousByteChannel connectBlocking(URI uri) throws IOException {
+        return connectBlocking(uri, ExchangeEvents.none());
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @implNote Name resolution and connecting both happen on the calling thread.
+     */
+    @Override
+    public AsynchronousByteChannel connectBlocking(URI uri, ExchangeEvents events) throws IOException {
+        var openEvent = beginOpenEvent(uri);
+        InetSocketAddress addr;
+        AsynchronousSocketChannel channel;
+        try {
+            addr = resolve(uri, events);
+            channel = AsynchronousSocketChannel.open(group);
+        } catch (IOException | RuntimeException e) {
+            commitOpenEvent(openEvent, null, e);
+            throw e;
+        }
+        try {
+            events.connectStart(addr);
+            Completables.await(Completables.<Void>wrap((a, h) -> channel.connect(addr, a, h)));
+            commitOpenEvent(openEvent, addr, null);
+            events.connectEnd(addr);
+        } catch (IOException | RuntimeException | Error e) {
+            commitOpenEvent(openEvent, addr, e);
+            try {
+                channel.close();
+            } catch (IOException closeEx) {
+                e.addSuppressed(closeEx);
+            }
+            throw e;
+        }
+        return channel;
+    }
+
     @Override
     public void close() {
         this.group.shutdown();
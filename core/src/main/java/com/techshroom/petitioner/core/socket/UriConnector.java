@@ -18,7 +18,11 @@
 
 package com.techshroom.petitioner.core.socket;
 
+import com.techshroom.petitioner.core.internal.ExchangeEvents;
+import com.techshroom.petitioner.core.internal.select.Completables;
+
 import java.io.Closeable;
+import java.io.IOException;
 import java.net.URI;
 import java.nio.channels.AsynchronousByteChannel;
 import java.util.concurrent.CompletableFuture;
@@ -30,8 +34,51 @@ public interface UriConnector extends Closeable {
     /**
      * Connect to the given URI.
      *
+     * <p>
+     * The future may be cancelled when the request is abandoned. Connectors should then stop connecting, and
+     * must not leave open a channel that nobody will receive.
+     * </p>
+     *
      * @param uri the URI to connect to
      * @return the future for the channel, will complete when connected
      */
     CompletableFuture<AsynchronousByteChannel> connect(URI uri);
+
+    /**
+     * Connect to the given URI, blocking the calling thread until connected.
+     *
+     * @param uri the URI to connect to
+     * @return the connected channel
+     * @throws IOException if the connection fails
+     * @implSpec The default implementation waits for {@link #connect(URI)}.
+     */
+    default AsynchronousByteChannel connectBlocking(URI uri) throws IOException {
+        return Completables.await(connect(uri));
+    }
+
+    /**
+     * Connect to the given URI, reporting name resolution and connecting to the events of the exchange.
+     *
+     * @param uri the URI to connect to
+     * @param events the events of the exchange
+     * @return the future for the channel, will complete when connected
+     * @implSpec The default implementation calls {@link #connect(URI)}, and reports nothing.
+     */
+    default CompletableFuture<AsynchronousByteChannel> connect(URI uri, ExchangeEvents events) {
+        return connect(uri);
+    }
+
+    /**
+     * Connect to the given URI, blocking the calling thread until connected, and reporting name resolution
+     * and connecting to the events of the exchange.
+     *
+     * @param uri the URI to connect to
+     * @param events the events of the exchange
+     * @return the connected channel
+     * @throws IOException if the connection fails
+     * @implSpec The default implementation calls {@link #connectBlocking(URI)}, and reports nothing.
+     */
+    default AsynchronousByteChannel connectBlocking(URI uri, ExchangeEvents events) throws IOException {
+        return connectBlocking(uri);
+    }
 }
@@ -19,6 +19,7 @@
 module com.techshroom.petitioner.core {
     requires static org.checkerframework.checker.qual;
     requires java.base;
+    requires jdk.jfr;
     requires org.apache.logging.log4j;
     exports com.techshroom.petitioner.core;
     exports com.techshroom.petitioner.core.io;
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class HttpHeaderMapTest {
+    @Test
+    void putReplacesCaseInsensitively() {
+        var headers = HttpHeaderMap.builder()
+            .add("Accept", "text/plain")
+            .add("X-Trace", "1")
+            .add("accept", "text/html")
+            .put("ACCEPT", "*/*")
+            .build();
+
+        assertThat(headers.values("accept")).containsExactly("*/*");
+        assertThat(headers).containsExactly(
+            Map.entry("X-Trace", "1"),
+            Map.entry("ACCEPT", "*/*")
+        ).inOrder();
+    }
+
+    @Test
+    void addKeepsEveryValueInOrder() {
+        var headers = HttpHeaderMap.builder()
+            .add("Cookie", "a=1")
+            .add("Host", "example.com")
+            .add("cookie", "b=2")
+            .build();
+
+        assertThat(headers.values("COOKIE")).containsExactly("a=1", "b=2").inOrder();
+        assertThat(headers.requireValue("host")).isEqualTo("example.com");
+        assertThrows(IllegalStateException.class, () -> headers.value("Cookie"));
+        assertThat(headers.values("Missing")).isEmpty();
+    }
+
+    @Test
+    void putAllReplacesNamesButKeepsAllTheirValues() {
+        var other = HttpHeaderMap.builder()
+            .add("Accept", "text/plain")
+            .add("Accept", "text/html")
+            .build();
+
+        var headers = HttpHeaderMap.builder()
+            .add("accept", "*/*")
+            .add("Host", "example.com")
+            .putAll(other)
+            .build();
+
+        assertThat(headers.values("Accept")).containsExactly("text/plain", "text/html").inOrder();
+        assertThat(headers.value("Host")).isEqualTo("example.com");
+    }
+
+    @Test
+    void forEachVisitsEveryPairInOrder() {
+        var headers = HttpHeaderMap.builder()
+            .add("A", "1")
+            .add("B", "2")
+            .add("a", "3")
+            .build();
+
+        var visited = new ArrayList<String>();
+        headers.forEach((name, value) -> visited.add(name + "=" + value));
+        assertThat(visited).containsExactly("A=1", "B=2", "a=3").inOrder();
+    }
+
+    @Test
+    void toBuilderDoesNotChangeTheOriginal() {
+        var headers = HttpHeaderMap.builder()
+            .put("Accept", List.of("text/plain", "text/html"))
+            .build();
+
+        var changed = headers.toBuilder()
+            .put("Accept", "*/*")
+            .add("Host", "example.com")
+            .build();
+
+        assertThat(headers.values("Accept")).containsExactly("text/plain", "text/html").inOrder();
+        assertThat(headers.value("Host")).isNull();
+        assertThat(changed.values("Accept")).containsExactly("*/*");
+        assertThat(changed.value("Host")).isEqualTo("example.com");
+    }
+
+    @Test
+    void buildRejectsInvalidHeaders() {
+        assertThrows(IllegalStateException.class, () -> HttpHeaderMap.builder().add("Bad Name", "1").build());
+        assertThrows(IllegalStateException.class, () -> HttpHeaderMap.builder().add("Name", "bad\nvalue").build());
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal;
+
+import com.techshroom.petitioner.core.HttpBatch;
+import com.techshroom.petitioner.core.HttpRequest;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class BatchExecutionTest {
+    /**
+     * Counts how many requests have been pulled.
+     */
+    private static final class CountingRequests implements Iterator<HttpRequest> {
+        private final int total;
+        private int pulled;
+
+        private CountingRequests(int total) {
+            this.total = total;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return pulled < total;
+        }
+
+        @Override
+        public HttpRequest next() {
+            pulled++;
+            return HttpRequest.get("http://petitioner.octyl.net/" + pulled);
+        }
+    }
+
+    @Test
+    void pullsRequestsOnlyAsSlotsFreeUp() throws Exception {
+        var client = new ManualHttpClient();
+        var requests = new CountingRequests(100);
+        var results = new ConcurrentLinkedQueue<HttpBatch.Result>();
+
+        var batch = BatchExecution.withListener(client, requests, 4, results::add).start();
+
+        assertThat(requests.pulled).isEqualTo(4);
+        assertThat(client.completeOne()).isTrue();
+        assertThat(requests.pulled).isEqualTo(5);
+        while (client.completeOne()) {
+            assertThat(requests.pulled - results.size()).isAtMost(4);
+        }
+
+        var stats = batch.completion().toCompletableFuture().get(1, TimeUnit.MINUTES);
+        assertThat(client.maxInFlight()).isEqualTo(4);
+        assertThat(results).hasSize(100);
+        assertThat(stats.started()).isEqualTo(100);
+        assertThat(stats.succeeded()).isEqualTo(100);
+        assertThat(stats.inFlight()).isEqualTo(0);
+        assertThat(stats.maxLatency().compareTo(stats.minLatency())).isAtLeast(0);
+    }
+
+    @Test
+    void cancelAbandonsRequestsInFlight() throws Exception {
+        var client = new ManualHttpClient();
+        var requests = new CountingRequests(100);
+        var delivered = new AtomicInteger();
+
+        var batch = BatchExecution.withListener(client, requests, 2, result -> delivered.incrementAndGet()).start();
+        batch.cancel();
+        // Everything that was started has been cancelled
+        assertThat(client.completeOne()).isFalse();
+
+        var stats = batch.completion().toCompletableFuture().get(1, TimeUnit.MINUTES);
+        assertThat(requests.pulled).isEqualTo(2);
+        assertThat(delivered.get()).isEqualTo(0);
+        assertThat(stats.discarded()).isEqualTo(2);
+        assertThat(client.cancelled()).isEqualTo(2);
+    }
+
+    @Test
+    void failingListenerCancelsTheBatch() {
+        var client = new ManualHttpClient();
+        var requests = new CountingRequests(100);
+
+        var batch = BatchExecution.withListener(client, requests, 2, result -> {
+            throw new IllegalStateException("Listener broke");
+        }).start();
+        while (client.completeOne()) {
+            // Drain everything that was started
+        }
+
+        assertThat(batch.isCancelled()).isTrue();
+        assertThat(requests.pulled).isEqualTo(2);
+        assertThat(batch.completion().toCompletableFuture().isCompletedExceptionally()).isTrue();
+    }
+
+    @Test
+    void publisherOnlyStartsRequestsWithinDemand() {
+        var client = new ManualHttpClient();
+        var requests = new CountingRequests(100);
+        var received = new ArrayList<HttpBatch.Result>();
+        var subscriptions = new ArrayList<Flow.Subscription>();
+
+        client.executeBatch(() -> requests, 2).subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscriptions.add(subscription);
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(HttpBatch.Result item) {
+                received.add(item);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                throw new AssertionError(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                throw new AssertionError("Completed early");
+            }
+        });
+        while (client.completeOne()) {
+            // Drain everything that was started
+        }
+
+        // One delivered, two waiting for demand
+        assertThat(received).hasSize(1);
+        assertThat(requests.pulled).isEqualTo(3);
+        subscriptions.get(0).cancel();
+        assertThat(client.closedBodies()).isEqualTo(2);
+        assertThat(List.copyOf(received).get(0).response()).isNotNull();
+    }
+}
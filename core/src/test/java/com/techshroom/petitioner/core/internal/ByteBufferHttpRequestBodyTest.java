@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal;
+
+import com.techshroom.petitioner.core.HttpContentType;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class ByteBufferHttpRequestBodyTest {
+    @Test
+    void concurrentCallersClaimDisjointPackets() throws Exception {
+        int packetSize = 16;
+        int packets = 10_000;
+        var content = ByteBuffer.allocate(packetSize * packets);
+        for (int i = 0; i < packets; i++) {
+            content.putInt(i * packetSize, i);
+        }
+        var session = new ByteBufferHttpRequestBody(content, new HttpContentType("application/octet-stream", null))
+            .openReadSession(packetSize);
+
+        int callerCount = 8;
+        var start = new CountDownLatch(1);
+        var callers = Executors.newFixedThreadPool(callerCount);
+        try {
+            var results = new ArrayList<Future<List<ByteBuffer>>>();
+            for (int i = 0; i < callerCount; i++) {
+                results.add(callers.submit(() -> {
+                    start.await();
+                    var mine = new ArrayList<ByteBuffer>();
+                    ByteBuffer packet;
+                    while ((packet = session.readNextPacket().toCompletableFuture().join()).hasRemaining()) {
+                        mine.add(packet);
+                    }
+                    return mine;
+                }));
+            }
+            start.countDown();
+
+            var seen = new BitSet(packets);
+            for (var result : results) {
+                for (var packet : result.get(1, TimeUnit.MINUTES)) {
+                    assertThat(packet.remaining()).isEqualTo(packetSize);
+                    int index = packet.getInt(packet.position());
+                    assertThat(seen.get(index)).isFalse();
+                    seen.set(index);
+                }
+            }
+            assertThat(seen.cardinality()).isEqualTo(packets);
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal;
+
+import com.techshroom.petitioner.core.HttpBufferSizing;
+import com.techshroom.petitioner.core.internal.buffer.BufferPool;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousByteChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.ReadPendingException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class ByteChannelReadSessionTest {
+    private static final int PACKETS = 10_000;
+    private static final int CALLERS = 8;
+
+    private final ExecutorService ioThread = Executors.newSingleThreadExecutor();
+    private final BufferPool bufferPool = new BufferPool(true);
+
+    @AfterEach
+    void shutdown() {
+        ioThread.shutdownNow();
+    }
+
+    private ByteChannelReadSession newSession(boolean zeroCopy) {
+        return new ByteChannelReadSession(
+            new CountingChannel(ioThread, PACKETS), bufferPool, HttpBufferSizing.defaults(), zeroCopy
+        );
+    }
+
+    @Test
+    void concurrentCallersEachGetDistinctPackets() throws Exception {
+        stressConcurrentCallers(false);
+    }
+
+    @Test
+    void concurrentZeroCopyCallersEachGetDistinctPackets() throws Exception {
+        stressConcurrentCallers(true);
+    }
+
+    private void stressConcurrentCallers(boolean zeroCopy) throws Exception {
+        var session = newSession(zeroCopy);
+        var start = new CountDownLatch(1);
+        var callers = Executors.newFixedThreadPool(CALLERS);
+        try {
+            var reads = new ArrayList<Future<List<CompletableFuture<ByteBuffer>>>>();
+            for (int i = 0; i < CALLERS; i++) {
+                reads.add(callers.submit(() -> {
+                    start.await();
+                    var mine = new ArrayList<CompletableFuture<ByteBuffer>>();
+                    for (int j = 0; j < PACKETS / CALLERS + 1; j++) {
+                        mine.add(session.readNextPacket().toCompletableFuture());
+                    }
+                    return mine;
+                }));
+            }
+            start.countDown();
+
+            var seen = new BitSet(PACKETS);
+            int empty = 0;
+            for (var callerReads : reads) {
+                for (var read : callerReads.get(1, TimeUnit.MINUTES)) {
+                    var packet = read.get(1, TimeUnit.MINUTES);
+                    if (!packet.hasRemaining()) {
+                        empty++;
+                        continue;
+                    }
+                    int counter = packet.getInt(packet.position());
+                    assertThat(seen.get(counter)).isFalse();
+                    seen.set(counter);
+                    session.release(packet);
+                }
+            }
+            assertThat(seen.cardinality()).isEqualTo(PACKETS);
+            assertThat(empty).isEqualTo(CALLERS * (PACKETS / CALLERS + 1) - PACKETS);
+        } finally {
+            callers.shutdownNow();
+            session.close();
+        }
+        // Closing hands the last chunk back once the queue drains
+        session.readNextPacket().toCompletableFuture().get(1, TimeUnit.MINUTES);
+        assertThat(bufferPool.unreleased()).isEmpty();
+    }
+
+    @Test
+    void readingFromTheIoThreadDoesNotDeadlock() throws Exception {
+        var session = newSession(false);
+        // With a single I/O thread, waiting for the first read there would stop it from ever completing
+        var second = CompletableFuture.supplyAsync(() -> {
+            session.readNextPacket();
+            return session.readNextPacket();
+        }, ioThread).thenCompose(read -> read);
+
+        var packet = second.get(1, TimeUnit.MINUTES);
+        assertThat(packet.getInt(packet.position())).isEqualTo(1);
+        session.close();
+    }
+
+    /**
+     * Fills each read with the next counter value, completing on a single I/O thread.
+     */
+    private static final class CountingChannel implements AsynchronousByteChannel {
+        private final ExecutorService ioThread;
+        private final int limit;
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicBoolean reading = new AtomicBoolean();
+        private volatile boolean open = true;
+
+        private CountingChannel(ExecutorService ioThread, int limit) {
+            this.ioThread = ioThread;
+            this.limit = limit;
+        }
+
+        @Override
+        public <A> void read(ByteBuffer dst, A attachment, CompletionHandler<Integer, ? super A> handler) {
+            if (!reading.compareAndSet(false, true)) {
+                throw new ReadPendingException();
+            }
+            ioThread.execute(() -> {
+                int counter = next.getAndIncrement();
+                reading.set(false);
+                if (counter >= limit || !open) {
+                    handler.completed(-1, attachment);
+                    return;
+                }
+                dst.putInt(counter);
+                handler.completed(Integer.BYTES, attachment);
+            });
+        }
+
+        @Override
+        public Future<Integer> read(ByteBuffer dst) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <A> void write(ByteBuffer src, A attachment, CompletionHandler<Integer, ? super A> handler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Future<Integer> write(ByteBuffer src) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+}
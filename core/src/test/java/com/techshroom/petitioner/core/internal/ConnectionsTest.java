@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.techshroom.petitioner.core.internal;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class ConnectionsTest {
+    @Test
+    void hostKeysIncludeDefaultPorts() {
+        assertThat(Connections.hostKey(URI.create("http://example.com/a"))).isEqualTo("example.com:80");
+        assertThat(Connections.hostKey(URI.create("https://example.com/a"))).isEqualTo("example.com:443");
+        assertThat(Connections.hostKey(URI.create("http://example.com:8080/a"))).isEqualTo("example.com:8080");
+    }
+}
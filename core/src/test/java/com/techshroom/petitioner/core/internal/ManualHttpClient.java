@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal;
+
+import com.techshroom.petitioner.core.HttpClient;
+import com.techshroom.petitioner.core.HttpContentType;
+import com.techshroom.petitioner.core.HttpHeaderMap;
+import com.techshroom.petitioner.core.HttpRequest;
+import com.techshroom.petitioner.core.HttpResponse;
+import com.techshroom.petitioner.core.io.ReadSession;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A client whose requests complete only when the test says so.
+ */
+public final class ManualHttpClient implements HttpClient {
+    private final LinkedBlockingDeque<CompletableFuture<HttpResponse>> pending = new LinkedBlockingDeque<>();
+    private final List<HttpRequest> requests = new CopyOnWriteArrayList<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final AtomicInteger closedBodies = new AtomicInteger();
+    private final AtomicInteger cancelled = new AtomicInteger();
+
+    @Override
+    public CompletionStage<HttpResponse> executeAsync(HttpRequest request) {
+        requests.add(request);
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        var future = new CompletableFuture<HttpResponse>();
+        pending.add(future);
+        future.whenComplete((response, ex) -> {
+            if (future.isCancelled() && pending.remove(future)) {
+                inFlight.decrementAndGet();
+                cancelled.incrementAndGet();
+            }
+        });
+        return future;
+    }
+
+    /**
+     * {@return every request executed so far}
+     */
+    public List<HttpRequest> requests() {
+        return requests;
+    }
+
+    /**
+     * {@return the most requests that were in flight at once}
+     */
+    public int maxInFlight() {
+        return maxInFlight.get();
+    }
+
+    /**
+     * {@return the number of response bodies that were closed}
+     */
+    public int closedBodies() {
+        return closedBodies.get();
+    }
+
+    /**
+     * {@return the number of pending requests that were cancelled}
+     */
+    public int cancelled() {
+        return cancelled.get();
+    }
+
+    /**
+     * Wait for a number of requests to be executed, failing if it takes too long.
+     *
+     * @param count the number of requests
+     */
+    public void awaitRequests(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        while (requests.size() < count) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Only " + requests.size() + " of " + count + " requests were executed");
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * {@return a response with an empty body that counts when it's closed}
+     *
+     * @param statusCode the status code
+     */
+    public HttpResponse response(int statusCode) {
+        return response(statusCode, HttpHeaderMap.empty());
+    }
+
+    /**
+     * {@return a response with an empty body that counts when it's closed}
+     *
+     * @param statusCode the status code
+     * @param headers the headers
+     */
+    public HttpResponse response(int statusCode, HttpHeaderMap headers) {
+        return new HttpResponse(statusCode, "Status " + statusCode, headers, new ReadSessionHttpResponseBody(
+            OptionalLong.of(0), HttpContentType.of("text/plain", null), new ReadSession() {
+            @Override
+            public CompletionStage<ByteBuffer> readNextPacket() {
+                return CompletableFuture.completedFuture(ByteBuffer.allocate(0));
+            }
+
+            @Override
+            public void close() {
+                closedBodies.incrementAndGet();
+            }
+        }));
+    }
+
+    /**
+     * Complete the oldest pending request with a 200 response, if any.
+     *
+     * @return {@code true} if there was a pending request
+     */
+    public boolean completeOne() {
+        return completeOldest(response(200));
+    }
+
+    /**
+     * Complete the oldest pending request, if any. Cancelled requests are no longer pending.
+     *
+     * @param response the response
+     * @return {@code true} if there was a pending request
+     */
+    public boolean completeOldest(HttpResponse response) {
+        var future = pending.pollFirst();
+        if (future == null) {
+            return false;
+        }
+        inFlight.decrementAndGet();
+        future.complete(response);
+        return true;
+    }
+
+    /**
+     * Complete the newest pending request, if any.
+     *
+     * @param response the response
+     * @return {@code true} if there was a pending request
+     */
+    public boolean completeNewest(HttpResponse response) {
+        var future = pending.pollLast();
+        if (future == null) {
+            return false;
+        }
+        inFlight.decrementAndGet();
+        future.complete(response);
+        return true;
+    }
+
+    /**
+     * Fail the oldest pending request, if any.
+     *
+     * @param ex the failure
+     * @return {@code true} if there was a pending request
+     */
+    public boolean failOldest(Throwable ex) {
+        var future = pending.pollFirst();
+        if (future == null) {
+            return false;
+        }
+        inFlight.decrementAndGet();
+        future.completeExceptionally(ex);
+        return true;
+    }
+
+    @Override
+    public void close() {
+    }
+}
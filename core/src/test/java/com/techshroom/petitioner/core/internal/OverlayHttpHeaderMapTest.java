@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal;
+
+import com.techshroom.petitioner.core.HttpHeaderMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class OverlayHttpHeaderMapTest {
+    private static final HttpHeaderMap PARENT = HttpHeaderMap.builder()
+        .add("host", "old.example.com")
+        .add("Accept", "text/plain")
+        .add("Accept", "text/html")
+        .build();
+
+    @Test
+    void replacementsHideParentValues() {
+        var overlay = new OverlayHttpHeaderMap(PARENT, 2)
+            .with("Host", "example.com")
+            .with("Content-Length", "0");
+
+        assertThat(overlay.value("HOST")).isEqualTo("example.com");
+        assertThat(overlay.values("accept")).containsExactly("text/plain", "text/html").inOrder();
+        assertThat(overlay).containsExactly(
+            Map.entry("Accept", "text/plain"),
+            Map.entry("Accept", "text/html"),
+            Map.entry("Host", "example.com"),
+            Map.entry("Content-Length", "0")
+        ).inOrder();
+        var visited = new ArrayList<String>();
+        overlay.forEach((name, value) -> visited.add(name + "=" + value));
+        assertThat(visited).containsExactly(
+            "Accept=text/plain", "Accept=text/html", "Host=example.com", "Content-Length=0"
+        ).inOrder();
+    }
+
+    @Test
+    void siblingOverlaysDoNotShareReplacements() {
+        var base = new OverlayHttpHeaderMap(PARENT, 1);
+        var first = base.with("X-Sibling", "first");
+        var second = base.with("X-Sibling", "second");
+
+        assertThat(first.value("X-Sibling")).isEqualTo("first");
+        assertThat(second.value("X-Sibling")).isEqualTo("second");
+        assertThat(base.value("X-Sibling")).isNull();
+    }
+
+    @Test
+    void replacementsAreValidated() {
+        var overlay = new OverlayHttpHeaderMap(PARENT, 1);
+
+        assertThrows(IllegalStateException.class, () -> overlay.with("Content-Type", "text/plain\r\nX-Injected: 1"));
+        assertThrows(IllegalStateException.class, () -> overlay.with("Bad Name", "1"));
+    }
+
+    @Test
+    void overlaysBecomeHeaderMaps() {
+        var headers = new OverlayHttpHeaderMap(PARENT, 1).with("Host", "example.com").toHeaderMap();
+
+        var copy = headers.toBuilder().add("X-Extra", "1").build();
+        assertThat(copy.value("host")).isEqualTo("example.com");
+        assertThat(copy.values("Accept")).containsExactly("text/plain", "text/html").inOrder();
+        assertThat(copy.value("X-Extra")).isEqualTo("1");
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.techshroom.petitioner.core.internal;
+
+import com.techshroom.petitioner.core.HttpContentType;
+import com.techshroom.petitioner.core.io.ReadSession;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class ReadSessionTransfersTest {
+    private static final HttpContentType TYPE = HttpContentType.of("application/octet-stream", null);
+
+    private static ReadSession session(ByteBuffer content) {
+        return new ByteBufferHttpRequestBody(content, TYPE).openReadSession();
+    }
+
+    @Test
+    void declaredLengthDoesNotSizeTheBufferUpFront() throws Exception {
+        var content = StandardCharsets.UTF_8.encode("short");
+
+        var body = ReadSessionTransfers.aggregate(session(content), OptionalLong.of(1L << 30), false)
+            .toCompletableFuture().get(1, TimeUnit.MINUTES);
+
+        assertThat(StandardCharsets.UTF_8.decode(body).toString()).isEqualTo("short");
+        assertThat(body.capacity()).isAtMost(4 * 1024 * 1024);
+    }
+
+    @Test
+    void largeBodiesGrowToTheirDeclaredLength() throws Exception {
+        int length = 5 * 1024 * 1024 + 3;
+        var content = ByteBuffer.allocate(length);
+        for (int i = 0; i < length; i++) {
+            content.put(i, (byte) i);
+        }
+
+        var body = ReadSessionTransfers.aggregate(session(content), OptionalLong.of(length), false)
+            .toCompletableFuture().get(1, TimeUnit.MINUTES);
+
+        assertThat(body.remaining()).isEqualTo(length);
+        assertThat(body.capacity()).isEqualTo(length);
+        assertThat(body.get(length - 1)).isEqualTo((byte) (length - 1));
+    }
+}
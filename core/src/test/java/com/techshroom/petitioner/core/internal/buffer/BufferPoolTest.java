@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.techshroom.petitioner.core.internal.buffer;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class BufferPoolTest {
+    @Test
+    void sizesRoundUpToTheirClass() {
+        var pool = new BufferPool(false);
+
+        var tiny = pool.acquireHeap(1);
+        assertThat(tiny.capacity()).isEqualTo(BufferPool.MIN_POOLED_SIZE);
+        assertThat(tiny.limit()).isEqualTo(1);
+        assertThat(tiny.position()).isEqualTo(0);
+        assertThat(pool.acquireHeap(257).capacity()).isEqualTo(512);
+        assertThat(pool.acquireHeap(1024).capacity()).isEqualTo(1024);
+        assertThat(pool.acquireHeap(BufferPool.MAX_POOLED_SIZE).capacity()).isEqualTo(BufferPool.MAX_POOLED_SIZE);
+        var direct = pool.acquireDirect(1000);
+        assertThat(direct.isDirect()).isTrue();
+        assertThat(direct.capacity()).isEqualTo(1024);
+    }
+
+    @Test
+    void releasedBuffersAreReusedCleared() {
+        var pool = new BufferPool(false);
+        var buffer = pool.acquireHeap(300);
+        buffer.put((byte) 1);
+        pool.release(buffer);
+
+        var reused = pool.acquireHeap(400);
+        assertThat(reused).isSameInstanceAs(buffer);
+        assertThat(reused.position()).isEqualTo(0);
+        assertThat(reused.limit()).isEqualTo(400);
+        // Arenas are separate
+        assertThat(pool.acquireDirect(300)).isNotSameInstanceAs(buffer);
+    }
+
+    @Test
+    void buffersOverTheLargestClassAreNotPooled() {
+        var pool = new BufferPool(false);
+        int size = BufferPool.MAX_POOLED_SIZE + 1;
+        var buffer = pool.acquireHeap(size);
+        assertThat(buffer.capacity()).isEqualTo(size);
+        pool.release(buffer);
+
+        assertThat(pool.acquireHeap(size)).isNotSameInstanceAs(buffer);
+    }
+
+    @Test
+    void foreignBuffersWithOddCapacitiesAreDropped() {
+        var pool = new BufferPool(false);
+        var odd = ByteBuffer.allocate(300);
+        var small = ByteBuffer.allocate(128);
+        pool.release(odd);
+        pool.release(small);
+
+        assertThat(pool.acquireHeap(300)).isNotSameInstanceAs(odd);
+        assertThat(pool.acquireHeap(128)).isNotSameInstanceAs(small);
+    }
+
+    @Test
+    void threadCachesSpillToTheSharedQueue() throws Exception {
+        var pool = new BufferPool(false);
+        var released = new ArrayList<ByteBuffer>();
+        // One more than a thread keeps for itself
+        for (int i = 0; i < 9; i++) {
+            released.add(pool.acquireHeap(256));
+        }
+        released.forEach(pool::release);
+
+        var executor = Executors.newSingleThreadExecutor();
+        try {
+            var fromOtherThread = CompletableFuture.supplyAsync(() -> pool.acquireHeap(256), executor)
+                .get(1, TimeUnit.MINUTES);
+            // The last release didn't fit in this thread's cache, so another thread can have it
+            assertThat(fromOtherThread).isSameInstanceAs(released.get(8));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void largeClassesSkipTheThreadCache() throws Exception {
+        var pool = new BufferPool(false);
+        var buffer = pool.acquireDirect(BufferPool.MAX_POOLED_SIZE);
+        pool.release(buffer);
+
+        var executor = Executors.newSingleThreadExecutor();
+        try {
+            var fromOtherThread = CompletableFuture.supplyAsync(
+                () -> pool.acquireDirect(BufferPool.MAX_POOLED_SIZE), executor
+            ).get(1, TimeUnit.MINUTES);
+            assertThat(fromOtherThread).isSameInstanceAs(buffer);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void leakDetectionReportsUnreleasedBuffers() {
+        var pool = new BufferPool(true);
+        var buffer = pool.acquireHeap(10);
+
+        assertThat(pool.unreleased()).hasSize(1);
+        assertThat(pool.unreleased().get(0)).hasMessageThat().isEqualTo("Buffer of size 10 acquired here");
+        pool.release(buffer);
+        assertThat(pool.unreleased()).isEmpty();
+    }
+
+    @Test
+    void leakDetectionRejectsDoubleAndForeignReleases() {
+        var pool = new BufferPool(true);
+        var buffer = pool.acquireHeap(10);
+        pool.release(buffer);
+
+        assertThrows(IllegalStateException.class, () -> pool.release(buffer));
+        assertThrows(IllegalStateException.class, () -> pool.release(ByteBuffer.allocate(256)));
+        assertThat(pool.unreleased()).isEmpty();
+    }
+}
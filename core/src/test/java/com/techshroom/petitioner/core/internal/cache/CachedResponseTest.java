@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.cache;
+
+import com.techshroom.petitioner.core.HttpContentType;
+import com.techshroom.petitioner.core.HttpHeaderMap;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Map;
+import java.util.OptionalLong;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class CachedResponseTest {
+    private static final long NOW = 1_700_000_000_000L;
+    private static final String NOW_DATE = "Tue, 14 Nov 2023 22:13:20 GMT";
+
+    private static CachedResponse entry(String... headers) {
+        var headerMap = HttpHeaderMap.builder();
+        for (int i = 0; i < headers.length; i += 2) {
+            headerMap.add(headers[i], headers[i + 1]);
+        }
+        return new CachedResponse(
+            200, "OK", headerMap.build(), new HttpContentType("text/plain", null), ByteBuffer.allocate(0),
+            Map.of(), NOW, NOW
+        );
+    }
+
+    @Test
+    void maxAgeWinsOverExpires() {
+        var response = entry("Cache-Control", "max-age=10", "Expires", "Tue, 14 Nov 2023 23:13:20 GMT");
+
+        assertThat(response.freshnessLifetimeMillis()).isEqualTo(10_000);
+    }
+
+    @Test
+    void expiresIsRelativeToDate() {
+        var response = entry("Date", NOW_DATE, "Expires", "Tue, 14 Nov 2023 22:14:20 GMT");
+
+        assertThat(response.freshnessLifetimeMillis()).isEqualTo(60_000);
+        assertThat(entry("Expires", "0").freshnessLifetimeMillis()).isEqualTo(0);
+    }
+
+    @Test
+    void lastModifiedGivesAHeuristicLifetime() {
+        var response = entry("Date", NOW_DATE, "Last-Modified", "Tue, 14 Nov 2023 21:13:20 GMT");
+
+        assertThat(response.freshnessLifetimeMillis()).isEqualTo(Duration.ofMinutes(6).toMillis());
+    }
+
+    @Test
+    void ageIncludesTheAgeHeaderAndTimeInTheCache() {
+        var response = entry("Date", NOW_DATE, "Age", "30", "Cache-Control", "max-age=60");
+
+        assertThat(response.currentAgeMillis(NOW + 20_000)).isEqualTo(50_000);
+        assertThat(response.isFresh(CacheControl.parse(HttpHeaderMap.empty()), NOW + 20_000)).isTrue();
+        assertThat(response.isFresh(CacheControl.parse(HttpHeaderMap.empty()), NOW + 40_000)).isFalse();
+    }
+
+    @Test
+    void requestDirectivesCanDemandFresherResponses() {
+        var response = entry("Cache-Control", "max-age=60");
+        var requestMaxAge = CacheControl.parse(HttpHeaderMap.builder().add("Cache-Control", "max-age=5").build());
+        var requestNoCache = CacheControl.parse(HttpHeaderMap.builder().add("Cache-Control", "no-cache").build());
+
+        assertThat(requestMaxAge.maxAge()).isEqualTo(OptionalLong.of(5));
+        assertThat(response.isFresh(requestMaxAge, NOW + 10_000)).isFalse();
+        assertThat(response.isFresh(requestNoCache, NOW)).isFalse();
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.cache;
+
+import com.techshroom.petitioner.core.HttpContentType;
+import com.techshroom.petitioner.core.HttpHeaderMap;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class DiskCacheStoreTest {
+    private Path directory;
+
+    @BeforeEach
+    void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("petitioner-cache");
+    }
+
+    @AfterEach
+    void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (var file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private static CachedResponse entry(String body) {
+        return new CachedResponse(
+            200, "OK", HttpHeaderMap.builder().add("ETag", "\"1\"").add("Vary", "Accept").build(),
+            new HttpContentType("text/plain", "UTF-8"), ByteBuffer.wrap(body.getBytes(StandardCharsets.UTF_8)),
+            Map.of("accept", List.of("text/plain")), 1000, 2000
+        );
+    }
+
+    private static String body(CachedResponse response) {
+        var body = response.body().duplicate();
+        var bytes = new byte[body.remaining()];
+        body.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Wait for the record of a key to be written, since writes are asynchronous.
+     */
+    private static CachedResponse awaitEntry(DiskCacheStore store, String key) throws InterruptedException {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (System.nanoTime() < deadline) {
+            var response = store.get(key);
+            if (response != null) {
+                return response;
+            }
+            Thread.sleep(5);
+        }
+        throw new AssertionError("Entry for " + key + " was never written");
+    }
+
+    private static void awaitWrites(DiskCacheStore store) throws InterruptedException {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (store.writesInFlight() > 0) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Writes never finished");
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    void servesBodiesMappedFromTheSegment() throws Exception {
+        try (var store = DiskCacheStore.open(directory, 1 << 20)) {
+            store.put("a", entry("alpha"));
+
+            var response = awaitEntry(store, "a");
+            assertThat(body(response)).isEqualTo("alpha");
+            assertThat(response.body()).isInstanceOf(MappedByteBuffer.class);
+            assertThat(response.body().isReadOnly()).isTrue();
+            assertThat(response.headers().value("ETag")).isEqualTo("\"1\"");
+            assertThat(response.contentType()).isEqualTo(new HttpContentType("text/plain", "UTF-8"));
+            assertThat(response.varyValues()).isEqualTo(Map.of("accept", List.of("text/plain")));
+            assertThat(response.responseTimeMillis()).isEqualTo(2000);
+        }
+    }
+
+    @Test
+    void entriesSurviveReopening() throws Exception {
+        try (var store = DiskCacheStore.open(directory, 1 << 20)) {
+            store.put("a", entry("alpha"));
+            store.put("b", entry("beta"));
+            awaitEntry(store, "a");
+            awaitEntry(store, "b");
+            store.put("a", entry("alpha, again"));
+            awaitEntry(store, "a");
+            store.remove("b");
+            assertThat(store.get("b")).isNull();
+            awaitWrites(store);
+        }
+
+        try (var store = DiskCacheStore.open(directory, 1 << 20)) {
+            assertThat(store.entryCount()).isEqualTo(1);
+            // Recovered bodies are checked in the background before they're served
+            assertThat(store.get("a")).isNull();
+            assertThat(body(awaitEntry(store, "a"))).isEqualTo("alpha, again");
+            assertThat(store.get("b")).isNull();
+        }
+    }
+
+    @Test
+    void recoveryDropsATornRecord() throws Exception {
+        try (var store = DiskCacheStore.open(directory, 1 << 20)) {
+            store.put("a", entry("alpha"));
+            awaitEntry(store, "a");
+            store.put("b", entry("beta"));
+            awaitEntry(store, "b");
+        }
+        var segment = directory.resolve("segment-00000000.dat");
+        long intactSize = Files.size(segment);
+        try (var channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            // Cut the last record short, as a crash in the middle of a write would
+            channel.truncate(intactSize - 2);
+        }
+
+        try (var store = DiskCacheStore.open(directory, 1 << 20)) {
+            assertThat(body(awaitEntry(store, "a"))).isEqualTo("alpha");
+            assertThat(store.get("b")).isNull();
+            assertThat(store.entryCount()).isEqualTo(1);
+            store.put("c", entry("gamma"));
+            assertThat(body(awaitEntry(store, "c"))).isEqualTo("gamma");
+            awaitWrites(store);
+        }
+        try (var store = DiskCacheStore.open(directory, 1 << 20)) {
+            assertThat(body(awaitEntry(store, "a"))).isEqualTo("alpha");
+            assertThat(body(awaitEntry(store, "c"))).isEqualTo("gamma");
+        }
+    }
+
+    @Test
+    void corruptBodiesAreNotServed() throws Exception {
+        try (var store = DiskCacheStore.open(directory, 1 << 20)) {
+            store.put("a", entry("alpha"));
+            awaitEntry(store, "a");
+        }
+        var segment = directory.resolve("segment-00000000.dat");
+        try (var channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {'X'}), Files.size(segment) - 1);
+        }
+
+        try (var store = DiskCacheStore.open(directory, 1 << 20)) {
+            assertThat(store.get("a")).isNull();
+            long deadline = System.nanoTime() + 10_000_000_000L;
+            while (store.entryCount() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertThat(store.entryCount()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    void evictsTheOldestSegmentsPastTheSizeBound() throws Exception {
+        var body = "x".repeat(300);
+        try (var store = DiskCacheStore.open(directory, 4096)) {
+            for (int i = 0; i < 40; i++) {
+                store.put("k" + i, entry(body));
+                awaitEntry(store, "k" + i);
+            }
+
+            assertThat(store.sizeBytes()).isAtMost(4096);
+            assertThat(store.evictions()).isGreaterThan(0);
+            assertThat(store.get("k0")).isNull();
+            assertThat(body(store.get("k39"))).isEqualTo(body);
+            assertThat(store.entryCount()).isEqualTo(40 - store.evictions());
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            long total = 0;
+            for (var file : files.toList()) {
+                total += Files.size(file);
+            }
+            assertThat(total).isAtMost(4096);
+        }
+    }
+
+    @Test
+    void aDirectoryHasOneStoreAtATime() throws Exception {
+        try (var store = DiskCacheStore.open(directory, 1 << 20)) {
+            assertThrows(IOException.class, () -> DiskCacheStore.open(directory, 1 << 20));
+        }
+        // Closing releases the directory
+        DiskCacheStore.open(directory, 1 << 20).close();
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.client;
+
+import com.techshroom.petitioner.core.HttpConcurrencyLimitExceededException;
+import com.techshroom.petitioner.core.HttpConcurrencyLimiter;
+import com.techshroom.petitioner.core.HttpConcurrencyLimits;
+import com.techshroom.petitioner.core.HttpPriority;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class AdaptiveLimiterTest {
+    private static final String HOST = "petitioner.octyl.net:80";
+
+    private static HttpConcurrencyLimiter.HostSnapshot snapshot(AdaptiveLimiter limiter) {
+        return limiter.snapshot().get(0);
+    }
+
+    @Test
+    void queuesOverTheLimitAndRejectsWhenFull() throws Exception {
+        var limiter = new AdaptiveLimiter(HttpConcurrencyLimits.defaults().withInitialLimit(2).withMaxQueued(1));
+
+        var first = limiter.acquire(HOST, HttpPriority.NORMAL).join();
+        limiter.acquire(HOST, HttpPriority.NORMAL).join();
+        var queued = limiter.acquire(HOST, HttpPriority.NORMAL);
+        var rejected = limiter.acquire(HOST, HttpPriority.NORMAL);
+
+        assertThat(queued.isDone()).isFalse();
+        var ex = assertThrows(ExecutionException.class, rejected::get);
+        assertThat(ex.getCause()).isInstanceOf(HttpConcurrencyLimitExceededException.class);
+        assertThat(snapshot(limiter).queued()).isEqualTo(1);
+
+        first.release(AdaptiveLimiter.Outcome.IGNORED, 0);
+        assertThat(queued.isDone()).isTrue();
+        assertThat(snapshot(limiter).inFlight()).isEqualTo(2);
+    }
+
+    @Test
+    void cancelledWaitersLeaveTheQueue() throws Exception {
+        var limiter = new AdaptiveLimiter(HttpConcurrencyLimits.defaults().withInitialLimit(1).withMaxQueued(1));
+
+        var first = limiter.acquire(HOST, HttpPriority.NORMAL).join();
+        limiter.acquire(HOST, HttpPriority.NORMAL).cancel(false);
+        assertThat(snapshot(limiter).queued()).isEqualTo(0);
+
+        // The cancelled waiter doesn't take the only place in the queue
+        var queued = limiter.acquire(HOST, HttpPriority.NORMAL);
+        assertThat(queued.isDone()).isFalse();
+        first.release(AdaptiveLimiter.Outcome.IGNORED, 0);
+        assertThat(queued.isDone()).isTrue();
+        assertThat(snapshot(limiter).inFlight()).isEqualTo(1);
+    }
+
+    @Test
+    void increasesWhileTheLimitIsUsed() {
+        var limiter = new AdaptiveLimiter(HttpConcurrencyLimits.defaults().withInitialLimit(2));
+
+        for (int i = 0; i < 10; i++) {
+            var first = limiter.acquire(HOST, HttpPriority.NORMAL).join();
+            var second = limiter.acquire(HOST, HttpPriority.NORMAL).join();
+            first.release(AdaptiveLimiter.Outcome.RESPONDED, 1000);
+            second.release(AdaptiveLimiter.Outcome.RESPONDED, 1000);
+        }
+
+        assertThat(snapshot(limiter).limit()).isGreaterThan(2);
+    }
+
+    @Test
+    void doesNotIncreaseWhileIdle() {
+        var limiter = new AdaptiveLimiter(HttpConcurrencyLimits.defaults().withInitialLimit(10));
+
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire(HOST, HttpPriority.NORMAL).join().release(AdaptiveLimiter.Outcome.RESPONDED, 1000);
+        }
+
+        assertThat(snapshot(limiter).limit()).isEqualTo(10);
+    }
+
+    @Test
+    void backsOffOnDrops() {
+        var limiter = new AdaptiveLimiter(HttpConcurrencyLimits.defaults().withInitialLimit(10));
+
+        limiter.acquire(HOST, HttpPriority.NORMAL).join().release(AdaptiveLimiter.Outcome.DROPPED, 1_000_000);
+        assertThat(snapshot(limiter).limit()).isEqualTo(9);
+        // Within the same round trip, so it's part of the same overload
+        limiter.acquire(HOST, HttpPriority.NORMAL).join().release(AdaptiveLimiter.Outcome.DROPPED, 1_000_000_000);
+        assertThat(snapshot(limiter).limit()).isEqualTo(9);
+
+        var history = snapshot(limiter).history();
+        assertThat(history).hasSize(2);
+        assertThat(history.get(0).limit()).isEqualTo(10);
+        assertThat(history.get(1).limit()).isEqualTo(9);
+    }
+
+    @Test
+    void backsOffOnSlowResponses() {
+        var limiter = new AdaptiveLimiter(HttpConcurrencyLimits.defaults().withInitialLimit(10));
+
+        limiter.acquire(HOST, HttpPriority.NORMAL).join().release(AdaptiveLimiter.Outcome.RESPONDED, 1000);
+        limiter.acquire(HOST, HttpPriority.NORMAL).join().release(AdaptiveLimiter.Outcome.RESPONDED, 1_000_000);
+
+        assertThat(snapshot(limiter).limit()).isEqualTo(9);
+    }
+
+    @Test
+    void forgetsIdleHosts() {
+        // Every acquire sweeps, and any host without permits or waiters counts as idle
+        var limiter = new AdaptiveLimiter(HttpConcurrencyLimits.defaults(), Duration.ZERO);
+
+        limiter.acquire("idle:80", HttpPriority.NORMAL).join().release(AdaptiveLimiter.Outcome.IGNORED, 0);
+        var held = limiter.acquire("busy:80", HttpPriority.NORMAL).join();
+        limiter.acquire(HOST, HttpPriority.NORMAL).join();
+
+        var hosts = limiter.snapshot().stream().map(HttpConcurrencyLimiter.HostSnapshot::host).toList();
+        assertThat(hosts).containsExactly("busy:80", HOST);
+
+        held.release(AdaptiveLimiter.Outcome.IGNORED, 0);
+        limiter.acquire("other:80", HttpPriority.NORMAL).join();
+        hosts = limiter.snapshot().stream().map(HttpConcurrencyLimiter.HostSnapshot::host).toList();
+        assertThat(hosts).containsExactly(HOST, "other:80");
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.client;
+
+import com.techshroom.petitioner.core.HttpCacheStats;
+import com.techshroom.petitioner.core.HttpContentType;
+import com.techshroom.petitioner.core.HttpHeaderMap;
+import com.techshroom.petitioner.core.HttpRequest;
+import com.techshroom.petitioner.core.HttpRequestBody;
+import com.techshroom.petitioner.core.HttpResponse;
+import com.techshroom.petitioner.core.internal.ByteBufferHttpRequestBody;
+import com.techshroom.petitioner.core.internal.ManualHttpClient;
+import com.techshroom.petitioner.core.internal.ReadSessionHttpResponseBody;
+import com.techshroom.petitioner.core.internal.cache.MemoryCacheStore;
+import com.techshroom.petitioner.core.internal.cache.ResponseCache;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class CachingHttpClientTest {
+    private static final String URI = "http://petitioner.octyl.net/cached";
+
+    private final ManualHttpClient delegate = new ManualHttpClient();
+    private final ResponseCache cache = new ResponseCache(new MemoryCacheStore(1 << 20));
+    private final CachingHttpClient client = new CachingHttpClient(delegate, cache);
+
+    private static HttpResponse response(int statusCode, String body, String... headers) {
+        var headerMap = HttpHeaderMap.builder();
+        for (int i = 0; i < headers.length; i += 2) {
+            headerMap.add(headers[i], headers[i + 1]);
+        }
+        var type = HttpContentType.of("text/plain", StandardCharsets.UTF_8);
+        var content = StandardCharsets.UTF_8.encode(body);
+        return new HttpResponse(statusCode, "Status " + statusCode, headerMap.build(), new ReadSessionHttpResponseBody(
+            OptionalLong.of(content.remaining()), type, new ByteBufferHttpRequestBody(content, type).openReadSession()
+        ));
+    }
+
+    private String fetch(HttpRequest request, HttpResponse fromServer) throws Exception {
+        var future = client.executeAsync(request).toCompletableFuture();
+        if (!future.isDone()) {
+            delegate.completeOldest(fromServer);
+        }
+        var response = future.get(1, TimeUnit.MINUTES);
+        assertThat(response.body()).isNotNull();
+        return response.body().string();
+    }
+
+    @Test
+    void freshResponsesAreServedFromTheCache() throws Exception {
+        assertThat(fetch(HttpRequest.get(URI), response(200, "stored", "Cache-Control", "max-age=60")))
+            .isEqualTo("stored");
+
+        var cached = client.executeAsync(HttpRequest.get(URI)).toCompletableFuture().get(1, TimeUnit.MINUTES);
+        assertThat(cached.body().string()).isEqualTo("stored");
+        assertThat(cached.headers().value("Age")).isEqualTo("0");
+        assertThat(delegate.requests()).hasSize(1);
+        assertThat(cache.stats()).isEqualTo(new HttpCacheStats(1, 1, 0, 0, 1, cache.stats().sizeBytes()));
+    }
+
+    @Test
+    void unreadBodiesAreNotStored() throws Exception {
+        var future = client.executeAsync(HttpRequest.get(URI)).toCompletableFuture();
+        delegate.completeOldest(response(200, "unread", "Cache-Control", "max-age=60"));
+        future.get(1, TimeUnit.MINUTES).body().close();
+
+        assertThat(cache.stats().entryCount()).isEqualTo(0);
+    }
+
+    @Test
+    void truncatedBodiesAreNotStored() throws Exception {
+        var type = HttpContentType.of("text/plain", StandardCharsets.UTF_8);
+        var content = StandardCharsets.UTF_8.encode("cut short");
+        // The peer closes before the declared length arrives
+        var headers = HttpHeaderMap.builder().add("Cache-Control", "max-age=60").build();
+        var declaredLength = OptionalLong.of(content.remaining() + 100);
+        var truncated = new HttpResponse(200, "OK", headers, new ReadSessionHttpResponseBody(
+            declaredLength, type, new ByteBufferHttpRequestBody(content, type).openReadSession()
+        ));
+        fetch(HttpRequest.get(URI), truncated);
+
+        assertThat(cache.stats().entryCount()).isEqualTo(0);
+    }
+
+    @Test
+    void noStoreIsRespected() throws Exception {
+        fetch(HttpRequest.get(URI), response(200, "secret", "Cache-Control", "no-store, max-age=60"));
+        fetch(HttpRequest.get(URI), response(200, "secret"));
+
+        assertThat(delegate.requests()).hasSize(2);
+        assertThat(cache.stats().entryCount()).isEqualTo(0);
+    }
+
+    @Test
+    void staleResponsesAreRevalidated() throws Exception {
+        fetch(HttpRequest.get(URI), response(200, "validated", "Cache-Control", "no-cache", "ETag", "\"v1\""));
+
+        var notModified = delegate.response(304, HttpHeaderMap.builder().add("X-Checked", "yes").build());
+        var future = client.executeAsync(HttpRequest.get(URI)).toCompletableFuture();
+        delegate.completeOldest(notModified);
+        var response = future.get(1, TimeUnit.MINUTES);
+
+        assertThat(response.body().string()).isEqualTo("validated");
+        // The stored headers are updated from the 304
+        assertThat(response.headers().value("X-Checked")).isEqualTo("yes");
+        assertThat(delegate.requests().get(1).headers().value("If-None-Match")).isEqualTo("\"v1\"");
+        assertThat(cache.stats().revalidations()).isEqualTo(1);
+        // The 304 itself is closed instead of being handed over
+        assertThat(delegate.closedBodies()).isEqualTo(1);
+    }
+
+    @Test
+    void changedResponsesReplaceTheStoredOne() throws Exception {
+        fetch(HttpRequest.get(URI), response(200, "old", "Cache-Control", "no-cache", "ETag", "\"v1\""));
+        fetch(HttpRequest.get(URI), response(200, "new", "Cache-Control", "max-age=60", "ETag", "\"v2\""));
+
+        assertThat(fetch(HttpRequest.get(URI), response(200, "unused"))).isEqualTo("new");
+        assertThat(delegate.requests()).hasSize(2);
+    }
+
+    @Test
+    void varyingHeadersMustMatch() throws Exception {
+        var english = HttpRequest.builder().get(URI).putHeader("Accept-Language", "en").build();
+        var french = HttpRequest.builder().get(URI).putHeader("Accept-Language", "fr").build();
+        fetch(english, response(200, "hello", "Cache-Control", "max-age=60", "Vary", "Accept-Language"));
+
+        assertThat(fetch(french, response(200, "bonjour"))).isEqualTo("bonjour");
+        assertThat(delegate.requests()).hasSize(2);
+    }
+
+    @Test
+    void unsafeRequestsInvalidate() throws Exception {
+        fetch(HttpRequest.get(URI), response(200, "before", "Cache-Control", "max-age=60"));
+        fetch(HttpRequest.post(URI, HttpRequestBody.from("change", "text/plain")), response(204, ""));
+
+        assertThat(fetch(HttpRequest.get(URI), response(200, "after"))).isEqualTo("after");
+    }
+
+    @Test
+    void leastRecentlyUsedIsEvicted() throws Exception {
+        var store = new MemoryCacheStore(1000);
+        var smallClient = new CachingHttpClient(delegate, new ResponseCache(store));
+        var body = "x".repeat(300);
+        for (var path : new String[] {"/a", "/b", "/a", "/c"}) {
+            var future = smallClient.executeAsync(HttpRequest.get(URI + path)).toCompletableFuture();
+            if (!future.isDone()) {
+                delegate.completeOldest(response(200, body, "Cache-Control", "max-age=60"));
+            }
+            future.get(1, TimeUnit.MINUTES).body().string();
+        }
+
+        assertThat(store.evictions()).isEqualTo(1);
+        assertThat(store.get(ResponseCache.key(java.net.URI.create(URI + "/a")))).isNotNull();
+        assertThat(store.get(ResponseCache.key(java.net.URI.create(URI + "/b")))).isNull();
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.client;
+
+import com.techshroom.petitioner.core.HttpCoalescingPolicy;
+import com.techshroom.petitioner.core.HttpContentType;
+import com.techshroom.petitioner.core.HttpHeaderMap;
+import com.techshroom.petitioner.core.HttpRequest;
+import com.techshroom.petitioner.core.HttpRequestBody;
+import com.techshroom.petitioner.core.HttpResponse;
+import com.techshroom.petitioner.core.internal.ManualHttpClient;
+import com.techshroom.petitioner.core.internal.ReadSessionHttpResponseBody;
+import com.techshroom.petitioner.core.io.ReadSession;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class CoalescingHttpClientTest {
+    private static final String URI = "http://petitioner.octyl.net/coalesce";
+
+    private final ManualHttpClient delegate = new ManualHttpClient();
+    private final CoalescingHttpClient client = new CoalescingHttpClient(delegate, HttpCoalescingPolicy.defaults());
+
+    /**
+     * A body made of fixed packets, which counts how it's used.
+     */
+    private static final class PacketSession implements ReadSession {
+        private final ArrayDeque<ByteBuffer> packets = new ArrayDeque<>();
+        private int reads;
+        private int releases;
+        private boolean closed;
+
+        private PacketSession(String... packets) {
+            for (var packet : packets) {
+                this.packets.add(StandardCharsets.UTF_8.encode(packet));
+            }
+        }
+
+        @Override
+        public synchronized CompletionStage<ByteBuffer> readNextPacket() {
+            reads++;
+            var next = packets.poll();
+            return CompletableFuture.completedFuture(next == null ? ByteBuffer.allocate(0) : next);
+        }
+
+        @Override
+        public synchronized void release(ByteBuffer packet) {
+            releases++;
+        }
+
+        @Override
+        public synchronized void close() {
+            closed = true;
+        }
+    }
+
+    private static HttpResponse response(ReadSession body) {
+        return new HttpResponse(200, "OK", HttpHeaderMap.empty(), new ReadSessionHttpResponseBody(
+            OptionalLong.empty(), HttpContentType.of("text/plain", null), body
+        ));
+    }
+
+    @Test
+    void identicalRequestsShareOneExchange() throws Exception {
+        var first = client.executeAsync(HttpRequest.get(URI)).toCompletableFuture();
+        var second = client.executeAsync(HttpRequest.get(URI)).toCompletableFuture();
+        var third = client.executeAsync(HttpRequest.get(URI)).toCompletableFuture();
+        assertThat(delegate.requests()).hasSize(1);
+
+        var body = new PacketSession("shared ", "body");
+        delegate.completeOldest(response(body));
+
+        for (var future : List.of(first, second, third)) {
+            var response = future.get(1, TimeUnit.MINUTES);
+            assertThat(response.body()).isNotNull();
+            assertThat(response.body().string()).isEqualTo("shared body");
+        }
+        // Every packet was read from the connection once, and given back once every view was done with it
+        assertThat(body.reads).isEqualTo(3);
+        assertThat(body.releases).isEqualTo(2);
+        assertThat(body.closed).isTrue();
+    }
+
+    @Test
+    void differentKeyHeadersAreNotShared() {
+        client.executeAsync(HttpRequest.builder().get(URI).putHeader("Accept", "text/plain").build());
+        client.executeAsync(HttpRequest.builder().get(URI).putHeader("Accept", "text/html").build());
+        // Not a key header, so it doesn't matter
+        client.executeAsync(
+            HttpRequest.builder().get(URI).putHeader("Accept", "text/html").putHeader("X-Trace", "1").build()
+        );
+        client.executeAsync(HttpRequest.post(URI, HttpRequestBody.from("body", "text/plain")));
+
+        assertThat(delegate.requests()).hasSize(3);
+    }
+
+    @Test
+    void lateRequestsStartANewExchange() throws Exception {
+        var first = client.executeAsync(HttpRequest.get(URI)).toCompletableFuture();
+        delegate.completeOne();
+        first.get(1, TimeUnit.MINUTES).body().close();
+
+        client.executeAsync(HttpRequest.get(URI));
+        assertThat(delegate.requests()).hasSize(2);
+    }
+
+    @Test
+    void cancellingOneWaiterLeavesTheOthers() throws Exception {
+        var cancelled = client.executeAsync(HttpRequest.get(URI)).toCompletableFuture();
+        var kept = client.executeAsync(HttpRequest.get(URI)).toCompletableFuture();
+        cancelled.cancel(false);
+        assertThat(delegate.cancelled()).isEqualTo(0);
+
+        delegate.completeOldest(response(new PacketSession("still here")));
+        assertThat(kept.get(1, TimeUnit.MINUTES).body().string()).isEqualTo("still here");
+    }
+
+    @Test
+    void cancellingEveryWaiterCancelsTheExchange() {
+        var first = client.executeAsync(HttpRequest.get(URI)).toCompletableFuture();
+        var second = client.executeAsync(HttpRequest.get(URI)).toCompletableFuture();
+        first.cancel(false);
+        second.cancel(false);
+
+        assertThat(delegate.cancelled()).isEqualTo(1);
+        // The abandoned exchange can't be joined
+        client.executeAsync(HttpRequest.get(URI));
+        assertThat(delegate.requests()).hasSize(2);
+    }
+
+    @Test
+    void viewsReadIndependently() throws Exception {
+        var first = client.executeAsync(HttpRequest.get(URI)).toCompletableFuture();
+        var second = client.executeAsync(HttpRequest.get(URI)).toCompletableFuture();
+        var body = new PacketSession("a", "b");
+        delegate.completeOldest(response(body));
+
+        var firstSession = first.get(1, TimeUnit.MINUTES).body().readSession();
+        var secondSession = second.get(1, TimeUnit.MINUTES).body().readSession();
+        var a = firstSession.readNextPacket().toCompletableFuture().get(1, TimeUnit.MINUTES);
+        // Consuming one view's packet doesn't move the other's
+        StandardCharsets.UTF_8.decode(a);
+        var alsoA = secondSession.readNextPacket().toCompletableFuture().get(1, TimeUnit.MINUTES);
+        assertThat(StandardCharsets.UTF_8.decode(alsoA).toString()).isEqualTo("a");
+        assertThat(body.reads).isEqualTo(1);
+
+        // Closing one view gives up its share of the packets, closing both closes the source
+        firstSession.close();
+        secondSession.release(alsoA);
+        assertThat(body.releases).isEqualTo(1);
+        assertThat(body.closed).isFalse();
+        secondSession.close();
+        assertThat(body.closed).isTrue();
+    }
+}
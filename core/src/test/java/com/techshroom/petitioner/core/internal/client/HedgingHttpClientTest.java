@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.client;
+
+import com.techshroom.petitioner.core.HttpHedgePolicy;
+import com.techshroom.petitioner.core.HttpRequest;
+import com.techshroom.petitioner.core.HttpRequestBody;
+import com.techshroom.petitioner.core.internal.ManualHttpClient;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class HedgingHttpClientTest {
+    private static final String URI = "http://petitioner.octyl.net/hedge";
+
+    private final ManualHttpClient delegate = new ManualHttpClient();
+
+    @Test
+    void firstHeadWinsAndLoserIsCancelled() throws Exception {
+        var client = new HedgingHttpClient(delegate, HttpHedgePolicy.fixedDelay(Duration.ofMillis(5)).withBudget(1));
+
+        var future = client.executeAsync(HttpRequest.get(URI)).toCompletableFuture();
+        delegate.awaitRequests(2);
+        var hedgeResponse = delegate.response(200);
+        delegate.completeNewest(hedgeResponse);
+
+        assertThat(future.get(1, TimeUnit.MINUTES)).isSameInstanceAs(hedgeResponse);
+        // The first attempt lost, so it's abandoned instead of holding its connection
+        assertThat(delegate.cancelled()).isEqualTo(1);
+        assertThat(delegate.completeOne()).isFalse();
+    }
+
+    @Test
+    void unsafeMethodsAreNotHedged() throws Exception {
+        var client = new HedgingHttpClient(delegate, HttpHedgePolicy.fixedDelay(Duration.ZERO).withBudget(1));
+
+        var future = client.executeAsync(HttpRequest.post(URI, HttpRequestBody.from("body", "text/plain")))
+            .toCompletableFuture();
+        Thread.sleep(50);
+
+        assertThat(delegate.requests()).hasSize(1);
+        delegate.completeOne();
+        assertThat(future.get(1, TimeUnit.MINUTES).statusCode()).isEqualTo(200);
+    }
+
+    @Test
+    void budgetCapsHedges() throws Exception {
+        var client = new HedgingHttpClient(delegate, HttpHedgePolicy.fixedDelay(Duration.ZERO).withBudget(0.5));
+
+        // Each request earns half a hedge
+        client.executeAsync(HttpRequest.get(URI));
+        client.executeAsync(HttpRequest.get(URI));
+        client.executeAsync(HttpRequest.get(URI));
+        client.executeAsync(HttpRequest.get(URI));
+        delegate.awaitRequests(6);
+        Thread.sleep(50);
+
+        assertThat(delegate.requests()).hasSize(6);
+        while (delegate.completeOne()) {
+            // Let everything finish
+        }
+    }
+
+    @Test
+    void firstFailureIsNotHedged() {
+        var client = new HedgingHttpClient(delegate, HttpHedgePolicy.fixedDelay(Duration.ofMinutes(1)).withBudget(1));
+
+        var future = client.executeAsync(HttpRequest.get(URI)).toCompletableFuture();
+        delegate.failOldest(new IOException("Connection refused"));
+
+        var ex = assertThrows(ExecutionException.class, () -> future.get(1, TimeUnit.MINUTES));
+        assertThat(ex.getCause()).isInstanceOf(IOException.class);
+        assertThat(delegate.requests()).hasSize(1);
+    }
+
+    @Test
+    void percentileDelayFollowsLatencies() throws Exception {
+        var client = new HedgingHttpClient(
+            delegate, HttpHedgePolicy.percentile(0.5, Duration.ofMinutes(1)).withBudget(0)
+        );
+
+        for (int i = 0; i < 64; i++) {
+            client.executeAsync(HttpRequest.get(URI));
+            delegate.completeOne();
+        }
+
+        // Responses were immediate, so the delay drops from the initial minute
+        assertThat(client.delayNanos()).isLessThan(TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    void cancelledFirstAttemptsStillCountAsSlow() throws Exception {
+        var client = new HedgingHttpClient(
+            delegate, HttpHedgePolicy.percentile(0.5, Duration.ofMillis(5)).withBudget(1)
+        );
+
+        for (int i = 1; i <= 64; i++) {
+            var future = client.executeAsync(HttpRequest.get(URI)).toCompletableFuture();
+            delegate.awaitRequests(2 * i);
+            // The hedge wins well after the first attempt started
+            Thread.sleep(20);
+            delegate.completeNewest(delegate.response(200));
+            future.get(1, TimeUnit.MINUTES);
+        }
+
+        // Every first attempt lost after at least 25ms, so the delay rises from its initial 5ms
+        assertThat(client.delayNanos()).isAtLeast(TimeUnit.MILLISECONDS.toNanos(20));
+    }
+
+    @Test
+    void callerCancellationsAreNotSampled() throws Exception {
+        var client = new HedgingHttpClient(
+            delegate, HttpHedgePolicy.percentile(0.5, Duration.ofMinutes(1)).withBudget(1)
+        );
+
+        for (int i = 1; i <= 64; i++) {
+            var future = client.executeAsync(HttpRequest.get(URI)).toCompletableFuture();
+            delegate.awaitRequests(i);
+            future.cancel(false);
+        }
+
+        // Quick cancellations would have pulled the delay far below a minute
+        assertThat(delegate.cancelled()).isEqualTo(64);
+        assertThat(client.delayNanos()).isEqualTo(TimeUnit.MINUTES.toNanos(1));
+    }
+}
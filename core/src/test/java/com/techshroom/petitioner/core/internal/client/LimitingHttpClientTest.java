@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.client;
+
+import com.techshroom.petitioner.core.HttpConcurrencyLimits;
+import com.techshroom.petitioner.core.HttpRequest;
+import com.techshroom.petitioner.core.internal.ManualHttpClient;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class LimitingHttpClientTest {
+    @Test
+    void requestsWaitForTheirHost() throws Exception {
+        var delegate = new ManualHttpClient();
+        var limiter = new AdaptiveLimiter(HttpConcurrencyLimits.defaults().withInitialLimit(1));
+        var client = new LimitingHttpClient(delegate, limiter);
+
+        var first = client.executeAsync(HttpRequest.get("http://petitioner.octyl.net/1")).toCompletableFuture();
+        var second = client.executeAsync(HttpRequest.get("http://petitioner.octyl.net/2")).toCompletableFuture();
+        var otherHost = client.executeAsync(HttpRequest.get("http://example.com/3")).toCompletableFuture();
+
+        // The second request to the host waits, but another host has its own limit
+        assertThat(delegate.requests()).hasSize(2);
+        delegate.completeOne();
+        var firstResponse = first.get(1, TimeUnit.MINUTES);
+        assertThat(firstResponse.statusCode()).isEqualTo(200);
+        // The body is still in flight until it's read or closed
+        assertThat(delegate.requests()).hasSize(2);
+        firstResponse.body().close();
+        assertThat(delegate.requests()).hasSize(3);
+        assertThat(delegate.requests().get(2).uri().getPath()).isEqualTo("/2");
+
+        while (delegate.completeOne()) {
+            // Let everything finish
+        }
+        assertThat(second.get(1, TimeUnit.MINUTES).statusCode()).isEqualTo(200);
+        assertThat(otherHost.get(1, TimeUnit.MINUTES).statusCode()).isEqualTo(200);
+    }
+
+    @Test
+    void readingTheBodyToTheEndReleasesTheHost() throws Exception {
+        var delegate = new ManualHttpClient();
+        var limiter = new AdaptiveLimiter(HttpConcurrencyLimits.defaults().withInitialLimit(1));
+        var client = new LimitingHttpClient(delegate, limiter);
+
+        var first = client.executeAsync(HttpRequest.get("http://petitioner.octyl.net/1")).toCompletableFuture();
+        delegate.completeOne();
+        assertThat(limiter.snapshot().get(0).inFlight()).isEqualTo(1);
+
+        assertThat(first.get(1, TimeUnit.MINUTES).body().string()).isEmpty();
+        assertThat(limiter.snapshot().get(0).inFlight()).isEqualTo(0);
+    }
+}
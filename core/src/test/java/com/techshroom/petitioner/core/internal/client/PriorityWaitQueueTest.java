@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.client;
+
+import com.techshroom.petitioner.core.HttpPriority;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class PriorityWaitQueueTest {
+    @Test
+    void pollsHigherPrioritiesFirstAndInOrder() {
+        var queue = new PriorityWaitQueue<String>(Duration.ZERO);
+        queue.add(HttpPriority.LOW, "low");
+        queue.add(HttpPriority.NORMAL, "normal 1");
+        queue.add(HttpPriority.HIGH, "high");
+        queue.add(HttpPriority.NORMAL, "normal 2");
+
+        assertThat(queue.poll()).isEqualTo("high");
+        assertThat(queue.poll()).isEqualTo("normal 1");
+        assertThat(queue.poll()).isEqualTo("normal 2");
+        assertThat(queue.poll()).isEqualTo("low");
+        assertThat(queue.poll()).isNull();
+    }
+
+    @Test
+    void removedItemsAreNotPolled() {
+        var queue = new PriorityWaitQueue<String>(Duration.ZERO);
+        queue.add(HttpPriority.NORMAL, "cancelled");
+        queue.add(HttpPriority.NORMAL, "waiting");
+
+        assertThat(queue.remove(HttpPriority.NORMAL, "cancelled")).isTrue();
+        assertThat(queue.remove(HttpPriority.NORMAL, "cancelled")).isFalse();
+        assertThat(queue.size()).isEqualTo(1);
+        assertThat(queue.stats(HttpPriority.NORMAL).queued()).isEqualTo(1);
+        assertThat(queue.poll()).isEqualTo("waiting");
+        assertThat(queue.stats(HttpPriority.NORMAL).admitted()).isEqualTo(1);
+    }
+
+    @Test
+    void agedItemsOvertakeHigherPriorities() throws Exception {
+        var queue = new PriorityWaitQueue<String>(Duration.ofMillis(10));
+        queue.add(HttpPriority.LOW, "low");
+        // Long enough for LOW to age past HIGH
+        Thread.sleep(50);
+        queue.add(HttpPriority.HIGH, "high");
+
+        assertThat(queue.poll()).isEqualTo("low");
+        assertThat(queue.poll()).isEqualTo("high");
+    }
+
+    @Test
+    void countsWaitsPerPriority() throws Exception {
+        var queue = new PriorityWaitQueue<String>(Duration.ZERO);
+        queue.admittedImmediately(HttpPriority.HIGH);
+        queue.add(HttpPriority.LOW, "low");
+        Thread.sleep(5);
+        queue.poll();
+
+        var high = queue.stats(HttpPriority.HIGH);
+        assertThat(high.admitted()).isEqualTo(1);
+        assertThat(high.maxWait()).isEqualTo(Duration.ZERO);
+        var low = queue.stats(HttpPriority.LOW);
+        assertThat(low.admitted()).isEqualTo(1);
+        assertThat(low.queued()).isEqualTo(0);
+        assertThat(low.maxWait().toMillis()).isAtLeast(5L);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.client;
+
+import com.techshroom.petitioner.core.HttpHeaderMap;
+import com.techshroom.petitioner.core.HttpRequest;
+import com.techshroom.petitioner.core.HttpRequestBody;
+import com.techshroom.petitioner.core.HttpRequestNotSentException;
+import com.techshroom.petitioner.core.HttpRetryPolicy;
+import com.techshroom.petitioner.core.internal.ManualHttpClient;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class RetryingHttpClientTest {
+    private static final String URI = "http://petitioner.octyl.net/retry";
+    private static final HttpRetryPolicy POLICY = HttpRetryPolicy.defaults()
+        .withInitialBackoff(Duration.ofMillis(1))
+        .withMaxBackoff(Duration.ofMillis(1));
+
+    private final ManualHttpClient delegate = new ManualHttpClient();
+    private final RetryingHttpClient client = new RetryingHttpClient(delegate, POLICY);
+
+    @Test
+    void retriesIdempotentFailures() throws Exception {
+        var future = client.executeAsync(HttpRequest.get(URI)).toCompletableFuture();
+        delegate.failOldest(new IOException("Connection reset"));
+        delegate.awaitRequests(2);
+        delegate.completeOne();
+
+        assertThat(future.get(1, TimeUnit.MINUTES).statusCode()).isEqualTo(200);
+    }
+
+    @Test
+    void givesUpAfterMaxAttempts() throws Exception {
+        var future = client.executeAsync(HttpRequest.get(URI)).toCompletableFuture();
+        for (int i = 1; i <= POLICY.maxAttempts(); i++) {
+            delegate.awaitRequests(i);
+            delegate.failOldest(new IOException("Connection reset " + i));
+        }
+
+        var ex = assertThrows(ExecutionException.class, () -> future.get(1, TimeUnit.MINUTES));
+        assertThat(ex.getCause()).hasMessageThat().isEqualTo("Connection reset " + POLICY.maxAttempts());
+        assertThat(delegate.requests()).hasSize(POLICY.maxAttempts());
+    }
+
+    @Test
+    void doesNotRetrySentNonIdempotentRequests() {
+        var future = client.executeAsync(HttpRequest.post(URI, HttpRequestBody.from("body", "text/plain")))
+            .toCompletableFuture();
+        delegate.failOldest(new IOException("Connection reset"));
+
+        assertThrows(ExecutionException.class, () -> future.get(1, TimeUnit.MINUTES));
+        assertThat(delegate.requests()).hasSize(1);
+    }
+
+    @Test
+    void retriesUnsentRequestsOfAnyMethod() throws Exception {
+        var future = client.executeAsync(HttpRequest.post(URI, HttpRequestBody.from("body", "text/plain")))
+            .toCompletableFuture();
+        delegate.failOldest(new HttpRequestNotSentException("Failed to connect", new IOException("Refused")));
+        delegate.awaitRequests(2);
+        delegate.completeOne();
+
+        assertThat(future.get(1, TimeUnit.MINUTES).statusCode()).isEqualTo(200);
+    }
+
+    @Test
+    void honoursRetryAfter() throws Exception {
+        var future = client.executeAsync(HttpRequest.get(URI)).toCompletableFuture();
+        delegate.completeOldest(delegate.response(503, HttpHeaderMap.builder().put("Retry-After", "0").build()));
+        delegate.awaitRequests(2);
+        delegate.completeOne();
+
+        assertThat(future.get(1, TimeUnit.MINUTES).statusCode()).isEqualTo(200);
+        // The 503 was closed before retrying
+        assertThat(delegate.closedBodies()).isEqualTo(1);
+    }
+
+    @Test
+    void repeatedRetryAfterUsesTheFirst() throws Exception {
+        var future = client.executeAsync(HttpRequest.get(URI)).toCompletableFuture();
+        var headers = HttpHeaderMap.builder().add("Retry-After", "0").add("Retry-After", "3600").build();
+        delegate.completeOldest(delegate.response(503, headers));
+        delegate.awaitRequests(2);
+        delegate.completeOne();
+
+        assertThat(future.get(1, TimeUnit.MINUTES).statusCode()).isEqualTo(200);
+        assertThat(delegate.closedBodies()).isEqualTo(1);
+    }
+
+    @Test
+    void returnsResponseIfRetryAfterIsTooLong() throws Exception {
+        var future = client.executeAsync(HttpRequest.get(URI)).toCompletableFuture();
+        delegate.completeOldest(delegate.response(429, HttpHeaderMap.builder().put("Retry-After", "3600").build()));
+
+        assertThat(future.get(1, TimeUnit.MINUTES).statusCode()).isEqualTo(429);
+        assertThat(delegate.requests()).hasSize(1);
+    }
+
+    @Test
+    void parsesRetryAfterSecondsAndDates() {
+        assertThat(RetryingHttpClient.parseRetryAfter(" 120 ", 0)).isEqualTo(Duration.ofSeconds(120));
+        // 784111777000 is Sun, 06 Nov 1994 08:49:37 GMT
+        assertThat(RetryingHttpClient.parseRetryAfter("Sun, 06 Nov 1994 08:49:37 GMT", 784111777000L - 5000))
+            .isEqualTo(Duration.ofSeconds(5));
+        assertThat(RetryingHttpClient.parseRetryAfter("Sun, 06 Nov 1994 08:49:37 GMT", 784111777000L + 5000))
+            .isEqualTo(Duration.ZERO);
+        assertThat(RetryingHttpClient.parseRetryAfter("soon", 0)).isNull();
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.client;
+
+import com.techshroom.petitioner.core.HttpPriority;
+import com.techshroom.petitioner.core.HttpRequest;
+import com.techshroom.petitioner.core.HttpSchedulingPolicy;
+import com.techshroom.petitioner.core.internal.ManualHttpClient;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class SchedulingHttpClientTest {
+    private static HttpRequest request(String path, HttpPriority priority) {
+        return HttpRequest.builder().get("http://petitioner.octyl.net" + path).priority(priority).build();
+    }
+
+    @Test
+    void admitsHigherPrioritiesFirst() throws Exception {
+        var delegate = new ManualHttpClient();
+        var scheduler = new PriorityScheduler(new HttpSchedulingPolicy(1, Duration.ZERO));
+        var client = new SchedulingHttpClient(delegate, scheduler);
+
+        var first = client.executeAsync(request("/first", HttpPriority.LOW)).toCompletableFuture();
+        var background = client.executeAsync(request("/background", HttpPriority.LOW)).toCompletableFuture();
+        var user = client.executeAsync(request("/user", HttpPriority.HIGH)).toCompletableFuture();
+        assertThat(delegate.requests()).hasSize(1);
+        assertThat(scheduler.queueStats().get(HttpPriority.LOW.ordinal()).queued()).isEqualTo(1);
+
+        delegate.completeOne();
+        // The slot is held until the body is done with
+        assertThat(delegate.requests()).hasSize(1);
+        first.get(1, TimeUnit.MINUTES).body().close();
+        assertThat(delegate.requests().get(1).uri().getPath()).isEqualTo("/user");
+        delegate.completeOne();
+        user.get(1, TimeUnit.MINUTES).body().close();
+        assertThat(delegate.requests().get(2).uri().getPath()).isEqualTo("/background");
+        delegate.completeOne();
+        background.get(1, TimeUnit.MINUTES).body().close();
+
+        assertThat(scheduler.inFlight()).isEqualTo(0);
+        var stats = scheduler.queueStats();
+        assertThat(stats.get(HttpPriority.HIGH.ordinal()).admitted()).isEqualTo(1);
+        assertThat(stats.get(HttpPriority.LOW.ordinal()).admitted()).isEqualTo(2);
+    }
+
+    @Test
+    void cancellingReleasesTheSlotAndSkipsWaiters() throws Exception {
+        var delegate = new ManualHttpClient();
+        var scheduler = new PriorityScheduler(new HttpSchedulingPolicy(1, Duration.ZERO));
+        var client = new SchedulingHttpClient(delegate, scheduler);
+
+        var running = client.executeAsync(request("/running", HttpPriority.NORMAL)).toCompletableFuture();
+        var waiting = client.executeAsync(request("/waiting", HttpPriority.NORMAL)).toCompletableFuture();
+        var next = client.executeAsync(request("/next", HttpPriority.NORMAL)).toCompletableFuture();
+
+        waiting.cancel(false);
+        // Only the live waiter is still queued
+        assertThat(scheduler.queueStats().get(HttpPriority.NORMAL.ordinal()).queued()).isEqualTo(1);
+        running.cancel(false);
+
+        assertThat(delegate.cancelled()).isEqualTo(1);
+        assertThat(delegate.requests()).hasSize(2);
+        assertThat(delegate.requests().get(1).uri().getPath()).isEqualTo("/next");
+        delegate.completeOne();
+        next.get(1, TimeUnit.MINUTES).body().close();
+        assertThat(scheduler.inFlight()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.techshroom.petitioner.core.internal.codec;
+
+import com.techshroom.petitioner.core.HttpContentType;
+import com.techshroom.petitioner.core.HttpRequest;
+import com.techshroom.petitioner.core.HttpRequestBody;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Flow;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class Http1RequestEncoderTest {
+    private static final HttpContentType TEXT = HttpContentType.of("text/plain", StandardCharsets.UTF_8);
+
+    /**
+     * Encodes the request and returns its head, which is always the first packet.
+     */
+    private static String encodeHead(HttpRequest request) throws Exception {
+        try (var session = new Http1RequestEncoder().encode(request)) {
+            var head = session.readNextPacket().toCompletableFuture().get();
+            var text = StandardCharsets.ISO_8859_1.decode(head.duplicate()).toString();
+            session.release(head);
+            return text;
+        }
+    }
+
+    @Test
+    void chunkedBodiesDropTheCallersContentLength() throws Exception {
+        // Never publishes, only the head is read
+        Flow.Publisher<ByteBuffer> publisher = subscriber -> { };
+        var head = encodeHead(HttpRequest.builder()
+            .post("http://localhost/upload", HttpRequestBody.from(publisher, TEXT))
+            .putHeader("Content-Length", "4")
+            .build());
+
+        assertThat(head).contains("Transfer-Encoding: chunked\r\n");
+        assertThat(head.toLowerCase().contains("content-length")).isFalse();
+    }
+
+    @Test
+    void sizedBodiesDropTheCallersTransferEncoding() throws Exception {
+        var head = encodeHead(HttpRequest.builder()
+            .post("http://localhost/upload", HttpRequestBody.from("ping", TEXT))
+            .putHeader("Transfer-Encoding", "chunked")
+            .build());
+
+        assertThat(head).contains("Content-Length: 4\r\n");
+        assertThat(head.toLowerCase().contains("transfer-encoding")).isFalse();
+    }
+
+    @Test
+    void targetsAreWrittenAsUtf8() throws Exception {
+        // A pair becomes one four byte sequence, and an unpaired surrogate becomes '?'
+        var head = encodeHead(HttpRequest.get("http://localhost/caf\u00e9/\ud83d\ude00/\ud83d"));
+
+        var utf8 = "/caf\u00e9/\ud83d\ude00/?".getBytes(StandardCharsets.UTF_8);
+        var expected = new String(utf8, StandardCharsets.ISO_8859_1);
+        assertThat(head).startsWith("GET " + expected + " HTTP/1.1\r\n");
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.codec;
+
+import com.techshroom.petitioner.core.HttpHeadLimitExceededException;
+import com.techshroom.petitioner.core.HttpHeadLimits;
+import com.techshroom.petitioner.core.internal.PartialHttpResponse;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class Http1ResponseDecoderTest {
+    private static final String HEAD = """
+        HTTP/1.1 204 No Content\r
+        X-First: a\r
+        X-Second: b\r
+        \r
+        """;
+
+    /**
+     * Feeds the decoder one byte at a time, carrying over leftovers like the client does.
+     */
+    private static PartialHttpResponse decodeBytewise(Http1ResponseDecoder decoder, String head) {
+        var bytes = head.getBytes(StandardCharsets.ISO_8859_1);
+        var pending = ByteBuffer.allocate(bytes.length);
+        for (byte b : bytes) {
+            pending.put(b);
+            pending.flip();
+            var result = decoder.tryDecode(pending);
+            if (result != null) {
+                return result;
+            }
+            pending.compact();
+        }
+        throw new AssertionError("Head was never decoded");
+    }
+
+    @Test
+    void decodesLinesSplitAcrossPackets() {
+        var response = decodeBytewise(new Http1ResponseDecoder(), HEAD);
+
+        assertThat(response.statusCode()).isEqualTo(204);
+        assertThat(response.statusMessage()).isEqualTo("No Content");
+        assertThat(response.headers().value("x-first")).isEqualTo("a");
+        assertThat(response.headers().value("x-second")).isEqualTo("b");
+    }
+
+    @Test
+    void decodesRepeatedHeadersInReceivedOrder() {
+        var response = decodeBytewise(new Http1ResponseDecoder(), """
+            HTTP/1.1 200 OK\r
+            Set-Cookie: a=1\r
+            Content-Length:  0 \r
+            set-cookie: b=2\r
+            \r
+            """);
+
+        var headers = response.headers();
+        assertThat(headers.values("SET-COOKIE")).containsExactly("a=1", "b=2").inOrder();
+        assertThat(headers.value("content-length")).isEqualTo("0");
+        assertThat(headers.value("Missing")).isNull();
+        assertThrows(IllegalStateException.class, () -> headers.value("Set-Cookie"));
+        assertThat(headers).containsExactly(
+            Map.entry("Set-Cookie", "a=1"),
+            Map.entry("Content-Length", "0"),
+            Map.entry("set-cookie", "b=2")
+        ).inOrder();
+    }
+
+    @Test
+    void rejectsLongStatusLineBeforeItEnds() {
+        var decoder = new Http1ResponseDecoder(HttpHeadLimits.defaults().withMaxStatusLineLength(16));
+        var buffer = StandardCharsets.ISO_8859_1.encode("HTTP/1.1 200 " + "O".repeat(32));
+
+        var ex = assertThrows(HttpHeadLimitExceededException.class, () -> decoder.tryDecode(buffer));
+        assertThat(ex.limit()).isEqualTo(HttpHeadLimitExceededException.Limit.STATUS_LINE_LENGTH);
+    }
+
+    @Test
+    void acceptsMaximumLengthLinesSplitBeforeTheirLineFeed() {
+        // "HTTP/1.1 204 No Content" and "X-Second: b" are exactly at the limits
+        var decoder = new Http1ResponseDecoder(
+            HttpHeadLimits.defaults().withMaxStatusLineLength(23).withMaxHeaderLineLength(11)
+        );
+
+        var response = decodeBytewise(decoder, HEAD);
+
+        assertThat(response.statusCode()).isEqualTo(204);
+        assertThat(response.headers().value("x-second")).isEqualTo("b");
+    }
+
+    @Test
+    void rejectsTooManyHeaders() {
+        var decoder = new Http1ResponseDecoder(HttpHeadLimits.defaults().withMaxHeaderCount(1));
+
+        var ex = assertThrows(HttpHeadLimitExceededException.class, () -> decodeBytewise(decoder, HEAD));
+        assertThat(ex.limit()).isEqualTo(HttpHeadLimitExceededException.Limit.HEADER_COUNT);
+    }
+
+    @Test
+    void rejectsLargeHead() {
+        var decoder = new Http1ResponseDecoder(HttpHeadLimits.defaults().withMaxHeadSize(40));
+
+        var ex = assertThrows(HttpHeadLimitExceededException.class, () -> decodeBytewise(decoder, HEAD));
+        assertThat(ex.limit()).isEqualTo(HttpHeadLimitExceededException.Limit.HEAD_SIZE);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.metrics;
+
+import com.techshroom.petitioner.core.HttpMetricsSnapshot;
+import com.techshroom.petitioner.core.HttpRequestNotSentException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class ClientMetricsTest {
+    private static final String HOST = "petitioner.octyl.net:80";
+
+    @Test
+    void snapshotAndResetStartsAgain() {
+        var metrics = new ClientMetrics();
+        metrics.exchangeStarted();
+        metrics.recordLatency(HOST, HttpMetricsSnapshot.Phase.TOTAL, 1_000_000);
+        metrics.recordLatency(HOST, HttpMetricsSnapshot.Phase.TOTAL, 3_000_000);
+        metrics.bytesRead(100);
+        metrics.response(204);
+        metrics.error(new CompletionException(new HttpRequestNotSentException("Nope", new IOException())));
+
+        var snapshot = metrics.snapshot(true);
+        assertThat(snapshot.latencies()).hasSize(1);
+        var latency = snapshot.latencies().get(0);
+        assertThat(latency.host()).isEqualTo(HOST);
+        assertThat(latency.count()).isEqualTo(2);
+        assertThat(latency.sum()).isEqualTo(Duration.ofMillis(4));
+        assertThat(latency.valueAtQuantile(1).toNanos()).isAtLeast(3_000_000L);
+        assertThat(latency.valueAtQuantile(1).toNanos()).isAtMost(3_000_000L * 9 / 8);
+        assertThat(snapshot.bytesRead()).isEqualTo(100);
+        assertThat(snapshot.responsesByStatusClass()).isEqualTo(Map.of("2xx", 1L));
+        assertThat(snapshot.errorsByType()).isEqualTo(Map.of("HttpRequestNotSentException", 1L));
+        assertThat(snapshot.inFlightRequests()).isEqualTo(1);
+
+        var next = metrics.snapshot(false);
+        assertThat(next.latencies()).isEmpty();
+        assertThat(next.bytesRead()).isEqualTo(0);
+        assertThat(next.responsesByStatusClass()).isEmpty();
+        // Gauges aren't reset
+        assertThat(next.inFlightRequests()).isEqualTo(1);
+    }
+
+    @Test
+    void resettingDropsIdleHosts() {
+        var metrics = new ClientMetrics();
+        for (int i = 0; i < ClientMetrics.MAX_HOSTS; i++) {
+            metrics.recordLatency("host" + i + ":80", HttpMetricsSnapshot.Phase.TOTAL, 1_000_000);
+        }
+        metrics.snapshot(true);
+        // Nothing was recorded for any host during this period, so they're all dropped
+        metrics.snapshot(true);
+
+        metrics.recordLatency(HOST, HttpMetricsSnapshot.Phase.TOTAL, 1_000_000);
+        var latencies = metrics.snapshot(true).latencies();
+        assertThat(latencies).hasSize(1);
+        assertThat(latencies.get(0).host()).isEqualTo(HOST);
+    }
+
+    @Test
+    void hostsPastTheBoundAreCountedTogether() {
+        var metrics = new ClientMetrics();
+        for (int i = 0; i < ClientMetrics.MAX_HOSTS + 10; i++) {
+            metrics.recordLatency("host" + i + ":80", HttpMetricsSnapshot.Phase.TOTAL, 1_000_000);
+        }
+
+        var latencies = metrics.snapshot(false).latencies();
+        assertThat(latencies).hasSize(ClientMetrics.MAX_HOSTS + 1);
+        var other = latencies.stream().filter(l -> l.host().equals(ClientMetrics.OTHER_HOST)).findFirst();
+        assertThat(other.orElseThrow().count()).isEqualTo(10);
+    }
+
+    @Test
+    void queuesAreOnlyWatchedOncePerSource() {
+        var metrics = new ClientMetrics();
+        var source = new Object();
+        metrics.watchQueue(source, () -> 3);
+        metrics.watchQueue(source, () -> 3);
+        metrics.watchQueue(new Object(), () -> 1);
+
+        assertThat(metrics.snapshot(false).queuedRequests()).isEqualTo(4);
+    }
+
+    @Test
+    void writesPrometheusText() throws IOException {
+        var metrics = new ClientMetrics();
+        metrics.recordLatency("a\"b:80", HttpMetricsSnapshot.Phase.CONNECT, 5);
+        metrics.recordLatency("a\"b:80", HttpMetricsSnapshot.Phase.CONNECT, 5);
+        metrics.recordLatency("a\"b:80", HttpMetricsSnapshot.Phase.CONNECT, 2_000_000_000L);
+        metrics.response(404);
+        metrics.bytesWritten(42);
+
+        var out = new StringBuilder();
+        metrics.snapshot(false).writePrometheus(out);
+        var text = out.toString();
+
+        assertThat(text).contains("# TYPE petitioner_request_duration_seconds histogram\n");
+        // Every boundary is written, including those that count nothing new
+        assertThat(text).contains(
+            "petitioner_request_duration_seconds_bucket{host=\"a\\\"b:80\",phase=\"connect\",le=\"0.001\"} 2\n"
+        );
+        assertThat(text).contains(
+            "petitioner_request_duration_seconds_bucket{host=\"a\\\"b:80\",phase=\"connect\",le=\"1.0\"} 2\n"
+        );
+        assertThat(text).contains(
+            "petitioner_request_duration_seconds_bucket{host=\"a\\\"b:80\",phase=\"connect\",le=\"2.5\"} 3\n"
+        );
+        assertThat(text).contains(
+            "petitioner_request_duration_seconds_bucket{host=\"a\\\"b:80\",phase=\"connect\",le=\"60.0\"} 3\n"
+        );
+        assertThat(text).contains(
+            "petitioner_request_duration_seconds_bucket{host=\"a\\\"b:80\",phase=\"connect\",le=\"+Inf\"} 3\n"
+        );
+        assertThat(text).contains(
+            "petitioner_request_duration_seconds_count{host=\"a\\\"b:80\",phase=\"connect\"} 3\n"
+        );
+        assertThat(text).contains("petitioner_bytes_written_total 42\n");
+        assertThat(text).contains("petitioner_responses_total{status_class=\"4xx\"} 1\n");
+        assertThat(text).contains("# TYPE petitioner_in_flight_requests gauge\n");
+        assertThat(text).endsWith("petitioner_queued_requests 0\n");
+    }
+}
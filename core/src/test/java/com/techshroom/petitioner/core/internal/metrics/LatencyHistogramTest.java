@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class LatencyHistogramTest {
+    @Test
+    void bucketsCoverEveryValue() {
+        for (long value : new long[]{0, 1, 7, 8, 9, 15, 16, 17, 1000, 123_456_789, Long.MAX_VALUE}) {
+            int bucket = LatencyHistogram.bucketFor(value);
+            assertThat(LatencyHistogram.bucketUpperBound(bucket)).isAtLeast(value);
+            if (bucket > 0) {
+                assertThat(LatencyHistogram.bucketUpperBound(bucket - 1)).isLessThan(value);
+            }
+        }
+        assertThat(LatencyHistogram.bucketFor(Long.MAX_VALUE)).isEqualTo(LatencyHistogram.BUCKET_COUNT - 1);
+    }
+
+    @Test
+    void quantilesAreWithinABucket() {
+        var histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        assertThat(histogram.count()).isEqualTo(1000);
+        long median = histogram.valueAtQuantile(0.5);
+        assertThat(median).isAtLeast(500_000L);
+        assertThat(median).isAtMost(500_000L * 9 / 8);
+        long p99 = histogram.valueAtQuantile(0.99);
+        assertThat(p99).isAtLeast(990_000L);
+        assertThat(p99).isAtMost(990_000L * 9 / 8);
+    }
+
+    @Test
+    void takeAndResetEmptiesTheHistogram() {
+        var histogram = new LatencyHistogram();
+        histogram.record(10);
+        histogram.record(1000);
+
+        var counts = new long[LatencyHistogram.BUCKET_COUNT];
+        assertThat(histogram.takeAndReset(counts)).isEqualTo(1010);
+        assertThat(counts[LatencyHistogram.bucketFor(10)]).isEqualTo(1);
+        assertThat(counts[LatencyHistogram.bucketFor(1000)]).isEqualTo(1);
+        assertThat(histogram.sum()).isEqualTo(0);
+        assertThat(histogram.valueAtQuantile(1)).isEqualTo(0);
+    }
+}
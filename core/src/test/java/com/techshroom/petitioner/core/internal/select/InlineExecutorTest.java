@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) TechShroom <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.techshroom.petitioner.core.internal.select;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class InlineExecutorTest {
+    @Test
+    void runsOnTheCallingThread() {
+        var thread = new ArrayList<Thread>();
+        InlineExecutor.instance().execute(() -> thread.add(Thread.currentThread()));
+
+        assertThat(thread).containsExactly(Thread.currentThread());
+    }
+
+    @Test
+    void deepRecursionDoesNotOverflow() {
+        int iterations = 1_000_000;
+        var remaining = new AtomicInteger(iterations);
+        var maxDepth = new AtomicInteger();
+        var depth = new AtomicInteger();
+        new Runnable() {
+            @Override
+            public void run() {
+                maxDepth.accumulateAndGet(depth.incrementAndGet(), Math::max);
+                if (remaining.decrementAndGet() > 0) {
+                    InlineExecutor.instance().execute(this);
+                }
+                depth.decrementAndGet();
+            }
+        }.run();
+
+        assertThat(remaining.get()).isEqualTo(0);
+        assertThat(maxDepth.get()).isAtMost(InlineExecutor.MAX_DEPTH + 1);
+    }
+
+    @Test
+    void deferredTasksRunInOrder() {
+        var order = new ArrayList<Integer>();
+        var tasks = new ArrayList<Runnable>();
+        for (int i = 0; i < InlineExecutor.MAX_DEPTH * 2; i++) {
+            int index = i;
+            tasks.add(() -> {
+                order.add(index);
+                if (index + 1 < InlineExecutor.MAX_DEPTH * 2) {
+                    InlineExecutor.instance().execute(tasks.get(index + 1));
+                }
+            });
+        }
+        InlineExecutor.instance().execute(tasks.get(0));
+
+        var expected = new ArrayList<Integer>();
+        for (int i = 0; i < InlineExecutor.MAX_DEPTH * 2; i++) {
+            expected.add(i);
+        }
+        assertThat(order).isEqualTo(List.copyOf(expected));
+    }
+}
@@ -18,30 +18,81 @@
 
 package com.techshroom.petitioner.core.socket;
 
+import com.techshroom.petitioner.core.HttpBufferSizing;
 import com.techshroom.petitioner.core.HttpClient;
 import com.techshroom.petitioner.core.HttpContentType;
+import com.techshroom.petitioner.core.HttpEventListener;
+import com.techshroom.petitioner.core.HttpHeadLimits;
+import com.techshroom.petitioner.core.HttpMetricsSnapshot;
 import com.techshroom.petitioner.core.HttpRequest;
+import com.techshroom.petitioner.core.HttpRequestBody;
+import com.techshroom.petitioner.core.HttpRequestNotSentException;
+import com.techshroom.petitioner.core.HttpResponse;
 import com.techshroom.petitioner.core.HttpVersion;
 import com.techshroom.petitioner.core.internal.Constants;
+import com.techshroom.petitioner.core.internal.buffer.BufferPool;
 import com.techshroom.petitioner.core.internal.codec.HttpCodec;
+import com.techshroom.petitioner.core.internal.metrics.ClientMetrics;
+import com.techshroom.petitioner.core.io.ReadSession;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.OptionalLong;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 public class AsyncIoHttpClientTest {
     private static final String TEST_HOST = "petitioner.octyl.net";
     private final TestUriConnector connector = new TestUriConnector(Constants.DEFAULT_WORK_EXECUTOR);
-    private final HttpClient client = new AsyncIoHttpClient(
-        Constants.DEFAULT_WORK_EXECUTOR,
-        connector,
-        HttpCodec.forVersion(HttpVersion.VERSION_1_1)
-    );
+    private final BufferPool bufferPool = new BufferPool(true);
+    private final HttpClient client = newClient(false);
+    private final HttpClient zeroCopyClient = newClient(true);
+
+    private HttpCodec codec() {
+        return HttpCodec.forVersion(
+            HttpVersion.VERSION_1_1, HttpHeadLimits.defaults(), bufferPool, HttpBufferSizing.defaults()
+        );
+    }
+
+    private HttpClient newClient(boolean zeroCopyReads) {
+        return new AsyncIoHttpClient(
+            Constants.DEFAULT_WORK_EXECUTOR,
+            connector,
+            codec(),
+            bufferPool,
+            HttpBufferSizing.defaults(),
+            zeroCopyReads
+        );
+    }
+
+    @AfterEach
+    void noLeakedBuffers() {
+        assertThat(bufferPool.unreleased()).isEmpty();
+    }
 
     @Test
     void simpleGet() throws Exception {
@@ -81,4 +132,688 @@ public class AsyncIoHttpClientTest {
             \r
             """.formatted(TEST_HOST));
     }
+
+    @Test
+    void connectFailuresAreNotSent() {
+        var request = HttpRequest.get("http://" + TEST_HOST + "/unreachable");
+
+        // No channel was created for the URI, so connecting fails
+        var asyncEx = assertThrows(ExecutionException.class, () -> client.executeAsync(request)
+            .toCompletableFuture().get(1, TimeUnit.MINUTES));
+        assertThat(asyncEx.getCause()).isInstanceOf(HttpRequestNotSentException.class);
+        assertThrows(HttpRequestNotSentException.class, () -> client.execute(request));
+    }
+
+    /**
+     * Records the name of each event, checking that timestamps never go backwards.
+     */
+    private static final class RecordingListener implements HttpEventListener {
+        private final List<String> events = new CopyOnWriteArrayList<>();
+        private final AtomicLong bodyBytes = new AtomicLong();
+        private long lastNanoTime = Long.MIN_VALUE;
+
+        private synchronized void record(String event, long nanoTime) {
+            assertThat(nanoTime).isAtLeast(lastNanoTime);
+            lastNanoTime = nanoTime;
+            events.add(event);
+        }
+
+        @Override
+        public void requestHeadersWritten(HttpRequest request, long nanoTime) {
+            record("requestHeadersWritten", nanoTime);
+        }
+
+        @Override
+        public void requestBodyWritten(HttpRequest request, long nanoTime) {
+            record("requestBodyWritten", nanoTime);
+        }
+
+        @Override
+        public void responseHeadStart(HttpRequest request, long nanoTime) {
+            record("responseHeadStart", nanoTime);
+        }
+
+        @Override
+        public void responseHeadEnd(HttpRequest request, HttpResponse response, long nanoTime) {
+            record("responseHeadEnd", nanoTime);
+        }
+
+        @Override
+        public void bodyBytesRead(HttpRequest request, long byteCount, long nanoTime) {
+            bodyBytes.addAndGet(byteCount);
+        }
+
+        @Override
+        public void end(HttpRequest request, long nanoTime) {
+            record("end", nanoTime);
+        }
+
+        @Override
+        public void failure(HttpRequest request, Throwable failure, long nanoTime) {
+            record("failure", nanoTime);
+        }
+    }
+
+    private HttpClient newListeningClient(HttpEventListener listener) {
+        return new AsyncIoHttpClient(
+            Constants.DEFAULT_WORK_EXECUTOR,
+            connector,
+            codec(),
+            bufferPool,
+            HttpBufferSizing.defaults(),
+            false,
+            listener
+        );
+    }
+
+    @Test
+    void eventListenerSeesEachPhase() throws Exception {
+        var listener = new RecordingListener();
+        var listeningClient = newListeningClient(listener);
+        var request = HttpRequest.post(
+            "http://" + TEST_HOST + "/post", HttpRequestBody.from("ping", "text/plain")
+        );
+        var channel = connector.createChannel(request.uri());
+        channel.addReadableBytes(StandardCharsets.UTF_8.encode("""
+            HTTP/1.1 200 OK\r
+            Content-Length: 4\r
+            \r
+            pong"""));
+
+        var response = listeningClient.executeAsync(request).toCompletableFuture().get(1, TimeUnit.MINUTES);
+        assertThat(response.body().string()).isEqualTo("pong");
+
+        assertThat(listener.events).containsExactly(
+            "requestHeadersWritten", "requestBodyWritten", "responseHeadStart", "responseHeadEnd", "end"
+        ).inOrder();
+        assertThat(listener.bodyBytes.get()).isEqualTo(4);
+    }
+
+    @Test
+    void eventListenerSeesFailures() {
+        var listener = new RecordingListener();
+        var listeningClient = newListeningClient(listener);
+        var request = HttpRequest.get("http://" + TEST_HOST + "/unreachable");
+
+        assertThrows(ExecutionException.class, () -> listeningClient.executeAsync(request)
+            .toCompletableFuture().get(1, TimeUnit.MINUTES));
+        assertThrows(HttpRequestNotSentException.class, () -> listeningClient.execute(request));
+
+        assertThat(listener.events).containsExactly("failure", "failure");
+    }
+
+    @Test
+    void metricsCountTheExchange() throws Exception {
+        var metrics = new ClientMetrics();
+        var countingClient = new AsyncIoHttpClient(
+            Constants.DEFAULT_WORK_EXECUTOR,
+            connector,
+            codec(),
+            bufferPool,
+            HttpBufferSizing.defaults(),
+            false,
+            null,
+            metrics
+        );
+        var request = HttpRequest.get("http://" + TEST_HOST + "/metrics");
+        var channel = connector.createChannel(request.uri());
+        var head = "HTTP/1.1 404 Not Found\r\nContent-Length: 4\r\n\r\n";
+        channel.addReadableBytes(StandardCharsets.UTF_8.encode(head + "gone"));
+
+        var response = countingClient.executeAsync(request).toCompletableFuture().get(1, TimeUnit.MINUTES);
+        assertThat(metrics.snapshot(false).inFlightRequests()).isEqualTo(1);
+        assertThat(metrics.snapshot(false).openSockets()).isEqualTo(1);
+        assertThat(response.body().string()).isEqualTo("gone");
+
+        var snapshot = metrics.snapshot(true);
+        assertThat(snapshot.inFlightRequests()).isEqualTo(0);
+        assertThat(snapshot.openSockets()).isEqualTo(0);
+        assertThat(snapshot.bytesRead()).isEqualTo(head.length() + 4);
+        assertThat(snapshot.bytesWritten()).isGreaterThan(0);
+        assertThat(snapshot.responsesByStatusClass()).isEqualTo(Map.of("4xx", 1L));
+        assertThat(snapshot.latencies().stream().map(HttpMetricsSnapshot.Latency::phase).toList())
+            .containsExactly(HttpMetricsSnapshot.Phase.TIME_TO_FIRST_BYTE, HttpMetricsSnapshot.Phase.TOTAL);
+        assertThat(snapshot.latencies().get(0).host()).isEqualTo(TEST_HOST + ":80");
+    }
+
+    @Test
+    void flightRecorderSeesTheExchange() throws Exception {
+        var request = HttpRequest.get("http://" + TEST_HOST + "/recorded");
+        var channel = connector.createChannel(request.uri());
+        channel.addReadableBytes(StandardCharsets.UTF_8.encode("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok"));
+
+        var file = Files.createTempFile("petitioner", ".jfr");
+        List<RecordedEvent> events;
+        try {
+            try (var recording = new Recording()) {
+                recording.enable("com.techshroom.petitioner.Exchange");
+                recording.enable("com.techshroom.petitioner.ConnectionClose");
+                recording.start();
+                var response = client.executeAsync(request).toCompletableFuture().get(1, TimeUnit.MINUTES);
+                assertThat(response.body().string()).isEqualTo("ok");
+                response.body().close();
+                recording.stop();
+                recording.dump(file);
+            }
+            events = RecordingFile.readAllEvents(file);
+        } finally {
+            Files.delete(file);
+        }
+
+        var exchanges = events.stream()
+            .filter(event -> event.getEventType().getName().equals("com.techshroom.petitioner.Exchange"))
+            .toList();
+        assertThat(exchanges).hasSize(1);
+        var exchange = exchanges.get(0);
+        assertThat(exchange.getString("method")).isEqualTo("GET");
+        assertThat(exchange.getString("host")).isEqualTo(TEST_HOST + ":80");
+        assertThat(exchange.getInt("statusCode")).isEqualTo(200);
+        assertThat(exchange.getLong("bytesRead")).isEqualTo(40);
+        assertThat(exchange.getLong("bytesWritten")).isGreaterThan(0L);
+        assertThat(exchange.getString("failure")).isNull();
+        assertThat(events.stream()
+            .filter(event -> event.getEventType().getName().equals("com.techshroom.petitioner.ConnectionClose"))
+            .count()).isEqualTo(1);
+    }
+
+    @Test
+    void cancellingAbortsTheExchange() throws Exception {
+        var request = HttpRequest.get("http://" + TEST_HOST + "/cancel");
+        var channel = connector.createChannel(request.uri());
+
+        var future = client.executeAsync(request).toCompletableFuture();
+        // Once the request is sent, the exchange waits for a head that never comes
+        channel.getWrittenBytes().blockFirst(Duration.ofMinutes(1));
+        assertThat(future.cancel(false)).isTrue();
+
+        assertThat(channel.isOpen()).isFalse();
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        while (!bufferPool.unreleased().isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    void bulkBodyReadsUseContentLengthHint() throws Exception {
+        var body = new byte[HttpBufferSizing.defaults().maximum()];
+        Arrays.fill(body, (byte) 'a');
+
+        var request = HttpRequest.get("http://" + TEST_HOST + "/bulk");
+
+        TestUriConnector.TestAsyncByteChannel channel = connector.createChannel(request.uri());
+
+        var head = StandardCharsets.UTF_8.encode("""
+            HTTP/1.1 200 OK\r
+            Content-Length: %s\r
+            \r
+            """.formatted(body.length));
+        channel.addReadableBytes(ByteBuffer.allocate(head.remaining() + body.length).put(head).put(body).flip());
+
+        var response = client.executeAsync(request)
+            .toCompletableFuture().get(1, TimeUnit.MINUTES);
+
+        assertThat(response.body()).isNotNull();
+        int largestPacket = 0;
+        int total = 0;
+        try (var readSession = response.body().readSession()) {
+            ByteBuffer packet;
+            while ((packet = readSession.readNextPacket().toCompletableFuture().get(1, TimeUnit.MINUTES))
+                .hasRemaining()) {
+                largestPacket = Math.max(largestPacket, packet.remaining());
+                total += packet.remaining();
+            }
+        }
+        assertThat(total).isEqualTo(body.length);
+        assertThat(largestPacket).isGreaterThan(HttpBufferSizing.defaults().initial());
+    }
+
+    @Test
+    void zeroCopyPacketsAreReturnedOnceReleased() throws Exception {
+        var testText = "Zero-copy body";
+
+        var request = HttpRequest.get("http://" + TEST_HOST + "/zero-copy");
+
+        TestUriConnector.TestAsyncByteChannel channel = connector.createChannel(request.uri());
+
+        channel.addReadableBytes(StandardCharsets.UTF_8.encode("""
+            HTTP/1.1 200 OK\r
+            Content-Length: %s\r
+            \r
+            """.formatted(testText.length())));
+
+        var response = zeroCopyClient.executeAsync(request)
+            .toCompletableFuture().get(1, TimeUnit.MINUTES);
+
+        // The body arrives in its own packet, so it's a slice of the pooled read buffer
+        channel.addReadableBytes(StandardCharsets.UTF_8.encode(testText));
+        assertThat(response.body()).isNotNull();
+        var readSession = response.body().readSession();
+        var packet = readSession.readNextPacket().toCompletableFuture().get(1, TimeUnit.MINUTES);
+        assertThat(packet.isDirect()).isTrue();
+        assertThat(StandardCharsets.UTF_8.decode(packet.duplicate()).toString()).isEqualTo(testText);
+
+        readSession.close();
+        // The packet still holds the buffer
+        assertThat(bufferPool.unreleased()).isNotEmpty();
+        readSession.release(packet);
+        // Releasing twice is harmless
+        readSession.release(packet);
+    }
+
+    @Test
+    void zeroCopyInputStreamReleasesPackets() throws Exception {
+        var body = new byte[HttpBufferSizing.defaults().maximum()];
+        Arrays.fill(body, (byte) 'z');
+
+        var request = HttpRequest.get("http://" + TEST_HOST + "/zero-copy-bulk");
+
+        TestUriConnector.TestAsyncByteChannel channel = connector.createChannel(request.uri());
+
+        var head = StandardCharsets.UTF_8.encode("""
+            HTTP/1.1 200 OK\r
+            Content-Length: %s\r
+            \r
+            """.formatted(body.length));
+        channel.addReadableBytes(ByteBuffer.allocate(head.remaining() + body.length).put(head).put(body).flip());
+
+        var response = zeroCopyClient.executeAsync(request)
+            .toCompletableFuture().get(1, TimeUnit.MINUTES);
+
+        assertThat(response.body()).isNotNull();
+        try (var stream = response.body().inputStream()) {
+            assertThat(stream.readAllBytes()).isEqualTo(body);
+        }
+    }
+
+    /**
+     * Counts the tasks handed to the default work executor.
+     */
+    private static final class CountingExecutor extends AbstractExecutorService {
+        private final AtomicInteger handoffs = new AtomicInteger();
+
+        @Override
+        public void execute(Runnable command) {
+            handoffs.incrementAndGet();
+            Constants.DEFAULT_WORK_EXECUTOR.execute(command);
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return List.of();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return false;
+        }
+    }
+
+    private HttpResponse bulkResponse(HttpClient client, String path, byte[] body) throws Exception {
+        var request = HttpRequest.get("http://" + TEST_HOST + path);
+
+        TestUriConnector.TestAsyncByteChannel channel = connector.createChannel(request.uri());
+
+        var head = StandardCharsets.UTF_8.encode("""
+            HTTP/1.1 200 OK\r
+            Content-Length: %s\r
+            \r
+            """.formatted(body.length));
+        channel.addReadableBytes(ByteBuffer.allocate(head.remaining() + body.length).put(head).put(body).flip());
+
+        return client.executeAsync(request)
+            .toCompletableFuture().get(1, TimeUnit.MINUTES);
+    }
+
+    @Test
+    void transferToWritesWholeBody() throws Exception {
+        var body = new byte[HttpBufferSizing.defaults().maximum() + 17];
+        Arrays.fill(body, (byte) 't');
+
+        var response = bulkResponse(zeroCopyClient, "/transfer", body);
+
+        assertThat(response.body()).isNotNull();
+        var output = new ByteArrayOutputStream();
+        assertThat(response.body().transferTo(Channels.newChannel(output))).isEqualTo(body.length);
+        assertThat(output.toByteArray()).isEqualTo(body);
+    }
+
+    @Test
+    void saveToCompletesOnceFileIsWritten() throws Exception {
+        var body = new byte[HttpBufferSizing.defaults().maximum() + 17];
+        Arrays.fill(body, (byte) 's');
+
+        var response = bulkResponse(zeroCopyClient, "/save", body);
+
+        assertThat(response.body()).isNotNull();
+        var file = Files.createTempFile("petitioner-save", ".bin");
+        try {
+            // Make sure the file is truncated
+            Files.write(file, new byte[body.length * 2]);
+            var written = response.body().saveTo(file)
+                .toCompletableFuture().get(1, TimeUnit.MINUTES);
+            assertThat(written).isEqualTo(body.length);
+            assertThat(Files.readAllBytes(file)).isEqualTo(body);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void bytesAsyncPresizesFromContentLength() throws Exception {
+        var body = new byte[HttpBufferSizing.defaults().maximum() + 17];
+        Arrays.fill(body, (byte) 'b');
+
+        var response = bulkResponse(zeroCopyClient, "/presized", body);
+
+        assertThat(response.body()).isNotNull();
+        var buffer = response.body().bytesAsync(true)
+            .toCompletableFuture().get(1, TimeUnit.MINUTES);
+        assertThat(buffer.isDirect()).isTrue();
+        assertThat(buffer.position()).isEqualTo(0);
+        assertThat(buffer.capacity()).isEqualTo(body.length);
+        var bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        assertThat(bytes).isEqualTo(body);
+    }
+
+    @Test
+    void bytesGrowsWithoutContentLength() throws Exception {
+        var body = new byte[20_000];
+        Arrays.fill(body, (byte) 'g');
+
+        var request = HttpRequest.get("http://" + TEST_HOST + "/unknown-length");
+
+        TestUriConnector.TestAsyncByteChannel channel = connector.createChannel(request.uri());
+
+        channel.addReadableBytes(StandardCharsets.UTF_8.encode("""
+            HTTP/1.0 200 OK\r
+            \r
+            """));
+        channel.addReadableBytes(ByteBuffer.wrap(body));
+        channel.addEndOfStream();
+
+        var response = client.executeAsync(request)
+            .toCompletableFuture().get(1, TimeUnit.MINUTES);
+
+        assertThat(response.body()).isNotNull();
+        assertThat(response.body().contentLength()).isEqualTo(OptionalLong.empty());
+        assertThat(response.body().bytes()).isEqualTo(body);
+    }
+
+    @Test
+    void workExecutorIsOnlyUsedForUserCallbacks() throws Exception {
+        var countingExecutor = new CountingExecutor();
+        var countingClient = new AsyncIoHttpClient(
+            countingExecutor,
+            connector,
+            codec(),
+            bufferPool,
+            HttpBufferSizing.defaults(),
+            false
+        );
+        var body = new byte[HttpBufferSizing.defaults().maximum()];
+        Arrays.fill(body, (byte) 'h');
+
+        var response = bulkResponse(countingClient, "/handoffs", body);
+
+        assertThat(response.body()).isNotNull();
+        assertThat(response.body().bytes()).isEqualTo(body);
+        // Context switches per request: the I/O itself runs inline, only the response is handed off
+        assertThat(countingExecutor.handoffs.get()).isEqualTo(1);
+    }
+
+    @Test
+    void flightRecorderPairsClosesOnFailedSends() throws Exception {
+        var failingBody = new HttpRequestBody() {
+            @Override
+            public HttpContentType contentType() {
+                return HttpContentType.of("text/plain", null);
+            }
+
+            @Override
+            public ReadSession openReadSession() {
+                return new ReadSession() {
+                    @Override
+                    public CompletionStage<ByteBuffer> readNextPacket() {
+                        return CompletableFuture.failedFuture(new IOException("Body failed"));
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                };
+            }
+        };
+        var asyncRequest = HttpRequest.post("http://" + TEST_HOST + "/async-failure", failingBody);
+        var blockingRequest = HttpRequest.post("http://" + TEST_HOST + "/blocking-failure", failingBody);
+        connector.createChannel(asyncRequest.uri());
+        connector.createChannel(blockingRequest.uri());
+
+        var file = Files.createTempFile("petitioner", ".jfr");
+        List<RecordedEvent> events;
+        try {
+            try (var recording = new Recording()) {
+                recording.enable("com.techshroom.petitioner.ConnectionClose");
+                recording.start();
+                assertThrows(ExecutionException.class, () -> client.executeAsync(asyncRequest)
+                    .toCompletableFuture().get(1, TimeUnit.MINUTES));
+                assertThrows(IOException.class, () -> client.execute(blockingRequest));
+                recording.stop();
+                recording.dump(file);
+            }
+            events = RecordingFile.readAllEvents(file);
+        } finally {
+            Files.delete(file);
+        }
+
+        // Each connection is closed once, and recorded once
+        assertThat(events.stream()
+            .filter(event -> event.getEventType().getName().equals("com.techshroom.petitioner.ConnectionClose"))
+            .count()).isEqualTo(2);
+    }
+
+    @Test
+    void blockingExecuteDoesNotHandOff() throws Exception {
+        var countingExecutor = new CountingExecutor();
+        var countingClient = new AsyncIoHttpClient(
+            countingExecutor,
+            connector,
+            codec(),
+            bufferPool,
+            HttpBufferSizing.defaults(),
+            false
+        );
+        var body = new byte[HttpBufferSizing.defaults().maximum() + 17];
+        Arrays.fill(body, (byte) 'e');
+
+        var request = HttpRequest.post(
+            "http://" + TEST_HOST + "/blocking",
+            HttpRequestBody.from(
+                ByteBuffer.wrap("ping".getBytes(StandardCharsets.UTF_8)),
+                HttpContentType.of("text/plain", StandardCharsets.UTF_8)
+            )
+        );
+
+        TestUriConnector.TestAsyncByteChannel channel = connector.createChannel(request.uri());
+
+        var head = StandardCharsets.UTF_8.encode("""
+            HTTP/1.1 200 OK\r
+            Content-Length: %s\r
+            \r
+            """.formatted(body.length));
+        channel.addReadableBytes(ByteBuffer.allocate(head.remaining() + body.length).put(head).put(body).flip());
+
+        var response = countingClient.execute(request);
+
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.body()).isNotNull();
+        // The body streams the same way as an asynchronous response's
+        try (var stream = response.body().inputStream()) {
+            assertThat(stream.readAllBytes()).isEqualTo(body);
+        }
+        assertThat(countingExecutor.handoffs.get()).isEqualTo(0);
+
+        var content = channel.getWrittenBytes()
+            .map(b -> StandardCharsets.UTF_8.decode(b).toString())
+            .collect(Collectors.joining(""))
+            .block(Duration.ofMinutes(1));
+        assertThat(content).endsWith("\r\n\r\nping");
+    }
+
+    @Test
+    void responsePublisherHonoursDemand() throws Exception {
+        var body = new byte[HttpBufferSizing.defaults().maximum() + 17];
+        Arrays.fill(body, (byte) 'p');
+
+        var response = bulkResponse(client, "/publisher", body);
+
+        assertThat(response.body()).isNotNull();
+        var publisher = response.body().publisher();
+        var received = new ByteArrayOutputStream();
+        var done = new CompletableFuture<Void>();
+        publisher.subscribe(new Flow.Subscriber<>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(ByteBuffer item) {
+                var bytes = new byte[item.remaining()];
+                item.get(bytes);
+                received.writeBytes(bytes);
+                subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                done.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                done.complete(null);
+            }
+        });
+        done.get(1, TimeUnit.MINUTES);
+        assertThat(received.toByteArray()).isEqualTo(body);
+
+        var second = new CompletableFuture<Void>();
+        publisher.subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+            }
+
+            @Override
+            public void onNext(ByteBuffer item) {
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                second.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                second.complete(null);
+            }
+        });
+        assertThat(second.isCompletedExceptionally()).isTrue();
+    }
+
+    @Test
+    void publisherRequestBodyIsSentChunked() throws Exception {
+        var publisher = new ListPublisher(List.of("hello", " world"));
+        var request = HttpRequest.post(
+            "http://" + TEST_HOST + "/upload",
+            HttpRequestBody.from(publisher, HttpContentType.of("text/plain", StandardCharsets.UTF_8))
+        );
+
+        TestUriConnector.TestAsyncByteChannel channel = connector.createChannel(request.uri());
+
+        channel.addReadableBytes(StandardCharsets.UTF_8.encode("""
+            HTTP/1.1 204 No Content\r
+            \r
+            """));
+
+        var response = client.executeAsync(request)
+            .toCompletableFuture().get(1, TimeUnit.MINUTES);
+        assertThat(response.statusCode()).isEqualTo(204);
+        response.body().close();
+
+        var content = channel.getWrittenBytes()
+            .map(b -> StandardCharsets.UTF_8.decode(b).toString())
+            .collect(Collectors.joining(""))
+            .block(Duration.ofMinutes(1));
+        assertThat(content).isEqualTo("""
+            POST /upload HTTP/1.1\r
+            Host: %s\r
+            Transfer-Encoding: chunked\r
+            Content-Type: text/plain; charset=UTF-8\r
+            \r
+            5\r
+            hello\r
+            6\r
+             world\r
+            0\r
+            \r
+            """.formatted(TEST_HOST));
+        // Credit was only given one packet at a time
+        assertThat(publisher.maxOutstanding.get()).isEqualTo(1);
+    }
+
+    /**
+     * Publishes strings as packets, honouring demand, and tracks how much credit it was given at once.
+     */
+    private static final class ListPublisher implements Flow.Publisher<ByteBuffer> {
+        private final List<String> items;
+        private final AtomicInteger maxOutstanding = new AtomicInteger();
+
+        private ListPublisher(List<String> items) {
+            this.items = items;
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                private final AtomicLong outstanding = new AtomicLong();
+                private int next;
+
+                @Override
+                public synchronized void request(long n) {
+                    maxOutstanding.accumulateAndGet((int) outstanding.addAndGet(n), Math::max);
+                    while (outstanding.get() > 0 && next < items.size()) {
+                        outstanding.decrementAndGet();
+                        subscriber.onNext(StandardCharsets.UTF_8.encode(items.get(next++)));
+                    }
+                    if (next == items.size()) {
+                        // Complete once, right after the last item
+                        next++;
+                        subscriber.onComplete();
+                    }
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+        }
+    }
 }
@@ -100,6 +100,7 @@ public class TestUriConnector implements UriConnector {
     }
 
     public static final class TestAsyncByteChannel implements AsynchronousByteChannel {
+        private static final ByteBuffer END_OF_STREAM = ByteBuffer.allocate(0);
 
         private final ExecutorService executor;
         private final Runnable closeNotification;
@@ -119,6 +120,13 @@ public class TestUriConnector implements UriConnector {
             reads.add(buffer);
         }
 
+        /**
+         * Make every read after the bytes added so far return end-of-stream.
+         */
+        public void addEndOfStream() {
+            reads.add(END_OF_STREAM);
+        }
+
         public Flux<ByteBuffer> getWrittenBytes() {
             return writes.asFlux();
         }
@@ -130,19 +138,28 @@ public class TestUriConnector implements UriConnector {
             }
             executor.submit(() -> {
                 try {
-                    var message = leftoverRead != null
+                    var next = leftoverRead != null
                         ? leftoverRead
-                        : reads.takeFirst().slice();
+                        : reads.takeFirst();
                     leftoverRead = null;
                     if (closed.get()) {
                         throw new AsynchronousCloseException();
                     }
-                    dst.put(message);
+                    if (next == END_OF_STREAM) {
+                        leftoverRead = END_OF_STREAM;
+                        reading.set(false);
+                        handler.completed(-1, attachment);
+                        return;
+                    }
+                    var message = next.slice();
+                    int count = Math.min(dst.remaining(), message.remaining());
+                    dst.put(message.slice(message.position(), count));
+                    message.position(message.position() + count);
                     if (message.hasRemaining()) {
                         leftoverRead = message;
                     }
                     reading.set(false);
-                    handler.completed(message.position(), attachment);
+                    handler.completed(count, attachment);
                 } catch (Exception e) {
                     reading.set(false);
                     handler.failed(e, attachment);
@@ -194,6 +211,8 @@ public class TestUriConnector implements UriConnector {
         @Override
         public void close() {
             if (this.closed.compareAndSet(false, true)) {
+                // Wake a pending read, which then fails like it would on a real channel
+                reads.addFirst(END_OF_STREAM);
                 var emitResult = writes.tryEmitComplete();
                 if (emitResult.isFailure()) {
                     this.closeNotification.run();